@@ -0,0 +1,100 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.cli;
+
+import static java.util.Arrays.asList;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * The agent command starts a {@link KeyAgent} in the foreground, or stops a 
+ * running agent. While the agent is running, master keys derived by the 'connect'
+ * command are kept in memory and re-used by subsequent invocations.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class AgentCommand extends Command {
+	@Override
+	public CommandScope getRequiredCommandScope() {	
+		return CommandScope.ANY;
+	}
+	
+	@Override
+	public int execute(String[] operationArgs) throws Exception {
+		OptionParser parser = new OptionParser();	
+		OptionSpec<Integer> optionTtl = parser.acceptsAll(asList("t", "ttl")).withRequiredArg().ofType(Integer.class);
+		OptionSpec<Void> optionStop = parser.acceptsAll(asList("s", "stop"));
+		
+		OptionSet options = parser.parse(operationArgs);	
+		
+		// --stop
+		if (options.has(optionStop)) {
+			return stopAgent();
+		}
+		
+		// --ttl=<sec>
+		long ttl = KeyAgent.DEFAULT_TTL;
+		
+		if (options.has(optionTtl)) {
+			ttl = options.valueOf(optionTtl)*1000L;
+		}
+		
+		return startAgent(ttl);
+	}
+
+	private int startAgent(long ttl) throws Exception {
+		KeyAgentClient runningKeyAgentClient = KeyAgentClient.getInstance(KeyAgent.getDefaultAgentFile());
+		
+		if (runningKeyAgentClient != null && runningKeyAgentClient.isAgentRunning()) {
+			throw new Exception("Key agent already running (agent file " + KeyAgent.getDefaultAgentFile() + "). Use --stop to stop it.");
+		}
+		
+		// A stale agent file (e.g. after a crash) is overwritten by the new agent
+		final KeyAgent keyAgent = new KeyAgent(KeyAgent.getDefaultAgentFile(), ttl);
+		keyAgent.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				keyAgent.stop();
+			}
+		});
+		
+		out.println("Key agent started. Master keys expire after " + ttl/1000 + " seconds.");
+		out.flush();
+		
+		keyAgent.run();
+		return 0;
+	}
+
+	private int stopAgent() {
+		KeyAgentClient keyAgentClient = KeyAgentClient.getInstance(KeyAgent.getDefaultAgentFile());
+		
+		if (keyAgentClient != null && keyAgentClient.stopAgent()) {
+			out.println("Key agent stopped.");
+		}
+		else {
+			KeyAgent.getDefaultAgentFile().delete();
+			out.println("No key agent running.");
+		}
+		
+		return 0;
+	}
+}
@@ -46,6 +46,7 @@ public abstract class Command {
 	protected File localDir;
 	protected Client client;
 	protected PrintStream out;
+	protected KeyAgentClient keyAgentClient;
 
 	/**
 	 * This method implements the command-specific option-parsing, operation calling 
@@ -86,4 +87,12 @@ public abstract class Command {
 	public void setOut(PrintStream out) {
 		this.out = out;
 	}
+
+	/**
+	 * Sets the client of a running {@link KeyAgent}, or <tt>null</tt> if 
+	 * no agent is running.
+	 */
+	public void setKeyAgentClient(KeyAgentClient keyAgentClient) {
+		this.keyAgentClient = keyAgentClient;
+	}
 }
@@ -213,6 +213,7 @@ public class CommandLineClient extends Client {
 		command.setClient(this);
 		command.setOut(out);
 		command.setLocalDir(localDir);
+		command.setKeyAgentClient(KeyAgentClient.getInstance(KeyAgent.getDefaultAgentFile()));
 		
 		// Pre-init operations
 		if (command.getRequiredCommandScope() == INITIALIZED_LOCALDIR) { 
@@ -227,8 +228,15 @@ public class CommandLineClient extends Client {
 		}
 		
 		// Run!
-		int exitCode = command.execute(operationArgs);		
-		return exitCode;	
+		try {
+			int exitCode = command.execute(operationArgs);		
+			return exitCode;
+		}
+		finally {
+			if (config != null) {
+				config.closeDatabaseConnection();
+			}
+		}
 	}
 	
 	private void showUsageAndExit() throws IOException {
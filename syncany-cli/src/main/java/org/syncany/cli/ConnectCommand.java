@@ -22,6 +22,8 @@ import static java.util.Arrays.asList;
 import java.io.ByteArrayInputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -39,11 +41,12 @@ import org.syncany.connection.plugins.Plugin;
 import org.syncany.connection.plugins.Plugins;
 import org.syncany.crypto.CipherUtil;
 import org.syncany.crypto.SaltedSecretKey;
-import org.syncany.operations.ConnectOperation.ConnectOperationListener;
+import org.syncany.operations.ConnectOperation.ConnectOperationKeyCacheListener;
 import org.syncany.operations.ConnectOperation.ConnectOperationOptions;
 import org.syncany.operations.ConnectOperation.ConnectOperationResult;
 
-public class ConnectCommand extends AbstractInitCommand implements ConnectOperationListener {
+public class ConnectCommand extends AbstractInitCommand implements ConnectOperationKeyCacheListener {
+	private static final Logger logger = Logger.getLogger(ConnectCommand.class.getSimpleName());
 	private static final Pattern LINK_PATTERN = Pattern.compile("^syncany://storage/1/(?:(not-encrypted/)(.+)|([^-]+-(.+)))$");
 	private static final int LINK_PATTERN_GROUP_NOT_ENCRYPTED_FLAG = 1;
 	private static final int LINK_PATTERN_GROUP_NOT_ENCRYPTED_ENCODED = 2;
@@ -66,6 +69,7 @@ public class ConnectCommand extends AbstractInitCommand implements ConnectOperat
 		ConnectOperationOptions operationOptions = parseConnectOptions(operationArgs);
 		ConnectOperationResult operationResult = client.connect(operationOptions, this);
 		
+		addMasterKeyToAgent(operationOptions.getConfigTO().getMasterKey());
 		printResults(operationResult);
 		
 		return 0;		
@@ -135,14 +139,20 @@ public class ConnectCommand extends AbstractInitCommand implements ConnectOperat
 			byte[] masterKeySalt = Base64.decodeBase64(masterKeySaltStr);
 			byte[] ciphertextBytes = Base64.decodeBase64(ciphertext);
 
-			String password = askPassword();
+			masterKey = getCachedMasterKeyCallback(masterKeySalt);
 			
-			notifyCreateMasterKey();
-			masterKey = CipherUtil.createMasterKey(password, masterKeySalt);
+			if (masterKey != null) {
+				plaintext = tryDecryptLink(ciphertextBytes, masterKey);
+			}
 			
-			ByteArrayInputStream encryptedStorageConfig = new ByteArrayInputStream(ciphertextBytes);
-			
-			plaintext = new String(CipherUtil.decrypt(encryptedStorageConfig, masterKey));					
+			if (plaintext == null) {
+				String password = askPassword();
+				
+				notifyCreateMasterKey();
+				masterKey = CipherUtil.createMasterKey(password, masterKeySalt);
+				
+				plaintext = new String(CipherUtil.decrypt(new ByteArrayInputStream(ciphertextBytes), masterKey));
+			}
 		}
 		else {
 			String encodedPlaintext = linkMatcher.group(LINK_PATTERN_GROUP_NOT_ENCRYPTED_ENCODED);
@@ -163,6 +173,16 @@ public class ConnectCommand extends AbstractInitCommand implements ConnectOperat
 		return connectionTO;			
 	}
 
+	private String tryDecryptLink(byte[] ciphertextBytes, SaltedSecretKey cachedMasterKey) {
+		try {
+			return new String(CipherUtil.decrypt(new ByteArrayInputStream(ciphertextBytes), cachedMasterKey));
+		}
+		catch (Exception e) {
+			logger.log(Level.INFO, "Cached master key cannot decrypt link, deriving master key from password instead.");
+			return null;
+		}
+	}
+
 	private String askPassword() { 
 		out.println();
 		
@@ -181,6 +201,22 @@ public class ConnectCommand extends AbstractInitCommand implements ConnectOperat
 		return askPassword();
 	}
 
+	@Override
+	public SaltedSecretKey getCachedMasterKeyCallback(byte[] masterKeySalt) {
+		if (keyAgentClient != null) {
+			return keyAgentClient.getMasterKey(masterKeySalt);
+		}
+		else {
+			return null;
+		}
+	}
+	
+	private void addMasterKeyToAgent(SaltedSecretKey masterKey) {
+		if (keyAgentClient != null && masterKey != null) {
+			keyAgentClient.addMasterKey(masterKey);
+		}
+	}
+
 	@Override
 	public void notifyCreateMasterKey() {
 		out.println();
@@ -289,8 +289,9 @@ public class InitCommand extends AbstractInitCommand implements InitOperationLis
 		ChunkerTO chunkerTO = new ChunkerTO();
 		
 		chunkerTO.setType(FixedChunker.TYPE);
+		chunkerTO.setVersion(ChunkerTO.CURRENT_VERSION);
 		chunkerTO.setSettings(new HashMap<String, String>());
-		chunkerTO.getSettings().put(FixedChunker.PROPERTY_SIZE, "16");
+		chunkerTO.getSettings().put(FixedChunker.PROPERTY_SIZE, "2048");
 		
 		return chunkerTO;
 	}
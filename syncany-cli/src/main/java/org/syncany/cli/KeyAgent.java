@@ -0,0 +1,287 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.cli;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.SaltedSecretKey;
+import org.syncany.util.StringUtil;
+
+/**
+ * The key agent holds derived master keys in memory, so that subsequent command line
+ * invocations do not have to re-derive them from the password. Deriving the master key
+ * is deliberately expensive (see {@link CipherUtil#createMasterKey(String, byte[]) createMasterKey()}),
+ * and is therefore worth avoiding if many repositories are connected in a row.
+ * 
+ * <p>The agent listens on a loopback socket on a random port. Port and a random access
+ * token are written to the agent file, which is only readable by the current user. Every
+ * request must present this token. Master keys are indexed by their salt and expire after
+ * a configurable time to live.
+ * 
+ * <p>The protocol is line-based: Each request is a single line of the form
+ * <tt>&lt;token&gt; &lt;command&gt; [&lt;args&gt;]</tt>, answered by a single line:
+ * <ul>
+ *  <li><tt>GET &lt;salt&gt;</tt> returns <tt>KEY &lt;key&gt;</tt> or <tt>NONE</tt></li>
+ *  <li><tt>PUT &lt;salt&gt; &lt;key&gt;</tt> returns <tt>OK</tt></li>
+ *  <li><tt>PING</tt> returns <tt>OK</tt></li>
+ *  <li><tt>STOP</tt> returns <tt>OK</tt> and shuts down the agent</li>
+ * </ul>
+ * 
+ * <p>Salts and keys are hex-encoded. The client side is implemented by {@link KeyAgentClient}.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class KeyAgent {
+	private static final Logger logger = Logger.getLogger(KeyAgent.class.getSimpleName());
+	
+	public static final long DEFAULT_TTL = 60*60*1000L; // 1 hour
+	
+	/*package*/ static final String PROPERTY_PORT = "port";
+	/*package*/ static final String PROPERTY_TOKEN = "token";
+	
+	/*package*/ static final String COMMAND_GET = "GET";
+	/*package*/ static final String COMMAND_PUT = "PUT";
+	/*package*/ static final String COMMAND_PING = "PING";
+	/*package*/ static final String COMMAND_STOP = "STOP";
+	
+	/*package*/ static final String RESPONSE_KEY = "KEY";
+	/*package*/ static final String RESPONSE_NONE = "NONE";
+	/*package*/ static final String RESPONSE_OK = "OK";
+	/*package*/ static final String RESPONSE_ERROR = "ERROR";
+	
+	private static final int TOKEN_SIZE = 32;
+	private static final int SOCKET_TIMEOUT = 5000;
+	
+	private File agentFile;
+	private long ttl;
+	private String token;
+	private ServerSocket serverSocket;
+	private Map<String, MasterKeyEntry> masterKeys;
+	
+	public KeyAgent(File agentFile, long ttl) {
+		this.agentFile = agentFile;
+		this.ttl = ttl;
+		this.token = StringUtil.toHex(CipherUtil.createRandomArray(TOKEN_SIZE));
+		this.serverSocket = null;
+		this.masterKeys = new HashMap<String, MasterKeyEntry>();
+	}
+	
+	/**
+	 * Binds the agent to a random loopback port and writes the agent file. Requests
+	 * are not handled until {@link #run()} is called. 
+	 */
+	public void start() throws IOException {
+		serverSocket = new ServerSocket(0, 0, InetAddress.getByName(null));		
+		writeAgentFile();
+		
+		logger.log(Level.INFO, "Key agent listening on port " + serverSocket.getLocalPort() + ", agent file " + agentFile);
+	}
+	
+	/**
+	 * Handles requests until the agent is stopped, either by a <tt>STOP</tt> request or
+	 * by calling {@link #stop()}. Requests are handled one after the other; each of them
+	 * only takes a few microseconds.
+	 */
+	public void run() throws IOException {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket clientSocket = serverSocket.accept();
+				handleConnection(clientSocket);
+			}
+			catch (SocketException e) {
+				if (!serverSocket.isClosed()) {
+					throw e;
+				}
+			}
+		}
+	}
+	
+	public synchronized void stop() {
+		logger.log(Level.INFO, "Stopping key agent ...");
+		
+		try {
+			serverSocket.close();
+		}
+		catch (IOException e) {
+			logger.log(Level.WARNING, "Cannot close key agent socket", e);
+		}
+		
+		agentFile.delete();
+		masterKeys.clear();
+	}
+	
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+	
+	private void writeAgentFile() throws IOException {
+		agentFile.getParentFile().mkdirs();
+		agentFile.delete();
+		
+		// Create file first, restrict permissions, then write token
+		agentFile.createNewFile();
+		restrictToOwner(agentFile);
+		
+		Properties agentProperties = new Properties();
+		
+		agentProperties.setProperty(PROPERTY_PORT, Integer.toString(serverSocket.getLocalPort()));
+		agentProperties.setProperty(PROPERTY_TOKEN, token);
+		
+		OutputStream agentFileOutputStream = new FileOutputStream(agentFile);
+		
+		try {
+			agentProperties.store(agentFileOutputStream, "Syncany key agent");
+		}
+		finally {
+			agentFileOutputStream.close();
+		}
+	}
+
+	private void restrictToOwner(File file) throws IOException {
+		try {
+			Files.setPosixFilePermissions(file.toPath(), EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+		}
+		catch (UnsupportedOperationException e) {
+			file.setReadable(false, false);
+			file.setWritable(false, false);
+			file.setReadable(true, true);
+			file.setWritable(true, true);
+		}
+	}
+
+	private void handleConnection(Socket clientSocket) {
+		try {
+			clientSocket.setSoTimeout(SOCKET_TIMEOUT);
+			
+			BufferedReader requestReader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), "UTF-8"));
+			PrintWriter responseWriter = new PrintWriter(clientSocket.getOutputStream(), true);
+			
+			String request = requestReader.readLine();
+			
+			if (request != null) {
+				responseWriter.println(handleRequest(request));
+			}
+		}
+		catch (IOException e) {
+			logger.log(Level.WARNING, "Key agent request failed", e);
+		}
+		finally {
+			try {
+				clientSocket.close();
+			}
+			catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+	
+	/*package*/ synchronized String handleRequest(String request) {
+		String[] requestParts = request.trim().split(" ");
+		
+		if (requestParts.length < 2 || !isValidToken(requestParts[0])) {
+			logger.log(Level.WARNING, "Key agent request with invalid token rejected.");
+			return RESPONSE_ERROR;
+		}
+		
+		removeExpiredMasterKeys();
+		
+		String command = requestParts[1];
+
+		if (COMMAND_GET.equals(command) && requestParts.length == 3) {
+			MasterKeyEntry masterKeyEntry = masterKeys.get(requestParts[2]);
+			
+			if (masterKeyEntry != null) {
+				logger.log(Level.INFO, "Key agent: Master key for salt " + requestParts[2] + " found.");
+				return RESPONSE_KEY + " " + masterKeyEntry.masterKeyHex;
+			}
+			else {
+				logger.log(Level.INFO, "Key agent: No master key for salt " + requestParts[2] + ".");
+				return RESPONSE_NONE;
+			}
+		}
+		else if (COMMAND_PUT.equals(command) && requestParts.length == 4) {
+			logger.log(Level.INFO, "Key agent: Adding master key for salt " + requestParts[2] + ", expires in " + ttl/1000 + " sec.");
+			
+			masterKeys.put(requestParts[2], new MasterKeyEntry(requestParts[3], System.currentTimeMillis() + ttl));
+			return RESPONSE_OK;
+		}
+		else if (COMMAND_PING.equals(command)) {
+			return RESPONSE_OK;
+		}
+		else if (COMMAND_STOP.equals(command)) {
+			stop();
+			return RESPONSE_OK;
+		}
+		else {
+			return RESPONSE_ERROR;
+		}		
+	}
+	
+	private boolean isValidToken(String requestToken) {
+		return MessageDigest.isEqual(token.getBytes(), requestToken.getBytes());
+	}
+	
+	private void removeExpiredMasterKeys() {
+		long now = System.currentTimeMillis();
+		Iterator<MasterKeyEntry> masterKeyIterator = masterKeys.values().iterator();
+		
+		while (masterKeyIterator.hasNext()) {
+			if (masterKeyIterator.next().expires <= now) {
+				masterKeyIterator.remove();
+			}
+		}
+	}
+	
+	private static class MasterKeyEntry {
+		private String masterKeyHex;
+		private long expires;
+		
+		public MasterKeyEntry(String masterKeyHex, long expires) {
+			this.masterKeyHex = masterKeyHex;
+			this.expires = expires;
+		}
+	}
+	
+	/**
+	 * Returns the default agent file location, i.e. <tt>~/.syncany/agent</tt>.
+	 */
+	public static File getDefaultAgentFile() {
+		return new File(System.getProperty("user.home"), ".syncany" + File.separator + "agent");
+	}
+}
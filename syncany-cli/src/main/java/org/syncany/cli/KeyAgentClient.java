@@ -0,0 +1,163 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.cli;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.syncany.crypto.SaltedSecretKey;
+import org.syncany.util.StringUtil;
+
+/**
+ * Client for a running {@link KeyAgent}. The client reads the agent's port and
+ * access token from the agent file and queries/stores master keys by their salt. 
+ * 
+ * <p>The agent is entirely optional: If it is not running or does not respond,
+ * all methods behave as if the key was not cached. Since an agent that is not 
+ * running is a normal situation (e.g. a stale agent file after a crash), this is
+ * only logged at a fine log level.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class KeyAgentClient {
+	private static final Logger logger = Logger.getLogger(KeyAgentClient.class.getSimpleName());
+	private static final int SOCKET_TIMEOUT = 2000;
+	
+	private int port;
+	private String token;
+	
+	private KeyAgentClient(int port, String token) {
+		this.port = port;
+		this.token = token;
+	}
+	
+	/**
+	 * Creates a client for the agent described by the given agent file, or returns 
+	 * <tt>null</tt> if the file does not exist (i.e. no agent is running) or cannot be read.
+	 */
+	public static KeyAgentClient getInstance(File agentFile) {
+		if (!agentFile.exists()) {
+			return null;
+		}
+		
+		try {
+			Properties agentProperties = new Properties();
+			InputStream agentFileInputStream = new FileInputStream(agentFile);
+			
+			try {
+				agentProperties.load(agentFileInputStream);
+			}
+			finally {
+				agentFileInputStream.close();
+			}
+			
+			int port = Integer.parseInt(agentProperties.getProperty(KeyAgent.PROPERTY_PORT));
+			String token = agentProperties.getProperty(KeyAgent.PROPERTY_TOKEN);
+			
+			if (token == null) {
+				throw new IOException("No token in agent file.");
+			}
+			
+			return new KeyAgentClient(port, token);
+		}
+		catch (Exception e) {
+			logger.log(Level.FINE, "Cannot read key agent file " + agentFile + ", ignoring agent: " + e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the master key for the given salt, or <tt>null</tt> if the agent
+	 * does not hold it (anymore). 
+	 */
+	public SaltedSecretKey getMasterKey(byte[] masterKeySalt) {
+		String saltHex = StringUtil.toHex(masterKeySalt);
+		String response = sendRequest(KeyAgent.COMMAND_GET + " " + saltHex);
+		
+		if (response != null && response.startsWith(KeyAgent.RESPONSE_KEY + " ")) {
+			byte[] masterKeyBytes = StringUtil.fromHex(response.substring(KeyAgent.RESPONSE_KEY.length() + 1));
+			return new SaltedSecretKey(new SecretKeySpec(masterKeyBytes, "RAW"), masterKeySalt);
+		}
+		else {
+			return null;
+		}
+	}
+	
+	/**
+	 * Hands the given master key to the agent. Returns <tt>true</tt> if the 
+	 * agent accepted the key, <tt>false</tt> otherwise.
+	 */
+	public boolean addMasterKey(SaltedSecretKey masterKey) {
+		String saltHex = StringUtil.toHex(masterKey.getSalt());
+		String masterKeyHex = StringUtil.toHex(masterKey.getEncoded());
+		
+		return KeyAgent.RESPONSE_OK.equals(sendRequest(KeyAgent.COMMAND_PUT + " " + saltHex + " " + masterKeyHex));
+	}
+	
+	/**
+	 * Returns <tt>true</tt> if the agent is running and accepts this client's token,
+	 * <tt>false</tt> if the agent file is stale or belongs to another agent.
+	 */
+	public boolean isAgentRunning() {
+		return KeyAgent.RESPONSE_OK.equals(sendRequest(KeyAgent.COMMAND_PING));
+	}
+	
+	public boolean stopAgent() {
+		return KeyAgent.RESPONSE_OK.equals(sendRequest(KeyAgent.COMMAND_STOP));
+	}
+	
+	private String sendRequest(String request) {
+		Socket socket = new Socket();
+		
+		try {
+			socket.connect(new InetSocketAddress(InetAddress.getByName(null), port), SOCKET_TIMEOUT);
+			socket.setSoTimeout(SOCKET_TIMEOUT);
+			
+			PrintWriter requestWriter = new PrintWriter(socket.getOutputStream(), true);
+			BufferedReader responseReader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			
+			requestWriter.println(token + " " + request);
+			return responseReader.readLine();
+		}
+		catch (IOException e) {
+			logger.log(Level.FINE, "Key agent not reachable on port " + port + ", ignoring agent: " + e.getMessage());
+			return null;
+		}
+		finally {
+			try {
+				socket.close();
+			}
+			catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+}
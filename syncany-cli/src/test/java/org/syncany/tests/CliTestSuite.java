@@ -22,6 +22,7 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 import org.syncany.tests.cli.CommandLineInterfaceTest;
 import org.syncany.tests.cli.DownCommandTest;
+import org.syncany.tests.cli.KeyAgentTest;
 import org.syncany.tests.cli.LogCommandTest;
 import org.syncany.tests.cli.LsRemoteCommandTest;
 import org.syncany.tests.cli.StatusCommandTest;
@@ -34,6 +35,7 @@ import org.syncany.tests.connection.plugins.PluginsTest;
 @SuiteClasses({
 	CommandLineInterfaceTest.class,
 	DownCommandTest.class,
+	KeyAgentTest.class,
 	LogCommandTest.class,
 	LsRemoteCommandTest.class,
 	StatusCommandTest.class,
@@ -0,0 +1,198 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Properties;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.cli.KeyAgent;
+import org.syncany.cli.KeyAgentClient;
+import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.SaltedSecretKey;
+import org.syncany.tests.util.TestFileUtil;
+
+public class KeyAgentTest {
+	private File tempDir;
+	private File agentFile;
+	
+	@Before
+	public void setup() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		agentFile = new File(tempDir, "agent");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+	
+	@Test
+	public void testNoAgentRunning() {
+		assertNull(KeyAgentClient.getInstance(agentFile));
+	}
+	
+	@Test
+	public void testAddAndGetMasterKey() throws Exception {
+		KeyAgent keyAgent = startAgent(KeyAgent.DEFAULT_TTL);
+		
+		try {
+			KeyAgentClient keyAgentClient = KeyAgentClient.getInstance(agentFile);
+			assertNotNull(keyAgentClient);
+			
+			SaltedSecretKey masterKey = createMasterKey();
+			
+			assertNull(keyAgentClient.getMasterKey(masterKey.getSalt()));
+			assertTrue(keyAgentClient.addMasterKey(masterKey));
+			
+			SaltedSecretKey cachedMasterKey = keyAgentClient.getMasterKey(masterKey.getSalt());
+			
+			assertNotNull(cachedMasterKey);
+			assertEquals(masterKey, cachedMasterKey);
+			assertNull(keyAgentClient.getMasterKey(new byte[] { 1, 2, 3 }));
+		}
+		finally {
+			keyAgent.stop();
+		}
+	}
+	
+	@Test
+	public void testMasterKeyExpires() throws Exception {
+		KeyAgent keyAgent = startAgent(300);
+		
+		try {
+			KeyAgentClient keyAgentClient = KeyAgentClient.getInstance(agentFile);
+			SaltedSecretKey masterKey = createMasterKey();
+			
+			assertTrue(keyAgentClient.addMasterKey(masterKey));
+			assertNotNull(keyAgentClient.getMasterKey(masterKey.getSalt()));
+			
+			Thread.sleep(500);
+			assertNull(keyAgentClient.getMasterKey(masterKey.getSalt()));
+		}
+		finally {
+			keyAgent.stop();
+		}
+	}
+	
+	@Test
+	public void testInvalidTokenRejected() throws Exception {
+		KeyAgent keyAgent = startAgent(KeyAgent.DEFAULT_TTL);
+		
+		try {
+			SaltedSecretKey masterKey = createMasterKey();
+			assertTrue(KeyAgentClient.getInstance(agentFile).addMasterKey(masterKey));
+			
+			// Overwrite token in agent file
+			Properties agentProperties = new Properties();
+			agentProperties.setProperty("port", Integer.toString(keyAgent.getPort()));
+			agentProperties.setProperty("token", "invalid");
+			agentProperties.store(new FileOutputStream(agentFile), null);
+			
+			KeyAgentClient invalidKeyAgentClient = KeyAgentClient.getInstance(agentFile);
+			
+			assertNull(invalidKeyAgentClient.getMasterKey(masterKey.getSalt()));
+			assertFalse(invalidKeyAgentClient.addMasterKey(masterKey));
+			assertFalse(invalidKeyAgentClient.stopAgent());
+		}
+		finally {
+			keyAgent.stop();
+		}
+	}
+	
+	@Test
+	public void testStopAgent() throws Exception {
+		startAgent(KeyAgent.DEFAULT_TTL);
+		KeyAgentClient keyAgentClient = KeyAgentClient.getInstance(agentFile);
+		
+		assertTrue(keyAgentClient.stopAgent());
+		assertFalse(agentFile.exists());
+		
+		// Agent gone; client must not fail
+		assertNull(keyAgentClient.getMasterKey(new byte[] { 1, 2, 3 }));
+	}
+	
+	@Test
+	public void testStaleAgentFile() throws Exception {
+		KeyAgent keyAgent = startAgent(KeyAgent.DEFAULT_TTL);
+		KeyAgentClient keyAgentClient = KeyAgentClient.getInstance(agentFile);
+		
+		assertTrue(keyAgentClient.isAgentRunning());
+		
+		// Simulate a crashed agent: the socket is gone, the agent file is left behind
+		Properties agentProperties = new Properties();
+		agentProperties.setProperty("port", Integer.toString(keyAgent.getPort()));
+		agentProperties.setProperty("token", "stale");
+		
+		keyAgent.stop();
+		agentProperties.store(new FileOutputStream(agentFile), null);
+		
+		KeyAgentClient staleKeyAgentClient = KeyAgentClient.getInstance(agentFile);
+		
+		assertNotNull(staleKeyAgentClient);
+		assertFalse(staleKeyAgentClient.isAgentRunning());
+		assertNull(staleKeyAgentClient.getMasterKey(new byte[] { 1, 2, 3 }));
+		
+		// A new agent replaces the stale file
+		KeyAgent newKeyAgent = startAgent(KeyAgent.DEFAULT_TTL);
+		
+		try {
+			assertTrue(KeyAgentClient.getInstance(agentFile).isAgentRunning());
+		}
+		finally {
+			newKeyAgent.stop();
+		}
+	}
+	
+	private KeyAgent startAgent(long ttl) throws Exception {
+		final KeyAgent keyAgent = new KeyAgent(agentFile, ttl);
+		keyAgent.start();
+		
+		Thread keyAgentThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					keyAgent.run();
+				}
+				catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		
+		keyAgentThread.setDaemon(true);
+		keyAgentThread.start();
+		
+		return keyAgent;
+	}
+	
+	private SaltedSecretKey createMasterKey() {
+		return new SaltedSecretKey(new SecretKeySpec(CipherUtil.createRandomArray(64), "RAW"), CipherUtil.createRandomArray(64));
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.util.Random;
+
+/**
+ * Table-driven implementation of the cyclic polynomial rolling hash (also known as 
+ * <i>Buzhash</i>). Each byte is mapped to a random 32-bit value, and the checksum of a 
+ * block is the XOR of these values, each rotated by the distance of the byte to the end
+ * of the block. Rolling the checksum only requires two table lookups, two rotations 
+ * and two XOR operations, independent of the window size.
+ * 
+ * <p>Compared to the {@link Adler32Fingerprinter}, the checksum bits are distributed much
+ * more uniformly, in particular for low-entropy data such as text files.
+ * 
+ * <p><b>Note:</b> The lookup table determines the chunk boundaries of content based
+ * {@link Chunker}s, so it must never change. The returned value is always non-negative.
+ * 
+ * @see <a href="http://en.wikipedia.org/wiki/Rolling_hash#Cyclic_polynomial">Cyclic polynomial</a> at Wikipedia 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class BuzhashFingerprinter extends Fingerprinter {
+    private static final long TABLE_SEED = 0x42757a68617368L; // "Buzhash"
+    private static final int[] TABLE = createTable(TABLE_SEED);
+    
+    /**
+     * The current checksum.
+     */
+    protected int hash;
+    
+    /**
+     * The block from which the checksum is computed (circular buffer).
+     */
+    protected byte[] block;
+    
+    /**
+     * The index in {@link #block} of the oldest byte, i.e. the
+     * byte that is removed with the next {@link #roll(byte) roll()}.
+     */
+    protected int pos;
+    
+    /**
+     * The length of the block.
+     */
+    protected int len;
+
+    public BuzhashFingerprinter() {
+        this.hash = 0;
+        this.block = new byte[0];
+        this.pos = 0;
+        this.len = 0;
+    }
+    
+    @Override
+    public int getValue() {
+        return hash & 0x7fffffff;
+    }
+
+    @Override
+    public void reset() {
+        hash = 0;
+        pos = 0;
+        len = 0;
+    }
+
+    @Override
+    public void roll(byte bt) {
+        hash = Integer.rotateLeft(hash, 1) ^ Integer.rotateLeft(TABLE[block[pos] & 0xff], len) ^ TABLE[bt & 0xff];
+        block[pos] = bt;
+        
+        if (++pos == len) {
+            pos = 0;
+        }
+    }
+
+    @Override
+    public void check(byte[] buf, int off, int len) {
+        if (block.length != len) {
+            block = new byte[len];
+        }
+        
+        System.arraycopy(buf, off, block, 0, len);
+        reset();
+        
+        this.len = len;
+        
+        for (int i = 0; i < len; i++) {
+            hash = Integer.rotateLeft(hash, 1) ^ TABLE[block[i] & 0xff];
+        }
+    }
+    
+    private static int[] createTable(long seed) {
+        Random random = new Random(seed);
+        int[] table = new int[256];
+        
+        for (int i = 0; i < table.length; i++) {
+            table[i] = random.nextInt();
+        }
+        
+        return table;
+    }
+
+    @Override
+    public String toString() {
+        return "Buzhash";
+    }
+}
@@ -17,33 +17,85 @@
  */
 package org.syncany.chunk;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * A chunk represent a certain part of a file. It is created during the
  * deduplication process by a {@link Chunker}. 
  * 
+ * <p>A chunk is either backed by a byte array, or by a {@link ByteBuffer} view
+ * (e.g. of a memory-mapped file). In the latter case, the content is only copied
+ * to the heap when {@link #getContent()} is called.
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class Chunk {
     private byte[] checksum;
     private byte[] contents;
+    private ByteBuffer contentBuffer;
     private int size;
     private byte[] fileChecksum;
 
     /*package*/ Chunk(byte[] checksum, byte[] contents, int size, byte[] fileChecksum) {
         this.checksum = checksum;
         this.contents = contents;
+        this.contentBuffer = null;
         this.size = size;
         this.fileChecksum = fileChecksum;
     }
+    
+    /*package*/ Chunk(byte[] checksum, ByteBuffer contentBuffer, byte[] fileChecksum) {
+        this.checksum = checksum;
+        this.contents = null;
+        this.contentBuffer = contentBuffer;
+        this.size = contentBuffer.remaining();
+        this.fileChecksum = fileChecksum;
+    }
 
     public byte[] getChecksum() {
         return checksum;
     }
 
+    /**
+     * Returns the chunk's content. The returned array might be larger than the 
+     * actual chunk; only the first {@link #getSize()} bytes are valid.
+     * 
+     * <p>If the chunk is backed by a {@link ByteBuffer}, the content is copied
+     * to a new byte array on the first call.
+     */
     public byte[] getContent() {
+        if (contents == null && contentBuffer != null) {
+            contents = new byte[size];
+            contentBuffer.duplicate().get(contents);
+        }
+        
         return contents;
     }
 
+    /**
+     * Returns a chunk whose content stays valid after the chunker has emitted
+     * the next chunk. Array-backed chunks usually share the chunker's reused buffer
+     * and are therefore copied; buffer-backed chunks are immutable views and
+     * are returned as they are.
+     */
+    /*package*/ Chunk detach() {
+        if (contentBuffer != null) {
+            return this;
+        }
+
+        byte[] contentsCopy = (contents != null) ? Arrays.copyOf(contents, size) : null;
+        return new Chunk(checksum, contentsCopy, size, fileChecksum);
+    }
+
+    /**
+     * Returns the buffer view backing this chunk, or <tt>null</tt> if the chunk
+     * is backed by a byte array.
+     */
+    /*package*/ ByteBuffer getContentBuffer() {
+        return contentBuffer;
+    }
+
     public byte[] getFileChecksum() {
         return fileChecksum;
     }
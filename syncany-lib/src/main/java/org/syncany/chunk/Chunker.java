@@ -18,8 +18,19 @@
 package org.syncany.chunk;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.crypto.DigestProvider;
+import org.syncany.util.StringUtil;
 
 /**
  * The chunker implements a core part of the deduplication process by breaking
@@ -32,6 +43,73 @@ import java.util.Enumeration;
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public abstract class Chunker {	
+	private static final Logger logger = Logger.getLogger(Chunker.class.getSimpleName());
+	
+	/**
+	 * Minimum file size (in MB) from which on files are chunked using a {@link MappedChunkEnumeration},
+	 * if supported by the chunker implementation. A negative value disables memory mapping.
+	 */
+	public static final String PROPERTY_MAPPED_THRESHOLD = "mapped-threshold";
+	public static final long DEFAULT_MAPPED_THRESHOLD = 256L*1024*1024;
+	
+	/**
+	 * Minimum file size (in MB) from which on files are chunked by multiple threads using
+	 * a {@link ParallelChunkEnumeration}, if supported by the chunker implementation. Parallel 
+	 * chunking requires memory mapping. A negative value disables parallel chunking.
+	 * 
+	 * <p>Parallel chunking is disabled by default, because the chunk boundaries of a 
+	 * {@link ParallelChunkEnumeration} may differ from the sequential ones, which reduces
+	 * deduplication against files chunked sequentially.
+	 */
+	public static final String PROPERTY_PARALLEL_THRESHOLD = "parallel-threshold";
+	public static final long DEFAULT_PARALLEL_THRESHOLD = -1;
+	
+	/**
+	 * Defines how the file checksum is calculated, see {@link FileChecksumMode}. Valid values
+	 * are <tt>content</tt> (default) and <tt>chunks</tt>. 
+	 */
+	public static final String PROPERTY_FILE_CHECKSUM = "file-checksum";
+	public static final FileChecksumMode DEFAULT_FILE_CHECKSUM = FileChecksumMode.CONTENT;
+	
+	/**
+	 * Defines what the file checksum of a chunked file is calculated from. All clients of a
+	 * repository must use the same mode, because the file checksums are compared across clients.
+	 */
+	public static enum FileChecksumMode {
+		/**
+		 * The file checksum is the digest of the entire file content, i.e. the
+		 * content is digested twice: once per chunk, and once for the file.
+		 */
+		CONTENT,
+		
+		/**
+		 * The file checksum is the digest of the concatenated chunk checksums. Since
+		 * the chunk checksums are calculated anyway, this avoids digesting the file 
+		 * content a second time.
+		 */
+		CHUNKS
+	}
+	
+	static {
+		DigestProvider.install();
+	}
+	
+	protected long mappedThreshold = DEFAULT_MAPPED_THRESHOLD;
+	protected long parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+	protected int parallelThreads = Runtime.getRuntime().availableProcessors();
+	protected ExecutorService parallelExecutor = null;
+	protected FileChecksumMode fileChecksumMode = DEFAULT_FILE_CHECKSUM;
+	
+	/**
+	 * If a chunker is instantiated via the default constructor (e.g. via a config file),
+	 * it must be initialized using this method. The settings passed to the method depend
+	 * on the implementation of the chunker.
+	 * 
+	 * @param settings Implementation-specific setting map
+	 * @throws Exception If the given settings are invalid or insufficient for instantiation
+	 */
+	public abstract void init(Map<String, String> settings) throws Exception;
+	
     /**
      * Opens the given file and creates enumeration of {@link Chunk}s. This method 
      * should not read the file into memory at once, but instead read and emit new 
@@ -58,6 +136,202 @@ public abstract class Chunker {
      */
     public abstract String getChecksumAlgorithm();
     
+    /**
+     * Calculates the file checksum of the given file, exactly as it would be emitted with the last
+     * chunk by {@link #createChunks(File) createChunks()}. Depending on the {@link FileChecksumMode},
+     * the file is either digested as a whole, or chunked.
+     * 
+     * @param file The file to calculate the checksum for
+     * @return Returns the file checksum 
+     * @throws IOException If the file cannot be read
+     */
+    public byte[] createFileChecksum(File file) throws IOException {
+    	if (fileChecksumMode == FileChecksumMode.CONTENT) {
+    		try (InputStream fileInputStream = new FileInputStream(file)) {
+    			MessageDigest fileDigest = MessageDigest.getInstance(getChecksumAlgorithm());
+    			byte[] buffer = new byte[64*1024];
+    			int read;
+    			
+    			while ((read = fileInputStream.read(buffer)) != -1) {
+    				fileDigest.update(buffer, 0, read);
+    			}
+    			
+    			return fileDigest.digest();
+    		}
+    		catch (NoSuchAlgorithmException e) {
+    			throw new IOException("Cannot create checksum for file " + file, e);
+    		}
+    	}
+    	else {
+    		ChunkEnumeration chunks = createChunks(file);
+    		
+    		try {
+	    		byte[] fileChecksum = null;
+	    		
+	    		while (chunks.hasMoreElements()) {
+	    			Chunk chunk = chunks.nextElement();
+	    			
+	    			if (chunk == null) {
+	    				throw new IOException("Cannot read chunk from file " + file);
+	    			}
+	    			
+	    			fileChecksum = chunk.getFileChecksum();
+	    		}
+	    		
+	    		return fileChecksum;
+    		}
+    		finally {
+    			chunks.close();
+    		}
+    	}
+    }
+    
+    /**
+     * Sets the minimum file size (in bytes) from which on files are chunked using a 
+     * {@link MappedChunkEnumeration} (for chunkers that support it). A negative value
+     * disables memory mapping. 
+     */
+    public void setMappedThreshold(long mappedThreshold) {
+    	this.mappedThreshold = mappedThreshold;
+    }
+    
+    public long getMappedThreshold() {
+    	return mappedThreshold;
+    }
+    
+    /**
+     * Sets the minimum file size (in bytes) from which on files are chunked by multiple
+     * threads using a {@link ParallelChunkEnumeration} (for chunkers that support it). A 
+     * negative value disables parallel chunking.
+     */
+    public void setParallelThreshold(long parallelThreshold) {
+    	this.parallelThreshold = parallelThreshold;
+    }
+    
+    public long getParallelThreshold() {
+    	return parallelThreshold;
+    }
+    
+    /**
+     * Sets the number of threads used to chunk a single file using a {@link ParallelChunkEnumeration}.
+     * Defaults to the number of available processors.
+     */
+    public void setParallelThreads(int parallelThreads) {
+    	this.parallelThreads = parallelThreads;
+    }
+    
+    public int getParallelThreads() {
+    	return parallelThreads;
+    }
+    
+    /**
+     * Sets the executor used by {@link ParallelChunkEnumeration}s to chunk the segments of a 
+     * file. If set, the enumerations do not create their own thread pool, and the
+     * {@link #getParallelThreads() parallel threads} only limit the number of segments in 
+     * flight. The executor is not shut down by the chunker. If <tt>null</tt> (default), each
+     * parallel enumeration creates its own thread pool.
+     */
+    public void setParallelExecutor(ExecutorService parallelExecutor) {
+    	this.parallelExecutor = parallelExecutor;
+    }
+    
+    public ExecutorService getParallelExecutor() {
+    	return parallelExecutor;
+    }
+    
+    /**
+     * Sets how the file checksum is calculated; see {@link FileChecksumMode}.
+     */
+    public void setFileChecksumMode(FileChecksumMode fileChecksumMode) {
+    	this.fileChecksumMode = fileChecksumMode;
+    }
+    
+    public FileChecksumMode getFileChecksumMode() {
+    	return fileChecksumMode;
+    }
+    
+    /**
+     * Returns whether the given file should be chunked using a {@link MappedChunkEnumeration},
+     * i.e. whether it is at least as large as the {@link #getMappedThreshold() mapped threshold}.
+     */
+    protected boolean isMappedChunking(File file) {
+    	return mappedThreshold >= 0 && file.length() > 0 && file.length() >= mappedThreshold;
+    }
+    
+    /**
+     * Returns whether the given file should be chunked by multiple threads using a {@link ParallelChunkEnumeration},
+     * i.e. whether it is chunked using memory mapping, and is at least as large as the 
+     * {@link #getParallelThreshold() parallel threshold}.
+     */
+    protected boolean isParallelChunking(File file) {
+    	return isMappedChunking(file) && parallelThreshold >= 0 && parallelThreads > 1 && file.length() >= parallelThreshold;
+    }
+    
+    /**
+     * Reads the {@link #PROPERTY_MAPPED_THRESHOLD} from the given settings (if present).
+     * Implementations supporting memory-mapped chunking should call this from {@link #init(Map) init()}.
+     */
+    protected void initMappedThreshold(Map<String, String> settings) {
+    	String mappedThresholdStr = settings.get(PROPERTY_MAPPED_THRESHOLD);
+    	
+    	if (mappedThresholdStr != null) {
+    		long mappedThresholdMB = Long.parseLong(mappedThresholdStr);
+    		mappedThreshold = (mappedThresholdMB >= 0) ? mappedThresholdMB*1024*1024 : -1;
+    	}
+    }
+    
+    /**
+     * Reads the {@link #PROPERTY_PARALLEL_THRESHOLD} from the given settings (if present).
+     * Implementations supporting parallel chunking should call this from {@link #init(Map) init()}.
+     */
+    protected void initParallelThreshold(Map<String, String> settings) {
+    	String parallelThresholdStr = settings.get(PROPERTY_PARALLEL_THRESHOLD);
+    	
+    	if (parallelThresholdStr != null) {
+    		long parallelThresholdMB = Long.parseLong(parallelThresholdStr);
+    		parallelThreshold = (parallelThresholdMB >= 0) ? parallelThresholdMB*1024*1024 : -1;
+    	}
+    }
+    
+    /**
+     * Reads the {@link #PROPERTY_FILE_CHECKSUM} from the given settings (if present).
+     * All implementations should call this from {@link #init(Map) init()}.
+     */
+    protected void initFileChecksumMode(Map<String, String> settings) {
+    	String fileChecksumModeStr = settings.get(PROPERTY_FILE_CHECKSUM);
+    	
+    	if (fileChecksumModeStr != null) {
+    		fileChecksumMode = FileChecksumMode.valueOf(fileChecksumModeStr.toUpperCase());
+    	}
+    }
+    
+    /**
+     * Instantiates a chunker by its name using the default constructor. After creating
+     * a new chunker, it must be initialized using the {@link #init(Map) init()} method.  
+     * 
+     * <p>The given type attribute is mapped to fully qualified class name (FQCN) of the form
+     * <tt>org.syncany.chunk.XChunker</tt>, where <tt>X</tt> is the camel-cased type
+     * attribute.  
+     * 
+     * @param type Type/name of the chunker (corresponds to its camel case class name)
+     * @return Returns a new chunker, or <tt>null</tt> if the chunker cannot be found
+     */
+    public static Chunker getInstance(String type) {
+		String thisPackage = Chunker.class.getPackage().getName();
+		String camelCaseName = StringUtil.toCamelCase(type);
+		String fqClassName = thisPackage+"."+camelCaseName+Chunker.class.getSimpleName();
+		
+		// Try to load!
+		try {
+			Class<?> clazz = Class.forName(fqClassName);
+			return (Chunker) clazz.newInstance();
+		} 
+		catch (Exception ex) {
+			logger.log(Level.INFO, "Could not find chunker FQCN " + fqClassName, ex);
+			return null;
+		}		
+	}    
+    
     /**
      * The chunk enumeration is implemented by the actual chunkers and emits a new
      * chunk when {@link ChunkEnumeration#nextElement() nextElement()} is called. When no more 
@@ -124,6 +124,21 @@ public class CipherTransformer extends Transformer {
     	return new MultiCipherInputStream(in, cipherSession);    	
     }    
 
+    /**
+     * Returns the cipher specs used to encrypt new data.
+     */
+    public List<CipherSpec> getCipherSpecs() {
+    	return cipherSpecs;
+    }
+
+    /**
+     * Returns the cipher session used to derive and cache the secret keys, 
+     * e.g. to retrieve its cache statistics.
+     */
+    public CipherSession getCipherSession() {
+    	return cipherSession;
+    }
+
     @Override
     public String toString() {
         return (nextTransformer == null) ? "Cipher" : "Cipher-"+nextTransformer;
@@ -0,0 +1,118 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+/**
+ * Estimates whether data is worth compressing, based on the Shannon entropy of
+ * a sample of the data. Data that is already compressed or encrypted (e.g. JPEG,
+ * MP4 or ZIP content) has an entropy close to 8 bits per byte, and cannot be
+ * compressed any further. Compressing it only costs CPU time.
+ * 
+ * <p>Compressing transformers use this class to store such data uncompressed.
+ * Since a multichunk typically contains chunks of different files, the check
+ * is performed per block of data, and not per multichunk. 
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class CompressibilityEstimator {
+	/**
+	 * Entropy threshold (in bits per byte) above which data is considered incompressible. 
+	 * Text and typical binaries are well below this value; compressed data is typically
+	 * above 7.9 bits per byte. 
+	 */
+	public static final double INCOMPRESSIBLE_ENTROPY = 7.5;
+	
+	/**
+	 * Maximum number of bytes sampled to estimate the entropy of a block. 
+	 */
+	public static final int MAX_SAMPLE_SIZE = 4096;
+	
+	/**
+	 * Minimum number of bytes needed for a meaningful estimate. Smaller blocks
+	 * are always considered compressible. 
+	 */
+	public static final int MIN_SAMPLE_SIZE = 512;
+	
+	private static final double[] LOG2_TABLE = createLog2Table(MAX_SAMPLE_SIZE);
+	
+	/**
+	 * Estimates the Shannon entropy of the given data in bits per byte. If the
+	 * data is larger than {@link #MAX_SAMPLE_SIZE}, evenly distributed sample runs
+	 * are used instead of the full data.
+	 */
+	public static double estimateEntropy(byte[] buffer, int offset, int length) {
+		if (length <= 0) {
+			return 0;
+		}
+		
+		int[] histogram = new int[256];
+		int sampleSize = 0;
+		
+		if (length <= MAX_SAMPLE_SIZE) {
+			for (int i = offset; i < offset + length; i++) {
+				histogram[buffer[i] & 0xff]++;
+			}
+			
+			sampleSize = length;
+		}
+		else {
+			// Sample 16 runs of 256 bytes, so that byte patterns within a run are preserved
+			int runLength = MAX_SAMPLE_SIZE / 16;
+			long runDistance = (length - runLength) / 15;
+			
+			for (int run = 0; run < 16; run++) {
+				int runOffset = offset + (int) (run * runDistance);
+				
+				for (int i = runOffset; i < runOffset + runLength; i++) {
+					histogram[buffer[i] & 0xff]++;
+				}
+			}
+			
+			sampleSize = 16 * runLength;
+		}
+		
+		// H = log2(n) - 1/n * sum(c * log2(c))
+		double sum = 0;
+		
+		for (int count : histogram) {
+			if (count > 0) {
+				sum += count * LOG2_TABLE[count];
+			}
+		}
+		
+		return LOG2_TABLE[sampleSize] - sum / sampleSize;
+	}
+	
+	/**
+	 * Returns whether the given data is considered incompressible, i.e. whether
+	 * its estimated entropy exceeds {@link #INCOMPRESSIBLE_ENTROPY}. 
+	 */
+	public static boolean isIncompressible(byte[] buffer, int offset, int length) {
+		return length >= MIN_SAMPLE_SIZE && estimateEntropy(buffer, offset, length) > INCOMPRESSIBLE_ENTROPY;
+	}
+	
+	private static double[] createLog2Table(int maxValue) {
+		double[] log2Table = new double[maxValue + 1];
+		
+		for (int i = 1; i <= maxValue; i++) {
+			log2Table[i] = Math.log(i) / Math.log(2);
+		}
+		
+		return log2Table;
+	}
+}
@@ -20,9 +20,19 @@ package org.syncany.chunk;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.util.FileUtil;
 
 /**
  * The Deduper implements the core deduplication algorithm used by Syncany. 
@@ -35,6 +45,12 @@ import org.syncany.chunk.Chunker.ChunkEnumeration;
  * <p>This class does not maintain a chunk index itself. Instead, it calls a listener to
  * lookup a chunk, and skips further chunk processing if the chunk already exists. 
  * 
+ * <p>If more than one thread is configured, files are chunked and hashed by a pool of 
+ * worker threads ahead of time. The calling thread still delivers all {@link DeduperListener}
+ * events, one file after the other and in the order of the given file list. Listeners
+ * therefore do not need to be thread-safe, and observe exactly the same sequence of events
+ * as in the single-threaded case.
+ * 
  * <p>For a detailed description of the algorithm, please refer to chapter 5.3 of the thesis:
  * <i>"Minimizing remote storage usage and synchronization time using deduplication and
  * multichunking: Syncany as an example"</i>
@@ -43,14 +59,39 @@ import org.syncany.chunk.Chunker.ChunkEnumeration;
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class Deduper {	
+	private static final Logger logger = Logger.getLogger(Deduper.class.getSimpleName());
+	
+	/**
+	 * Default maximum number of bytes of chunk data the worker threads may read ahead 
+	 * of the listener, in total. The budget is split evenly among the files chunked 
+	 * ahead (twice the number of threads). A worker may always queue at least one chunk,
+	 * so the bound is exceeded only if single chunks are larger than a file's share.
+	 */
+	public static final long DEFAULT_MAX_PREFETCH_BYTES = 32*1024*1024;
+	
+	private static final Chunk END_OF_FILE = new Chunk(null, (byte[]) null, 0, null);
+	private static final Chunk READ_ERROR = new Chunk(null, (byte[]) null, 0, null);
+	
 	private Chunker chunker;
 	private MultiChunker multiChunker;
 	private Transformer transformer;
+	private int threads;
+	private long maxPrefetchBytes;
 
 	public Deduper(Chunker chunker, MultiChunker multiChunker, Transformer transformer) {		
+		this(chunker, multiChunker, transformer, 1);
+	}
+	
+	public Deduper(Chunker chunker, MultiChunker multiChunker, Transformer transformer, int threads) {		
+		this(chunker, multiChunker, transformer, threads, DEFAULT_MAX_PREFETCH_BYTES);
+	}
+	
+	public Deduper(Chunker chunker, MultiChunker multiChunker, Transformer transformer, int threads, long maxPrefetchBytes) {		
 		this.chunker = chunker;
 		this.multiChunker = multiChunker;
 		this.transformer = transformer;
+		this.threads = threads;
+		this.maxPrefetchBytes = maxPrefetchBytes;
 	}
 	
 	/**
@@ -64,8 +105,16 @@ public class Deduper {
 	 * @throws IOException If a file cannot be read or an unexpected exception occurs
 	 */
 	public void deduplicate(List<File> files, DeduperListener listener) throws IOException {
-		Chunk chunk = null;
-		MultiChunk multiChunk = null;
+		if (threads > 1 && files.size() > 1) {
+			deduplicateParallel(files, listener);
+		}
+		else {
+			deduplicateSequential(files, listener);
+		}
+	}	
+	
+	private void deduplicateSequential(List<File> files, DeduperListener listener) throws IOException {
+		MultiChunkCommitter committer = new MultiChunkCommitter(listener);
 		
 		for (File file : files) {
 			// Filter ignored files
@@ -77,13 +126,128 @@ public class Deduper {
 			
 			// Decide whether to index the contents
 			boolean dedupContents = listener.onFileStart(file);
+			byte[] fileChecksum = null;
 
 			if (dedupContents) {
 				// Create chunks from file
 				ChunkEnumeration chunksEnum = chunker.createChunks(file);
+				fileChecksum = committer.commitChunks(file, chunksEnum);
+			}
+
+			listener.onFileEnd(file, fileChecksum);
+		}
+
+		// Close and add last multichunk
+		committer.closeMultiChunk();
+	}
+	
+	private void deduplicateParallel(List<File> files, DeduperListener listener) throws IOException {
+		MultiChunkCommitter committer = new MultiChunkCommitter(listener);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ChunkerThreadFactory());
+		ExecutorService previousParallelExecutor = chunker.getParallelExecutor();
+		LinkedList<ChunkerTask> pendingTasks = new LinkedList<ChunkerTask>();
+		Iterator<File> fileIterator = files.iterator();
+		
+		int maxPendingTasks = 2*threads;
+		long maxPrefetchBytesPerTask = Math.max(1, maxPrefetchBytes / maxPendingTasks);
+		
+		logger.log(Level.FINE, "Deduplicating " + files.size() + " file(s) using " + threads + " chunker thread(s), prefetching up to " 
+				+ maxPrefetchBytes + " bytes ...");
+		
+		// Large files chunked in parallel use the chunker threads, instead of creating a pool per file
+		chunker.setParallelExecutor(executor);
+
+		try {
+			while (pendingTasks.size() < maxPendingTasks && fileIterator.hasNext()) {
+				pendingTasks.add(submitChunkerTask(executor, fileIterator.next(), maxPrefetchBytesPerTask));
+			}
+			
+			while (!pendingTasks.isEmpty()) {
+				ChunkerTask task = pendingTasks.removeFirst();
+				
+				if (fileIterator.hasNext()) {
+					pendingTasks.add(submitChunkerTask(executor, fileIterator.next(), maxPrefetchBytesPerTask));
+				}
+
+				// Filter ignored files
+				boolean fileAccepted = listener.onFileFilter(task.file);
+				
+				if (!fileAccepted) {
+					task.cancel();
+					continue;
+				}
+
+				// Decide whether to index the contents
+				boolean dedupContents = listener.onFileStart(task.file);
+				byte[] fileChecksum = null;
+				
+				if (dedupContents) {
+					// Use the prefetched chunks, or chunk file now if they cannot be used 
+					ChunkEnumeration chunksEnum = task.getChunks();
+					
+					if (chunksEnum == null) {
+						task.cancel();
+						chunksEnum = chunker.createChunks(task.file);
+					}
+					
+					fileChecksum = committer.commitChunks(task.file, chunksEnum);
+				}
+				else {
+					task.cancel();
+				}
+
+				listener.onFileEnd(task.file, fileChecksum);
+			}
 
+			// Close and add last multichunk
+			committer.closeMultiChunk();
+		}
+		finally {
+			for (ChunkerTask task : pendingTasks) {
+				task.cancel();
+			}
+			
+			executor.shutdownNow();
+			chunker.setParallelExecutor(previousParallelExecutor);
+		}
+	}
+	
+	private ChunkerTask submitChunkerTask(ExecutorService executor, File file, long maxPrefetchBytes) {
+		ChunkerTask task = new ChunkerTask(file, maxPrefetchBytes);
+		executor.execute(task);
+		
+		return task;
+	}
+	
+	/**
+	 * Adds the chunks of a file to the current multichunk, and notifies the listener
+	 * about new and existing chunks. The committer always runs in the thread that called 
+	 * {@link Deduper#deduplicate(List, DeduperListener) deduplicate()}.
+	 */
+	private class MultiChunkCommitter {
+		private DeduperListener listener;
+		private MultiChunk multiChunk;
+		
+		public MultiChunkCommitter(DeduperListener listener) {
+			this.listener = listener;
+			this.multiChunk = null;
+		}
+		
+		/**
+		 * Processes all chunks of the given enumeration and closes it. Returns the
+		 * file checksum of the last chunk, or <tt>null</tt> if no chunks were emitted.
+		 */
+		public byte[] commitChunks(File file, ChunkEnumeration chunksEnum) throws IOException {
+			Chunk chunk = null;
+			
+			try {
 				while (chunksEnum.hasMoreElements()) {
 					chunk = chunksEnum.nextElement();
+					
+					if (chunk == null) {
+						throw new IOException("Unable to read chunk from file " + file);
+					}
 
 					// old chunk
 					if (!listener.onChunk(chunk)) {
@@ -95,10 +259,7 @@ public class Deduper {
 					else {					
 						// - Check if multichunk full
 						if (multiChunk != null && multiChunk.isFull()) {
-							multiChunk.close();
-							listener.onMultiChunkClose(multiChunk);
-
-							multiChunk = null;
+							closeMultiChunk();
 						}
 
 						// - Open new multichunk if non-existent
@@ -112,36 +273,271 @@ public class Deduper {
 							listener.onMultiChunkOpen(multiChunk);
 						}
 
-						// - Add chunk data
-						multiChunk.write(chunk);						
+						// - Add chunk data (copies zero-copy chunks of mapped files to the heap)
+						try {
+							multiChunk.write(chunk);
+						}
+						catch (InternalError e) {
+							throw new IOException("File " + file + " was modified or truncated while it was mapped.", e);
+						}
+						
 						listener.onMultiChunkWrite(multiChunk, chunk);						
 					}
 
 					listener.onFileAddChunk(file, chunk);										
 				}
-
+			}
+			finally {
 				// Closing file is necessary!
 				chunksEnum.close(); 
 			}
+			
+			return (chunk != null) ? chunk.getFileChecksum() : null;
+		}
+		
+		public void closeMultiChunk() throws IOException {
+			if (multiChunk != null) {
+				multiChunk.close();
+				listener.onMultiChunkClose(multiChunk);
 
-			if (chunk != null) {			
-				listener.onFileEnd(file, chunk.getFileChecksum());
+				multiChunk = null;
 			}
-			else {
-				listener.onFileEnd(file, null);
+		}
+	}
+	
+	/**
+	 * Chunks a single file in a worker thread and hands the chunks to the committer 
+	 * via a queue bounded by the chunks' size in bytes. Only regular files are chunked; 
+	 * whether or not the chunks are actually used is still decided by the listener.
+	 * 
+	 * <p>To make sure that the chunks match the file properties the listener sees, the task
+	 * records the file's size and modification date before reading it. If these do not
+	 * match anymore once the committer reaches the file, the prefetched chunks are dropped
+	 * and the file is chunked again. Changes after that point are detected by the listener
+	 * just like in the sequential case.
+	 */
+	private class ChunkerTask implements Runnable {
+		private File file;
+		private ChunkQueue chunkQueue;
+		private CountDownLatch startedLatch;
+		
+		private volatile boolean cancelled;
+		private volatile ChunkEnumeration chunksEnum;
+		private volatile long startFileSize;
+		private volatile long startLastModified;
+		
+		public ChunkerTask(File file, long maxPrefetchBytes) {
+			this.file = file;
+			this.chunkQueue = new ChunkQueue(maxPrefetchBytes);
+			this.startedLatch = new CountDownLatch(1);
+			this.cancelled = false;
+		}
+		
+		@Override
+		public void run() {
+			ChunkEnumeration chunksEnum = openChunks();
+			
+			if (chunksEnum == null) {
+				return;
+			}
+			
+			// The committer blocks until it receives END_OF_FILE or READ_ERROR, so one of them must always be sent
+			Chunk terminalChunk = READ_ERROR;
+			
+			try {
+				while (!cancelled && chunksEnum.hasMoreElements()) {
+					Chunk chunk = chunksEnum.nextElement();
+					
+					if (chunk == null) {
+						return;
+					}
+					
+					chunkQueue.put(chunk.detach());
+				}
+				
+				terminalChunk = END_OF_FILE;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (Throwable e) {
+				logger.log(Level.WARNING, "Cannot chunk file " + file + " in chunker thread.", e);
+			}
+			finally {
+				try {
+					chunksEnum.close();
+				}
+				finally {
+					chunkQueue.putTerminal(terminalChunk);
+				}
+			}
+		}
+		
+		private ChunkEnumeration openChunks() {
+			try {
+				if (!cancelled && file.isFile() && !FileUtil.isSymlink(file)) {
+					startFileSize = file.length();
+					startLastModified = file.lastModified();
+					chunksEnum = chunker.createChunks(file);
+				}
+			}
+			catch (IOException e) {
+				logger.log(Level.FINE, "Cannot prefetch chunks of file " + file + "; file will be chunked by committer.", e);
+				chunksEnum = null;
+			}
+			finally {
+				startedLatch.countDown();
 			}
 			
-			// Reset chunk (if folder after chunk, the folder would have a checksum b/c of chunk.getFileChecksum())
-			chunk = null;
+			return chunksEnum;
 		}
 
-		// Close and add last multichunk
-		if (multiChunk != null) {
-			// Data
-			multiChunk.close();
-			listener.onMultiChunkClose(multiChunk);
+		/**
+		 * Returns an enumeration of the prefetched chunks, or <tt>null</tt> if they cannot 
+		 * be used, i.e. if the file was not chunked by the worker or if it has changed since. 
+		 */
+		public ChunkEnumeration getChunks() throws IOException {
+			try {
+				startedLatch.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for chunker thread.", e);
+			}
+			
+			if (chunksEnum == null) {
+				return null;
+			}
+			
+			if (startFileSize != file.length() || startLastModified != file.lastModified()) {
+				logger.log(Level.FINE, "File " + file + " changed while being chunked; discarding prefetched chunks.");
+				return null;
+			}
+			
+			return new PrefetchedChunkEnumeration();
+		}
+		
+		public void cancel() {
+			cancelled = true;
+			chunkQueue.clear(); // Unblock worker
+		}
+		
+		/**
+		 * Blocking queue of chunks that is bounded by the total size of the queued chunks, 
+		 * rather than by their number. A chunk is always accepted if the queue is empty.
+		 */
+		private class ChunkQueue {
+			private LinkedList<Chunk> chunks;
+			private long maxBytes;
+			private long queuedBytes;
+			
+			public ChunkQueue(long maxBytes) {
+				this.chunks = new LinkedList<Chunk>();
+				this.maxBytes = maxBytes;
+				this.queuedBytes = 0;
+			}
+			
+			public synchronized void put(Chunk chunk) throws InterruptedException {
+				while (!cancelled && !chunks.isEmpty() && queuedBytes + chunk.getSize() > maxBytes) {
+					wait();
+				}
+				
+				if (!cancelled) {
+					chunks.add(chunk);
+					queuedBytes += chunk.getSize();
+					
+					notifyAll();
+				}
+			}
+			
+			/**
+			 * Adds {@link Deduper#END_OF_FILE END_OF_FILE} or {@link Deduper#READ_ERROR READ_ERROR}
+			 * without waiting for space in the queue, so the worker cannot block (or be interrupted) 
+			 * before the committer is notified.
+			 */
+			public synchronized void putTerminal(Chunk terminalChunk) {
+				if (!cancelled) {
+					chunks.add(terminalChunk);
+					notifyAll();
+				}
+			}
+			
+			public synchronized Chunk take() throws InterruptedException {
+				while (chunks.isEmpty()) {
+					wait();
+				}
+				
+				Chunk chunk = chunks.removeFirst();
+				queuedBytes -= chunk.getSize();
+				
+				notifyAll();
+				return chunk;
+			}
+			
+			public synchronized void clear() {
+				chunks.clear();
+				queuedBytes = 0;
+				
+				notifyAll();
+			}
+		}
+		
+		private class PrefetchedChunkEnumeration implements ChunkEnumeration {
+			private Chunk nextChunk;
+			private boolean nextChunkTaken;
+			
+			public PrefetchedChunkEnumeration() {
+				this.nextChunk = null;
+				this.nextChunkTaken = false;
+			}
+			
+			@Override
+			public boolean hasMoreElements() {
+				if (!nextChunkTaken) {
+					nextChunk = takeChunk();
+					nextChunkTaken = true;
+				}
+				
+				return nextChunk != END_OF_FILE;
+			}
+
+			@Override
+			public Chunk nextElement() {
+				if (!hasMoreElements()) {
+					return null;
+				}
+				
+				nextChunkTaken = false;
+				return nextChunk;
+			}
+			
+			private Chunk takeChunk() {
+				try {
+					Chunk chunk = chunkQueue.take();
+					return (chunk != READ_ERROR) ? chunk : null;
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
 
-			multiChunk = null;
+			@Override
+			public void close() {
+				cancel();
+			}			
+		}
+	}
+	
+	private static class ChunkerThreadFactory implements ThreadFactory {
+		private static final AtomicInteger threadNumber = new AtomicInteger(1);
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Chunker-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			
+			return thread;
 		}		
-	}	
+	}
 }
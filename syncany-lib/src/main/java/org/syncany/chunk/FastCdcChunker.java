@@ -0,0 +1,439 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The FastCDC chunker is a content-based {@link Chunker} based on the paper of Wen Xia
+ * et al., 2016. Like the {@link TttdChunker}, it determines breakpoints based on the
+ * content of a file rather than on the offset, but it is considerably faster.
+ *
+ * <p>Instead of a window-based fingerprint (such as the {@link Adler32Fingerprinter}),
+ * FastCDC uses the <i>Gear</i> rolling hash, which only needs a shift, an addition and a
+ * table lookup per byte. Bytes before the minimum chunk size are skipped entirely. To
+ * keep the chunk sizes close to the average size (normalized chunking), a stricter
+ * mask is used before the average size is reached, and a looser mask afterwards.
+ * Chunks are never smaller than the minimum size (except the last one) and never
+ * larger than the maximum size.
+ *
+ * <p>The chunker reads files in large blocks through a {@link FileChannel}. The chunk
+ * buffer is reused, i.e. the contents returned by {@link Chunk#getContent()} are only
+ * valid until the next chunk is requested. Files larger than the {@link #getMappedThreshold() 
+ * mapped threshold} are chunked by the {@link FastCdcMappedEnumeration}, which emits zero-copy
+ * chunks of a memory-mapped file. If a {@link #getParallelThreshold() parallel threshold} is set 
+ * (disabled by default), larger files are chunked by multiple threads using the {@link FastCdcParallelEnumeration}.
+ *
+ * <p><b>Note:</b> The gear table and masks determine the chunk boundaries, so they must
+ * never be changed for existing repositories.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ * @see <a href="https://www.usenix.org/conference/atc16/technical-sessions/presentation/xia">FastCDC: a Fast and Efficient Content-Defined Chunking Approach for Data Deduplication</a>,
+ *      2016, Wen Xia et al.
+ */
+public class FastCdcChunker extends Chunker {
+	private static final Logger logger = Logger.getLogger(FastCdcChunker.class.getSimpleName());
+
+	public static final int DEFAULT_AVG_CHUNK_SIZE = 512*1024;
+	public static final String DEFAULT_DIGEST_ALG = "SHA1";
+
+	public static final String TYPE = "fast-cdc";
+	public static final String PROPERTY_SIZE = "size";
+	public static final String PROPERTY_DIGEST_ALG = "digest";
+
+	private static final long GEAR_SEED = 0x5379_6e63_616e_7921L; // "Syncany!"
+	private static final int READ_BUFFER_FACTOR = 4;
+
+	private static final long[] GEAR = createGearTable(GEAR_SEED);
+
+	private int minChunkSize;
+	private int avgChunkSize;
+	private int maxChunkSize;
+	private long maskS;
+	private long maskL;
+	private String checksumAlgorithm;
+
+	/**
+	 * Creates a new FastCDC chunker with the default average chunk size (512 KB)
+	 * and the default checksum algorithm SHA1. This constructor is used by
+	 * {@link Chunker#getInstance(String) getInstance()}.
+	 */
+	public FastCdcChunker() {
+		this(DEFAULT_AVG_CHUNK_SIZE);
+	}
+
+	public FastCdcChunker(int avgChunkSize) {
+		this(avgChunkSize, DEFAULT_DIGEST_ALG);
+	}
+
+	/**
+	 * Creates a new FastCDC chunker. The minimum and maximum chunk sizes are derived
+	 * from the average chunk size as suggested in the paper (min = avg/4, max = avg*8).
+	 *
+	 * @param avgChunkSize Average (normal) chunk size in bytes; must be a power of two
+	 * @param checksumAlgorithm Algorithm to calculate the chunk and file checksums (e.g. SHA1)
+	 */
+	public FastCdcChunker(int avgChunkSize, String checksumAlgorithm) {
+		this(avgChunkSize/4, avgChunkSize, avgChunkSize*8, checksumAlgorithm);
+	}
+
+	public FastCdcChunker(int minChunkSize, int avgChunkSize, int maxChunkSize, String checksumAlgorithm) {
+		initParameters(minChunkSize, avgChunkSize, maxChunkSize, checksumAlgorithm);
+	}
+
+	/**
+	 * Initializes the FastCDC chunker using a settings map.
+	 * <br>
+	 * Optional settings are:
+	 * <ul>
+	 *  <li> key: {@link #PROPERTY_SIZE}, value: average chunk size in KB (power of two), encoded as String
+	 *  <li> key: {@link #PROPERTY_DIGEST_ALG}, value: chunk/file checksum algorithm (e.g. SHA1)
+	 *  <li> key: {@link #PROPERTY_MAPPED_THRESHOLD}, value: min. file size in MB for memory-mapped chunking
+	 *  <li> key: {@link #PROPERTY_PARALLEL_THRESHOLD}, value: min. file size in MB for parallel chunking
+	 *  <li> key: {@link #PROPERTY_FILE_CHECKSUM}, value: file checksum mode (<tt>content</tt> or <tt>chunks</tt>)
+	 * </ul>
+	 */
+	@Override
+	public void init(Map<String, String> settings) throws Exception {
+		if (settings == null) {
+			return;
+		}
+
+		int avgChunkSize = (settings.get(PROPERTY_SIZE) != null) ? Integer.parseInt(settings.get(PROPERTY_SIZE)) * 1024 : DEFAULT_AVG_CHUNK_SIZE;
+		String digestAlg = (settings.get(PROPERTY_DIGEST_ALG) != null) ? settings.get(PROPERTY_DIGEST_ALG) : DEFAULT_DIGEST_ALG;
+
+		initParameters(avgChunkSize/4, avgChunkSize, avgChunkSize*8, digestAlg);
+		initMappedThreshold(settings);
+		initParallelThreshold(settings);
+		initFileChecksumMode(settings);
+	}
+
+	private void initParameters(int minChunkSize, int avgChunkSize, int maxChunkSize, String checksumAlgorithm) {
+		if (Integer.bitCount(avgChunkSize) != 1) {
+			throw new IllegalArgumentException("Average chunk size must be a power of two.");
+		}
+
+		if (minChunkSize > avgChunkSize || avgChunkSize > maxChunkSize) {
+			throw new IllegalArgumentException("Chunk sizes must satisfy min <= avg <= max.");
+		}
+
+		int bits = Integer.numberOfTrailingZeros(avgChunkSize);
+
+		this.minChunkSize = minChunkSize;
+		this.avgChunkSize = avgChunkSize;
+		this.maxChunkSize = maxChunkSize;
+		this.maskS = createMask(bits + 2); // Normalization level 2
+		this.maskL = createMask(bits - 2);
+		this.checksumAlgorithm = checksumAlgorithm;
+	}
+
+	@Override
+	public ChunkEnumeration createChunks(File file) throws IOException {
+		if (isParallelChunking(file)) {
+			return new FastCdcParallelEnumeration(file);
+		}
+		else if (isMappedChunking(file)) {
+			return new FastCdcMappedEnumeration(new FileInputStream(file).getChannel());
+		}
+		else {
+			return new FastCdcEnumeration(new FileInputStream(file).getChannel());
+		}
+	}
+
+	@Override
+	public String getChecksumAlgorithm() {
+		return checksumAlgorithm;
+	}
+
+	@Override
+	public String toString() {
+		return "FastCDC-"+avgChunkSize+"-"+checksumAlgorithm;
+	}
+
+	/**
+	 * Determines the size of the next chunk in the given buffer, starting at the given offset.
+	 * The method returns the number of bytes that belong to the chunk, i.e. either the position
+	 * after the breakpoint found by the gear hash, the maximum chunk size, or the number of
+	 * available bytes (end of file).
+	 */
+	private int nextChunkSize(byte[] buf, int offset, int length) {
+		if (length <= minChunkSize) {
+			return length;
+		}
+
+		int normalSize = Math.min(avgChunkSize, length);
+		int maxSize = Math.min(maxChunkSize, length);
+
+		long hash = 0;
+		int pos = minChunkSize;
+
+		for (; pos < normalSize; pos++) {
+			hash = (hash << 1) + GEAR[buf[offset+pos] & 0xff];
+
+			if ((hash & maskS) == 0) {
+				return pos+1;
+			}
+		}
+
+		for (; pos < maxSize; pos++) {
+			hash = (hash << 1) + GEAR[buf[offset+pos] & 0xff];
+
+			if ((hash & maskL) == 0) {
+				return pos+1;
+			}
+		}
+
+		return maxSize;
+	}
+
+	/**
+	 * Same as {@link #nextChunkSize(byte[], int, int)}, but reads from a {@link ByteBuffer}
+	 * (e.g. a memory-mapped file) instead of an array.
+	 */
+	private int nextChunkSize(ByteBuffer buf, int offset, int length) {
+		if (length <= minChunkSize) {
+			return length;
+		}
+
+		int normalSize = Math.min(avgChunkSize, length);
+		int maxSize = Math.min(maxChunkSize, length);
+
+		long hash = 0;
+		int pos = minChunkSize;
+
+		for (; pos < normalSize; pos++) {
+			hash = (hash << 1) + GEAR[buf.get(offset+pos) & 0xff];
+
+			if ((hash & maskS) == 0) {
+				return pos+1;
+			}
+		}
+
+		for (; pos < maxSize; pos++) {
+			hash = (hash << 1) + GEAR[buf.get(offset+pos) & 0xff];
+
+			if ((hash & maskL) == 0) {
+				return pos+1;
+			}
+		}
+
+		return maxSize;
+	}
+
+	/**
+	 * Creates a mask with the given number of one-bits in the most significant
+	 * bits of the hash. Since the gear hash is shifted left for every byte, the
+	 * upper bits depend on the largest window (the last 64 bytes).
+	 */
+	private static long createMask(int bits) {
+		return (bits <= 0) ? 0 : -1L << (64 - bits);
+	}
+
+	private static long[] createGearTable(long seed) {
+		Random random = new Random(seed);
+		long[] gear = new long[256];
+
+		for (int i = 0; i < gear.length; i++) {
+			gear[i] = random.nextLong();
+		}
+
+		return gear;
+	}
+
+	public class FastCdcEnumeration implements ChunkEnumeration {
+		private FileChannel channel;
+		private boolean closed;
+		private boolean eof;
+
+		private byte[] readBuf;
+		private ByteBuffer readByteBuf;
+		private int readPos;
+		private int readLen;
+
+		private byte[] chunkBuf;
+
+		private MessageDigest chunkDigest;
+		private FileDigest fileDigest;
+
+		public FastCdcEnumeration(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.closed = false;
+			this.eof = false;
+
+			// Small files do not need a full-sized buffer (+1 byte to detect EOF)
+			int readBufSize = (int) Math.min((long) READ_BUFFER_FACTOR*maxChunkSize, channel.size()+1);
+
+			this.readBuf = new byte[readBufSize];
+			this.readByteBuf = ByteBuffer.wrap(readBuf);
+			this.readPos = 0;
+			this.readLen = 0;
+
+			this.chunkBuf = new byte[Math.min(maxChunkSize, readBufSize)];
+
+			try {
+				this.chunkDigest = MessageDigest.getInstance(checksumAlgorithm);
+				this.fileDigest = new FileDigest(checksumAlgorithm, fileChecksumMode);
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public boolean hasMoreElements() {
+			if (closed) {
+				return false;
+			}
+
+			try {
+				fillBuffer();
+				return readPos < readLen;
+			}
+			catch (IOException ex) {
+				if (logger.isLoggable(Level.WARNING)) {
+					logger.log(Level.WARNING, "Error while reading from file channel.", ex);
+				}
+
+				return false;
+			}
+		}
+
+		@Override
+		public Chunk nextElement() {
+			if (closed) {
+				return null;
+			}
+
+			try {
+				fillBuffer();
+
+				if (readPos == readLen) {
+					close();
+					closed = true;
+
+					return null;
+				}
+
+				// Find breakpoint and copy chunk to chunk buffer
+				int chunkSize = nextChunkSize(readBuf, readPos, readLen - readPos);
+
+				System.arraycopy(readBuf, readPos, chunkBuf, 0, chunkSize);
+				readPos += chunkSize;
+
+				// Close if this was the last bytes
+				if (eof && readPos == readLen) {
+					channel.close();
+					closed = true;
+				}
+
+				// Chunk and file checksum
+				chunkDigest.reset();
+				chunkDigest.update(chunkBuf, 0, chunkSize);
+				fileDigest.updateContent(chunkBuf, 0, chunkSize);
+
+				byte[] chunkChecksum = chunkDigest.digest();
+				fileDigest.updateChunk(chunkChecksum);
+
+				byte[] fileChecksum = (closed) ? fileDigest.digest() : null;
+
+				return new Chunk(chunkChecksum, chunkBuf, chunkSize, fileChecksum);
+			}
+			catch (IOException ex) {
+				logger.log(Level.SEVERE, "Error while retrieving next chunk.", ex);
+				return null;
+			}
+		}
+
+		@Override
+		public void close() {
+			try { channel.close(); }
+			catch (Exception e) { /* Not necessary */ }
+		}
+
+		/**
+		 * Makes sure that the read buffer contains at least one maximum chunk,
+		 * plus one byte to detect the end of the file. If not, the remaining bytes
+		 * are moved to the front of the buffer, and the buffer is filled.
+		 */
+		private void fillBuffer() throws IOException {
+			if (eof || readLen - readPos > maxChunkSize) {
+				return;
+			}
+
+			System.arraycopy(readBuf, readPos, readBuf, 0, readLen - readPos);
+
+			readByteBuf.clear();
+			readByteBuf.position(readLen - readPos);
+
+			while (!eof && readByteBuf.hasRemaining()) {
+				if (channel.read(readByteBuf) == -1) {
+					eof = true;
+				}
+			}
+
+			readPos = 0;
+			readLen = readByteBuf.position();
+		}
+	}
+
+	/**
+	 * Memory-mapped implementation of the FastCDC enumeration. Chunks are emitted as 
+	 * zero-copy views of the mapped file (see {@link MappedChunkEnumeration}). Chunk 
+	 * boundaries and checksums are identical to the ones created by the {@link FastCdcEnumeration}.
+	 */
+	public class FastCdcMappedEnumeration extends MappedChunkEnumeration {
+		public FastCdcMappedEnumeration(FileChannel channel) throws IOException {
+			super(channel, maxChunkSize, checksumAlgorithm, fileChecksumMode);
+		}
+
+		@Override
+		protected int nextChunkSize(ByteBuffer buffer, int offset, int length) {
+			return FastCdcChunker.this.nextChunkSize(buffer, offset, length);
+		}
+
+		@Override
+		protected int getMaxChunkSize() {
+			return maxChunkSize;
+		}
+	}
+
+	/**
+	 * Parallel implementation of the FastCDC enumeration, chunking segments of a file 
+	 * using multiple {@link FastCdcMappedEnumeration}s (see {@link ParallelChunkEnumeration}
+	 * for details on how the chunks differ from the {@link FastCdcEnumeration}).
+	 */
+	public class FastCdcParallelEnumeration extends ParallelChunkEnumeration {
+		public FastCdcParallelEnumeration(File file) throws IOException {
+			super(file, parallelExecutor, parallelThreads, maxChunkSize, checksumAlgorithm, fileChecksumMode);
+		}
+
+		@Override
+		protected MappedChunkEnumeration createMappedEnumeration(FileChannel channel) throws IOException {
+			return new FastCdcMappedEnumeration(channel);
+		}
+	}
+}
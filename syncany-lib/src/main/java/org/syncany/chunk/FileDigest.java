@@ -0,0 +1,75 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.syncany.chunk.Chunker.FileChecksumMode;
+
+/**
+ * Calculates the file checksum while a file is being chunked. Depending on the
+ * {@link FileChecksumMode}, the file checksum is either the digest of the entire file
+ * content, or the digest of the concatenated chunk checksums.
+ * 
+ * <p>Chunk enumerations pass both the file content and the chunk checksums to this
+ * class; whatever is irrelevant for the selected mode is ignored. That way, a chunk enumeration
+ * does not have to know which mode is selected.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+/*package*/ class FileDigest {
+	private MessageDigest digest;
+	private boolean chunkMode;
+
+	public FileDigest(String checksumAlgorithm, FileChecksumMode fileChecksumMode) throws NoSuchAlgorithmException {
+		this.digest = MessageDigest.getInstance(checksumAlgorithm);
+		this.chunkMode = fileChecksumMode == FileChecksumMode.CHUNKS;
+	}
+
+	public void updateContent(byte[] content, int offset, int length) {
+		if (!chunkMode) {
+			digest.update(content, offset, length);
+		}
+	}
+
+	public void updateContent(ByteBuffer content) {
+		if (!chunkMode) {
+			digest.update(content);
+		}
+	}
+
+	public void updateChunk(byte[] chunkChecksum) {
+		if (chunkMode) {
+			digest.update(chunkChecksum);
+		}
+	}
+
+	/**
+	 * Returns whether the file content is needed to calculate the file checksum,
+	 * i.e. if the file checksum is not derived from the chunk checksums.
+	 */
+	public boolean needsContent() {
+		return !chunkMode;
+	}
+
+	public byte[] digest() {
+		return digest.digest();
+	}
+}
@@ -22,6 +22,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,12 +43,23 @@ public class FixedChunker extends Chunker {
     private static final Logger logger = Logger.getLogger(FixedChunker.class.getSimpleName());   
 
     public static final String DEFAULT_DIGEST_ALG = "SHA1";
+    public static final int DEFAULT_CHUNK_SIZE = 2*1024*1024;
 	public static final String TYPE = "fixed";
 	public static final String PROPERTY_SIZE = "size";
+	public static final String PROPERTY_DIGEST_ALG = "digest";
 
     private int chunkSize;   
     private String checksumAlgorithm;
     
+    /**
+     * Creates a new fixed offset chunker with the default chunk size (2 MB) and the 
+     * default file/chunk checksum algorithm SHA1. This constructor is used by 
+     * {@link Chunker#getInstance(String) getInstance()}.
+     */
+    public FixedChunker() {
+    	this(DEFAULT_CHUNK_SIZE, DEFAULT_DIGEST_ALG);
+    }
+    
     /**
      * Creates a new fixed offset chunker with the default file/chunk 
      * checksum algorithm SHA1.
@@ -69,6 +81,33 @@ public class FixedChunker extends Chunker {
         this.checksumAlgorithm = checksumAlgorithm;        
     }
   
+    /**
+     * Initializes the fixed chunker using a settings map. 
+     * <br>
+     * Optional settings are: 
+     * <ul>
+     *  <li> key: {@link #PROPERTY_SIZE}, value: chunk size in KB, encoded as String
+     *  <li> key: {@link #PROPERTY_DIGEST_ALG}, value: chunk/file checksum algorithm (e.g. SHA1)
+     *  <li> key: {@link #PROPERTY_FILE_CHECKSUM}, value: file checksum mode (<tt>content</tt> or <tt>chunks</tt>)
+     * </ul>
+     */
+    @Override
+    public void init(Map<String, String> settings) throws Exception {
+    	if (settings == null) {
+    		return;
+    	}
+    	
+    	if (settings.get(PROPERTY_SIZE) != null) {
+    		chunkSize = Integer.parseInt(settings.get(PROPERTY_SIZE)) * 1024;
+    	}
+    	
+    	if (settings.get(PROPERTY_DIGEST_ALG) != null) {
+    		checksumAlgorithm = settings.get(PROPERTY_DIGEST_ALG);
+    	}
+    	
+    	initFileChecksumMode(settings);
+    }
+  
     @Override
     public ChunkEnumeration createChunks(File file) throws IOException {
     	return new FixedChunkEnumeration(new FileInputStream(file));
@@ -86,7 +125,7 @@ public class FixedChunker extends Chunker {
 
     public class FixedChunkEnumeration implements ChunkEnumeration {
     	private MessageDigest digest;
-        private MessageDigest fileDigest;    
+        private FileDigest fileDigest;    
         
         private InputStream in;           
         private byte[] buffer;
@@ -99,9 +138,7 @@ public class FixedChunker extends Chunker {
             
             try {
                 this.digest = MessageDigest.getInstance(checksumAlgorithm);
-                this.fileDigest = MessageDigest.getInstance(checksumAlgorithm);     
-                
-                this.fileDigest.reset();                                          
+                this.fileDigest = new FileDigest(checksumAlgorithm, fileChecksumMode);     
             }
             catch (Exception e) {
                 throw new RuntimeException(e);
@@ -145,12 +182,16 @@ public class FixedChunker extends Chunker {
                 digest.reset();
                 digest.update(buffer, 0, read);
                 
+                byte[] chunkChecksum = digest.digest();
+                
                 // File checksum
-                fileDigest.update(buffer, 0, read);                                
+                fileDigest.updateContent(buffer, 0, read);                                
+                fileDigest.updateChunk(chunkChecksum);
+                
                 byte[] fileChecksum = (closed) ? fileDigest.digest() : null;
 
                 // Create chunk
-                return new Chunk(digest.digest(), buffer, read, fileChecksum);
+                return new Chunk(chunkChecksum, buffer, read, fileChecksum);
             } 
             catch (IOException ex) {                
                 logger.log(Level.SEVERE, "Error while retrieving next chunk.", ex);
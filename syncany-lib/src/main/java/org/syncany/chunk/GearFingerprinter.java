@@ -0,0 +1,99 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.util.Random;
+
+/**
+ * Table-driven implementation of the Gear rolling hash, as used by the {@link FastCdcChunker}.
+ * Each byte is mapped to a random 32-bit value, and rolling the checksum only requires
+ * one shift, one addition and one table lookup: <em>h = (h &lt;&lt; 1) + G(X)</em>.
+ * 
+ * <p>Since the checksum is shifted left with every byte, a byte does not influence the
+ * checksum anymore after 32 rolls. The outgoing byte therefore never has to be removed 
+ * explicitly, and the block does not need to be buffered. For blocks shorter than 32 bytes,
+ * the bits of older bytes are masked out.
+ * 
+ * <p><b>Note:</b> The lookup table determines the chunk boundaries of content based
+ * {@link Chunker}s, so it must never change. The returned value is always non-negative.
+ * 
+ * @see <a href="https://www.usenix.org/conference/atc16/technical-sessions/presentation/xia">FastCDC paper</a>, 
+ *      2016, Wen Xia et al.
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class GearFingerprinter extends Fingerprinter {
+    private static final long TABLE_SEED = 0x47656172L; // "Gear"
+    private static final int[] TABLE = createTable(TABLE_SEED);
+    
+    /**
+     * The current checksum.
+     */
+    protected int hash;
+    
+    /**
+     * Mask to remove the bits of bytes outside of the block.
+     */
+    protected int mask;
+
+    public GearFingerprinter() {
+        this.hash = 0;
+        this.mask = -1;
+    }
+    
+    @Override
+    public int getValue() {
+        return (hash & mask) >>> 1;
+    }
+
+    @Override
+    public void reset() {
+        hash = 0;
+    }
+
+    @Override
+    public void roll(byte bt) {
+        hash = (hash << 1) + TABLE[bt & 0xff];
+    }
+
+    @Override
+    public void check(byte[] buf, int off, int len) {
+        reset();
+        
+        mask = (len < 32) ? (1 << len) - 1 : -1;
+        
+        for (int i = off; i < off + len; i++) {
+            hash = (hash << 1) + TABLE[buf[i] & 0xff];
+        }
+    }
+    
+    private static int[] createTable(long seed) {
+        Random random = new Random(seed);
+        int[] table = new int[256];
+        
+        for (int i = 0; i < table.length; i++) {
+            table[i] = random.nextInt();
+        }
+        
+        return table;
+    }
+
+    @Override
+    public String toString() {
+        return "Gear";
+    }
+}
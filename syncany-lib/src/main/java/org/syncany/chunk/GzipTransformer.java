@@ -29,11 +29,25 @@ import java.util.zip.GZIPOutputStream;
  * Implements a {@link Transformer} that transforms the input/output stream
  * using the Gzip compression algorithm.
  * 
+ * <p>Data that is {@link CompressibilityEstimator estimated to be incompressible} (e.g. 
+ * JPEG or ZIP content) is written using stored (uncompressed) deflate blocks, unless 
+ * disabled. The resulting stream is a regular Gzip stream in both cases.
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class GzipTransformer extends Transformer {
     public static final String TYPE = "gzip";
+    
+	/**
+	 * Whether data with a high entropy (e.g. already compressed data) is stored uncompressed 
+	 * without trying to compress it. Valid values are <tt>true</tt> (default) and <tt>false</tt>.
+	 */
+    public static final String PROPERTY_SKIP_INCOMPRESSIBLE = "skip-incompressible";
+    
+    private static final int INPUT_BUFFER_SIZE = 64*1024;
+    
 	private int level;
+	private boolean skipIncompressible;
     
     public GzipTransformer() {
         this(Deflater.DEFAULT_COMPRESSION, null);
@@ -44,42 +58,115 @@ public class GzipTransformer extends Transformer {
     }
     
     public GzipTransformer(int level, Transformer nextTransformer) {
+        this(level, true, nextTransformer);
+    }
+    
+    public GzipTransformer(int level, boolean skipIncompressible, Transformer nextTransformer) {
         super(nextTransformer);
         this.level = level;
+        this.skipIncompressible = skipIncompressible;
     }
     
+	/**
+	 * Initializes the Gzip transformer using a settings map. 
+	 * <br>
+	 * Optional settings are: 
+	 * <ul>
+	 *  <li> key: {@link #PROPERTY_SKIP_INCOMPRESSIBLE}, value: <tt>true</tt> or <tt>false</tt>
+	 * </ul>
+	 */
     @Override
     public void init(Map<String, String> settings) throws Exception {
-    	// Nothing here    	
+    	if (settings != null && settings.get(PROPERTY_SKIP_INCOMPRESSIBLE) != null) {
+    		skipIncompressible = Boolean.parseBoolean(settings.get(PROPERTY_SKIP_INCOMPRESSIBLE));
+    	}
     }
     
     @Override
     public OutputStream createOutputStream(OutputStream out) throws IOException {
         if (nextTransformer == null) {
-            return new GZIPOutputStreamEx(out, level);
+            return new GZIPOutputStreamEx(out, level, skipIncompressible);
         }
         else {
-            return new GZIPOutputStreamEx(nextTransformer.createOutputStream(out), level);
+            return new GZIPOutputStreamEx(nextTransformer.createOutputStream(out), level, skipIncompressible);
         }
     }
 
     @Override
     public InputStream createInputStream(InputStream in) throws IOException {
         if (nextTransformer == null) {
-            return new GZIPInputStream(in);
+            return new GZIPInputStream(in, INPUT_BUFFER_SIZE);
         }
         else {
-            return new GZIPInputStream(nextTransformer.createInputStream(in));
+            return new GZIPInputStream(nextTransformer.createInputStream(in), INPUT_BUFFER_SIZE);
         }
     }
     
     public static class GZIPOutputStreamEx extends GZIPOutputStream {
+        private static final int SAMPLE_BLOCK_SIZE = 64*1024;
+        
+        private int level;
+        private boolean skipIncompressible;
+        private int currentLevel;
+        
         /**
          * Level is 1-9 -- 1 being best speed, and 9 being best compression
          */
         public GZIPOutputStreamEx(OutputStream out, int level) throws IOException {
+            this(out, level, false);
+        }
+        
+        public GZIPOutputStreamEx(OutputStream out, int level, boolean skipIncompressible) throws IOException {
             super(out);
             def.setLevel(level);
+            
+            this.level = level;
+            this.skipIncompressible = skipIncompressible;
+            this.currentLevel = level;
+        }
+        
+        /**
+         * Writes the given data in blocks of at most 64 KB. If enabled, the compression level
+         * is switched to {@link Deflater#NO_COMPRESSION} for incompressible blocks.
+         */
+        @Override
+        public synchronized void write(byte[] buf, int off, int len) throws IOException {
+            if (!skipIncompressible) {
+                super.write(buf, off, len);
+                return;
+            }
+            
+            while (len > 0) {
+                int blockLength = Math.min(len, SAMPLE_BLOCK_SIZE);
+                int blockLevel = currentLevel;
+                
+                // Small writes (e.g. headers) keep the current level to avoid flushing the deflater too often
+                if (blockLength >= CompressibilityEstimator.MIN_SAMPLE_SIZE) {
+                    blockLevel = (CompressibilityEstimator.isIncompressible(buf, off, blockLength)) ? Deflater.NO_COMPRESSION : level;
+                }
+                
+                if (blockLevel != currentLevel) {
+                    setLevel(blockLevel);
+                }
+                
+                super.write(buf, off, blockLength);
+                
+                off += blockLength;
+                len -= blockLength;
+            }
+        }
+        
+        /**
+         * Changes the compression level for all data written after this call. The deflater 
+         * applies a new level on its next invocation, using the old level for the input of 
+         * that invocation. It is therefore invoked once without input before new data is written.
+         */
+        private void setLevel(int newLevel) throws IOException {
+            def.setLevel(newLevel);
+            def.setInput(new byte[0], 0, 0);
+            
+            deflate();
+            currentLevel = newLevel;
         }
     }    
     
@@ -0,0 +1,288 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.syncany.util.StringUtil;
+
+/**
+ * The indexed multichunk is a compact binary container for chunks. Unlike the
+ * {@link ZipMultiChunk}, it does not store any per-chunk headers, but only the raw
+ * chunk data, followed by an index of all chunks at the end of the file:
+ * 
+ * <pre>
+ *   header:  magic (4 bytes), version (1 byte)
+ *   data:    chunk 1 data, chunk 2 data, ..., chunk n data
+ *   index:   n entries of: checksum length (1 byte), checksum, offset (8 bytes), length (4 bytes)
+ *   trailer: number of entries (4 bytes), index offset (8 bytes), magic (4 bytes) 
+ * </pre>
+ * 
+ * <p>Since the index is written at the end, a multichunk can be written to any
+ * (non-seekable) output stream, e.g. a cipher or gzip stream. When a multichunk is 
+ * read from a file, the trailer and index are read once, after which each chunk can be 
+ * read with a single seek and bulk read.
+ * 
+ * <p>When a multichunk is read from an input stream, the stream is read into memory 
+ * entirely, because the index is only available at the end of the stream. 
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class IndexedMultiChunk extends MultiChunk {
+    private static final byte[] MAGIC = new byte[] { 'S', 'y', 'I', 'x' };
+    private static final byte VERSION = 0x01;
+    
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
+    private static final int TRAILER_LENGTH = 4 + 8 + MAGIC.length;
+    
+    // Write mode
+    private DataOutputStream dataOut;
+    private List<IndexEntry> writtenEntries;
+    private long dataOffset;
+    
+    // Read mode (file)
+    private RandomAccessFile randomAccessFile;
+    
+    // Read mode (input stream)
+    private InputStream inputStream;
+    private byte[] inputStreamContent;
+    
+    private List<IndexEntry> index;
+    private Map<String, IndexEntry> indexByChecksum;
+    private int readPos;
+
+    public IndexedMultiChunk(InputStream is) {
+        super(0);
+        this.inputStream = is;
+    }
+    
+    public IndexedMultiChunk(File file) throws IOException {
+        super(0);
+        this.randomAccessFile = new RandomAccessFile(file, "r");
+        
+        try {
+            readIndex();
+        }
+        catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+    
+    public IndexedMultiChunk(byte[] id, int minSize, OutputStream os) throws IOException {
+        super(id, minSize);        
+        
+        this.dataOut = new DataOutputStream(os);
+        this.writtenEntries = new ArrayList<IndexEntry>();
+        
+        dataOut.write(MAGIC);
+        dataOut.write(VERSION);
+        
+        this.dataOffset = HEADER_LENGTH;
+    }
+
+    @Override
+    public void write(Chunk chunk) throws IOException {
+        size += chunk.getSize();
+        
+        dataOut.write(chunk.getContent(), 0, chunk.getSize());
+        writtenEntries.add(new IndexEntry(chunk.getChecksum(), dataOffset, chunk.getSize()));
+        
+        dataOffset += chunk.getSize();
+    }
+    
+    @Override
+    public InputStream getChunkInputStream(byte[] checksum) throws IOException {
+        loadIndex();
+        
+        IndexEntry entry = indexByChecksum.get(StringUtil.toHex(checksum));
+        
+        if (entry == null) {
+            return null;
+        }
+        
+        return new ByteArrayInputStream(readChunkContent(entry));
+    }
+    
+    @Override
+    public Chunk read() throws IOException {
+        loadIndex();
+        
+        if (readPos >= index.size()) {
+            return null;
+        }
+        
+        IndexEntry entry = index.get(readPos++);
+        byte[] content = readChunkContent(entry);
+        
+        return new Chunk(entry.checksum, content, content.length, null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (dataOut != null) {
+            writeIndex();
+            dataOut.close();
+        }
+        else if (randomAccessFile != null) {
+            randomAccessFile.close();
+        }
+        else {
+            inputStream.close();
+        }
+    }   
+    
+    private void writeIndex() throws IOException {
+        long indexOffset = dataOffset;
+        
+        for (IndexEntry entry : writtenEntries) {
+            dataOut.writeByte(entry.checksum.length);
+            dataOut.write(entry.checksum);
+            dataOut.writeLong(entry.offset);
+            dataOut.writeInt(entry.length);
+        }
+        
+        dataOut.writeInt(writtenEntries.size());
+        dataOut.writeLong(indexOffset);
+        dataOut.write(MAGIC);
+    }
+    
+    private void loadIndex() throws IOException {
+        if (index != null) {
+            return;
+        }
+        
+        if (inputStream == null) {
+            throw new IOException("Multichunk is not opened for reading.");
+        }
+        
+        // Read entire stream (the index is at the end)
+        ByteArrayOutputStream contentOutputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        
+        while (-1 != (read = inputStream.read(buffer))) {
+            contentOutputStream.write(buffer, 0, read);
+        }
+        
+        inputStreamContent = contentOutputStream.toByteArray();
+        readIndex();
+    }
+    
+    private void readIndex() throws IOException {
+        long fileLength = (randomAccessFile != null) ? randomAccessFile.length() : inputStreamContent.length;
+        
+        if (fileLength < HEADER_LENGTH + TRAILER_LENGTH) {
+            throw new IOException("Invalid multichunk: File too small.");
+        }
+        
+        // Header
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(readBytes(0, HEADER_LENGTH)));
+        byte[] magic = new byte[MAGIC.length];
+        
+        header.readFully(magic);
+        byte version = header.readByte();
+        
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException("Invalid multichunk: Magic header not found.");
+        }
+        else if (version != VERSION) {
+            throw new IOException("Invalid multichunk: Unsupported version " + version);
+        }
+        
+        // Trailer
+        long trailerOffset = fileLength - TRAILER_LENGTH;
+        DataInputStream trailer = new DataInputStream(new ByteArrayInputStream(readBytes(trailerOffset, TRAILER_LENGTH)));
+        
+        int entryCount = trailer.readInt();
+        long indexOffset = trailer.readLong();
+        
+        trailer.readFully(magic);
+        
+        if (!Arrays.equals(MAGIC, magic) || entryCount < 0 || indexOffset < HEADER_LENGTH || indexOffset > trailerOffset) {
+            throw new IOException("Invalid multichunk: Corrupt trailer.");
+        }
+        
+        // Index (read in one go)
+        DataInputStream indexIn = new DataInputStream(new ByteArrayInputStream(readBytes(indexOffset, (int) (trailerOffset - indexOffset))));
+        
+        index = new ArrayList<IndexEntry>(entryCount);
+        indexByChecksum = new HashMap<String, IndexEntry>(entryCount*2);
+        readPos = 0;
+        
+        for (int i = 0; i < entryCount; i++) {
+            byte[] checksum = new byte[indexIn.readUnsignedByte()];
+            indexIn.readFully(checksum);
+            
+            long offset = indexIn.readLong();
+            int length = indexIn.readInt();
+            
+            if (offset < HEADER_LENGTH || length < 0 || offset + length > indexOffset) {
+                throw new IOException("Invalid multichunk: Corrupt index entry " + i);
+            }
+            
+            IndexEntry entry = new IndexEntry(checksum, offset, length);
+            
+            index.add(entry);
+            indexByChecksum.put(StringUtil.toHex(checksum), entry);
+        }
+    }
+    
+    private byte[] readChunkContent(IndexEntry entry) throws IOException {
+        return readBytes(entry.offset, entry.length);
+    }
+    
+    private byte[] readBytes(long offset, int length) throws IOException {
+        if (randomAccessFile != null) {
+            byte[] bytes = new byte[length];
+            
+            randomAccessFile.seek(offset);
+            randomAccessFile.readFully(bytes);
+            
+            return bytes;
+        }
+        else {
+            return Arrays.copyOfRange(inputStreamContent, (int) offset, (int) offset + length);
+        }
+    }
+    
+    private static class IndexEntry {
+        private byte[] checksum;
+        private long offset;
+        private int length;
+        
+        public IndexEntry(byte[] checksum, long offset, int length) {
+            this.checksum = checksum;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
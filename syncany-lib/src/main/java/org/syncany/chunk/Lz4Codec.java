@@ -0,0 +1,269 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure Java implementation of the LZ4 block format. The compressor is a greedy
+ * single-pass compressor with a hash table of recent positions (like the LZ4 "fast"
+ * mode); the decompressor accepts any valid LZ4 block. 
+ * 
+ * <p>This class only handles single blocks; the framing is done by the 
+ * {@link Lz4Transformer}.
+ * 
+ * @see <a href="https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md">LZ4 Block Format Description</a>
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+/*package*/ class Lz4Codec {
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;
+	private static final int MF_LIMIT = 12;
+	private static final int MAX_DISTANCE = 65535;
+	
+	private static final int HASH_LOG = 14;
+	private static final int SKIP_TRIGGER = 6;
+	
+	private int[] hashTable;
+	
+	public Lz4Codec() {
+		this.hashTable = new int[1 << HASH_LOG];
+	}
+	
+	/**
+	 * Returns the maximum size of a compressed block for the given input size.
+	 */
+	public static int maxCompressedLength(int length) {
+		return length + length/255 + 16;
+	}
+	
+	/**
+	 * Compresses the given input into the given output buffer, which must be at least
+	 * {@link #maxCompressedLength(int)} bytes long.
+	 * 
+	 * @return Returns the length of the compressed block
+	 */
+	public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset) {
+		int srcEnd = srcOffset + srcLength;
+		int matchLimit = srcEnd - LAST_LITERALS;
+		int mfLimit = srcEnd - MF_LIMIT;
+		
+		int sp = srcOffset;
+		int dp = dstOffset;
+		int anchor = srcOffset;
+		
+		if (srcLength >= MF_LIMIT + 1) {
+			Arrays.fill(hashTable, -1);
+			
+			int searchCount = 1 << SKIP_TRIGGER;
+			
+			while (sp < mfLimit) {
+				int sequence = readInt(src, sp);
+				int hash = hash(sequence);
+				int ref = hashTable[hash];
+				
+				hashTable[hash] = sp;
+				
+				if (ref < 0 || sp - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+					sp += searchCount++ >>> SKIP_TRIGGER;
+					continue;
+				}
+				
+				searchCount = 1 << SKIP_TRIGGER;
+				
+				// Extend match backwards
+				while (sp > anchor && ref > srcOffset && src[sp-1] == src[ref-1]) {
+					sp--;
+					ref--;
+				}
+				
+				// Extend match forwards
+				int matchLength = MIN_MATCH;
+				
+				while (sp + matchLength < matchLimit && src[sp + matchLength] == src[ref + matchLength]) {
+					matchLength++;
+				}
+				
+				dp = writeSequence(src, anchor, sp - anchor, sp - ref, matchLength, dst, dp);
+				
+				sp += matchLength;
+				anchor = sp;
+				
+				// Remember a position within the match to improve the ratio
+				if (sp - 2 < mfLimit) {
+					hashTable[hash(readInt(src, sp - 2))] = sp - 2;
+				}
+			}
+		}
+		
+		// Last literals
+		dp = writeLastLiterals(src, anchor, srcEnd - anchor, dst, dp);
+		
+		return dp - dstOffset;
+	}
+	
+	/**
+	 * Decompresses the given block into the given output buffer. The exact length of the
+	 * decompressed data must be known. 
+	 * 
+	 * @throws IOException If the block is corrupt, or does not match the expected length
+	 */
+	public static void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength) throws IOException {
+		int srcEnd = srcOffset + srcLength;
+		int dstEnd = dstOffset + dstLength;
+		
+		int sp = srcOffset;
+		int dp = dstOffset;
+		
+		try {
+			while (true) {
+				int token = src[sp++] & 0xff;
+				
+				// Literals
+				int literalLength = token >>> 4;
+				
+				if (literalLength == 15) {
+					int lengthByte;
+					
+					do {
+						lengthByte = src[sp++] & 0xff;
+						literalLength += lengthByte;
+					} while (lengthByte == 255);
+				}
+				
+				if (literalLength > srcEnd - sp || literalLength > dstEnd - dp) {
+					throw new IOException("Corrupt LZ4 block: Literals exceed block boundaries.");
+				}
+				
+				System.arraycopy(src, sp, dst, dp, literalLength);
+				
+				sp += literalLength;
+				dp += literalLength;
+				
+				if (sp == srcEnd) {
+					break;
+				}
+				
+				// Match
+				int offset = (src[sp++] & 0xff) | (src[sp++] & 0xff) << 8;
+				int matchLength = token & 0x0f;
+				
+				if (matchLength == 15) {
+					int lengthByte;
+					
+					do {
+						lengthByte = src[sp++] & 0xff;
+						matchLength += lengthByte;
+					} while (lengthByte == 255);
+				}
+				
+				matchLength += MIN_MATCH;
+				
+				if (offset == 0 || offset > dp - dstOffset || matchLength > dstEnd - dp) {
+					throw new IOException("Corrupt LZ4 block: Invalid match.");
+				}
+				
+				int ref = dp - offset;
+				
+				if (offset >= matchLength) {
+					System.arraycopy(dst, ref, dst, dp, matchLength);
+					dp += matchLength;
+				}
+				else {
+					// Overlapping match
+					for (int i = 0; i < matchLength; i++) {
+						dst[dp++] = dst[ref++];
+					}
+				}
+			}
+		}
+		catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Corrupt LZ4 block: Unexpected end of block.", e);
+		}
+		
+		if (dp != dstEnd) {
+			throw new IOException("Corrupt LZ4 block: Decompressed length " + (dp - dstOffset) + " does not match expected length " + dstLength);
+		}
+	}
+	
+	private static int writeSequence(byte[] src, int literalOffset, int literalLength, int matchOffset, int matchLength, byte[] dst, int dp) {
+		int tokenPos = dp++;
+		int token = 0;
+		
+		// Literals
+		if (literalLength >= 15) {
+			token = 15 << 4;
+			dp = writeLength(literalLength - 15, dst, dp);
+		}
+		else {
+			token = literalLength << 4;
+		}
+		
+		System.arraycopy(src, literalOffset, dst, dp, literalLength);
+		dp += literalLength;
+		
+		// Match offset and length
+		dst[dp++] = (byte) matchOffset;
+		dst[dp++] = (byte) (matchOffset >>> 8);
+		
+		int matchLengthCode = matchLength - MIN_MATCH;
+		
+		if (matchLengthCode >= 15) {
+			token |= 15;
+			dp = writeLength(matchLengthCode - 15, dst, dp);
+		}
+		else {
+			token |= matchLengthCode;
+		}
+		
+		dst[tokenPos] = (byte) token;
+		return dp;
+	}
+	
+	private static int writeLastLiterals(byte[] src, int literalOffset, int literalLength, byte[] dst, int dp) {
+		if (literalLength >= 15) {
+			dst[dp++] = (byte) (15 << 4);
+			dp = writeLength(literalLength - 15, dst, dp);
+		}
+		else {
+			dst[dp++] = (byte) (literalLength << 4);
+		}
+		
+		System.arraycopy(src, literalOffset, dst, dp, literalLength);
+		return dp + literalLength;
+	}
+	
+	private static int writeLength(int length, byte[] dst, int dp) {
+		while (length >= 255) {
+			dst[dp++] = (byte) 255;
+			length -= 255;
+		}
+		
+		dst[dp++] = (byte) length;
+		return dp;
+	}
+	
+	private static int readInt(byte[] buf, int offset) {
+		return (buf[offset] & 0xff) | (buf[offset+1] & 0xff) << 8 | (buf[offset+2] & 0xff) << 16 | (buf[offset+3] & 0xff) << 24;
+	}
+	
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+}
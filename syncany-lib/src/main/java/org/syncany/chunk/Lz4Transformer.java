@@ -0,0 +1,321 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Implements a {@link Transformer} that compresses the input/output stream using
+ * the LZ4 algorithm. LZ4 compresses less than Gzip, but is many times faster, in
+ * particular when decompressing. 
+ * 
+ * <p>The stream is split into blocks of {@link #BLOCK_SIZE} bytes, each of which is
+ * compressed individually using the LZ4 block format (see {@link Lz4Codec}). Blocks that 
+ * do not get smaller, or that are {@link CompressibilityEstimator estimated to be incompressible},
+ * are stored uncompressed. The stream format is:
+ * 
+ * <pre>
+ *   magic (4 bytes), then for each block: 
+ *   raw length (4 bytes), stored length (4 bytes), stored data (stored length bytes)
+ * </pre>
+ * 
+ * A block with equal raw and stored length is stored uncompressed.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class Lz4Transformer extends Transformer {
+	public static final String TYPE = "lz4";
+	
+	/**
+	 * Whether blocks with a high entropy (e.g. already compressed data) are stored uncompressed 
+	 * without trying to compress them. Valid values are <tt>true</tt> (default) and <tt>false</tt>.
+	 */
+	public static final String PROPERTY_SKIP_INCOMPRESSIBLE = "skip-incompressible";
+	
+	public static final int BLOCK_SIZE = 64*1024;
+	
+	private static final byte[] MAGIC = new byte[] { 'S', 'y', 'L', '4' };
+	
+	private boolean skipIncompressible;
+	
+	public Lz4Transformer() {
+		this(true, null);
+	}
+	
+	public Lz4Transformer(Transformer nextTransformer) {
+		this(true, nextTransformer);
+	}
+	
+	public Lz4Transformer(boolean skipIncompressible, Transformer nextTransformer) {
+		super(nextTransformer);
+		this.skipIncompressible = skipIncompressible;
+	}
+	
+	/**
+	 * Initializes the LZ4 transformer using a settings map. 
+	 * <br>
+	 * Optional settings are: 
+	 * <ul>
+	 *  <li> key: {@link #PROPERTY_SKIP_INCOMPRESSIBLE}, value: <tt>true</tt> or <tt>false</tt>
+	 * </ul>
+	 */
+	@Override
+	public void init(Map<String, String> settings) throws Exception {
+		if (settings != null && settings.get(PROPERTY_SKIP_INCOMPRESSIBLE) != null) {
+			skipIncompressible = Boolean.parseBoolean(settings.get(PROPERTY_SKIP_INCOMPRESSIBLE));
+		}
+	}
+
+	@Override
+	public OutputStream createOutputStream(OutputStream out) throws IOException {
+		if (nextTransformer == null) {
+			return new Lz4OutputStream(out, skipIncompressible);
+		}
+		else {
+			return new Lz4OutputStream(nextTransformer.createOutputStream(out), skipIncompressible);
+		}
+	}
+
+	@Override
+	public InputStream createInputStream(InputStream in) throws IOException {
+		if (nextTransformer == null) {
+			return new Lz4InputStream(in);
+		}
+		else {
+			return new Lz4InputStream(nextTransformer.createInputStream(in));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return (nextTransformer == null) ? "Lz4" : "Lz4-"+nextTransformer;
+	}
+	
+	public static class Lz4OutputStream extends FilterOutputStream {
+		private Lz4Codec codec;
+		private boolean skipIncompressible;
+		
+		private byte[] block;
+		private int blockLength;
+		private byte[] compressedBlock;
+		private byte[] blockHeader;
+		private boolean closed;
+		
+		public Lz4OutputStream(OutputStream out, boolean skipIncompressible) throws IOException {
+			super(out);
+			
+			this.codec = new Lz4Codec();
+			this.skipIncompressible = skipIncompressible;
+			
+			this.block = new byte[BLOCK_SIZE];
+			this.blockLength = 0;
+			this.compressedBlock = new byte[Lz4Codec.maxCompressedLength(BLOCK_SIZE)];
+			this.blockHeader = new byte[8];
+			this.closed = false;
+			
+			out.write(MAGIC);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			if (blockLength == block.length) {
+				writeBlock();
+			}
+			
+			block[blockLength++] = (byte) b;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (blockLength == block.length) {
+					writeBlock();
+				}
+				
+				int copyLength = Math.min(len, block.length - blockLength);
+				System.arraycopy(b, off, block, blockLength, copyLength);
+				
+				blockLength += copyLength;
+				off += copyLength;
+				len -= copyLength;
+			}
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			writeBlock();
+			out.flush();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				
+				try {
+					writeBlock();
+				}
+				finally {
+					out.close();
+				}
+			}
+		}
+		
+		private void writeBlock() throws IOException {
+			if (blockLength == 0) {
+				return;
+			}
+			
+			int compressedLength = -1;
+			
+			if (!skipIncompressible || !CompressibilityEstimator.isIncompressible(block, 0, blockLength)) {
+				compressedLength = codec.compress(block, 0, blockLength, compressedBlock, 0);
+			}
+			
+			if (compressedLength >= 0 && compressedLength < blockLength) {
+				writeBlockHeader(blockLength, compressedLength);
+				out.write(compressedBlock, 0, compressedLength);
+			}
+			else {
+				writeBlockHeader(blockLength, blockLength);
+				out.write(block, 0, blockLength);
+			}
+			
+			blockLength = 0;
+		}
+		
+		private void writeBlockHeader(int rawLength, int storedLength) throws IOException {
+			writeInt(rawLength, blockHeader, 0);
+			writeInt(storedLength, blockHeader, 4);
+			
+			out.write(blockHeader);
+		}
+		
+		private static void writeInt(int value, byte[] buf, int offset) {
+			buf[offset] = (byte) (value >>> 24);
+			buf[offset+1] = (byte) (value >>> 16);
+			buf[offset+2] = (byte) (value >>> 8);
+			buf[offset+3] = (byte) value;
+		}
+	}
+	
+	public static class Lz4InputStream extends InputStream {
+		private DataInputStream in;
+		
+		private byte[] block;
+		private int blockLength;
+		private int blockPos;
+		private byte[] storedBlock;
+		private boolean eof;
+		
+		public Lz4InputStream(InputStream in) throws IOException {
+			this.in = new DataInputStream(in);
+			
+			this.block = new byte[BLOCK_SIZE];
+			this.blockLength = 0;
+			this.blockPos = 0;
+			this.storedBlock = new byte[BLOCK_SIZE];
+			this.eof = false;
+			
+			byte[] magic = new byte[MAGIC.length];
+			this.in.readFully(magic);
+			
+			if (!Arrays.equals(MAGIC, magic)) {
+				throw new IOException("Not an LZ4 stream: Magic header not found.");
+			}
+		}
+		
+		@Override
+		public int read() throws IOException {
+			if (blockPos == blockLength && !readBlock()) {
+				return -1;
+			}
+			
+			return block[blockPos++] & 0xff;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			
+			if (blockPos == blockLength && !readBlock()) {
+				return -1;
+			}
+			
+			int readLength = Math.min(len, blockLength - blockPos);
+			System.arraycopy(block, blockPos, b, off, readLength);
+			
+			blockPos += readLength;
+			return readLength;
+		}
+		
+		@Override
+		public int available() throws IOException {
+			return blockLength - blockPos;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+		
+		private boolean readBlock() throws IOException {
+			if (eof) {
+				return false;
+			}
+			
+			int rawLength;
+			
+			try {
+				rawLength = in.readInt();
+			}
+			catch (EOFException e) {
+				eof = true;
+				return false;
+			}
+			
+			int storedLength = in.readInt();
+			
+			if (rawLength <= 0 || rawLength > BLOCK_SIZE || storedLength <= 0 || storedLength > rawLength) {
+				throw new IOException("Corrupt LZ4 stream: Invalid block header (raw length " + rawLength + ", stored length " + storedLength + ")");
+			}
+			
+			if (storedLength == rawLength) {
+				in.readFully(block, 0, rawLength);
+			}
+			else {
+				in.readFully(storedBlock, 0, storedLength);
+				Lz4Codec.decompress(storedBlock, 0, storedLength, block, 0, rawLength);
+			}
+			
+			blockLength = rawLength;
+			blockPos = 0;
+			
+			return true;
+		}
+	}
+}
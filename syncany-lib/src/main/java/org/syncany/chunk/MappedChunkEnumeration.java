@@ -0,0 +1,238 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.security.MessageDigest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.Chunker.FileChecksumMode;
+
+/**
+ * The mapped chunk enumeration is a base class for content-based {@link Chunker}s to
+ * chunk very large files (e.g. VM images or database dumps) without copying them to
+ * the heap. 
+ * 
+ * <p>Instead of reading the file through a stream, the file is mapped into memory in
+ * windows of {@link #DEFAULT_WINDOW_SIZE} bytes using {@link MappedByteBuffer}s. The
+ * emitted {@link Chunk}s are zero-copy views of the mapped window. Their content is only
+ * copied to the heap if {@link Chunk#getContent()} is called, i.e. typically only if a 
+ * chunk is new and must be written to a {@link MultiChunk}. Known chunks are only hashed.
+ * 
+ * <p>Implementations must determine the chunk boundaries in {@link #nextChunkSize(ByteBuffer, int, int)
+ * nextChunkSize()} and produce the same boundaries as their stream-based enumerations.
+ * 
+ * <p><b>Note:</b> Mapped windows are released by the garbage collector, not when the
+ * enumeration is closed. If the file is truncated while it is mapped, reading a chunk
+ * fails, and {@link #nextElement()} returns <tt>null</tt> like for any other read error.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public abstract class MappedChunkEnumeration implements ChunkEnumeration {
+	private static final Logger logger = Logger.getLogger(MappedChunkEnumeration.class.getSimpleName());
+	
+	public static final int DEFAULT_WINDOW_SIZE = 64*1024*1024;
+	
+	private FileChannel channel;
+	private long fileSize;
+	private long filePos;
+	private boolean closed;
+	
+	private MappedByteBuffer window;
+	private long windowOffset;
+	private int windowSize;
+	
+	private MessageDigest chunkDigest;
+	private FileDigest fileDigest;
+	
+	public MappedChunkEnumeration(FileChannel channel, int maxChunkSize, String checksumAlgorithm, FileChecksumMode fileChecksumMode) throws IOException {
+		this.channel = channel;
+		this.fileSize = channel.size();
+		this.filePos = 0;
+		this.closed = false;
+		
+		this.window = null;
+		this.windowOffset = 0;
+		this.windowSize = Math.max(DEFAULT_WINDOW_SIZE, maxChunkSize);
+		
+		try {
+			this.chunkDigest = MessageDigest.getInstance(checksumAlgorithm);
+			this.fileDigest = new FileDigest(checksumAlgorithm, fileChecksumMode);
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Determines the size of the next chunk, starting at the given offset in the given
+	 * (mapped) buffer. The buffer contains at least the maximum chunk size of bytes, or
+	 * the rest of the file.
+	 * 
+	 * @param buffer Mapped window of the file
+	 * @param offset Offset of the next chunk within the buffer
+	 * @param length Number of bytes available in the buffer (but not necessarily in the file)  
+	 * @return Returns the size of the next chunk in bytes
+	 */
+	protected abstract int nextChunkSize(ByteBuffer buffer, int offset, int length);
+	
+	/**
+	 * Returns whether the chunk with the given size is the last chunk of the file, given 
+	 * that the given number of bytes are left in the file. The default implementation returns 
+	 * <tt>true</tt> if the chunk contains all remaining bytes.
+	 */
+	protected boolean isLastChunk(int chunkSize, long remainingFileBytes) {
+		return chunkSize == remainingFileBytes;
+	}
+	
+	/**
+	 * Returns the maximum size of a chunk, i.e. the number of bytes that
+	 * must be mapped in order to determine the next breakpoint.
+	 */
+	protected abstract int getMaxChunkSize();
+	
+	/**
+	 * Sets the size of the mapped windows in bytes. The window size must be larger
+	 * than the maximum chunk size. 
+	 */
+	public void setWindowSize(int windowSize) {
+		if (windowSize < getMaxChunkSize()) {
+			throw new IllegalArgumentException("Window size must be larger than the max. chunk size.");
+		}
+		
+		this.windowSize = windowSize;
+	}
+	
+	/**
+	 * Moves the enumeration to the given file position, so that the next chunk starts
+	 * at this position. This is used by the {@link ParallelChunkEnumeration} to chunk 
+	 * segments of a file. 
+	 * 
+	 * <p>Since the enumeration does not see the entire file anymore, no file checksum 
+	 * is calculated after calling this method.
+	 */
+	/*package*/ void seek(long position) {
+		filePos = position;
+		fileDigest = null;
+	}
+	
+	/*package*/ long getPosition() {
+		return filePos;
+	}
+	
+	@Override
+	public boolean hasMoreElements() {
+		return !closed;
+	}
+
+	@Override
+	public Chunk nextElement() {
+		if (closed) {
+			return null;
+		}
+		
+		try {
+			return readNextChunk();
+		}
+		catch (IOException ex) {
+			logger.log(Level.SEVERE, "Error while retrieving next chunk.", ex);
+			return null;
+		}
+	}
+	
+	private Chunk readNextChunk() throws IOException {
+		try {
+			long remainingFileBytes = fileSize - filePos;
+			
+			mapWindow(remainingFileBytes);
+			
+			int windowPos = (int) (filePos - windowOffset);
+			int windowRemaining = window.limit() - windowPos;
+			
+			// Find breakpoint
+			int chunkSize = (remainingFileBytes > 0) ? nextChunkSize(window, windowPos, windowRemaining) : 0;
+			boolean lastChunk = remainingFileBytes == 0 || isLastChunk(chunkSize, remainingFileBytes);
+			
+			// Create zero-copy view
+			ByteBuffer chunkBuffer = window.duplicate();
+			chunkBuffer.position(windowPos);
+			chunkBuffer.limit(windowPos + chunkSize);
+			chunkBuffer = chunkBuffer.slice();
+			
+			filePos += chunkSize;
+			
+			if (lastChunk) {
+				close();
+				closed = true;
+			}
+			
+			// Chunk and file checksum
+			chunkDigest.reset();
+			chunkDigest.update(chunkBuffer.duplicate());
+			
+			byte[] chunkChecksum = chunkDigest.digest();
+			byte[] fileChecksum = null;
+			
+			if (fileDigest != null) {
+				fileDigest.updateContent(chunkBuffer.duplicate());
+				fileDigest.updateChunk(chunkChecksum);
+				
+				fileChecksum = (lastChunk) ? fileDigest.digest() : null;
+			}
+			
+			return new Chunk(chunkChecksum, chunkBuffer, fileChecksum);
+		}
+		catch (InternalError e) {
+			// Accessing a mapped region of a file that has been truncated raises a SIGBUS,
+			// which the JVM reports as an InternalError (not as an IOException)
+			throw new IOException("File was modified or truncated while it was mapped.", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		try { channel.close(); }
+		catch (Exception e) { /* Not necessary */ }
+	}
+	
+	/**
+	 * Maps a new window starting at the current file position, if the current
+	 * window does not contain the next maximum-sized chunk (or the rest of the file).
+	 */
+	private void mapWindow(long remainingFileBytes) throws IOException {
+		long requiredBytes = Math.min(getMaxChunkSize(), remainingFileBytes);
+		
+		boolean windowContainsChunk = window != null 
+			&& filePos >= windowOffset && filePos + requiredBytes <= windowOffset + window.limit();
+		
+		if (!windowContainsChunk) {
+			if (channel.size() != fileSize) {
+				throw new IOException("File size changed while chunking (expected " + fileSize + " bytes, found " + channel.size() + " bytes).");
+			}
+			
+			windowOffset = filePos;
+			window = channel.map(MapMode.READ_ONLY, windowOffset, Math.min(windowSize, remainingFileBytes));
+		}
+	}
+}
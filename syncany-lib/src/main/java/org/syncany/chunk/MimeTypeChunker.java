@@ -23,6 +23,7 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -71,6 +72,15 @@ public class MimeTypeChunker extends Chunker {
 		this.delegatedChunker = null;
 	}
 
+	/**
+	 * The mime type chunker is configured via its constructor and
+	 * therefore must not be initialized. This method does nothing.
+	 */
+	@Override
+	public void init(Map<String, String> settings) throws Exception {
+		// Nothing here
+	}
+
 	@Override
 	public ChunkEnumeration createChunks(File file) throws IOException {
 		String mimeType = Files.probeContentType(Paths.get(file.getAbsolutePath()));
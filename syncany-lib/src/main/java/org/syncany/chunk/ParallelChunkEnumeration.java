@@ -0,0 +1,454 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.Chunker.FileChecksumMode;
+
+/**
+ * The parallel chunk enumeration chunks very large files with multiple threads. It is 
+ * used by content-based {@link Chunker}s that provide a {@link MappedChunkEnumeration}.
+ * 
+ * <p>The file is split into segments of {@link #DEFAULT_SEGMENT_SIZE} bytes. Each segment
+ * is chunked (and its chunks are hashed) by a worker thread, starting at the segment's 
+ * first byte and ending with the first chunk that reaches into the next segment. The 
+ * enumeration then merges the segments in order and resynchronizes the chunk boundaries 
+ * at the segment edges:
+ * 
+ * <ul>
+ *  <li>If the last chunk of a segment ends at a chunk boundary of the next segment, the 
+ *      chunks are identical to the ones of a sequential enumeration from there on. 
+ *  <li>If not, the chunks following the edge are created sequentially until a boundary 
+ *      of the next segment is reached. Since boundaries only depend on the data after the 
+ *      previous boundary, this typically takes only a few chunks.
+ *  <li>If the boundaries do not converge within {@link #MAX_RESYNC_CHUNKS} chunks (e.g. for
+ *      data without content-based breakpoints, where every chunk is cut at the maximum chunk
+ *      size), the enumeration emits one shorter chunk that ends at the next boundary of
+ *      the segment, and continues with the segment's chunks.
+ * </ul>
+ * 
+ * <p>The emitted chunks are therefore identical to the ones of the sequential enumeration,
+ * unless the last case occurs. In that case, the result differs at most in 
+ * {@link #MAX_RESYNC_CHUNKS} + 1 chunks after each segment edge, and is still deterministic
+ * for a given file and segment size. Because of this, parallel chunking is disabled by default
+ * (see {@link Chunker#PROPERTY_PARALLEL_THRESHOLD}).
+ * 
+ * <p>The segments are chunked by a shared executor (see {@link Chunker#setParallelExecutor(ExecutorService)}),
+ * or, if none is given, by a thread pool owned by the enumeration. Segments that have not been
+ * picked up by a worker thread when they are needed are chunked by the thread calling 
+ * {@link #nextElement()}, so a shared executor whose threads are all busy (e.g. with the 
+ * enumeration itself) cannot block the enumeration.
+ * 
+ * <p>The file checksum is calculated over the emitted chunks in the thread calling
+ * {@link #nextElement()}, because the digest cannot be split. If the file checksum is derived
+ * from the chunk checksums (see {@link FileChecksumMode#CHUNKS}), the file content is not digested
+ * a second time, and this bottleneck disappears. Like in the {@link MappedChunkEnumeration},
+ * emitted chunks are zero-copy views of the mapped file.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public abstract class ParallelChunkEnumeration implements ChunkEnumeration {
+	private static final Logger logger = Logger.getLogger(ParallelChunkEnumeration.class.getSimpleName());
+	
+	public static final int DEFAULT_SEGMENT_SIZE = 64*1024*1024;
+	public static final int MAX_RESYNC_CHUNKS = 16;
+	
+	private File file;
+	private FileChannel channel;
+	private long fileSize;
+	private int threads;
+	private int maxChunkSize;
+	private int segmentSize;
+	private boolean closed;
+	
+	private ExecutorService executor;
+	private boolean ownExecutor;
+	private LinkedList<FutureTask<Segment>> pendingSegments;
+	private long nextSegmentOffset;
+
+	private Segment segment;
+	private int segmentIndex;
+	private long nextOffset;
+	
+	private MappedChunkEnumeration resyncChunks;
+	private int resyncChunkCount;
+	
+	private MessageDigest chunkDigest;
+	private FileDigest fileDigest;
+	
+	public ParallelChunkEnumeration(File file, int threads, int maxChunkSize, String checksumAlgorithm, FileChecksumMode fileChecksumMode) throws IOException {
+		this(file, null, threads, maxChunkSize, checksumAlgorithm, fileChecksumMode);
+	}
+	
+	/**
+	 * Creates a parallel enumeration that chunks the segments of the given file using the given 
+	 * executor. The executor is not shut down when the enumeration is closed. If the executor is 
+	 * <tt>null</tt>, the enumeration creates its own thread pool with the given number of threads.
+	 */
+	public ParallelChunkEnumeration(File file, ExecutorService executor, int threads, int maxChunkSize, String checksumAlgorithm, FileChecksumMode fileChecksumMode) throws IOException {
+		this.file = file;
+		this.channel = new FileInputStream(file).getChannel();
+		this.fileSize = channel.size();
+		this.threads = threads;
+		this.maxChunkSize = maxChunkSize;
+		this.segmentSize = Math.max(DEFAULT_SEGMENT_SIZE, 4*maxChunkSize);
+		this.closed = false;
+		
+		this.executor = executor;
+		this.ownExecutor = false;
+		this.pendingSegments = new LinkedList<FutureTask<Segment>>();
+		this.nextSegmentOffset = 0;
+		
+		this.segment = null;
+		this.segmentIndex = -1;
+		this.nextOffset = 0;
+		
+		this.resyncChunks = null;
+		this.resyncChunkCount = 0;
+		
+		try {
+			this.chunkDigest = MessageDigest.getInstance(checksumAlgorithm);
+			this.fileDigest = new FileDigest(checksumAlgorithm, fileChecksumMode);
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Creates a new mapped enumeration for the given channel. The enumeration is used to 
+	 * chunk the individual segments, and to resynchronize the chunk boundaries at the 
+	 * segment edges. 
+	 */
+	protected abstract MappedChunkEnumeration createMappedEnumeration(FileChannel channel) throws IOException;
+	
+	/**
+	 * Sets the size of the segments that are chunked in parallel. The segment size must
+	 * be larger than the maximum chunk size, and must be set before the first chunk is 
+	 * requested. 
+	 */
+	public void setSegmentSize(int segmentSize) {
+		if (segmentSize < maxChunkSize) {
+			throw new IllegalArgumentException("Segment size must be larger than the max. chunk size.");
+		}
+		
+		this.segmentSize = segmentSize;
+	}
+	
+	@Override
+	public boolean hasMoreElements() {
+		return !closed;
+	}
+
+	@Override
+	public Chunk nextElement() {
+		if (closed) {
+			return null;
+		}
+		
+		try {
+			if (segment == null && pendingSegments.isEmpty()) {
+				if (executor == null) {
+					executor = Executors.newFixedThreadPool(threads, new SegmentThreadFactory());
+					ownExecutor = true;
+				}
+				
+				submitSegments();
+			}
+			
+			return nextChunk();
+		}
+		catch (IOException ex) {
+			logger.log(Level.SEVERE, "Error while retrieving next chunk.", ex);
+			return null;
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		
+		for (FutureTask<Segment> pendingSegment : pendingSegments) {
+			pendingSegment.cancel(true);
+		}
+		
+		pendingSegments.clear();
+		
+		if (ownExecutor) {
+			executor.shutdownNow();
+		}
+		
+		if (resyncChunks != null) {
+			resyncChunks.close();
+		}
+		
+		try { channel.close(); }
+		catch (Exception e) { /* Not necessary */ }
+	}
+	
+	private Chunk nextChunk() throws IOException {
+		while (true) {
+			// In sync with the current segment: emit its next chunk
+			if (segment != null && segmentIndex >= 0 && segmentIndex < segment.size() && segment.getOffset(segmentIndex) == nextOffset) {
+				Chunk chunk = segment.getChunk(segmentIndex);
+				boolean lastChunk = segment.isLastChunk(segmentIndex);
+
+				segmentIndex++;
+				return emitChunk(chunk, lastChunk);
+			}
+			
+			// Current segment does not contain the next offset anymore: move on to next segment
+			if (segment == null || nextOffset > segment.getLastOffset()) {
+				if (segment != null && pendingSegments.isEmpty()) {
+					return emitResyncChunk(); // Beyond last segment boundary
+				}
+
+				segment = nextSegment();
+				segmentIndex = segment.indexOf(nextOffset);
+				resyncChunkCount = 0;
+				
+				continue;
+			}
+			
+			// Check if boundaries are in sync again
+			segmentIndex = segment.indexOf(nextOffset);
+			
+			if (segmentIndex >= 0) {
+				continue;
+			}
+			
+			// Not in sync: chunk sequentially, or force sync at the next segment boundary
+			if (resyncChunkCount < MAX_RESYNC_CHUNKS) {
+				resyncChunkCount++;
+				return emitResyncChunk();
+			}
+			else {
+				return emitBoundaryChunk(segment.getOffsetAfter(nextOffset));
+			}
+		}
+	}
+	
+	private Chunk emitResyncChunk() throws IOException {
+		if (resyncChunks == null || resyncChunks.getPosition() != nextOffset || !resyncChunks.hasMoreElements()) {
+			if (resyncChunks != null) {
+				resyncChunks.close();
+			}
+			
+			resyncChunks = createMappedEnumeration(new FileInputStream(file).getChannel());
+			resyncChunks.seek(nextOffset);
+		}
+		
+		Chunk chunk = resyncChunks.nextElement();
+		
+		if (chunk == null) {
+			throw new IOException("Unable to resynchronize chunks at offset " + nextOffset + " of file " + file);
+		}
+		
+		return emitChunk(chunk, !resyncChunks.hasMoreElements());
+	}
+	
+	private Chunk emitBoundaryChunk(long boundaryOffset) throws IOException {
+		logger.log(Level.FINE, "Chunk boundaries did not converge at offset " + nextOffset + "; cutting chunk at segment boundary " + boundaryOffset);
+		
+		ByteBuffer chunkBuffer = channel.map(MapMode.READ_ONLY, nextOffset, boundaryOffset - nextOffset);
+		
+		chunkDigest.reset();
+		chunkDigest.update(chunkBuffer.duplicate());
+		
+		return emitChunk(new Chunk(chunkDigest.digest(), chunkBuffer, null), false);
+	}
+	
+	private Chunk emitChunk(Chunk chunk, boolean lastChunk) {
+		fileDigest.updateContent(chunk.getContentBuffer().duplicate());
+		fileDigest.updateChunk(chunk.getChecksum());
+		nextOffset += chunk.getSize();
+		
+		if (lastChunk) {
+			close();
+			return new Chunk(chunk.getChecksum(), chunk.getContentBuffer(), fileDigest.digest());
+		}
+		else {
+			return chunk;
+		}
+	}
+	
+	private Segment nextSegment() throws IOException {
+		try {
+			FutureTask<Segment> nextSegmentTask = pendingSegments.removeFirst();
+			
+			nextSegmentTask.run(); // Chunks segment in this thread if no worker has picked it up yet
+			Segment nextSegment = nextSegmentTask.get();
+			submitSegments();
+			
+			return nextSegment;
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Unable to chunk segment of file " + file, e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while chunking file " + file, e);
+		}
+	}
+	
+	/**
+	 * Submits segments to the worker threads, keeping twice as many segments in flight as
+	 * there are threads. The last segment is chunked until the end of the file.
+	 */
+	private void submitSegments() {
+		while (pendingSegments.size() < 2*threads && nextSegmentOffset < fileSize) {
+			final long segmentOffset = nextSegmentOffset;
+			final long segmentEndOffset = (fileSize - segmentOffset > segmentSize) ? segmentOffset + segmentSize : Long.MAX_VALUE;
+			
+			FutureTask<Segment> segmentTask = new FutureTask<Segment>(new Callable<Segment>() {
+				@Override
+				public Segment call() throws Exception {
+					return chunkSegment(segmentOffset, segmentEndOffset);
+				}				
+			});
+			
+			pendingSegments.add(segmentTask);
+			
+			try {
+				executor.execute(segmentTask);
+			}
+			catch (RejectedExecutionException e) {
+				logger.log(Level.FINE, "Executor rejected segment at offset " + segmentOffset + "; chunking it on demand.");
+			}
+			
+			nextSegmentOffset += segmentSize;
+		}
+	}
+	
+	/**
+	 * Chunks all chunks starting in the given range, i.e. the last chunk might
+	 * reach into the next segment.
+	 */
+	private Segment chunkSegment(long startOffset, long endOffset) throws IOException {
+		MappedChunkEnumeration segmentChunks = createMappedEnumeration(new FileInputStream(file).getChannel());
+		Segment segment = new Segment();
+		
+		try {
+			segmentChunks.setWindowSize((int) Math.min(Integer.MAX_VALUE, (long) segmentSize + maxChunkSize));
+			segmentChunks.seek(startOffset);
+			
+			while (segmentChunks.hasMoreElements() && segmentChunks.getPosition() < endOffset) {
+				long chunkOffset = segmentChunks.getPosition();
+				Chunk chunk = segmentChunks.nextElement();
+				
+				if (chunk == null) {
+					throw new IOException("Unable to read chunk at offset " + chunkOffset + " of file " + file);
+				}
+				
+				segment.add(chunkOffset, chunk, !segmentChunks.hasMoreElements());
+			}
+			
+			return segment;
+		}
+		finally {
+			segmentChunks.close();
+		}
+	}
+	
+	/**
+	 * Chunks of a segment and their offsets in the file.
+	 */
+	private static class Segment {
+		private List<Long> offsets = new ArrayList<Long>();
+		private List<Chunk> chunks = new ArrayList<Chunk>();
+		private boolean endOfFile = false;
+		
+		public void add(long offset, Chunk chunk, boolean lastChunk) {
+			offsets.add(offset);
+			chunks.add(chunk);
+			endOfFile = lastChunk;
+		}
+		
+		public int size() {
+			return chunks.size();
+		}
+		
+		public long getOffset(int index) {
+			return offsets.get(index);
+		}
+		
+		public long getLastOffset() {
+			return offsets.get(offsets.size()-1);
+		}
+		
+		public Chunk getChunk(int index) {
+			return chunks.get(index);
+		}
+		
+		public boolean isLastChunk(int index) {
+			return endOfFile && index == chunks.size()-1;
+		}
+		
+		/**
+		 * Returns the index of the chunk starting at the given offset, or 
+		 * a negative value if no chunk starts at this offset.
+		 */
+		public int indexOf(long offset) {
+			int index = Collections.binarySearch(offsets, offset);
+			return (index >= 0) ? index : -1;
+		}
+		
+		/**
+		 * Returns the offset of the first chunk starting after the given offset. The
+		 * given offset must be smaller than the {@link #getLastOffset() last offset}.
+		 */
+		public long getOffsetAfter(long offset) {
+			int insertionPoint = -(Collections.binarySearch(offsets, offset) + 1);
+			return offsets.get(insertionPoint);
+		}
+	}
+	
+	private static class SegmentThreadFactory implements ThreadFactory {
+		private static final AtomicInteger threadNumber = new AtomicInteger(1);
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Segment-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			
+			return thread;
+		}		
+	}
+}
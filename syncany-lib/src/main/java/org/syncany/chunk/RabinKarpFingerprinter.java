@@ -0,0 +1,153 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.util.Random;
+
+/**
+ * Table-driven implementation of the Rabin-Karp rolling hash. The checksum of a
+ * block <em>X<sub>1</sub>...X<sub>n</sub></em> is the polynomial 
+ * <em>T(X<sub>1</sub>)*B<sup>n-1</sup> + ... + T(X<sub>n</sub>)</em> modulo 2<sup>32</sup>,
+ * where <em>T</em> maps each byte to a random 32-bit value and <em>B</em> is an odd 
+ * multiplier. 
+ * 
+ * <p>The contribution of the outgoing byte, <em>T(X)*B<sup>n</sup></em>, is precomputed
+ * for all byte values whenever the block length changes, so that rolling the checksum
+ * only requires one multiplication and two table lookups.
+ * 
+ * <p><b>Note:</b> The lookup table and the multiplier determine the chunk boundaries of
+ * content based {@link Chunker}s, so they must never change. The returned value is always 
+ * non-negative.
+ * 
+ * @see <a href="http://en.wikipedia.org/wiki/Rabin%E2%80%93Karp_algorithm">Rabin-Karp algorithm</a> at Wikipedia 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class RabinKarpFingerprinter extends Fingerprinter {
+    private static final int MULTIPLIER = 0x01000193; // 32-bit FNV prime
+    private static final long TABLE_SEED = 0x526162696e4b6172L; // "RabinKar"
+    private static final int[] TABLE = createTable(TABLE_SEED);
+    
+    /**
+     * The current checksum.
+     */
+    protected int hash;
+    
+    /**
+     * The block from which the checksum is computed (circular buffer).
+     */
+    protected byte[] block;
+    
+    /**
+     * The index in {@link #block} of the oldest byte, i.e. the
+     * byte that is removed with the next {@link #roll(byte) roll()}.
+     */
+    protected int pos;
+    
+    /**
+     * The length of the block.
+     */
+    protected int len;
+    
+    /**
+     * Contribution of each byte value when it leaves the block, i.e.
+     * <em>T(X)*B<sup>len</sup></em>. Depends on the block length.
+     */
+    protected int[] outTable;
+    protected int outTableLength;
+
+    public RabinKarpFingerprinter() {
+        this.hash = 0;
+        this.block = new byte[0];
+        this.pos = 0;
+        this.len = 0;
+        this.outTable = new int[256];
+        this.outTableLength = -1;
+    }
+    
+    @Override
+    public int getValue() {
+        return hash & 0x7fffffff;
+    }
+
+    @Override
+    public void reset() {
+        hash = 0;
+        pos = 0;
+        len = 0;
+    }
+
+    @Override
+    public void roll(byte bt) {
+        hash = hash*MULTIPLIER + TABLE[bt & 0xff] - outTable[block[pos] & 0xff];
+        block[pos] = bt;
+        
+        if (++pos == len) {
+            pos = 0;
+        }
+    }
+
+    @Override
+    public void check(byte[] buf, int off, int len) {
+        if (block.length != len) {
+            block = new byte[len];
+        }
+        
+        System.arraycopy(buf, off, block, 0, len);
+        reset();
+        
+        this.len = len;
+        
+        if (outTableLength != len) {
+            initOutTable(len);
+        }
+        
+        for (int i = 0; i < len; i++) {
+            hash = hash*MULTIPLIER + TABLE[block[i] & 0xff];
+        }
+    }
+    
+    private void initOutTable(int len) {
+        int multiplierPowLen = 1;
+        
+        for (int i = 0; i < len; i++) {
+            multiplierPowLen *= MULTIPLIER;
+        }
+        
+        for (int i = 0; i < outTable.length; i++) {
+            outTable[i] = TABLE[i] * multiplierPowLen;
+        }
+        
+        outTableLength = len;
+    }
+    
+    private static int[] createTable(long seed) {
+        Random random = new Random(seed);
+        int[] table = new int[256];
+        
+        for (int i = 0; i < table.length; i++) {
+            table[i] = random.nextInt();
+        }
+        
+        return table;
+    }
+
+    @Override
+    public String toString() {
+        return "RabinKarp";
+    }
+}
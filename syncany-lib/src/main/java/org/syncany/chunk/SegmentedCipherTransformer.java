@@ -0,0 +1,127 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.SaltedSecretKey;
+import org.syncany.crypto.SegmentedCipherInputStream;
+import org.syncany.crypto.SegmentedCipherOutputStream;
+import org.syncany.crypto.SegmentedCipherReader;
+
+/**
+ * The segmented cipher transformer encrypts files (typically {@link MultiChunk}s) 
+ * in fixed-size, individually authenticated segments, using the {@link SegmentedCipherOutputStream}
+ * and {@link SegmentedCipherInputStream}. 
+ * 
+ * <p>Unlike the {@link CipherTransformer}, whose output must be decrypted as a whole,
+ * the output of this transformer can be decrypted partially using the {@link SegmentedCipherReader}: 
+ * Only the segments holding the required data need to be read and decrypted. 
+ * 
+ * <p>The transformer uses exactly one {@link CipherSpec}, which must be an AEAD 
+ * cipher in GCM mode. It is configured like the {@link CipherTransformer}, plus 
+ * the optional {@link #PROPERTY_SEGMENT_SIZE}.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class SegmentedCipherTransformer extends CipherTransformer {
+	public static final String TYPE = "segmented-cipher";
+	
+	/**
+	 * Size of the plaintext segments, in bytes. Smaller segments allow
+	 * more fine-grained random access, but add 16 bytes of overhead each.
+	 * Default is {@link SegmentedCipherOutputStream#DEFAULT_SEGMENT_SIZE}.
+	 */
+	public static final String PROPERTY_SEGMENT_SIZE = "segment-size";
+	
+	private int segmentSize;
+	
+	public SegmentedCipherTransformer() {
+		super();
+		this.segmentSize = SegmentedCipherOutputStream.DEFAULT_SEGMENT_SIZE;
+	}
+	
+    public SegmentedCipherTransformer(CipherSpec cipherSpec, SaltedSecretKey masterKey) {
+    	this(cipherSpec, masterKey, SegmentedCipherOutputStream.DEFAULT_SEGMENT_SIZE, null);
+    }    
+	
+    public SegmentedCipherTransformer(CipherSpec cipherSpec, SaltedSecretKey masterKey, int segmentSize, Transformer nextTransformer) {
+    	super(Arrays.asList(new CipherSpec[] { cipherSpec }), masterKey);
+    	
+    	this.segmentSize = segmentSize;
+    	this.nextTransformer = nextTransformer;
+    }    
+    
+    /**
+     * Initializes the segmented cipher transformer using a settings map. Required settings
+     * are the ones of the {@link CipherTransformer#init(Map) cipher transformer}; exactly one
+     * cipher spec must be given. Optional setting is {@link #PROPERTY_SEGMENT_SIZE}. 
+     */
+    @Override
+    public void init(Map<String, String> settings) throws Exception {
+    	super.init(settings);
+    	
+    	if (getCipherSpecs().size() != 1) {
+    		throw new Exception("Setting '"+PROPERTY_CIPHER_SPECS+"' must contain exactly one cipher spec.");
+    	}
+    	
+    	if (settings.get(PROPERTY_SEGMENT_SIZE) != null) {
+    		segmentSize = Integer.parseInt(settings.get(PROPERTY_SEGMENT_SIZE));
+    		
+    		if (segmentSize <= 0) {
+    			throw new Exception("Setting '"+PROPERTY_SEGMENT_SIZE+"' must be positive.");
+    		}
+    	}
+    }
+    
+	@Override
+	public OutputStream createOutputStream(OutputStream out) throws IOException {
+		if (getCipherSession() == null) {
+			throw new RuntimeException("Cipher session is not initialized. Call init() before!");
+		}
+		
+		if (nextTransformer != null) {
+			out = nextTransformer.createOutputStream(out);
+		}
+		
+    	return new SegmentedCipherOutputStream(out, getCipherSpecs().get(0), getCipherSession(), segmentSize);    	
+    }
+
+    @Override
+    public InputStream createInputStream(InputStream in) throws IOException {
+		if (getCipherSession() == null) {
+			throw new RuntimeException("Cipher session is not initialized. Call init() before!");
+		}
+		
+		if (nextTransformer != null) {
+			in = nextTransformer.createInputStream(in);
+		}
+		
+    	return new SegmentedCipherInputStream(in, getCipherSession());    	
+    }    
+
+    @Override
+    public String toString() {
+        return (nextTransformer == null) ? "SegmentedCipher" : "SegmentedCipher-"+nextTransformer;
+    }
+}
@@ -21,7 +21,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,6 +52,16 @@ import java.util.logging.Logger;
  * the backup breakpoint found by <i>D'</i> is used. If <i>D</i> also does not find any
  * breakpoints, TTTD simply cuts the chunk at the maximum chunk size. TTTD hence guarantees 
  * to emit chunks with a minimum and maximum size.
+ * 
+ * <p>Files are chunked by the {@link TTTDBlockEnumeration}, which reads the file in
+ * large blocks through a {@link FileChannel} and reuses its chunk buffer. The chunk
+ * contents returned by {@link Chunk#getContent()} are hence only valid until the next
+ * chunk is requested. The stream-based {@link TTTDEnumeration} produces identical
+ * chunks and can be used if only an {@link InputStream} is available. Files larger than
+ * the {@link #getMappedThreshold() mapped threshold} are chunked by the {@link TTTDMappedEnumeration},
+ * which emits zero-copy chunks of a memory-mapped file. If a {@link #getParallelThreshold() parallel
+ * threshold} is set (disabled by default), larger files are chunked by multiple threads using the
+ * {@link TTTDParallelEnumeration}.
  *
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  * @see <a href="http://www.hpl.hp.com/techreports/2005/HPL-2005-30R1.html">Original TTTD paper: A framework for analyzing and improving content-based chunking algorithms</a>,
@@ -58,9 +71,15 @@ public class TttdChunker extends Chunker {
     private static final Logger logger = Logger.getLogger(TttdChunker.class.getSimpleName());   
 
     public static final int DEFAULT_WINDOW_SIZE = 48; // like LBFS
+    public static final int DEFAULT_AVG_CHUNK_SIZE = 512*1024;
     public static final String DEFAULT_DIGEST_ALG = "SHA1";
     public static final String DEFAULT_FINGERPRINT_ALG = "Adler32";
     
+	public static final String TYPE = "tttd";
+	public static final String PROPERTY_SIZE = "size";
+	public static final String PROPERTY_DIGEST_ALG = "digest";
+	public static final String PROPERTY_FINGERPRINT_ALG = "fingerprint";
+    
     private int Tmin;
     private int Tmax;
     private int D;
@@ -70,6 +89,15 @@ public class TttdChunker extends Chunker {
     private String fingerprintAlgorithm;
     private String name;   
     
+    /**
+     * Creates a new TTTD chunker with the default average chunk size (512 KB), window size,
+     * and digest/fingerprinting algorithm. This constructor is used by 
+     * {@link Chunker#getInstance(String) getInstance()}.
+     */
+    public TttdChunker() {
+    	this(DEFAULT_AVG_CHUNK_SIZE);
+    }
+    
     public TttdChunker(int Tmin, int Tmax, int D, int Ddash, int windowSize) {
         this(Tmin, Tmax, D, Ddash, windowSize, DEFAULT_DIGEST_ALG, DEFAULT_FINGERPRINT_ALG);
     }
@@ -87,7 +115,44 @@ public class TttdChunker extends Chunker {
      * LBFS: avg. chunk size = 1015 bytes --> Tmin = 460, Tmax = 2800, D = 540, Ddash = 270
      */
     public TttdChunker(int avgChunkSize, int windowSize, String digestAlg, String fingerprintAlg) {        
-        this(
+        initParameters(avgChunkSize, windowSize, digestAlg, fingerprintAlg);
+    }
+    
+    public TttdChunker(int Tmin, int Tmax, int D, int Ddash, int windowSize, String digestAlg, String fingerprintAlg) {
+        initParameters(Tmin, Tmax, D, Ddash, windowSize, digestAlg, fingerprintAlg, "TTTD-"+Tmin+"-"+Tmax+"-"+D+"-"+Ddash+"-"+digestAlg+"-"+fingerprintAlg);
+    }
+    
+    /**
+     * Initializes the TTTD chunker using a settings map. 
+     * <br>
+     * Optional settings are: 
+     * <ul>
+     *  <li> key: {@link #PROPERTY_SIZE}, value: average chunk size in KB, encoded as String
+     *  <li> key: {@link #PROPERTY_DIGEST_ALG}, value: chunk/file checksum algorithm (e.g. SHA1)
+     *  <li> key: {@link #PROPERTY_FINGERPRINT_ALG}, value: fingerprinting algorithm (e.g. Adler32)
+     *  <li> key: {@link #PROPERTY_MAPPED_THRESHOLD}, value: min. file size in MB for memory-mapped chunking
+     *  <li> key: {@link #PROPERTY_PARALLEL_THRESHOLD}, value: min. file size in MB for parallel chunking
+     *  <li> key: {@link #PROPERTY_FILE_CHECKSUM}, value: file checksum mode (<tt>content</tt> or <tt>chunks</tt>)
+     * </ul>
+     */
+    @Override
+    public void init(Map<String, String> settings) throws Exception {
+    	if (settings == null) {
+    		return;
+    	}
+    	
+    	int avgChunkSize = (settings.get(PROPERTY_SIZE) != null) ? Integer.parseInt(settings.get(PROPERTY_SIZE)) * 1024 : DEFAULT_AVG_CHUNK_SIZE;
+    	String digestAlg = (settings.get(PROPERTY_DIGEST_ALG) != null) ? settings.get(PROPERTY_DIGEST_ALG) : DEFAULT_DIGEST_ALG;
+    	String fingerprintAlg = (settings.get(PROPERTY_FINGERPRINT_ALG) != null) ? settings.get(PROPERTY_FINGERPRINT_ALG) : DEFAULT_FINGERPRINT_ALG;
+    	
+    	initParameters(avgChunkSize, DEFAULT_WINDOW_SIZE, digestAlg, fingerprintAlg);
+    	initMappedThreshold(settings);
+    	initParallelThreshold(settings);
+    	initFileChecksumMode(settings);
+    }
+    
+    private void initParameters(int avgChunkSize, int windowSize, String digestAlg, String fingerprintAlg) {
+        initParameters(
            /* Tmin */ (int) Math.round(460.0*avgChunkSize/1015.0), 
            /* Tmax */ (int) Math.round(2800.0*avgChunkSize/1015.0),
            /*   D  */ (int) Math.round(540.0*avgChunkSize/1015.0),
@@ -95,11 +160,7 @@ public class TttdChunker extends Chunker {
            /* rest */ windowSize, digestAlg, fingerprintAlg, "TTTD-"+avgChunkSize+"-"+digestAlg+"-"+fingerprintAlg);              
     }
     
-    public TttdChunker(int Tmin, int Tmax, int D, int Ddash, int windowSize, String digestAlg, String fingerprintAlg) {
-        this(Tmin, Tmax, D, Ddash, windowSize, digestAlg, fingerprintAlg, "TTTD-"+Tmin+"-"+Tmax+"-"+D+"-"+Ddash+"-"+digestAlg+"-"+fingerprintAlg);
-    }
-    
-    private TttdChunker(int Tmin, int Tmax, int D, int Ddash, int windowSize, String digestAlg, String fingerprintAlg, String name) {
+    private void initParameters(int Tmin, int Tmax, int D, int Ddash, int windowSize, String digestAlg, String fingerprintAlg, String name) {
         this.Tmin = Tmin;
         this.Tmax = Tmax;
         this.D = D;
@@ -116,7 +177,15 @@ public class TttdChunker extends Chunker {
    
     @Override
     public ChunkEnumeration createChunks(File file) throws IOException {
-        return new TTTDEnumeration(new FileInputStream(file));
+        if (isParallelChunking(file)) {
+            return new TTTDParallelEnumeration(file);
+        }
+        else if (isMappedChunking(file)) {
+            return new TTTDMappedEnumeration(new FileInputStream(file).getChannel());
+        }
+        else {
+            return new TTTDBlockEnumeration(new FileInputStream(file).getChannel());
+        }
     }    
 
 	@Override
@@ -137,7 +206,7 @@ public class TttdChunker extends Chunker {
         private int cpos;
         
         private MessageDigest chunkDigest;
-        private MessageDigest fileDigest;
+        private FileDigest fileDigest;
         private Fingerprinter fingerprinter;
 
         public TTTDEnumeration(InputStream in) throws IOException {
@@ -150,9 +219,7 @@ public class TttdChunker extends Chunker {
             try {
                 this.fingerprinter = Fingerprinter.getInstance(fingerprintAlgorithm);                
                 this.chunkDigest = MessageDigest.getInstance(checksumAlgorithm);
-                this.fileDigest = MessageDigest.getInstance(checksumAlgorithm);
-                
-                this.fileDigest.reset();
+                this.fileDigest = new FileDigest(checksumAlgorithm, fileChecksumMode);
             }
             catch (Exception e) {
                 throw new RuntimeException(e);
@@ -189,7 +256,7 @@ public class TttdChunker extends Chunker {
                             break;
                         }
                                             
-                        fileDigest.update(c, 0, clen);                        
+                        fileDigest.updateContent(c, 0, clen);                        
                     }
                         
                     bufpos++; cpos++;
@@ -251,6 +318,8 @@ public class TttdChunker extends Chunker {
                 byte[] chunkChecksum = chunkDigest.digest();
                 byte[] chunkContents = buf;
                 int chunkSize = breakpoint;
+                
+                fileDigest.updateChunk(chunkChecksum);
                 byte[] fileChecksum = (clen == -1) ? fileDigest.digest() : null;
                 
                 return new Chunk(chunkChecksum, chunkContents, chunkSize, fileChecksum);
@@ -275,17 +344,257 @@ public class TttdChunker extends Chunker {
     		int bytesRead = 0;
     		
     		while (bytesRead < readToBuffer.length) {
-    			int byteRead = inputStream.read();
+    			int read = inputStream.read(readToBuffer, bytesRead, readToBuffer.length - bytesRead);
     			
-    			if (byteRead == -1) {
+    			if (read == -1) {
     				return (bytesRead != 0) ? bytesRead : -1;
     			}
     			
-    			readToBuffer[bytesRead] = (byte) byteRead;
-    			bytesRead++;
+    			bytesRead += read;
     		}
     		
     		return (bytesRead != 0) ? bytesRead : -1;
     	}
     }
-}
\ No newline at end of file
+    
+    /**
+     * Block-reading implementation of the TTTD enumeration. Instead of copying the
+     * file byte by byte, this enumeration fills a single chunk buffer of size
+     * <i>Tmax</i> directly from a {@link FileChannel} and only moves the bytes
+     * after a breakpoint to the front of the buffer before the next chunk is
+     * determined.
+     * 
+     * <p>The chunk boundaries and checksums are identical to the ones created by
+     * the {@link TTTDEnumeration}. This includes the empty last chunk that is emitted
+     * if a breakpoint falls on the very last byte of the file. 
+     * 
+     * <p><b>Note:</b> The chunk buffer is reused, i.e. the contents of a chunk are 
+     * overwritten when the next chunk is requested.
+     */
+    public class TTTDBlockEnumeration implements ChunkEnumeration {
+        private FileChannel channel;
+        private boolean closed;
+        private boolean eof;
+        
+        private byte[] buf;
+        private ByteBuffer byteBuf;
+        private int bufLen;
+        private int lastChunkSize;
+        
+        private MessageDigest chunkDigest;
+        private FileDigest fileDigest;
+        private Fingerprinter fingerprinter;
+        
+        public TTTDBlockEnumeration(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.closed = false;
+            this.eof = false;
+            
+            this.buf = new byte[Tmax];
+            this.byteBuf = ByteBuffer.wrap(buf);
+            this.bufLen = 0;
+            this.lastChunkSize = 0;
+            
+            try {
+                this.fingerprinter = Fingerprinter.getInstance(fingerprintAlgorithm);                
+                this.chunkDigest = MessageDigest.getInstance(checksumAlgorithm);
+                this.fileDigest = new FileDigest(checksumAlgorithm, fileChecksumMode);
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return !closed;
+        }
+
+        @Override
+        public Chunk nextElement() {
+            if (closed) {
+                return null;
+            }
+            
+            try {
+                // Move remaining bytes of last read to the front, and fill buffer
+                if (lastChunkSize > 0) {
+                    System.arraycopy(buf, lastChunkSize, buf, 0, bufLen - lastChunkSize);
+                    bufLen -= lastChunkSize;
+                }
+                
+                fillBuffer();
+                
+                // Find breakpoint
+                int breakpoint = findBreakpoint();
+                boolean contentBreakpoint = breakpoint != -1;
+                
+                int chunkSize = (contentBreakpoint) ? breakpoint+1 : Math.min(bufLen, Tmax);
+                
+                // Last chunk, if the end of file was reached and the chunk was not cut
+                // by the fingerprinter (see TTTDEnumeration, emits an empty chunk in this case)
+                boolean lastChunk = eof && chunkSize == bufLen && !contentBreakpoint;
+                
+                if (lastChunk) {
+                    channel.close();
+                    closed = true;
+                }
+                
+                // Create chunk
+                chunkDigest.reset();
+                chunkDigest.update(buf, 0, chunkSize);
+                fileDigest.updateContent(buf, 0, chunkSize);
+                
+                byte[] chunkChecksum = chunkDigest.digest();
+                fileDigest.updateChunk(chunkChecksum);
+                
+                byte[] fileChecksum = (lastChunk) ? fileDigest.digest() : null;
+                
+                lastChunkSize = chunkSize;
+                
+                return new Chunk(chunkChecksum, buf, chunkSize, fileChecksum);
+            }
+            catch (IOException ex) {
+                logger.log(Level.SEVERE, "Error while retrieving next chunk.", ex);
+                return null;
+            }
+        }
+
+        @Override
+        public void close() {
+            try { channel.close(); }
+            catch (Exception e) { /* Not necessary */ }
+        }
+        
+        /**
+         * Reads from the file channel until the chunk buffer is full or
+         * the end of the file is reached.
+         */
+        private void fillBuffer() throws IOException {
+            byteBuf.clear();
+            byteBuf.position(bufLen);
+            
+            while (!eof && byteBuf.hasRemaining()) {
+                if (channel.read(byteBuf) == -1) {
+                    eof = true;
+                }
+            }
+            
+            bufLen = byteBuf.position();
+        }
+        
+        /**
+         * Returns the position of the fingerprint-based breakpoint in the
+         * current buffer, or -1 if no such breakpoint was found. Like the {@link TTTDEnumeration},
+         * the fingerprint window is initialized at position <i>Tmin</i> and rolled from there.
+         */
+        private int findBreakpoint() {
+            int limit = Math.min(bufLen, Tmax);
+            
+            if (limit <= Tmin) {
+                return -1;
+            }
+            
+            fingerprinter.reset();
+            fingerprinter.check(buf, Tmin-windowSize, windowSize);
+            
+            for (int pos = Tmin; pos < limit; pos++) {
+                if (pos > Tmin) {
+                    fingerprinter.roll(buf[pos]);
+                }
+                
+                if ((fingerprinter.getValue() % D) == D-1) {
+                    return pos;
+                }
+            }
+            
+            return -1;
+        }
+    }
+    
+    /**
+     * Memory-mapped implementation of the TTTD enumeration. Chunks are emitted as zero-copy
+     * views of the mapped file (see {@link MappedChunkEnumeration}). Chunk boundaries and 
+     * checksums are identical to the ones created by the {@link TTTDEnumeration}.
+     */
+    public class TTTDMappedEnumeration extends MappedChunkEnumeration {
+        private Fingerprinter fingerprinter;
+        private byte[] window;
+        private boolean contentBreakpoint;
+        
+        public TTTDMappedEnumeration(FileChannel channel) throws IOException {
+            super(channel, Tmax, checksumAlgorithm, fileChecksumMode);
+            
+            this.window = new byte[windowSize];
+            this.contentBreakpoint = false;
+            
+            try {
+                this.fingerprinter = Fingerprinter.getInstance(fingerprintAlgorithm);
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        
+        @Override
+        protected int nextChunkSize(ByteBuffer buffer, int offset, int length) {
+            int limit = Math.min(length, Tmax);
+            contentBreakpoint = false;
+            
+            if (limit <= Tmin) {
+                return limit;
+            }
+            
+            for (int i = 0; i < windowSize; i++) {
+                window[i] = buffer.get(offset+Tmin-windowSize+i);
+            }
+            
+            fingerprinter.reset();
+            fingerprinter.check(window, 0, windowSize);
+            
+            for (int pos = Tmin; pos < limit; pos++) {
+                if (pos > Tmin) {
+                    fingerprinter.roll(buffer.get(offset+pos));
+                }
+                
+                if ((fingerprinter.getValue() % D) == D-1) {
+                    contentBreakpoint = true;
+                    return pos+1;
+                }
+            }
+            
+            return limit;
+        }
+        
+        /**
+         * Like the {@link TTTDEnumeration}, the chunk is only the last chunk if it
+         * was not cut by the fingerprinter or at <i>Tmax</i>. Otherwise, an empty
+         * chunk follows.
+         */
+        @Override
+        protected boolean isLastChunk(int chunkSize, long remainingFileBytes) {
+            return chunkSize == remainingFileBytes && !contentBreakpoint && chunkSize < Tmax;
+        }
+        
+        @Override
+        protected int getMaxChunkSize() {
+            return Tmax;
+        }
+    }
+    
+    /**
+     * Parallel implementation of the TTTD enumeration, chunking segments of a file using 
+     * multiple {@link TTTDMappedEnumeration}s (see {@link ParallelChunkEnumeration} for
+     * details on how the chunks differ from the {@link TTTDEnumeration}).
+     */
+    public class TTTDParallelEnumeration extends ParallelChunkEnumeration {
+        public TTTDParallelEnumeration(File file) throws IOException {
+            super(file, parallelExecutor, parallelThreads, Tmax, checksumAlgorithm, fileChecksumMode);
+        }
+
+        @Override
+        protected MappedChunkEnumeration createMappedEnumeration(FileChannel channel) throws IOException {
+            return new TTTDMappedEnumeration(channel);
+        }
+    }
+}
@@ -90,10 +90,11 @@ public class ZipMultiChunk extends MultiChunk {
         }
         
         int read;
+        byte[] buffer = new byte[8192];
         ByteArrayOutputStream contentByteArray = new ByteArrayOutputStream();
         
-        while (-1 != (read = zipIn.read())) {
-        	contentByteArray.write(read);
+        while (-1 != (read = zipIn.read(buffer))) {
+        	contentByteArray.write(buffer, 0, read);
         }       
         
         return new Chunk(StringUtil.fromHex(entry.getName()), contentByteArray.toByteArray(), contentByteArray.size(), null);
@@ -110,6 +111,9 @@ public class ZipMultiChunk extends MultiChunk {
         if (zipOut != null) {
             zipOut.close();
         }
+        else if (zipFile != null) {
+            zipFile.close();
+        }
         else {
             zipIn.close();
         }
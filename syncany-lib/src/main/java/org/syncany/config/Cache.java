@@ -35,6 +35,7 @@ public class Cache {
 	private static String FILE_FORMAT_MULTICHUNK_ENCRYPTED = "multichunk-%s";
 	private static String FILE_FORMAT_MULTICHUNK_DECRYPTED = "multichunk-%s-decrypted";
     private static String FILE_FORMAT_DATABASE_FILE_ENCRYPTED = "%s";
+    private static String FILE_CHUNK_INDEX = "chunk-index";
 
     private File cacheDir;
     
@@ -66,6 +67,10 @@ public class Cache {
 	public File getDatabaseFile(String name) {
 		return getFileInCache(FILE_FORMAT_DATABASE_FILE_ENCRYPTED, name);		
 	}    
+	
+	public File getChunkIndexFile() {
+		return getFileInCache(FILE_CHUNK_INDEX);
+	}
 
     public File createTempFile(String name) throws Exception {
        try {
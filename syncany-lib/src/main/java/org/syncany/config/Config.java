@@ -18,7 +18,10 @@
 package org.syncany.config;
 
 import java.io.File;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.CipherTransformer;
@@ -28,6 +31,7 @@ import org.syncany.chunk.NoTransformer;
 import org.syncany.chunk.Transformer;
 import org.syncany.config.to.ConfigTO;
 import org.syncany.config.to.RepoTO;
+import org.syncany.config.to.RepoTO.ChunkerTO;
 import org.syncany.config.to.RepoTO.MultiChunkerTO;
 import org.syncany.config.to.RepoTO.TransformerTO;
 import org.syncany.connection.plugins.Connection;
@@ -36,6 +40,7 @@ import org.syncany.connection.plugins.Plugins;
 import org.syncany.connection.plugins.StorageException;
 import org.syncany.crypto.SaltedSecretKey;
 import org.syncany.database.DatabaseConnectionFactory;
+import org.syncany.database.SqlDatabase;
 import org.syncany.util.FileUtil;
 import org.syncany.util.StringUtil;
 
@@ -50,6 +55,7 @@ import org.syncany.util.StringUtil;
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class Config {
+	private static final Logger logger = Logger.getLogger(Config.class.getSimpleName());
 	
 	public static final String DIR_APPLICATION = ".syncany";
 	public static final String DIR_CACHE = "cache";
@@ -58,6 +64,13 @@ public class Config {
 	public static final String FILE_CONFIG = "config.xml";
 	public static final String FILE_REPO = "repo";
 	public static final String FILE_MASTER = "master";
+	
+	/**
+	 * Default number of threads used to chunk files during indexing, if not 
+	 * configured otherwise (see {@link ConfigTO#getIndexerThreads()}). The default 
+	 * is deliberately small, so that indexing does not saturate the machine.
+	 */
+	public static final int DEFAULT_INDEXER_THREADS = 2;
 		
 	private byte[] repoId;
 	private String machineName;
@@ -69,9 +82,13 @@ public class Config {
 	private File logDir;
 	
 	private SaltedSecretKey masterKey;
+	private int indexerThreads;
 
 	private Cache cache;	
 	private Connection connection;
+	private java.sql.Connection databaseConnection;
+	private SqlDatabase sqlDatabase;
+	private java.sql.Connection sqlDatabaseConnection;
     private Chunker chunker;
     private MultiChunker multiChunker;
     private Transformer transformer;
@@ -83,6 +100,7 @@ public class Config {
 	public Config(File aLocalDir, ConfigTO configTO, RepoTO repoTO) throws ConfigException {		
 		initNames(configTO);
 		initMasterKey(configTO);
+		initIndexerThreads(configTO);
 		initDirectories(aLocalDir);
 		initCache();
 		initRepo(repoTO);
@@ -102,6 +120,18 @@ public class Config {
 		masterKey = configTO.getMasterKey(); // can be null			
 	}
 
+	private void initIndexerThreads(ConfigTO configTO) throws ConfigException {
+		if (configTO.getIndexerThreads() == null) {
+			indexerThreads = Math.min(DEFAULT_INDEXER_THREADS, Runtime.getRuntime().availableProcessors());
+		}
+		else if (configTO.getIndexerThreads() >= 1) {
+			indexerThreads = configTO.getIndexerThreads();
+		}
+		else {
+			throw new ConfigException("Number of indexer threads must be at least 1, but was " + configTO.getIndexerThreads() + ".");
+		}
+	}
+
 	private void initDirectories(File aLocalDir) throws ConfigException {
 		if (aLocalDir == null) {
 			throw new ConfigException("Local dir cannot be null.");
@@ -135,29 +165,25 @@ public class Config {
 	}
 
 	private void initChunker(RepoTO repoTO) throws Exception {
-		// TODO [feature request] make chunking options configurable, something like this:
-		//  chunker = Chunker.getInstance(repoTO.getChunker().getType());
-		//  chunker.init(repoTO.getChunker().getSettings());
-		
-		chunker = new FixedChunker(2*1024*1024, "SHA1");
+		ChunkerTO chunkerTO = repoTO.getChunker();
 		
-		/*new MimeTypeChunker(
-			new FixedChunker(64*1024, "SHA1"),
-			new FixedChunker(2*1024*1024, "SHA1"),
-			Arrays.asList(new String[] {
-				"application/x-gzip",
-				"application/x-compressed.*",
-				"application/zip",		
-				"application/x-java-archive",	
-				"application/octet-stream",
-				"application/x-sharedlib",
-				"application/x-executable",
-				"application/x-iso9660-image",
-				"image/.+",
-				"audio/.+",
-				"video/.+",				
-			})
-		);*/
+		if (chunkerTO == null || chunkerTO.getType() == null) {
+			chunker = new FixedChunker(FixedChunker.DEFAULT_CHUNK_SIZE, FixedChunker.DEFAULT_DIGEST_ALG);
+		}
+		else if (chunkerTO.isLegacy()) {
+			// Chunker settings of old repos were never applied; they were always chunked with 2 MB 
+			logger.log(Level.INFO, "Repo chunker settings have no version; ignoring them and using the legacy fixed 2 MB chunker.");
+			chunker = new FixedChunker(FixedChunker.DEFAULT_CHUNK_SIZE, FixedChunker.DEFAULT_DIGEST_ALG);
+		}
+		else {
+			chunker = Chunker.getInstance(chunkerTO.getType());
+			
+			if (chunker == null) {
+				throw new Exception("Cannot find chunker '"+chunkerTO.getType()+"'");
+			}
+			
+			chunker.init(chunkerTO.getSettings());
+		}
 	}
 
 	private void initMultiChunker(RepoTO repoTO) {
@@ -219,10 +245,80 @@ public class Config {
 		}
 	}
 	
+	/**
+	 * Opens a new connection to the local database. Unlike {@link #getDatabaseConnection()},
+	 * the returned connection is not shared and must be closed by the caller. 
+	 */
 	public java.sql.Connection createDatabaseConnection() {
 		return DatabaseConnectionFactory.createConnection(getDatabaseFile());
 	}
 	
+	/**
+	 * Returns the local database connection shared by all users of this config. The
+	 * connection is opened on first use and kept open until {@link #closeDatabaseConnection()}
+	 * is called, so that multiple operations (e.g. in a <tt>watch</tt> loop) only open
+	 * the database once. If the connection has been closed, a new one is opened.
+	 */
+	public synchronized java.sql.Connection getDatabaseConnection() {
+		try {
+			if (databaseConnection == null || databaseConnection.isClosed()) {
+				databaseConnection = createDatabaseConnection();
+			}
+			
+			return databaseConnection;
+		}
+		catch (SQLException e) {
+			throw new RuntimeException("Cannot check database connection.", e);
+		}
+	}
+	
+	/**
+	 * Returns the {@link SqlDatabase} shared by all operations using this config. It uses the
+	 * {@link #getDatabaseConnection() shared connection}, and is created on first use. Sharing
+	 * the instance means that its prepared statements and its chunk index (including the lock
+	 * on the index file) exist only once. The instance is closed by {@link #closeDatabaseConnection()}.
+	 */
+	public synchronized SqlDatabase getSqlDatabase() {
+		java.sql.Connection connection = getDatabaseConnection();
+		
+		if (sqlDatabase == null || sqlDatabaseConnection != connection) {
+			if (sqlDatabase != null) {
+				sqlDatabase.close();
+			}
+			
+			sqlDatabase = new SqlDatabase(this);
+			sqlDatabaseConnection = connection;
+		}
+		
+		return sqlDatabase;
+	}
+	
+	/**
+	 * Closes the shared {@link SqlDatabase} and the shared local database connection, if they
+	 * have been opened. Since the database is opened with <tt>shutdown=true</tt>, this shuts down 
+	 * the database once the last connection is closed. 
+	 */
+	public synchronized void closeDatabaseConnection() {
+		if (sqlDatabase != null) {
+			sqlDatabase.close();
+			
+			sqlDatabase = null;
+			sqlDatabaseConnection = null;
+		}
+		
+		if (databaseConnection != null) {
+			try {
+				databaseConnection.close();
+			}
+			catch (SQLException e) {
+				logger.log(Level.WARNING, "Cannot close database connection.", e);
+			}
+			finally {
+				databaseConnection = null;
+			}
+		}
+	}
+	
 	public void setCacheDir(File file) {
 		cacheDir = file;
 		cache = new Cache(cacheDir);
@@ -312,6 +408,14 @@ public class Config {
 		return databaseDir;
 	}	
 
+	public int getIndexerThreads() {
+		return indexerThreads;
+	}
+	
+	public void setIndexerThreads(int indexerThreads) {
+		this.indexerThreads = indexerThreads;
+	}
+
 	public SaltedSecretKey getMasterKey() {
 		return masterKey;
 	}
@@ -59,6 +59,9 @@ public class ConfigTO {
 	
 	@Element(name="connection", required=true)
 	private ConnectionTO connectionTO;
+	
+	@Element(name="indexerthreads", required=false)
+	private Integer indexerThreads;
 
 	public static ConfigTO load(File file) throws ConfigException {
 		try {
@@ -93,6 +96,14 @@ public class ConfigTO {
 		this.connectionTO = connectionTO;
 	}
 	
+	public Integer getIndexerThreads() {
+		return indexerThreads;
+	}
+
+	public void setIndexerThreads(Integer indexerThreads) {
+		this.indexerThreads = indexerThreads;
+	}
+	
 	public SaltedSecretKey getMasterKey() {
 		return masterKey;
 	}
@@ -20,6 +20,7 @@ package org.syncany.config.to;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
 import org.simpleframework.xml.ElementList;
 import org.simpleframework.xml.Namespace;
@@ -104,8 +105,29 @@ public class RepoTO {
 		this.transformers = (transformers != null) ? new ArrayList<TransformerTO>(transformers) : null;
 	}
 
+	/**
+	 * The chunker transfer object additionally stores the version of the chunker
+	 * settings. Repositories created before chunkers became configurable have no
+	 * version: their chunker settings were never applied, so they must be read
+	 * as the legacy fixed 2 MB chunker (see {@link #isLegacy()}).
+	 */
 	public static class ChunkerTO extends TypedPropertyListTO {
-		// Nothing special about this
+		public static final int CURRENT_VERSION = 1;
+		
+		@Attribute(required=false)
+		private Integer version;
+
+		public Integer getVersion() {
+			return version;
+		}
+
+		public void setVersion(Integer version) {
+			this.version = version;
+		}
+		
+		public boolean isLegacy() {
+			return version == null;
+		}
 	}
 	
 	public static class MultiChunkerTO extends TypedPropertyListTO {
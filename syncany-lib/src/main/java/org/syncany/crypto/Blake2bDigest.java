@@ -0,0 +1,238 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import java.security.MessageDigest;
+
+/**
+ * Pure Java implementation of the BLAKE2b message digest (unkeyed), as specified in
+ * RFC 7693. BLAKE2b is at least as secure as SHA-3, but is considerably faster than
+ * SHA-1 and SHA-2 on 64-bit platforms, since it mostly consists of 64-bit additions, 
+ * XORs and rotations. 
+ * 
+ * <p>The digest is available through {@link MessageDigest#getInstance(String)} once the
+ * {@link DigestProvider} is installed, using the algorithm names <tt>BLAKE2b-256</tt>
+ * and <tt>BLAKE2b-512</tt>.  
+ * 
+ * @see <a href="https://tools.ietf.org/html/rfc7693">RFC 7693: The BLAKE2 Cryptographic Hash and Message Authentication Code (MAC)</a>
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class Blake2bDigest extends MessageDigest implements Cloneable {
+    private static final int BLOCK_LENGTH = 128;
+    private static final int ROUNDS = 12;
+    
+    private static final long[] IV = new long[] {
+        0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+        0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+    };
+
+    private static final byte[][] SIGMA = new byte[][] {
+        { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 },
+        { 14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3 },
+        { 11, 8, 12, 0, 5, 2, 15, 13, 10, 14, 3, 6, 7, 1, 9, 4 },
+        { 7, 9, 3, 1, 13, 12, 11, 14, 2, 6, 5, 10, 4, 0, 15, 8 },
+        { 9, 0, 5, 7, 2, 4, 10, 15, 14, 1, 11, 12, 6, 8, 3, 13 },
+        { 2, 12, 6, 10, 0, 11, 8, 3, 4, 13, 7, 5, 15, 14, 1, 9 },
+        { 12, 5, 1, 15, 14, 13, 4, 10, 0, 7, 6, 3, 9, 2, 8, 11 },
+        { 13, 11, 7, 14, 12, 1, 3, 9, 5, 0, 15, 4, 8, 6, 2, 10 },
+        { 6, 15, 14, 9, 11, 3, 0, 8, 12, 2, 13, 7, 1, 4, 10, 5 },
+        { 10, 2, 8, 4, 7, 6, 1, 5, 15, 11, 9, 14, 3, 12, 13, 0 },
+        { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 },
+        { 14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3 }
+    };
+
+    private final int digestLength;
+    
+    private long[] h;
+    private long[] m;
+    private byte[] buffer;
+    private int bufferPos;
+    private long counter;
+
+    public Blake2bDigest(int digestLength) {
+        super("BLAKE2b-" + digestLength*8);
+        
+        if (digestLength < 1 || digestLength > 64) {
+            throw new IllegalArgumentException("Digest length must be between 1 and 64 bytes.");
+        }
+
+        this.digestLength = digestLength;
+        this.h = new long[8];
+        this.m = new long[16];
+        this.buffer = new byte[BLOCK_LENGTH];
+        
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return digestLength;
+    }
+
+    @Override
+    protected void engineReset() {
+        System.arraycopy(IV, 0, h, 0, 8);
+        h[0] ^= 0x01010000L ^ digestLength;
+
+        bufferPos = 0;
+        counter = 0;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        if (bufferPos == BLOCK_LENGTH) {
+            counter += BLOCK_LENGTH;
+            compress(buffer, 0, false);
+            bufferPos = 0;
+        }
+
+        buffer[bufferPos++] = input;
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+
+        // Fill buffer first; the last block must stay in the buffer (see engineDigest)
+        if (bufferPos > 0) {
+            int fill = Math.min(BLOCK_LENGTH - bufferPos, length);
+            System.arraycopy(input, offset, buffer, bufferPos, fill);
+
+            bufferPos += fill;
+            offset += fill;
+            length -= fill;
+
+            if (length == 0) {
+                return;
+            }
+
+            counter += BLOCK_LENGTH;
+            compress(buffer, 0, false);
+            bufferPos = 0;
+        }
+
+        // Compress full blocks directly from the input
+        while (length > BLOCK_LENGTH) {
+            counter += BLOCK_LENGTH;
+            compress(input, offset, false);
+
+            offset += BLOCK_LENGTH;
+            length -= BLOCK_LENGTH;
+        }
+
+        System.arraycopy(input, offset, buffer, 0, length);
+        bufferPos = length;
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        counter += bufferPos;
+
+        for (int i = bufferPos; i < BLOCK_LENGTH; i++) {
+            buffer[i] = 0;
+        }
+
+        compress(buffer, 0, true);
+
+        byte[] digest = new byte[digestLength];
+
+        for (int i = 0; i < digestLength; i++) {
+            digest[i] = (byte) (h[i >>> 3] >>> ((i & 7) << 3));
+        }
+
+        engineReset();
+        return digest;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        Blake2bDigest clone = (Blake2bDigest) super.clone();
+        
+        clone.h = h.clone();
+        clone.m = new long[16];
+        clone.buffer = buffer.clone();
+        
+        return clone;
+    }
+    
+    private void compress(byte[] block, int offset, boolean lastBlock) {
+        for (int i = 0; i < 16; i++) {
+            m[i] = readLongLittleEndian(block, offset + i*8);
+        }
+
+        long v0 = h[0], v1 = h[1], v2 = h[2], v3 = h[3], v4 = h[4], v5 = h[5], v6 = h[6], v7 = h[7];
+        long v8 = IV[0], v9 = IV[1], v10 = IV[2], v11 = IV[3];
+        long v12 = IV[4] ^ counter, v13 = IV[5], v14 = (lastBlock) ? ~IV[6] : IV[6], v15 = IV[7];
+
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[] s = SIGMA[round];
+            
+            v0 += v4 + m[s[0]]; v12 = Long.rotateRight(v12 ^ v0, 32); v8 += v12; v4 = Long.rotateRight(v4 ^ v8, 24);
+            v0 += v4 + m[s[1]]; v12 = Long.rotateRight(v12 ^ v0, 16); v8 += v12; v4 = Long.rotateRight(v4 ^ v8, 63);
+            v1 += v5 + m[s[2]]; v13 = Long.rotateRight(v13 ^ v1, 32); v9 += v13; v5 = Long.rotateRight(v5 ^ v9, 24);
+            v1 += v5 + m[s[3]]; v13 = Long.rotateRight(v13 ^ v1, 16); v9 += v13; v5 = Long.rotateRight(v5 ^ v9, 63);
+            v2 += v6 + m[s[4]]; v14 = Long.rotateRight(v14 ^ v2, 32); v10 += v14; v6 = Long.rotateRight(v6 ^ v10, 24);
+            v2 += v6 + m[s[5]]; v14 = Long.rotateRight(v14 ^ v2, 16); v10 += v14; v6 = Long.rotateRight(v6 ^ v10, 63);
+            v3 += v7 + m[s[6]]; v15 = Long.rotateRight(v15 ^ v3, 32); v11 += v15; v7 = Long.rotateRight(v7 ^ v11, 24);
+            v3 += v7 + m[s[7]]; v15 = Long.rotateRight(v15 ^ v3, 16); v11 += v15; v7 = Long.rotateRight(v7 ^ v11, 63);
+
+            v0 += v5 + m[s[8]]; v15 = Long.rotateRight(v15 ^ v0, 32); v10 += v15; v5 = Long.rotateRight(v5 ^ v10, 24);
+            v0 += v5 + m[s[9]]; v15 = Long.rotateRight(v15 ^ v0, 16); v10 += v15; v5 = Long.rotateRight(v5 ^ v10, 63);
+            v1 += v6 + m[s[10]]; v12 = Long.rotateRight(v12 ^ v1, 32); v11 += v12; v6 = Long.rotateRight(v6 ^ v11, 24);
+            v1 += v6 + m[s[11]]; v12 = Long.rotateRight(v12 ^ v1, 16); v11 += v12; v6 = Long.rotateRight(v6 ^ v11, 63);
+            v2 += v7 + m[s[12]]; v13 = Long.rotateRight(v13 ^ v2, 32); v8 += v13; v7 = Long.rotateRight(v7 ^ v8, 24);
+            v2 += v7 + m[s[13]]; v13 = Long.rotateRight(v13 ^ v2, 16); v8 += v13; v7 = Long.rotateRight(v7 ^ v8, 63);
+            v3 += v4 + m[s[14]]; v14 = Long.rotateRight(v14 ^ v3, 32); v9 += v14; v4 = Long.rotateRight(v4 ^ v9, 24);
+            v3 += v4 + m[s[15]]; v14 = Long.rotateRight(v14 ^ v3, 16); v9 += v14; v4 = Long.rotateRight(v4 ^ v9, 63);
+        }
+
+        h[0] ^= v0 ^ v8;
+        h[1] ^= v1 ^ v9;
+        h[2] ^= v2 ^ v10;
+        h[3] ^= v3 ^ v11;
+        h[4] ^= v4 ^ v12;
+        h[5] ^= v5 ^ v13;
+        h[6] ^= v6 ^ v14;
+        h[7] ^= v7 ^ v15;
+    }
+
+    private static long readLongLittleEndian(byte[] buf, int offset) {
+        return (buf[offset] & 0xffL) 
+            | (buf[offset+1] & 0xffL) << 8 
+            | (buf[offset+2] & 0xffL) << 16
+            | (buf[offset+3] & 0xffL) << 24 
+            | (buf[offset+4] & 0xffL) << 32
+            | (buf[offset+5] & 0xffL) << 40 
+            | (buf[offset+6] & 0xffL) << 48
+            | (buf[offset+7] & 0xffL) << 56;
+    }
+    
+    public static class Blake2b256 extends Blake2bDigest {
+        public Blake2b256() {
+            super(32);
+        }
+    }
+    
+    public static class Blake2b512 extends Blake2bDigest {
+        public Blake2b512() {
+            super(64);
+        }
+    }
+}
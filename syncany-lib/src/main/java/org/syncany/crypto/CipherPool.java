@@ -0,0 +1,173 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import static org.syncany.crypto.CipherParams.CRYPTO_PROVIDER_ID;
+
+import java.security.Provider;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+/**
+ * Per-thread pool of {@link Cipher} and {@link Mac} objects, used by the
+ * {@link MultiCipherOutputStream} and the {@link MultiCipherInputStream}.
+ * 
+ * <p>Looking up an algorithm in a provider and setting up the cipher object is
+ * expensive compared to encrypting a small multichunk. Instead of creating
+ * new objects for every stream, the streams borrow them from this pool and
+ * return them when they are closed. A borrowed object is re-initialized with
+ * the given key and IV, so no state is carried over from its previous use.
+ * 
+ * <p>Objects are only shared within a thread, so no locking is necessary. A
+ * borrowed object belongs to the borrower until it is returned; objects that are
+ * never returned (e.g. because a stream was not closed) are simply garbage collected.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class CipherPool {
+	private static final int MAX_POOLED_PER_SPEC = 4;
+
+	private static final ThreadLocal<Map<CipherSpec, Deque<Cipher>>> cipherPool = new ThreadLocal<Map<CipherSpec, Deque<Cipher>>>() {
+		@Override
+		protected Map<CipherSpec, Deque<Cipher>> initialValue() {
+			return new HashMap<CipherSpec, Deque<Cipher>>();
+		}
+	};
+
+	private static final ThreadLocal<Map<CipherSpec, Deque<Mac>>> macPool = new ThreadLocal<Map<CipherSpec, Deque<Mac>>>() {
+		@Override
+		protected Map<CipherSpec, Deque<Mac>> initialValue() {
+			return new HashMap<CipherSpec, Deque<Mac>>();
+		}
+	};
+
+	/**
+	 * Borrows a cipher for the given cipher spec from the current thread's pool, or creates
+	 * a new one if none is available. In both cases, the cipher is initialized with the given 
+	 * mode, key and IV. Only pooled ciphers of the provider selected for the given mode 
+	 * (see {@link CipherProviders#getProvider(CipherSpec, int)}) are reused.
+	 * 
+	 * @see CipherUtil#createCipher(CipherSpec, int, SecretKey, byte[])
+	 */
+	public static Cipher borrowCipher(CipherSpec cipherSpec, int cipherInitMode, SecretKey secretKey, byte[] iv) throws CipherException {
+		return borrowCipher(cipherSpec, cipherInitMode, secretKey, iv, CipherProviders.getProvider(cipherSpec, cipherInitMode));
+	}
+	
+	/**
+	 * Borrows a cipher of the given provider from the current thread's pool, or creates a new
+	 * one if none is available. The provider must be one of the providers selected for the 
+	 * cipher spec, otherwise the cipher is not pooled when it is returned.
+	 */
+	public static Cipher borrowCipher(CipherSpec cipherSpec, int cipherInitMode, SecretKey secretKey, byte[] iv, Provider provider) throws CipherException {
+		Cipher cipher = pollCipher(getPool(cipherPool.get(), cipherSpec), provider);
+
+		if (cipher == null) {
+			return CipherUtil.createCipher(cipherSpec, cipherInitMode, secretKey, iv, provider);
+		}
+		else {
+			try {
+				cipher.init(cipherInitMode, secretKey, CipherProviders.createParameterSpec(cipherSpec, cipher.getProvider(), iv));
+				return cipher;
+			}
+			catch (Exception e) {
+				throw new CipherException(e);
+			}
+		}
+	}
+
+	/**
+	 * Returns a cipher to the current thread's pool. The cipher must not be used by the 
+	 * caller afterwards. Ciphers of a provider that is no longer selected for the cipher
+	 * spec (see {@link CipherProviders}) are discarded.
+	 */
+	public static void returnCipher(CipherSpec cipherSpec, Cipher cipher) {
+		Provider encryptionProvider = CipherProviders.getProvider(cipherSpec, Cipher.ENCRYPT_MODE);
+		Provider decryptionProvider = CipherProviders.getProvider(cipherSpec, Cipher.DECRYPT_MODE);
+
+		if (cipher.getProvider() == encryptionProvider || cipher.getProvider() == decryptionProvider) {
+			offer(getPool(cipherPool.get(), cipherSpec), cipher);
+		}
+	}
+
+	/**
+	 * Borrows a MAC for the given spec from the current thread's pool, or creates a new one
+	 * if none is available. In both cases, the MAC is initialized with the given key.
+	 */
+	public static Mac borrowMac(CipherSpec macSpec, SecretKey secretKey) throws CipherException {
+		Mac mac = getPool(macPool.get(), macSpec).pollFirst();
+
+		try {
+			if (mac == null) {
+				mac = Mac.getInstance(macSpec.getAlgorithm(), CRYPTO_PROVIDER_ID);
+			}
+
+			mac.init(secretKey);
+			return mac;
+		}
+		catch (Exception e) {
+			throw new CipherException(e);
+		}
+	}
+
+	/**
+	 * Returns a MAC to the current thread's pool. The MAC must not be used by the 
+	 * caller afterwards.
+	 */
+	public static void returnMac(CipherSpec macSpec, Mac mac) {
+		offer(getPool(macPool.get(), macSpec), mac);
+	}
+
+	private static Cipher pollCipher(Deque<Cipher> pool, Provider provider) {
+		Iterator<Cipher> poolIterator = pool.iterator();
+		
+		while (poolIterator.hasNext()) {
+			Cipher cipher = poolIterator.next();
+			
+			if (cipher.getProvider() == provider) {
+				poolIterator.remove();
+				return cipher;
+			}
+		}
+		
+		return null;
+	}
+
+	private static <T> Deque<T> getPool(Map<CipherSpec, Deque<T>> pools, CipherSpec cipherSpec) {
+		Deque<T> pool = pools.get(cipherSpec);
+
+		if (pool == null) {
+			pool = new ArrayDeque<T>();
+			pools.put(cipherSpec, pool);
+		}
+
+		return pool;
+	}
+
+	private static <T> void offer(Deque<T> pool, T object) {
+		if (pool.size() < MAX_POOLED_PER_SPEC) {
+			pool.offerFirst(object);
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import static org.syncany.crypto.CipherParams.CRYPTO_PROVIDER;
+import static org.syncany.crypto.CipherParams.CRYPTO_PROVIDER_ID;
+
+import java.security.Provider;
+import java.security.Security;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * Selects the fastest installed JCE provider for each {@link CipherSpec}.
+ * 
+ * <p>Syncany has always used the Bouncy Castle provider ({@link CipherParams#CRYPTO_PROVIDER})
+ * for all ciphers. Other providers may implement the same algorithms much faster, e.g. the
+ * JDK's <tt>SunJCE</tt> provider uses the AES-NI and CLMUL instructions for AES/GCM. 
+ * 
+ * <p>When a cipher spec is used for the first time, all installed providers that offer its 
+ * algorithm are probed: A candidate provider must produce exactly the same ciphertext as 
+ * Bouncy Castle for a random key, IV and plaintext, and it must be able to decrypt Bouncy
+ * Castle's ciphertext. Among the compatible providers, the fastest one is selected and cached 
+ * for the lifetime of the JVM. Bouncy Castle remains the fallback, e.g. for Twofish, which
+ * is not offered by any of the JDK providers.
+ * 
+ * <p>The fastest provider is only used for decryption if it decrypts in a streaming fashion,
+ * i.e. if it returns plaintext from {@link Cipher#update(byte[]) update()}. The JDK's AES/GCM
+ * implementation buffers the entire ciphertext until {@link Cipher#doFinal() doFinal()} to
+ * verify the tag first, which would hold whole multichunks in memory. In that case, Bouncy 
+ * Castle (which streams) is used for decryption, see {@link #getProvider(CipherSpec, int)}.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class CipherProviders {
+	private static final Logger logger = Logger.getLogger(CipherProviders.class.getSimpleName());
+
+	private static final int COMPATIBILITY_DATA_SIZE = 64*1024;
+	private static final int BENCHMARK_DATA_SIZE = 1024*1024;
+	private static final int BENCHMARK_ROUNDS = 8;
+	private static final int GCM_TAG_SIZE = 128; // in bits, Bouncy Castle's default
+
+	private static final Map<CipherSpec, Provider> selectedProviders = new HashMap<CipherSpec, Provider>();
+	private static final Map<CipherSpec, Provider> selectedDecryptionProviders = new HashMap<CipherSpec, Provider>();
+
+	/**
+	 * Returns the provider to be used for the given cipher spec and mode (<tt>Cipher.ENCRYPT_MODE</tt>
+	 * or <tt>Cipher.DECRYPT_MODE</tt>). For decryption, the {@link #getProvider(CipherSpec) selected provider} 
+	 * is only returned if it decrypts in a streaming fashion; otherwise, Bouncy Castle is returned.
+	 */
+	public static synchronized Provider getProvider(CipherSpec cipherSpec, int cipherMode) {
+		if (cipherMode != Cipher.DECRYPT_MODE) {
+			return getProvider(cipherSpec);
+		}
+		
+		Provider provider = selectedDecryptionProviders.get(cipherSpec);
+
+		if (provider == null) {
+			provider = selectDecryptionProvider(cipherSpec, getProvider(cipherSpec));
+			selectedDecryptionProviders.put(cipherSpec, provider);
+		}
+
+		return provider;
+	}
+	
+	/**
+	 * Returns the provider to be used to encrypt with the given cipher spec. If the cipher spec
+	 * is requested for the first time, the installed providers are probed (see 
+	 * {@link CipherProviders class description}).
+	 */
+	public static synchronized Provider getProvider(CipherSpec cipherSpec) {
+		Provider provider = selectedProviders.get(cipherSpec);
+
+		if (provider == null) {
+			provider = selectProvider(cipherSpec);
+			selectedProviders.put(cipherSpec, provider);
+		}
+
+		return provider;
+	}
+
+	/**
+	 * Overrides the provider for the given cipher spec (for encryption and decryption), e.g. 
+	 * to force a specific provider. Passing <tt>null</tt> resets the selection, so that the 
+	 * providers are probed again on the next call to {@link #getProvider(CipherSpec)}. 
+	 */
+	public static synchronized void setProvider(CipherSpec cipherSpec, Provider provider) {
+		if (provider != null) {
+			selectedProviders.put(cipherSpec, provider);
+			selectedDecryptionProviders.put(cipherSpec, provider);
+		}
+		else {
+			selectedProviders.remove(cipherSpec);
+			selectedDecryptionProviders.remove(cipherSpec);
+		}
+	}
+
+	/**
+	 * Creates the parameters to initialize a cipher of the given provider with. Bouncy
+	 * Castle accepts an {@link IvParameterSpec} for all modes, whereas other providers 
+	 * require a {@link GCMParameterSpec} for GCM. The tag size is identical in both cases. 
+	 */
+	public static AlgorithmParameterSpec createParameterSpec(CipherSpec cipherSpec, Provider provider, byte[] iv) {
+		if (!CRYPTO_PROVIDER_ID.equals(provider.getName()) && cipherSpec.getAlgorithm().contains("/GCM/")) {
+			return new GCMParameterSpec(GCM_TAG_SIZE, iv);
+		}
+		else {
+			return new IvParameterSpec(iv);
+		}
+	}
+
+	private static Provider selectProvider(CipherSpec cipherSpec) {
+		logger.log(Level.INFO, "Selecting crypto provider for " + cipherSpec + " ...");
+
+		try {
+			if (cipherSpec.needsUnlimitedStrength()) {
+				CipherUtil.enableUnlimitedStrength();
+			}
+
+			SecretKey secretKey = CipherUtil.toSecretKey(CipherUtil.createRandomArray(cipherSpec.getKeySize() / 8), cipherSpec.getAlgorithm());
+			byte[] iv = CipherUtil.createRandomArray(cipherSpec.getIvSize() / 8);
+			byte[] plaintext = CipherUtil.createRandomArray(COMPATIBILITY_DATA_SIZE);
+
+			byte[] referenceCiphertext = encrypt(cipherSpec, CRYPTO_PROVIDER, secretKey, iv, plaintext);
+			List<Provider> compatibleProviders = findCompatibleProviders(cipherSpec, secretKey, iv, plaintext, referenceCiphertext);
+
+			if (compatibleProviders.size() == 0) {
+				logger.log(Level.INFO, "- No alternative provider found for " + cipherSpec + ", using " + CRYPTO_PROVIDER.getName() + ".");
+				return CRYPTO_PROVIDER;
+			}
+
+			compatibleProviders.add(0, CRYPTO_PROVIDER);
+			return selectFastestProvider(cipherSpec, compatibleProviders, secretKey, iv);
+		}
+		catch (Exception e) {
+			logger.log(Level.WARNING, "- Cannot probe providers for " + cipherSpec + ", using " + CRYPTO_PROVIDER.getName() + ".", e);
+			return CRYPTO_PROVIDER;
+		}
+	}
+
+	private static Provider selectDecryptionProvider(CipherSpec cipherSpec, Provider provider) {
+		if (CRYPTO_PROVIDER_ID.equals(provider.getName())) {
+			return provider;
+		}
+		
+		try {
+			SecretKey secretKey = CipherUtil.toSecretKey(CipherUtil.createRandomArray(cipherSpec.getKeySize() / 8), cipherSpec.getAlgorithm());
+			byte[] iv = CipherUtil.createRandomArray(cipherSpec.getIvSize() / 8);
+			byte[] ciphertext = encrypt(cipherSpec, CRYPTO_PROVIDER, secretKey, iv, CipherUtil.createRandomArray(COMPATIBILITY_DATA_SIZE));
+			
+			Cipher cipher = Cipher.getInstance(cipherSpec.getAlgorithm(), provider);
+			cipher.init(Cipher.DECRYPT_MODE, secretKey, createParameterSpec(cipherSpec, provider, iv));
+
+			byte[] plaintext = cipher.update(ciphertext, 0, ciphertext.length / 2);
+			
+			if (plaintext != null && plaintext.length > 0) {
+				return provider;
+			}
+			else {
+				logger.log(Level.INFO, "- Provider " + provider.getName() + " buffers ciphertext when decrypting " + cipherSpec + "; using "
+						+ CRYPTO_PROVIDER.getName() + " for decryption.");
+				return CRYPTO_PROVIDER;
+			}
+		}
+		catch (Exception e) {
+			logger.log(Level.WARNING, "- Cannot probe decryption of provider " + provider.getName() + " for " + cipherSpec + ", using " 
+					+ CRYPTO_PROVIDER.getName() + ".", e);
+			return CRYPTO_PROVIDER;
+		}
+	}
+
+	private static List<Provider> findCompatibleProviders(CipherSpec cipherSpec, SecretKey secretKey, byte[] iv, byte[] plaintext,
+			byte[] referenceCiphertext) {
+
+		List<Provider> compatibleProviders = new ArrayList<Provider>();
+
+		for (Provider provider : Security.getProviders()) {
+			if (CRYPTO_PROVIDER_ID.equals(provider.getName())) {
+				continue;
+			}
+
+			try {
+				byte[] ciphertext = encrypt(cipherSpec, provider, secretKey, iv, plaintext);
+				byte[] decryptedReferenceCiphertext = decrypt(cipherSpec, provider, secretKey, iv, referenceCiphertext);
+
+				if (Arrays.equals(referenceCiphertext, ciphertext) && Arrays.equals(plaintext, decryptedReferenceCiphertext)) {
+					logger.log(Level.FINE, "- Provider " + provider.getName() + " is compatible with " + cipherSpec);
+					compatibleProviders.add(provider);
+				}
+				else {
+					logger.log(Level.INFO, "- Provider " + provider.getName() + " produces incompatible ciphertext for " + cipherSpec + ", ignoring.");
+				}
+			}
+			catch (Exception e) {
+				logger.log(Level.FINEST, "- Provider " + provider.getName() + " does not support " + cipherSpec);
+			}
+		}
+
+		return compatibleProviders;
+	}
+
+	private static Provider selectFastestProvider(CipherSpec cipherSpec, List<Provider> providers, SecretKey secretKey, byte[] iv) throws Exception {
+		byte[] plaintext = new byte[BENCHMARK_DATA_SIZE];
+		
+		// Rounds are interleaved, so that all providers are warmed up by the JIT compiler alike.
+		// Hardware-accelerated implementations only become fast once compiled, so a few MB are needed. 
+		long[] fastestDurations = new long[providers.size()];
+		Arrays.fill(fastestDurations, Long.MAX_VALUE);
+
+		for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+			for (int i = 0; i < providers.size(); i++) {
+				long startTime = System.nanoTime();
+				encrypt(cipherSpec, providers.get(i), secretKey, iv, plaintext);
+				long duration = System.nanoTime() - startTime;
+
+				fastestDurations[i] = Math.min(fastestDurations[i], duration);
+			}
+		}
+
+		int fastestIndex = 0;
+
+		for (int i = 0; i < providers.size(); i++) {
+			logger.log(Level.INFO, String.format("- Provider %s: %.1f MB/s for %s", providers.get(i).getName(), 
+					(BENCHMARK_DATA_SIZE / 1024.0 / 1024.0) / (fastestDurations[i] / 1000000000.0), cipherSpec));
+
+			if (fastestDurations[i] < fastestDurations[fastestIndex]) {
+				fastestIndex = i;
+			}
+		}
+
+		logger.log(Level.INFO, "- Selected provider " + providers.get(fastestIndex).getName() + " for " + cipherSpec);
+		return providers.get(fastestIndex);
+	}
+
+	private static byte[] encrypt(CipherSpec cipherSpec, Provider provider, SecretKey secretKey, byte[] iv, byte[] plaintext) throws Exception {
+		Cipher cipher = Cipher.getInstance(cipherSpec.getAlgorithm(), provider);
+		cipher.init(Cipher.ENCRYPT_MODE, secretKey, createParameterSpec(cipherSpec, provider, iv));
+
+		return cipher.doFinal(plaintext);
+	}
+
+	private static byte[] decrypt(CipherSpec cipherSpec, Provider provider, SecretKey secretKey, byte[] iv, byte[] ciphertext) throws Exception {
+		Cipher cipher = Cipher.getInstance(cipherSpec.getAlgorithm(), provider);
+		cipher.init(Cipher.DECRYPT_MODE, secretKey, createParameterSpec(cipherSpec, provider, iv));
+
+		return cipher.doFinal(ciphertext);
+	}
+}
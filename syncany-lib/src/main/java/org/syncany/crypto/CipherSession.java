@@ -21,9 +21,12 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -52,21 +55,32 @@ import org.syncany.util.StringUtil;
  *       files are processed. 
  * </ul>
  * 
+ * <p>A cipher session can be used by multiple threads concurrently. The write cache
+ * is a {@link ConcurrentHashMap}; the read cache is split into a number of stripes, each
+ * of which is a small, separately locked LRU map. Hit and miss counters for both caches 
+ * are kept, the number of misses being the number of derived keys created by this session.
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class CipherSession {
     private static final Logger logger = Logger.getLogger(CipherSession.class.getSimpleName());   
 	private static final int DEFAULT_SECRET_KEY_READ_CACHE_SIZE = 20;
 	private static final int DEFAULT_SECRET_KEY_WRITE_REUSE_COUNT = 100;
+	private static final int MAX_SECRET_KEY_READ_CACHE_STRIPES = 8;
 	
 	private SecretKey masterKey;	
 	
-	private Map<CipherSpecWithSalt, SecretKeyCacheEntry> secretKeyReadCache;
+	private SecretKeyReadCacheStripe[] secretKeyReadCache;
 	private int secretKeyReadCacheSize;
 	
-	private Map<CipherSpec, SecretKeyCacheEntry> secretKeyWriteCache;
+	private ConcurrentMap<CipherSpec, SecretKeyCacheEntry> secretKeyWriteCache;
 	private int secretKeyWriteReuseCount;
 	
+	private AtomicLong readCacheHits;
+	private AtomicLong readCacheMisses;
+	private AtomicLong writeCacheHits;
+	private AtomicLong writeCacheMisses;
+	
 	/**
 	 * Creates a new cipher session, using the given master key. Derived keys will be created
 	 * from that master key. 
@@ -95,11 +109,16 @@ public class CipherSession {
 	public CipherSession(SaltedSecretKey masterKey, int secretKeyReadCacheSize, int secretKeyWriteReuseCount) {
 		this.masterKey = masterKey;
 
-		this.secretKeyReadCache = new LinkedHashMap<CipherSpecWithSalt, SecretKeyCacheEntry>();
+		this.secretKeyReadCache = createSecretKeyReadCache(secretKeyReadCacheSize);
 		this.secretKeyReadCacheSize = secretKeyReadCacheSize;
 		
-		this.secretKeyWriteCache = new HashMap<CipherSpec, SecretKeyCacheEntry>();
+		this.secretKeyWriteCache = new ConcurrentHashMap<CipherSpec, SecretKeyCacheEntry>();
 		this.secretKeyWriteReuseCount = secretKeyWriteReuseCount;
+		
+		this.readCacheHits = new AtomicLong(0);
+		this.readCacheMisses = new AtomicLong(0);
+		this.writeCacheHits = new AtomicLong(0);
+		this.writeCacheMisses = new AtomicLong(0);
 	}	
 
 	/**
@@ -126,37 +145,42 @@ public class CipherSession {
 	public SaltedSecretKey getWriteSecretKey(CipherSpec cipherSpec) throws Exception {
 		SecretKeyCacheEntry secretKeyCacheEntry = secretKeyWriteCache.get(cipherSpec);
 		
-		// Remove key if use more than X times 
-		if (secretKeyCacheEntry != null && secretKeyCacheEntry.getUseCount() >= secretKeyWriteReuseCount) {
-			logger.log(Level.INFO, "Removed WRITE secret key from cache, because it was used "+secretKeyCacheEntry.getUseCount()+" times.");				
-
-			secretKeyWriteCache.remove(cipherSpec);
-			secretKeyCacheEntry = null;
-		}
-				
-		// Return cached key, or create a new one
-		if (secretKeyCacheEntry != null) {					
-			secretKeyCacheEntry.increaseUseCount();
+		// Return cached key, unless it has been used more than X times 
+		if (secretKeyCacheEntry != null && secretKeyCacheEntry.tryIncreaseUseCount(secretKeyWriteReuseCount)) {
+			writeCacheHits.incrementAndGet();
 			
 			logger.log(Level.INFO, "Using CACHED WRITE secret key "+secretKeyCacheEntry.getSaltedSecretKey().getAlgorithm()+", with salt "+StringUtil.toHex(secretKeyCacheEntry.getSaltedSecretKey().getSalt()));
 			return secretKeyCacheEntry.getSaltedSecretKey();
 		}
 		else {			
+			if (secretKeyCacheEntry != null) {
+				logger.log(Level.INFO, "Removed WRITE secret key from cache, because it was used "+secretKeyCacheEntry.getUseCount()+" times.");
+			}
+			
 			SaltedSecretKey saltedSecretKey = createSaltedSecretKey(cipherSpec);
-						
-			secretKeyCacheEntry = new SecretKeyCacheEntry(saltedSecretKey);
-			secretKeyWriteCache.put(cipherSpec, secretKeyCacheEntry);
+			SecretKeyCacheEntry newSecretKeyCacheEntry = new SecretKeyCacheEntry(saltedSecretKey);
+
+			writeCacheMisses.incrementAndGet();
+			
+			// If another thread replaced the entry in the meantime, the new key is still 
+			// valid; it is simply not cached.
+			if (secretKeyCacheEntry == null) {
+				secretKeyWriteCache.putIfAbsent(cipherSpec, newSecretKeyCacheEntry);
+			}
+			else {
+				secretKeyWriteCache.replace(cipherSpec, secretKeyCacheEntry, newSecretKeyCacheEntry);
+			}
 			
-			logger.log(Level.INFO, "Created NEW WRITE secret key "+secretKeyCacheEntry.getSaltedSecretKey().getAlgorithm()+", and added to cache, with salt "+StringUtil.toHex(saltedSecretKey.getSalt()));		
+			logger.log(Level.INFO, "Created NEW WRITE secret key "+saltedSecretKey.getAlgorithm()+", and added to cache, with salt "+StringUtil.toHex(saltedSecretKey.getSalt()));		
 			return saltedSecretKey;
 		}				
 	}	
 	
 	/**
 	 * Creates a new secret key or retrieves it from the read cache. If the given cipher spec / salt combination
-	 * is found in the cache, the cached secret key is returned. If not, a new key is created. Keys are removed
-	 * from the cache when the cache reached the size defined by {@link #secretKeyReadCacheSize} (as set in
-	 * {@link #CipherSession(SaltedSecretKey, int, int) the constructor}.
+	 * is found in the cache, the cached secret key is returned. If not, a new key is created. The least recently
+	 * used keys are removed from the cache when the cache reached the size defined by {@link #secretKeyReadCacheSize} 
+	 * (as set in {@link #CipherSession(SaltedSecretKey, int, int) the constructor}.
 	 * 
 	 * <p>If a new key needs to be created, {@link CipherUtil} is used to do so.
 	 * 
@@ -170,30 +194,85 @@ public class CipherSession {
 	 */
 	public SaltedSecretKey getReadSecretKey(CipherSpec cipherSpec, byte[] salt) throws Exception {
 		CipherSpecWithSalt cipherSpecWithSalt = new CipherSpecWithSalt(cipherSpec, salt);
-		SecretKeyCacheEntry secretKeyCacheEntry = secretKeyReadCache.get(cipherSpecWithSalt);
+		SecretKeyReadCacheStripe secretKeyReadCacheStripe = secretKeyReadCache[(cipherSpecWithSalt.hashCode() & 0x7fffffff) % secretKeyReadCache.length];
 		
-		if (secretKeyCacheEntry != null) {
-			logger.log(Level.INFO, "Using CACHED READ secret key "+secretKeyCacheEntry.getSaltedSecretKey().getAlgorithm()+", with salt "+StringUtil.toHex(salt));
-			return secretKeyCacheEntry.getSaltedSecretKey();
+		SaltedSecretKey saltedSecretKey;
+		
+		synchronized (secretKeyReadCacheStripe) {
+			saltedSecretKey = secretKeyReadCacheStripe.get(cipherSpecWithSalt);
+		}
+		
+		if (saltedSecretKey != null) {
+			readCacheHits.incrementAndGet();
+
+			logger.log(Level.INFO, "Using CACHED READ secret key "+saltedSecretKey.getAlgorithm()+", with salt "+StringUtil.toHex(salt));
+			return saltedSecretKey;
 		}
 		else {
-			if (secretKeyReadCache.size() >= secretKeyReadCacheSize) {
-				CipherSpecWithSalt firstKey = secretKeyReadCache.keySet().iterator().next();
-				secretKeyReadCache.remove(firstKey);
-				
-				logger.log(Level.INFO, "Removed oldest READ secret key from cache.");				
-			}
+			// Key derivation is done outside the lock, so other threads are not blocked
+			saltedSecretKey = createSaltedSecretKey(cipherSpec, salt);
+			readCacheMisses.incrementAndGet();
 			
-			SaltedSecretKey saltedSecretKey = createSaltedSecretKey(cipherSpec, salt);
-			secretKeyCacheEntry = new SecretKeyCacheEntry(saltedSecretKey);
-			
-			secretKeyReadCache.put(cipherSpecWithSalt, secretKeyCacheEntry);
+			synchronized (secretKeyReadCacheStripe) {
+				secretKeyReadCacheStripe.put(cipherSpecWithSalt, saltedSecretKey);
+			}
 									
-			logger.log(Level.INFO, "Created NEW READ secret key "+secretKeyCacheEntry.getSaltedSecretKey().getAlgorithm()+", and added to cache, with salt "+StringUtil.toHex(salt));
+			logger.log(Level.INFO, "Created NEW READ secret key "+saltedSecretKey.getAlgorithm()+", and added to cache, with salt "+StringUtil.toHex(salt));
 			return saltedSecretKey;
 		}
 	}		
 	
+	/**
+	 * Returns the number of read keys that were found in the read cache.
+	 */
+	public long getReadCacheHits() {
+		return readCacheHits.get();
+	}
+
+	/**
+	 * Returns the number of read keys that were not found in the read cache,
+	 * and therefore had to be derived from the master key.
+	 */
+	public long getReadCacheMisses() {
+		return readCacheMisses.get();
+	}
+
+	/**
+	 * Returns the number of times a cached write key was reused.
+	 */
+	public long getWriteCacheHits() {
+		return writeCacheHits.get();
+	}
+
+	/**
+	 * Returns the number of write keys that had to be derived from the master key,
+	 * because no key was cached or the cached key was used too many times.
+	 */
+	public long getWriteCacheMisses() {
+		return writeCacheMisses.get();
+	}
+	
+	/**
+	 * Returns the total number of keys derived from the master key by this session,
+	 * i.e. the number of calls to {@link CipherUtil#createDerivedKey(SecretKey, byte[], CipherSpec) createDerivedKey()}.
+	 */
+	public long getKeyDerivationCount() {
+		return readCacheMisses.get() + writeCacheMisses.get();
+	}
+	
+	private SecretKeyReadCacheStripe[] createSecretKeyReadCache(int cacheSize) {
+		int stripeCount = Math.max(1, Math.min(MAX_SECRET_KEY_READ_CACHE_STRIPES, cacheSize));
+		int stripeSize = (cacheSize + stripeCount - 1) / stripeCount;
+		
+		SecretKeyReadCacheStripe[] secretKeyReadCacheStripes = new SecretKeyReadCacheStripe[stripeCount];
+		
+		for (int i = 0; i < stripeCount; i++) {
+			secretKeyReadCacheStripes[i] = new SecretKeyReadCacheStripe(stripeSize);
+		}
+		
+		return secretKeyReadCacheStripes;
+	}
+	
 	private SaltedSecretKey createSaltedSecretKey(CipherSpec cipherSpec) throws InvalidKeySpecException, NoSuchAlgorithmException, NoSuchProviderException {
 		byte[] salt = CipherUtil.createRandomArray(MultiCipherOutputStream.SALT_SIZE); 
 		return createSaltedSecretKey(cipherSpec, salt);
@@ -205,11 +284,11 @@ public class CipherSession {
 
 	private static class SecretKeyCacheEntry {
 		private SaltedSecretKey saltedSecretKey;
-		private int useCount;
+		private AtomicInteger useCount;
 
 		public SecretKeyCacheEntry(SaltedSecretKey saltedSecretKey) {
 			this.saltedSecretKey = saltedSecretKey;
-			this.useCount = 1;
+			this.useCount = new AtomicInteger(1);
 		}
 
 		public SaltedSecretKey getSaltedSecretKey() {
@@ -217,11 +296,45 @@ public class CipherSession {
 		}
 
 		public int getUseCount() {
-			return useCount;
+			return useCount.get();
+		}
+		
+		/**
+		 * Increases the use count, unless it has reached the given maximum. 
+		 * Returns <tt>true</tt> if the key may be used, <tt>false</tt> otherwise.
+		 */
+		public boolean tryIncreaseUseCount(int maxUseCount) {
+			while (true) {
+				int currentUseCount = useCount.get();
+				
+				if (currentUseCount >= maxUseCount) {
+					return false;
+				}
+				else if (useCount.compareAndSet(currentUseCount, currentUseCount + 1)) {
+					return true;
+				}
+			}
 		}
+	}
+	
+	private static class SecretKeyReadCacheStripe extends LinkedHashMap<CipherSpecWithSalt, SaltedSecretKey> {
+		private static final long serialVersionUID = 6203424165402960474L;
 		
-		public void increaseUseCount() {
-			useCount++;
+		private int maxSize;
+		
+		public SecretKeyReadCacheStripe(int maxSize) {
+			super(maxSize + 1, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<CipherSpecWithSalt, SaltedSecretKey> eldest) {
+			if (size() > maxSize) {
+				logger.log(Level.INFO, "Removed least recently used READ secret key from cache.");
+				return true;
+			}
+			
+			return false;
 		}
 	}
 	
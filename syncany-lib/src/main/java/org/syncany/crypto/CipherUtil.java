@@ -36,6 +36,7 @@ import java.io.RandomAccessFile;
 import java.lang.reflect.Field;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.Provider;
 import java.security.SecureRandom;
 import java.security.Security;
 import java.security.spec.InvalidKeySpecException;
@@ -49,12 +50,13 @@ import java.util.logging.Logger;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
+import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
 import org.bouncycastle.crypto.params.HKDFParameters;
+import org.bouncycastle.util.Memoable;
 import org.syncany.util.FileUtil;
 
 /**
@@ -95,6 +97,9 @@ public class CipherUtil {
 				Security.addProvider(CRYPTO_PROVIDER);
 			}
 
+			// Additional digests (BLAKE2b)
+			DigestProvider.install();
+
 			// Unlimited strength
 			try {
 				unlimitedStrengthEnabled.set(Cipher.getMaxAllowedKeyLength("AES") > 128);
@@ -200,7 +205,10 @@ public class CipherUtil {
 		
 		logger.log(Level.INFO, "Creating secret key using ...");
 
-		HKDFBytesGenerator hkdf = new HKDFBytesGenerator(KEY_DERIVATION_DIGEST);
+		// Digests are stateful; the shared constant must not be used directly by concurrent threads
+		Digest keyDerivationDigest = (Digest) ((Memoable) KEY_DERIVATION_DIGEST).copy();
+
+		HKDFBytesGenerator hkdf = new HKDFBytesGenerator(keyDerivationDigest);
 		hkdf.init(new HKDFParameters(inputKeyMaterial, inputSalt, KEY_DERIVATION_INFO));
 
 		byte[] derivedKey = new byte[outputKeySize / 8];
@@ -238,7 +246,18 @@ public class CipherUtil {
 		return new SaltedSecretKey(masterKey, salt);
 	}
 
+	/**
+	 * Creates and initializes a {@link Cipher} for the given cipher spec. The cipher
+	 * is created using the provider selected by {@link CipherProviders} for the given mode.
+	 */
 	public static Cipher createCipher(CipherSpec cipherSpec, int cipherInitMode, SecretKey secretKey, byte[] iv) throws CipherException {
+		return createCipher(cipherSpec, cipherInitMode, secretKey, iv, CipherProviders.getProvider(cipherSpec, cipherInitMode));
+	}
+	
+	/**
+	 * Creates and initializes a {@link Cipher} for the given cipher spec, using the given provider.
+	 */
+	public static Cipher createCipher(CipherSpec cipherSpec, int cipherInitMode, SecretKey secretKey, byte[] iv, Provider provider) throws CipherException {
 		logger.log(Level.INFO, "Creating cipher using " + cipherSpec + " ...");
 
 		try {
@@ -246,8 +265,8 @@ public class CipherUtil {
 				enableUnlimitedStrength();
 			}
 
-			Cipher cipher = Cipher.getInstance(cipherSpec.getAlgorithm(), CRYPTO_PROVIDER_ID);
-			cipher.init(cipherInitMode, secretKey, new IvParameterSpec(iv));
+			Cipher cipher = Cipher.getInstance(cipherSpec.getAlgorithm(), provider);
+			cipher.init(cipherInitMode, secretKey, CipherProviders.createParameterSpec(cipherSpec, provider, iv));
 
 			return cipher;
 		}
@@ -307,7 +326,7 @@ public class CipherUtil {
 		MultiCipherInputStream cipherInputStream = new MultiCipherInputStream(fromInputStream, cipherSession);
 		ByteArrayOutputStream plaintextOutputStream = new ByteArrayOutputStream();
 
-		FileUtil.appendToOutputStream(cipherInputStream, plaintextOutputStream);
+		FileUtil.appendToOutputStream(cipherInputStream, plaintextOutputStream, MultiCipherInputStream.DECRYPTION_BUFFER_SIZE);
 
 		cipherInputStream.close();
 		plaintextOutputStream.close();
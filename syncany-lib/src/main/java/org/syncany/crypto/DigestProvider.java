@@ -0,0 +1,55 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import java.security.Provider;
+import java.security.Security;
+
+/**
+ * Security provider for message digests that are neither part of the JRE nor of the
+ * Bouncy Castle version shipped with Syncany. Once installed, these digests can be 
+ * used through {@link java.security.MessageDigest#getInstance(String)} like any other 
+ * digest, e.g. as checksum algorithm of a {@link org.syncany.chunk.Chunker Chunker}.
+ * 
+ * <p>Currently provided digests: <tt>BLAKE2b-256</tt> and <tt>BLAKE2b-512</tt> 
+ * (see {@link Blake2bDigest}).
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class DigestProvider extends Provider {
+	private static final long serialVersionUID = -3489263451877203812L;
+	
+	public static final String PROVIDER_ID = "SyncanyDigest";
+
+	public DigestProvider() {
+		super(PROVIDER_ID, 1.0, "Syncany message digest provider (BLAKE2b)");
+
+		put("MessageDigest.BLAKE2b-256", Blake2bDigest.Blake2b256.class.getName());
+		put("MessageDigest.BLAKE2b-512", Blake2bDigest.Blake2b512.class.getName());
+	}
+
+	/**
+	 * Registers the provider with the JVM's {@link Security} providers, unless 
+	 * it has been registered before.
+	 */
+	public static synchronized void install() {
+		if (Security.getProvider(PROVIDER_ID) == null) {
+			Security.addProvider(new DigestProvider());
+		}
+	}
+}
@@ -33,6 +33,7 @@ import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NullCipher;
+import javax.crypto.ShortBufferException;
 
 /**
  * A CipherInputStream is composed of an InputStream and a Cipher so
@@ -67,6 +68,11 @@ import javax.crypto.NullCipher;
  * 
  * <p> This GCM-fix was originally proposed here:
  * http://cr.openjdk.java.net/~valeriep/8012637/webrev.00/src/share/classes/javax/crypto/CipherInputStream.java.patch
+ * 
+ * <p> Unlike the original, the size of the input buffer can be set in the
+ * {@link #GcmCompatibleCipherInputStream(InputStream, Cipher, int) constructor},
+ * and the output buffer is reused between calls to {@link Cipher#update(byte[], int, int, byte[]) Cipher.update()}
+ * instead of being reallocated for every block.
  *
  * @author  Li Gong
  * @author  Philipp C. Heckel <philipp.heckel@gmail.com> (GCM-fix only!)
@@ -85,17 +91,23 @@ public class GcmCompatibleCipherInputStream extends FilterInputStream {
     // the underlying input stream
     private InputStream input;
 
+    // the default size of the input buffer (as in the original)
+    public static final int DEFAULT_BUFFER_SIZE = 512;
+
+    // how often the output buffer is doubled if the cipher reports it too small
+    private static final int MAX_OUTPUT_BUFFER_RETRIES = 8;
+
     /* the buffer holding data that have been read in from the
        underlying stream, but have not been processed by the cipher
-       engine. the size 512 bytes is somewhat randomly chosen */
-    private byte[] ibuffer = new byte[512];
+       engine. */
+    private byte[] ibuffer;
 
     // having reached the end of the underlying input stream
     private boolean done = false;
 
     /* the buffer holding data that have been processed by the cipher
-       engine, but have not been read out */
-    private byte[] obuffer;
+       engine, but have not been read out; reused and grown as needed */
+    private byte[] obuffer = new byte[0];
     // the offset pointing to the next "new" byte
     private int ostart = 0;
     // the offset pointing to the last "new" byte
@@ -118,28 +130,64 @@ public class GcmCompatibleCipherInputStream extends FilterInputStream {
         if (readin == -1) {
             done = true;
             try {
-                obuffer = cipher.doFinal();
+                ofinish = processInput(0, true);
             }
-            catch (IllegalBlockSizeException e) {obuffer = null;}
-            catch (BadPaddingException e) {obuffer = null;}
-            if (obuffer == null)
+            catch (IllegalBlockSizeException e) {ofinish = -1;}
+            catch (BadPaddingException e) {ofinish = -1;}
+            ostart = 0;
+            if (ofinish == -1) {
+                ofinish = 0;
                 return -1;
+            }
             else {
-                ostart = 0;
-                ofinish = obuffer.length;
                 return ofinish;
             }
         }
         try {
-            obuffer = cipher.update(ibuffer, 0, readin);
-        } catch (IllegalStateException e) {obuffer = null;};
+            ofinish = processInput(readin, false);
+        }
+        catch (IllegalStateException e) {ofinish = 0;}
+        catch (IllegalBlockSizeException e) {ofinish = 0;}
+        catch (BadPaddingException e) {ofinish = 0;}
         ostart = 0;
-        if (obuffer == null)
-            ofinish = 0;
-        else ofinish = obuffer.length;
         return ofinish;
     }
 
+    /* passes the input buffer to the cipher, either via update() or doFinal(),
+       and writes the output to the output buffer. If the cipher's
+       getOutputSize() underestimates the output and the cipher throws a
+       ShortBufferException, the call is repeated with a larger output buffer
+       (as documented in Cipher.update()/doFinal()); data is never dropped. */
+    private int processInput(int readin, boolean finish) throws IOException,
+            IllegalBlockSizeException, BadPaddingException {
+        ensureOutputBufferSize(cipher.getOutputSize(readin));
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (finish) {
+                    return cipher.doFinal(obuffer, 0);
+                }
+                else {
+                    return cipher.update(ibuffer, 0, readin, obuffer, 0);
+                }
+            }
+            catch (ShortBufferException e) {
+                if (attempt >= MAX_OUTPUT_BUFFER_RETRIES) {
+                    throw new IOException("Cipher output does not fit into " + obuffer.length + " bytes", e);
+                }
+                ensureOutputBufferSize(2 * Math.max(obuffer.length, ibuffer.length));
+            }
+        }
+    }
+
+    /* grows the output buffer geometrically: some providers (e.g. SunJCE
+       in GCM decryption mode) hold back all output until doFinal(), so that
+       the required size grows with every call */
+    private void ensureOutputBufferSize(int size) {
+        if (obuffer.length < size) {
+            obuffer = new byte[Math.max(size, 2 * obuffer.length)];
+        }
+    }
+
     /**
      * Constructs a CipherInputStream from an InputStream and a
      * Cipher.
@@ -150,9 +198,22 @@ public class GcmCompatibleCipherInputStream extends FilterInputStream {
      * @param c an initialized Cipher object
      */
     public GcmCompatibleCipherInputStream(InputStream is, Cipher c) {
+        this(is, c, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a CipherInputStream from an InputStream and a
+     * Cipher, reading and processing the input stream in blocks of
+     * up to <code>bufferSize</code> bytes.
+     * @param is the to-be-processed input stream
+     * @param c an initialized Cipher object
+     * @param bufferSize the size of the input buffer
+     */
+    public GcmCompatibleCipherInputStream(InputStream is, Cipher c, int bufferSize) {
         super(is);
         input = is;
         cipher = c;
+        ibuffer = new byte[bufferSize];
     }
 
     /**
@@ -167,6 +228,7 @@ public class GcmCompatibleCipherInputStream extends FilterInputStream {
         super(is);
         input = is;
         cipher = new NullCipher();
+        ibuffer = new byte[DEFAULT_BUFFER_SIZE];
     }
 
     /**
@@ -318,6 +380,7 @@ public class GcmCompatibleCipherInputStream extends FilterInputStream {
         }
         catch (IllegalBlockSizeException ex) {
         }
+        done = true; // never finish the cipher twice, it might be reused
         ostart = 0;
         ofinish = 0;
     }
@@ -17,11 +17,11 @@
  */
 package org.syncany.crypto;
 
-import static org.syncany.crypto.CipherParams.CRYPTO_PROVIDER_ID;
-
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
@@ -29,14 +29,31 @@ import javax.crypto.SecretKey;
 
 import org.syncany.util.StringUtil;
 
+/**
+ * Implements an input stream that decrypts a stream written by the
+ * {@link MultiCipherOutputStream}, using one to many ciphers.
+ * 
+ * <p>The ciphertext is decrypted in blocks of {@link #DECRYPTION_BUFFER_SIZE}
+ * bytes per cipher. Callers should read in large blocks via {@link #read(byte[], int, int)}
+ * to avoid per-byte overhead.
+ * 
+ * <p>The {@link Cipher} and {@link Mac} objects are borrowed from the {@link CipherPool}
+ * and returned when the stream is closed.
+ */
 public class MultiCipherInputStream extends InputStream {
+	public static final int DECRYPTION_BUFFER_SIZE = 256*1024;
+	
 	private InputStream underlyingInputStream;
 
 	private InputStream cipherInputStream;
 	private CipherSession cipherSession;
 	
+	private List<CipherSpec> cipherSpecs;
+	private List<Cipher> ciphers;
+	
 	private boolean headerRead;
 	private Mac headerHmac;
+	private boolean closed;
 		
 	public MultiCipherInputStream(InputStream in, CipherSession cipherSession) throws IOException {
 		this.underlyingInputStream = in;		
@@ -46,6 +63,10 @@ public class MultiCipherInputStream extends InputStream {
 		
 		this.headerRead = false;		
 		this.headerHmac = null;		
+		
+		this.cipherSpecs = new ArrayList<CipherSpec>();
+		this.ciphers = new ArrayList<Cipher>();
+		this.closed = false;
 	}
 
 	@Override
@@ -58,11 +79,47 @@ public class MultiCipherInputStream extends InputStream {
 		return cipherInputStream.read();
 	}
 	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (!headerRead) {
+			readHeader();		
+			headerRead = true;
+		}
+		
+		return cipherInputStream.read(b, off, len);
+	}
+	
+	@Override
+	public int available() throws IOException {
+		return (headerRead) ? cipherInputStream.available() : 0;
+	}
+	
 	@Override
 	public void close() throws IOException {
-		cipherInputStream.close();
+		if (closed) {
+			return;
+		}
+		
+		if (cipherInputStream != null) {
+			cipherInputStream.close();
+		}
+		else {
+			underlyingInputStream.close();
+		}
+		
+		closed = true;
+		returnCiphers();
 	}	
 	
+	private void returnCiphers() {
+		for (int i = 0; i < ciphers.size(); i++) {
+			CipherPool.returnCipher(cipherSpecs.get(i), ciphers.get(i));
+		}
+		
+		cipherSpecs.clear();
+		ciphers.clear();
+	}
+	
 	private void readHeader() throws IOException {
 		try {
 			readAndVerifyMagicNoHmac(underlyingInputStream);
@@ -72,6 +129,9 @@ public class MultiCipherInputStream extends InputStream {
 			cipherInputStream = readCipherSpecsAndUpdateHmac(underlyingInputStream, headerHmac, cipherSession);
 			
 			readAndVerifyHmac(underlyingInputStream, headerHmac);			
+			
+			CipherPool.returnMac(MultiCipherOutputStream.HMAC_SPEC, headerHmac);
+			headerHmac = null;
     	}
     	catch (Exception e) {
     		throw new IOException(e);
@@ -99,10 +159,7 @@ public class MultiCipherInputStream extends InputStream {
 		byte[] hmacSalt = readNoHmac(inputStream, MultiCipherOutputStream.SALT_SIZE);
 		SecretKey hmacSecretKey = cipherSession.getReadSecretKey(MultiCipherOutputStream.HMAC_SPEC, hmacSalt);
 		
-		Mac hmac = Mac.getInstance(MultiCipherOutputStream.HMAC_SPEC.getAlgorithm(), CRYPTO_PROVIDER_ID);
-		hmac.init(hmacSecretKey);	
-		
-		return hmac;
+		return CipherPool.borrowMac(MultiCipherOutputStream.HMAC_SPEC, hmacSecretKey);
 	}
 	
 	private InputStream readCipherSpecsAndUpdateHmac(InputStream inputStream, Mac hmac, CipherSession cipherSession) throws Exception {
@@ -121,9 +178,12 @@ public class MultiCipherInputStream extends InputStream {
 			byte[] iv = readAndUpdateHmac(inputStream, cipherSpec.getIvSize()/8, hmac);
 			
 			SecretKey secretKey = cipherSession.getReadSecretKey(cipherSpec, salt);
-			Cipher decryptCipher = CipherUtil.createDecCipher(cipherSpec, secretKey, iv);
+			Cipher decryptCipher = CipherPool.borrowCipher(cipherSpec, Cipher.DECRYPT_MODE, secretKey, iv);
+			
+			cipherSpecs.add(cipherSpec);
+			ciphers.add(decryptCipher);
 			
-			nestedCipherInputStream = new GcmCompatibleCipherInputStream(nestedCipherInputStream, decryptCipher);		
+			nestedCipherInputStream = new GcmCompatibleCipherInputStream(nestedCipherInputStream, decryptCipher, DECRYPTION_BUFFER_SIZE);		
 		}	 
 		
 		return nestedCipherInputStream;
@@ -17,10 +17,9 @@
  */
 package org.syncany.crypto;
 
-import static org.syncany.crypto.CipherParams.CRYPTO_PROVIDER_ID;
-
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.crypto.Cipher;
@@ -59,12 +58,20 @@ import javax.crypto.Mac;
  * - Don't encrypt your IVs (IVs are prepended)
  * - Authenticate cipher configuration (algorithm, salts and IVs)
  * - Only use authenticated ciphers
+ * 
+ * <p>Single-byte writes are collected in an internal staging buffer and handed
+ * to the cipher chain in blocks of {@link #STAGING_BUFFER_SIZE} bytes. Writes of
+ * at least that size bypass the staging buffer and are passed on directly. 
+ * 
+ * <p>The {@link Cipher} and {@link Mac} objects are borrowed from the {@link CipherPool}
+ * and returned when the stream is closed.
  */
 public class MultiCipherOutputStream extends OutputStream {
 	public static final byte[] STREAM_MAGIC = new byte[] { 0x53, 0x79, 0x02, 0x05 };
 	public static final byte STREAM_VERSION = 1;
 
 	public static final int SALT_SIZE = 12;	
+	public static final int STAGING_BUFFER_SIZE = 16*1024;
 	public static final CipherSpec HMAC_SPEC = new CipherSpec(-1, "HmacSHA256", 256, -1, false);
 	
 	private OutputStream underlyingOutputStream;
@@ -73,8 +80,14 @@ public class MultiCipherOutputStream extends OutputStream {
 	private CipherSession cipherSession;
 	private OutputStream cipherOutputStream;
 
+	private byte[] stagingBuffer;
+	private int stagingBufferLength;
+
+	private List<Cipher> ciphers;
+	
 	private boolean headerWritten;	
 	private Mac headerHmac;
+	private boolean closed;
 	
 	public MultiCipherOutputStream(OutputStream out, List<CipherSpec> cipherSpecs, CipherSession cipherSession) throws IOException {
 		this.underlyingOutputStream = out;	
@@ -83,23 +96,91 @@ public class MultiCipherOutputStream extends OutputStream {
 		this.cipherSession = cipherSession;		
 		this.cipherOutputStream = null;
 		
+		this.stagingBuffer = new byte[STAGING_BUFFER_SIZE];
+		this.stagingBufferLength = 0;
+		
 		this.headerWritten = false;
 		this.headerHmac = null;		
+		this.ciphers = new ArrayList<Cipher>();
+		this.closed = false;
 	}
 	
 	@Override
 	public void write(int b) throws IOException {
-		if (!headerWritten) {
-			writeHeader();
-			headerWritten = true;
+		if (stagingBufferLength == stagingBuffer.length) {
+			flushStagingBuffer();
+		}
+		
+		stagingBuffer[stagingBufferLength++] = (byte) b;
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
 		}
 		
-		cipherOutputStream.write(b);		
+		if (len >= stagingBuffer.length) {
+			// Large write: Pass it on directly, no need to copy it
+			flushStagingBuffer();
+			
+			ensureHeaderWritten();
+			cipherOutputStream.write(b, off, len);
+		}
+		else {
+			if (stagingBufferLength + len > stagingBuffer.length) {
+				flushStagingBuffer();
+			}
+			
+			System.arraycopy(b, off, stagingBuffer, stagingBufferLength, len);
+			stagingBufferLength += len;
+		}
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		flushStagingBuffer();
+		cipherOutputStream.flush();
 	}
 	
 	@Override
 	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		
+		flushStagingBuffer();
+		
+		// Empty streams still get a header (and an authentication tag)
+		ensureHeaderWritten();		
 		cipherOutputStream.close();
+		
+		closed = true;
+		returnCiphers();
+	}
+	
+	private void returnCiphers() {
+		for (int i = 0; i < ciphers.size(); i++) {
+			CipherPool.returnCipher(cipherSpecs.get(i), ciphers.get(i));
+		}
+		
+		ciphers.clear();
+	}
+	
+	private void flushStagingBuffer() throws IOException {
+		ensureHeaderWritten();
+		
+		if (stagingBufferLength > 0) {
+			cipherOutputStream.write(stagingBuffer, 0, stagingBufferLength);
+			stagingBufferLength = 0;
+		}
+	}
+	
+	private void ensureHeaderWritten() throws IOException {
+		if (!headerWritten) {
+			writeHeader();
+			headerWritten = true;
+		}
 	}
 		
 	private void writeHeader() throws IOException {
@@ -107,8 +188,7 @@ public class MultiCipherOutputStream extends OutputStream {
 			// Initialize header HMAC
 			SaltedSecretKey hmacSecretKey = cipherSession.getWriteSecretKey(HMAC_SPEC);
 			
-			headerHmac = Mac.getInstance(HMAC_SPEC.getAlgorithm(), CRYPTO_PROVIDER_ID);
-			headerHmac.init(hmacSecretKey);
+			headerHmac = CipherPool.borrowMac(HMAC_SPEC, hmacSecretKey);
 			
 			// Write header
 			writeNoHmac(underlyingOutputStream, STREAM_MAGIC);
@@ -126,12 +206,16 @@ public class MultiCipherOutputStream extends OutputStream {
 				writeAndUpdateHmac(underlyingOutputStream, saltedSecretKey.getSalt());
 				writeAndUpdateHmac(underlyingOutputStream, iv);
 				
-				Cipher encryptCipher = CipherUtil.createEncCipher(cipherSpec, saltedSecretKey, iv);
+				Cipher encryptCipher = CipherPool.borrowCipher(cipherSpec, Cipher.ENCRYPT_MODE, saltedSecretKey, iv);
+				ciphers.add(encryptCipher);
 				
 				cipherOutputStream = new CipherOutputStream(cipherOutputStream, encryptCipher);	        
 			}	
 			
 			writeNoHmac(underlyingOutputStream, headerHmac.doFinal());
+			
+			CipherPool.returnMac(HMAC_SPEC, headerHmac);
+			headerHmac = null;
     	}
     	catch (Exception e) {
     		throw new IOException(e);
@@ -0,0 +1,203 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Header of the segmented cipher format, as written by the {@link SegmentedCipherOutputStream}
+ * and read by the {@link SegmentedCipherInputStream} and the {@link SegmentedCipherReader}. 
+ * 
+ * <p>The header is not encrypted, but it is bound to the segments: The segment key is derived
+ * (via HKDF) from the file key and the encoded header, so any modification of the header makes 
+ * all segments fail authentication. Additional authenticated data (AAD) is not used, because 
+ * the Bouncy Castle provider does not support it for all GCM ciphers (e.g. Twofish).
+ * 
+ * <p>The class also implements the per-segment nonce and the encryption/decryption of a segment, 
+ * so that all readers and the writer share the same logic.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+/*package*/ class SegmentedCipherHeader {
+	public static final byte[] MAGIC = new byte[] { 0x53, 0x79, 0x53, 0x67 }; // "SySg"
+	public static final byte VERSION = 2;
+	
+	public static final int NONCE_PREFIX_SIZE = 7;
+	public static final int NONCE_SIZE = NONCE_PREFIX_SIZE + 4 + 1; // prefix, segment counter, last-segment flag
+	public static final int TAG_SIZE = 16; // 128 bit
+	public static final int HEADER_SIZE = MAGIC.length + 1 + 1 + MultiCipherOutputStream.SALT_SIZE + NONCE_PREFIX_SIZE + 4;
+	
+	private CipherSpec cipherSpec;
+	private byte[] salt;
+	private byte[] noncePrefix;
+	private int segmentSize;
+	private byte[] encoded;
+	
+	private SecretKey segmentKeySource;
+	private SecretKey segmentKey;
+	
+	public SegmentedCipherHeader(CipherSpec cipherSpec, byte[] salt, byte[] noncePrefix, int segmentSize) throws IOException {
+		this.cipherSpec = cipherSpec;
+		this.salt = salt;
+		this.noncePrefix = noncePrefix;
+		this.segmentSize = segmentSize;
+		this.encoded = encode();
+	}
+	
+	public static SegmentedCipherHeader read(InputStream inputStream) throws IOException {
+		DataInputStream dataInputStream = new DataInputStream(inputStream);
+		
+		byte[] magic = new byte[MAGIC.length];
+		dataInputStream.readFully(magic);
+		
+		if (!Arrays.equals(MAGIC, magic)) {
+			throw new IOException("Not a segmented Syncany-encrypted file, no magic!");
+		}
+		
+		byte version = dataInputStream.readByte();
+		
+		if (version != VERSION) {
+			throw new IOException("Segmented cipher version not supported: " + version);
+		}
+		
+		int cipherSpecId = dataInputStream.readUnsignedByte();
+		CipherSpec cipherSpec = CipherSpecs.getCipherSpec(cipherSpecId);
+		
+		if (cipherSpec == null) {
+			throw new IOException("Cannot find cipher spec with ID " + cipherSpecId);
+		}
+		
+		byte[] salt = new byte[MultiCipherOutputStream.SALT_SIZE];
+		byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+		
+		dataInputStream.readFully(salt);
+		dataInputStream.readFully(noncePrefix);
+		
+		int segmentSize = dataInputStream.readInt();
+		
+		if (segmentSize <= 0 || segmentSize > SegmentedCipherOutputStream.MAX_SEGMENT_SIZE) {
+			throw new IOException("Invalid segment size: " + segmentSize);
+		}
+		
+		return new SegmentedCipherHeader(cipherSpec, salt, noncePrefix, segmentSize);
+	}
+	
+	private byte[] encode() throws IOException {
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream(HEADER_SIZE);
+		DataOutputStream dataOutputStream = new DataOutputStream(headerBytes);
+		
+		dataOutputStream.write(MAGIC);
+		dataOutputStream.writeByte(VERSION);
+		dataOutputStream.writeByte(cipherSpec.getId());
+		dataOutputStream.write(salt);
+		dataOutputStream.write(noncePrefix);
+		dataOutputStream.writeInt(segmentSize);
+		dataOutputStream.close();
+		
+		return headerBytes.toByteArray();
+	}
+
+	public CipherSpec getCipherSpec() {
+		return cipherSpec;
+	}
+
+	public byte[] getSalt() {
+		return salt;
+	}
+
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+	
+	public byte[] getEncoded() {
+		return encoded;
+	}
+	
+	/**
+	 * Returns the size of a full segment in the ciphertext, i.e. the segment size 
+	 * plus the authentication tag.
+	 */
+	public int getCiphertextSegmentSize() {
+		return segmentSize + TAG_SIZE;
+	}
+	
+	/**
+	 * Encrypts or decrypts a single segment. The nonce is derived from the random nonce prefix, 
+	 * the segment index and whether or not this is the last segment (STREAM construction). 
+	 * Swapping, dropping or appending segments therefore makes authentication fail. The 
+	 * segment key is derived from the given key and the header, see {@link #getSegmentKey(SecretKey)}.
+	 * 
+	 * @return Number of bytes written to the output array
+	 */
+	public int doSegment(int cipherMode, SecretKey secretKey, long segmentIndex, boolean lastSegment, byte[] in, int inOffset, int inLength,
+			byte[] out, int outOffset) throws IOException {
+		
+		if (segmentIndex < 0 || segmentIndex > 0xffffffffL) {
+			throw new IOException("Segment index out of range: " + segmentIndex);
+		}
+		
+		byte[] nonce = ByteBuffer.allocate(NONCE_SIZE).put(noncePrefix).putInt((int) segmentIndex).put((byte) (lastSegment ? 1 : 0)).array();
+		Cipher cipher;
+		
+		try {
+			// Segments are decrypted in one call, so the (possibly buffering) fastest provider is fine here
+			cipher = CipherPool.borrowCipher(cipherSpec, cipherMode, getSegmentKey(secretKey), nonce, CipherProviders.getProvider(cipherSpec));
+		}
+		catch (CipherException e) {
+			throw new IOException(e);
+		}
+		
+		try {
+			return cipher.doFinal(in, inOffset, inLength, out, outOffset);
+		}
+		catch (Exception e) {
+			throw new IOException("Cannot " + ((cipherMode == Cipher.ENCRYPT_MODE) ? "encrypt" : "decrypt") + " segment " + segmentIndex
+					+ ", authentication failed or data corrupt.", e);
+		}
+		finally {
+			CipherPool.returnCipher(cipherSpec, cipher);
+		}
+	}
+	
+	/**
+	 * Returns the key used to encrypt/decrypt the segments, derived from the given file key
+	 * and the encoded header. The derived key is cached for the last given file key.
+	 */
+	private synchronized SecretKey getSegmentKey(SecretKey secretKey) throws IOException {
+		if (secretKey != segmentKeySource) {
+			try {
+				segmentKey = CipherUtil.createDerivedKey(secretKey, encoded, cipherSpec);
+				segmentKeySource = secretKey;
+			}
+			catch (Exception e) {
+				throw new IOException("Cannot derive segment key.", e);
+			}
+		}
+		
+		return segmentKey;
+	}
+}
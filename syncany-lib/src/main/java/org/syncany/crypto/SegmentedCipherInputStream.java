@@ -0,0 +1,160 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Implements an input stream that sequentially decrypts a stream written by the
+ * {@link SegmentedCipherOutputStream}. Each segment is verified before any of its 
+ * plaintext is returned. 
+ * 
+ * <p>To decrypt only parts of an encrypted file, use the {@link SegmentedCipherReader}.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class SegmentedCipherInputStream extends InputStream {
+	private PushbackInputStream underlyingInputStream;
+	private CipherSession cipherSession;
+	
+	private SegmentedCipherHeader header;
+	private SecretKey secretKey;
+	
+	private byte[] ciphertextBuffer;
+	private byte[] plaintextBuffer;
+	private int plaintextPosition;
+	private int plaintextLength;
+	private long segmentIndex;
+	private boolean lastSegmentRead;
+	
+	public SegmentedCipherInputStream(InputStream in, CipherSession cipherSession) throws IOException {
+		this.underlyingInputStream = new PushbackInputStream(in, 1);
+		this.cipherSession = cipherSession;
+		
+		this.header = null;
+		this.secretKey = null;
+		
+		this.plaintextPosition = 0;
+		this.plaintextLength = 0;
+		this.segmentIndex = 0;
+		this.lastSegmentRead = false;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		byte[] singleByte = new byte[1];
+		int read = read(singleByte, 0, 1);
+		
+		return (read == -1) ? -1 : (singleByte[0] & 0xff);
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		
+		while (plaintextPosition == plaintextLength) {
+			if (lastSegmentRead) {
+				return -1;
+			}
+			
+			readSegment();
+		}
+		
+		int readLength = Math.min(len, plaintextLength - plaintextPosition);
+		System.arraycopy(plaintextBuffer, plaintextPosition, b, off, readLength);
+		
+		plaintextPosition += readLength;		
+		return readLength;
+	}
+	
+	@Override
+	public int available() throws IOException {
+		return plaintextLength - plaintextPosition;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		underlyingInputStream.close();
+	}
+	
+	private void readSegment() throws IOException {
+		if (header == null) {
+			readHeader();
+		}
+		
+		int ciphertextLength = readFully(ciphertextBuffer);
+		
+		if (ciphertextLength < SegmentedCipherHeader.TAG_SIZE) {
+			throw new IOException("Unexpected end of stream, segment " + segmentIndex + " is truncated.");
+		}
+		
+		// A segment is the last one if it is shorter than a full segment, or if no more data follows
+		boolean lastSegment = ciphertextLength < ciphertextBuffer.length || isEndOfStream();
+		
+		plaintextLength = header.doSegment(Cipher.DECRYPT_MODE, secretKey, segmentIndex, lastSegment, ciphertextBuffer, 0, ciphertextLength, 
+				plaintextBuffer, 0);
+		plaintextPosition = 0;
+		
+		lastSegmentRead = lastSegment;
+		segmentIndex++;
+	}
+	
+	private void readHeader() throws IOException {
+		header = SegmentedCipherHeader.read(underlyingInputStream);
+		
+		try {
+			secretKey = cipherSession.getReadSecretKey(header.getCipherSpec(), header.getSalt());
+		}
+		catch (Exception e) {
+			throw new IOException(e);
+		}
+		
+		ciphertextBuffer = new byte[header.getCiphertextSegmentSize()];
+		plaintextBuffer = new byte[header.getCiphertextSegmentSize()];
+	}
+	
+	private int readFully(byte[] buffer) throws IOException {
+		int offset = 0;
+		int read = 0;
+		
+		while (offset < buffer.length && (read = underlyingInputStream.read(buffer, offset, buffer.length - offset)) != -1) {
+			offset += read;
+		}
+		
+		return offset;
+	}
+	
+	private boolean isEndOfStream() throws IOException {
+		int nextByte = underlyingInputStream.read();
+		
+		if (nextByte == -1) {
+			return true;
+		}
+		else {
+			underlyingInputStream.unread(nextByte);
+			return false;
+		}
+	}
+}
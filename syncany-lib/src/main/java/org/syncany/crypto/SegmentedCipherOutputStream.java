@@ -0,0 +1,186 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.crypto.Cipher;
+
+/**
+ * Implements an output stream that encrypts the underlying output stream in
+ * fixed-size, individually authenticated segments, using a single AEAD cipher
+ * (GCM mode). 
+ * 
+ * <p>Contrary to the {@link MultiCipherOutputStream}, the resulting ciphertext
+ * does not need to be decrypted as a whole: Since all segments (except the last
+ * one) have the same size, the position of each segment can be calculated, and 
+ * each segment can be decrypted and verified on its own (see {@link SegmentedCipherReader}).
+ * The segment nonces follow the STREAM construction (Hoang et al., "Online 
+ * Authenticated-Encryption and its Nonce-Reuse Misuse-Resistance"), so that reordering,
+ * truncating or extending the segments is detected.
+ * 
+ * Format:
+ * <pre>
+ *    Length           Description
+ *    ----------------------------------------------
+ *    04               "Sy" "Sg" (4 bytes)
+ *    01               Version (1 byte)
+ *    01               Cipher spec ID (1 byte)
+ *    12               Salt for the derived key (12 bytes)
+ *    07               Nonce prefix (7 bytes, random)
+ *    04               Segment size (=s, 4 bytes)
+ *    
+ *    for i := 0..n-1:
+ *      ss             Ciphertext of segment i (s bytes, last segment 0..s bytes)
+ *      16             Authentication tag of segment i (16 bytes)
+ * </pre>
+ * 
+ * <p>The nonce of segment i is: nonce prefix (7 bytes), i (4 bytes), last segment flag 
+ * (1 byte). The segment key is derived from the file key and the header, so the header
+ * is authenticated by every segment. The last segment is always written, even if it is empty.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class SegmentedCipherOutputStream extends OutputStream {
+	public static final int DEFAULT_SEGMENT_SIZE = 64*1024;
+	
+	/**
+	 * Largest segment size accepted by the writer and the readers. Readers allocate 
+	 * a segment buffer based on the (not yet authenticated) header, so the size read
+	 * from a file must be bounded. 
+	 */
+	public static final int MAX_SEGMENT_SIZE = 16*1024*1024;
+	
+	private OutputStream underlyingOutputStream;
+	private CipherSpec cipherSpec;
+	private CipherSession cipherSession;
+	private int segmentSize;
+	
+	private SegmentedCipherHeader header;
+	private SaltedSecretKey secretKey;
+	
+	private byte[] segmentBuffer;
+	private int segmentBufferLength;
+	private byte[] ciphertextBuffer;
+	private long segmentIndex;
+	
+	private boolean closed;
+	
+	public SegmentedCipherOutputStream(OutputStream out, CipherSpec cipherSpec, CipherSession cipherSession) throws IOException {
+		this(out, cipherSpec, cipherSession, DEFAULT_SEGMENT_SIZE);
+	}
+	
+	public SegmentedCipherOutputStream(OutputStream out, CipherSpec cipherSpec, CipherSession cipherSession, int segmentSize) throws IOException {
+		if (!cipherSpec.getAlgorithm().contains("/GCM/")) {
+			throw new IOException("Segmented encryption requires a GCM cipher spec, but was " + cipherSpec);
+		}
+		
+		if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+			throw new IOException("Invalid segment size " + segmentSize + ", must be between 1 and " + MAX_SEGMENT_SIZE + " bytes.");
+		}
+		
+		this.underlyingOutputStream = out;
+		this.cipherSpec = cipherSpec;
+		this.cipherSession = cipherSession;
+		this.segmentSize = segmentSize;
+		
+		this.header = null;
+		this.secretKey = null;
+		
+		this.segmentBuffer = new byte[segmentSize];
+		this.segmentBufferLength = 0;
+		this.ciphertextBuffer = new byte[segmentSize + SegmentedCipherHeader.TAG_SIZE];
+		this.segmentIndex = 0;
+		
+		this.closed = false;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		if (segmentBufferLength == segmentBuffer.length) {
+			writeSegment(false);
+		}
+		
+		segmentBuffer[segmentBufferLength++] = (byte) b;
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		
+		while (len > 0) {
+			// A full segment is only written once more data follows; it might be the last one
+			if (segmentBufferLength == segmentBuffer.length) {
+				writeSegment(false);
+			}
+			
+			int copyLength = Math.min(len, segmentBuffer.length - segmentBufferLength);
+			System.arraycopy(b, off, segmentBuffer, segmentBufferLength, copyLength);
+			
+			segmentBufferLength += copyLength;
+			off += copyLength;
+			len -= copyLength;
+		}
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		underlyingOutputStream.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		
+		writeSegment(true);
+		underlyingOutputStream.close();
+		
+		closed = true;
+	}
+	
+	private void writeSegment(boolean lastSegment) throws IOException {
+		if (header == null) {
+			writeHeader();
+		}
+		
+		int ciphertextLength = header.doSegment(Cipher.ENCRYPT_MODE, secretKey, segmentIndex, lastSegment, segmentBuffer, 0, segmentBufferLength, 
+				ciphertextBuffer, 0);
+		
+		underlyingOutputStream.write(ciphertextBuffer, 0, ciphertextLength);
+		
+		segmentBufferLength = 0;
+		segmentIndex++;
+	}
+	
+	private void writeHeader() throws IOException {
+		try {
+			secretKey = cipherSession.getWriteSecretKey(cipherSpec);
+			header = new SegmentedCipherHeader(cipherSpec, secretKey.getSalt(), CipherUtil.createRandomArray(SegmentedCipherHeader.NONCE_PREFIX_SIZE), segmentSize);
+		}
+		catch (Exception e) {
+			throw new IOException(e);
+		}
+		
+		underlyingOutputStream.write(header.getEncoded());
+	}
+}
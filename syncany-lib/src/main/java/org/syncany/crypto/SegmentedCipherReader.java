@@ -0,0 +1,174 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Provides random access to the plaintext of a file written by the {@link SegmentedCipherOutputStream}.
+ * Only the segments that overlap the requested range are read and decrypted; each of them
+ * is verified before its plaintext is returned. 
+ * 
+ * <p>Since all segments except the last have the same size, the position of a segment in the 
+ * ciphertext can be calculated from the header alone. {@link #getCiphertextOffset(long)} exposes 
+ * this calculation, so that a caller can also fetch only the required ciphertext ranges, e.g. from 
+ * a storage backend supporting range requests.
+ * 
+ * <p>The last decrypted segment is kept in memory, so that sequential small reads do not 
+ * decrypt a segment more than once.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class SegmentedCipherReader {
+	private RandomAccessFile ciphertextFile;
+	
+	private SegmentedCipherHeader header;
+	private SecretKey secretKey;
+	
+	private long segmentCount;
+	private long plaintextLength;
+	
+	private byte[] ciphertextBuffer;
+	private byte[] plaintextBuffer;
+	private long plaintextBufferSegmentIndex;
+	private int plaintextBufferLength;
+	
+	public SegmentedCipherReader(RandomAccessFile ciphertextFile, CipherSession cipherSession) throws IOException {
+		this.ciphertextFile = ciphertextFile;
+		this.header = readHeader(ciphertextFile);
+		
+		try {
+			this.secretKey = cipherSession.getReadSecretKey(header.getCipherSpec(), header.getSalt());
+		}
+		catch (Exception e) {
+			throw new IOException(e);
+		}
+		
+		long ciphertextLength = ciphertextFile.length() - SegmentedCipherHeader.HEADER_SIZE;
+		int ciphertextSegmentSize = header.getCiphertextSegmentSize();
+		
+		if (ciphertextLength < SegmentedCipherHeader.TAG_SIZE) {
+			throw new IOException("Invalid segmented ciphertext, file too short.");
+		}
+		
+		this.segmentCount = (ciphertextLength + ciphertextSegmentSize - 1) / ciphertextSegmentSize;
+		this.plaintextLength = ciphertextLength - segmentCount * SegmentedCipherHeader.TAG_SIZE;
+		
+		if (ciphertextLength - (segmentCount - 1) * ciphertextSegmentSize < SegmentedCipherHeader.TAG_SIZE) {
+			throw new IOException("Invalid segmented ciphertext, last segment is truncated.");
+		}
+		
+		this.ciphertextBuffer = new byte[ciphertextSegmentSize];
+		this.plaintextBuffer = new byte[ciphertextSegmentSize];
+		this.plaintextBufferSegmentIndex = -1;
+		this.plaintextBufferLength = 0;
+	}
+	
+	/**
+	 * Returns the length of the plaintext.
+	 */
+	public long getPlaintextLength() {
+		return plaintextLength;
+	}
+	
+	/**
+	 * Returns the (plaintext) size of a segment.
+	 */
+	public int getSegmentSize() {
+		return header.getSegmentSize();
+	}
+	
+	/**
+	 * Returns the offset of the given segment in the ciphertext (including the header).
+	 */
+	public long getCiphertextOffset(long segmentIndex) {
+		return SegmentedCipherHeader.HEADER_SIZE + segmentIndex * header.getCiphertextSegmentSize();
+	}
+	
+	/**
+	 * Reads up to <tt>len</tt> bytes of plaintext, starting at the given plaintext position.
+	 * Fewer bytes are only returned if the end of the plaintext is reached.
+	 * 
+	 * @return Returns the number of bytes read, or -1 if the position is at or after the end of the plaintext 
+	 * @throws IOException If the ciphertext cannot be read, or if a segment cannot be authenticated
+	 */
+	public int read(long position, byte[] b, int off, int len) throws IOException {
+		if (position < 0 || off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		
+		if (position >= plaintextLength) {
+			return -1;
+		}
+		
+		int totalRead = 0;
+		
+		while (totalRead < len && position < plaintextLength) {
+			long segmentIndex = position / header.getSegmentSize();
+			int segmentOffset = (int) (position % header.getSegmentSize());
+			
+			decryptSegment(segmentIndex);
+			
+			int readLength = Math.min(len - totalRead, plaintextBufferLength - segmentOffset);
+			System.arraycopy(plaintextBuffer, segmentOffset, b, off + totalRead, readLength);
+			
+			totalRead += readLength;
+			position += readLength;
+		}
+		
+		return totalRead;
+	}
+	
+	public void close() throws IOException {
+		ciphertextFile.close();
+	}
+	
+	private void decryptSegment(long segmentIndex) throws IOException {
+		if (segmentIndex == plaintextBufferSegmentIndex) {
+			return;
+		}
+		
+		boolean lastSegment = segmentIndex == segmentCount - 1;
+		long ciphertextOffset = getCiphertextOffset(segmentIndex);
+		int ciphertextLength = (int) Math.min(header.getCiphertextSegmentSize(), ciphertextFile.length() - ciphertextOffset);
+		
+		ciphertextFile.seek(ciphertextOffset);
+		ciphertextFile.readFully(ciphertextBuffer, 0, ciphertextLength);
+		
+		plaintextBufferSegmentIndex = -1; // In case decryption fails
+		plaintextBufferLength = header.doSegment(Cipher.DECRYPT_MODE, secretKey, segmentIndex, lastSegment, ciphertextBuffer, 0, ciphertextLength, 
+				plaintextBuffer, 0);
+		plaintextBufferSegmentIndex = segmentIndex;
+	}
+	
+	private static SegmentedCipherHeader readHeader(final RandomAccessFile ciphertextFile) throws IOException {
+		ciphertextFile.seek(0);
+		
+		return SegmentedCipherHeader.read(new InputStream() {
+			@Override
+			public int read() throws IOException {
+				return ciphertextFile.read();
+			}
+		});
+	}
+}
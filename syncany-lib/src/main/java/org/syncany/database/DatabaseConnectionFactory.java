@@ -24,10 +24,11 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,7 +44,10 @@ public class DatabaseConnectionFactory {
 	public static final String DATABASE_DRIVER = "org.hsqldb.jdbcDriver";
 	public static final String DATABASE_CONNECTION_FILE_STRING = "jdbc:hsqldb:file:%DATABASEFILE%;user=sa;password=;create=true;write_delay=false;hsqldb.write_delay=false;shutdown=true";	
 	public static final String DATABASE_SCRIPT_RESOURCE = "/sql/create.all.sql";	
-	public static final Map<String, String> DATABASE_STATEMENTS = new HashMap<String, String>(); 
+	public static final String DATABASE_UPGRADE_CURRENT_SCRIPT_RESOURCE = "/sql/upgrade.fileversion_current.sql";
+	public static final String DATABASE_UPGRADE_BINARY_SCRIPT_RESOURCE = "/sql/upgrade.binary_checksums.sql";
+	public static final String DATABASE_REBUILD_CURRENT_SCRIPT_RESOURCE = "/sql/fileversion.update.current.rebuildCurrentFileVersions.sql";
+	public static final ConcurrentMap<String, String> DATABASE_STATEMENTS = new ConcurrentHashMap<String, String>(); 
 	
 	static {
 		try {
@@ -74,6 +78,15 @@ public class DatabaseConnectionFactory {
 			if (!tablesExist(connection)) {
 				createTables(connection);
 			}
+			else {
+				if (!currentFileVersionsTableExists(connection)) {
+					upgradeCurrentFileVersionsTable(connection);
+				}
+				
+				if (!binaryChecksumsExist(connection)) {
+					upgradeBinaryChecksums(connection);
+				}
+			}
 			
 			return connection;
 		}
@@ -98,10 +111,55 @@ public class DatabaseConnectionFactory {
 		}
 	}
 	
+	private static boolean currentFileVersionsTableExists(Connection connection) {
+		try (PreparedStatement preparedStatement = connection.prepareStatement("select count(*) from fileversion_current");
+				ResultSet resultSet = preparedStatement.executeQuery()) {
+			
+			return resultSet.next();
+		}
+		catch (SQLException e) {
+			return false;
+		}
+	}
+	
+	private static boolean binaryChecksumsExist(Connection connection) throws SQLException {
+		try (PreparedStatement preparedStatement = connection.prepareStatement("select data_type from information_schema.columns where table_name='CHUNK' and column_name='CHECKSUM'");
+				ResultSet resultSet = preparedStatement.executeQuery()) {
+			
+			return resultSet.next() && "VARBINARY".equals(resultSet.getString(1));
+		}
+	}
+	
 	private static void createTables(Connection connection) throws SQLException {
 		logger.log(Level.INFO, "Database has no tables. Creating tables from "+DATABASE_SCRIPT_RESOURCE);
-		
-		InputStream inputStream = DatabaseConnectionFactory.class.getResourceAsStream(DATABASE_SCRIPT_RESOURCE);
+		runScript(connection, DATABASE_SCRIPT_RESOURCE);
+	}
+	
+	/**
+	 * Upgrades databases created before the materialized <i>fileversion_current</i> table
+	 * was introduced: Creates the table, bases the <i>fileversion_master_last</i> view on it
+	 * and fills it from the existing file versions.
+	 */
+	private static void upgradeCurrentFileVersionsTable(Connection connection) throws SQLException {
+		logger.log(Level.INFO, "Database has no current file versions table. Upgrading database using "+DATABASE_UPGRADE_CURRENT_SCRIPT_RESOURCE);
+
+		runScript(connection, DATABASE_UPGRADE_CURRENT_SCRIPT_RESOURCE);
+		runScript(connection, DATABASE_REBUILD_CURRENT_SCRIPT_RESOURCE);
+	}
+	
+	/**
+	 * Upgrades databases created before checksums and IDs were stored as binary: Re-creates
+	 * the tables with <i>varbinary</i> instead of <i>varchar</i> columns and copies all rows,
+	 * converting the hex strings to bytes. Depending on the size of the database, this may
+	 * take a while; it only happens once.
+	 */
+	private static void upgradeBinaryChecksums(Connection connection) throws SQLException {
+		logger.log(Level.INFO, "Database stores checksums as strings. Upgrading database using "+DATABASE_UPGRADE_BINARY_SCRIPT_RESOURCE+" (this may take a while) ...");
+		runScript(connection, DATABASE_UPGRADE_BINARY_SCRIPT_RESOURCE);
+	}
+	
+	public static void runScript(Connection connection, String scriptResource) throws SQLException {
+		InputStream inputStream = DatabaseConnectionFactory.class.getResourceAsStream(scriptResource);
 		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
 		
 		connection.setAutoCommit(true);
@@ -110,7 +168,12 @@ public class DatabaseConnectionFactory {
 		connection.setAutoCommit(false);
 	}
 	
-	public synchronized static String getStatement(String resourceIdentifier) {
+	/**
+	 * Returns the SQL statement stored in the given resource (e.g. <tt>/sql/chunk.select.all.loadChunkCache.sql</tt>).
+	 * Statements are read only once and then cached. The cache is lock-free; if two threads load the same
+	 * statement at the same time, both read the resource, but only one copy is kept.
+	 */
+	public static String getStatement(String resourceIdentifier) {
 		String preparedStatement = DATABASE_STATEMENTS.get(resourceIdentifier);
 		
 		if (preparedStatement != null) {
@@ -124,13 +187,9 @@ public class DatabaseConnectionFactory {
 			}
 			
 			preparedStatement = readDatabaseStatement(statementInputStream);			
-			DATABASE_STATEMENTS.put(resourceIdentifier, preparedStatement);
-			
-			/*if (logger.isLoggable(Level.FINE)) {
-				logger.log(Level.FINE, "Database query \"{0}\" loaded (first time): {1}", new String[] { resourceIdentifier, preparedStatement });
-			}*/
+			String existingPreparedStatement = DATABASE_STATEMENTS.putIfAbsent(resourceIdentifier, preparedStatement);
 			
-			return preparedStatement;
+			return (existingPreparedStatement != null) ? existingPreparedStatement : preparedStatement;
 		}		
 	}
 	
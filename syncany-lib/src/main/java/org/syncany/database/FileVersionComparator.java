@@ -34,6 +34,7 @@ import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.syncany.chunk.Chunker;
 import org.syncany.database.FileContent.FileChecksum;
 import org.syncany.database.FileVersion.FileStatus;
 import org.syncany.database.FileVersion.FileType;
@@ -60,6 +61,7 @@ public class FileVersionComparator {
 	private static final Logger logger = Logger.getLogger(FileVersionComparator.class.getSimpleName());
 	private File rootFolder;
 	private String checksumAlgorithm;
+	private Chunker chunker;
 
 	/**
 	 * Creates a new file version comparator helper class. 
@@ -74,6 +76,21 @@ public class FileVersionComparator {
 	public FileVersionComparator(File rootFolder, String checksumAlgorithm) {
 		this.rootFolder = rootFolder;
 		this.checksumAlgorithm = checksumAlgorithm;
+		this.chunker = null;
+	}
+
+	/**
+	 * Creates a new file version comparator helper class that calculates file checksums
+	 * exactly like the given {@link Chunker}, i.e. using its checksum algorithm and its
+	 * {@link Chunker.FileChecksumMode file checksum mode}.
+	 * 
+	 * @param rootFolder Base folder to determine a relative path to 
+	 * @param chunker Chunker used to calculate file checksums
+	 */
+	public FileVersionComparator(File rootFolder, Chunker chunker) {
+		this.rootFolder = rootFolder;
+		this.checksumAlgorithm = chunker.getChecksumAlgorithm();
+		this.chunker = chunker;
 	}
 
 	/**
@@ -448,7 +465,7 @@ public class FileVersionComparator {
 				if (fileProperties.type == FileType.FILE && forceChecksum) {
 					try {
 						if (fileProperties.size > 0) {
-							fileProperties.checksum = new FileChecksum(FileUtil.createChecksum(file, checksumAlgorithm));
+							fileProperties.checksum = new FileChecksum(createChecksum(file));
 						}
 						else {
 							fileProperties.checksum = null;
@@ -501,6 +518,15 @@ public class FileVersionComparator {
 		return fileProperties;
 	}
 
+	private byte[] createChecksum(File file) throws Exception {
+		if (chunker != null) {
+			return chunker.createFileChecksum(file);
+		}
+		else {
+			return FileUtil.createChecksum(file, checksumAlgorithm);
+		}
+	}
+
 	public static class FileVersionComparison {
 		private Set<FileChange> fileChanges = new HashSet<FileChange>();
 		private FileProperties actualFileProperties;
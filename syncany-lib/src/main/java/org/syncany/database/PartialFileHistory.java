@@ -127,7 +127,7 @@ public class PartialFileHistory {
 	}
 	
 	public static class FileHistoryId extends ObjectId {
-		private FileHistoryId(byte[] array) {
+		public FileHistoryId(byte[] array) {
 			super(array);
 		}
 		
@@ -19,6 +19,7 @@ package org.syncany.database;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -46,6 +47,11 @@ import org.syncany.operations.DatabaseBranch;
  * <p>This class combines all specific SQL database data access objects (DAOs) into
  * a single class, and forwards all method calls to the responsible DAO.  
  * 
+ * <p>Operations should use the instance shared via {@link Config#getSqlDatabase()}, so that
+ * the prepared statements and the chunk index are only held once per config. The shared 
+ * instance is {@link #close() closed} by {@link Config#closeDatabaseConnection()}. Instances
+ * created via the constructor must be closed by their creator.
+ * 
  * @see {@link ApplicationSqlDao}
  * @see {@link ChunkSqlDao}
  * @see {@link FileContentSqlDao}
@@ -66,11 +72,15 @@ public class SqlDatabase {
 	protected MultiChunkSqlDao multiChunkDao;
 	protected DatabaseVersionSqlDao databaseVersionDao;
 
+	/**
+	 * Creates a SQL database using the shared database connection of the
+	 * given config (see {@link Config#getDatabaseConnection()}).
+	 */
 	public SqlDatabase(Config config) {
-		Connection connection = config.createDatabaseConnection();
+		Connection connection = config.getDatabaseConnection();
 
 		this.applicationDao = new ApplicationSqlDao(connection);
-		this.chunkDao = new ChunkSqlDao(connection);
+		this.chunkDao = new ChunkSqlDao(connection, (config.getCache() != null) ? config.getCache().getChunkIndexFile() : null);
 		this.fileContentDao = new FileContentSqlDao(connection);
 		this.fileVersionDao = new FileVersionSqlDao(connection);
 		this.fileHistoryDao = new FileHistorySqlDao(connection, fileVersionDao);
@@ -88,7 +98,29 @@ public class SqlDatabase {
 		return applicationDao.getKnownDatabases();
 	}
 
+	/**
+	 * Closes all cached statements and the chunk index (releasing the lock on the index file), 
+	 * but leaves the shared database connection open. The instance must not be used afterwards.
+	 */
+	public void close() {
+		chunkDao.closeChunkIndex();
+		chunkDao.closeStatements();
+		fileContentDao.closeStatements();
+		fileVersionDao.closeStatements();
+		fileHistoryDao.closeStatements();
+		multiChunkDao.closeStatements();
+		databaseVersionDao.closeStatements();
+		applicationDao.closeStatements();
+	}
+	
+	/**
+	 * Closes all statements and shuts down the database. Since the connection is shared
+	 * via the {@link Config}, other instances using the same config must not be used 
+	 * afterwards. To keep the database open, use {@link Config#closeDatabaseConnection()}
+	 * when the config is no longer needed instead.
+	 */
 	public void shutdown() {
+		close();
 		applicationDao.shutdown();
 	}
 
@@ -114,6 +146,10 @@ public class SqlDatabase {
 		databaseVersionDao.persistDatabaseVersion(databaseVersion);
 	}
 
+	public void persistDatabaseVersions(Collection<DatabaseVersion> databaseVersions) {
+		databaseVersionDao.persistDatabaseVersions(databaseVersions);
+	}
+
 	public void markDatabaseVersionDirty(VectorClock vectorClock) {
 		databaseVersionDao.markDatabaseVersionDirty(vectorClock);
 	}
@@ -140,6 +176,10 @@ public class SqlDatabase {
 		return fileHistoryDao.getFileHistoriesWithFileVersions();
 	}
 
+	public Iterator<PartialFileHistory> getFileHistoriesWithFileVersionsIterator() {
+		return fileHistoryDao.getFileHistoriesWithFileVersionsIterator();
+	}
+
 	public PartialFileHistory getFileHistoryWithLastVersion(FileHistoryId fileHistoryId) {
 		return fileHistoryDao.getFileHistoryWithLastVersion(fileHistoryId);
 	}
@@ -152,6 +192,10 @@ public class SqlDatabase {
 		return fileHistoryDao.getFileHistoriesWithLastVersion();
 	}
 
+	public Iterator<PartialFileHistory> getFileHistoriesWithLastVersionIterator() {
+		return fileHistoryDao.getFileHistoriesWithLastVersionIterator();
+	}
+
 	public List<PartialFileHistory> getFileHistoriesWithLastVersionByChecksum(FileChecksum fileContentChecksum) {
 		return fileHistoryDao.getFileHistoriesWithLastVersionByChecksum(fileContentChecksum);
 	}
@@ -162,6 +206,10 @@ public class SqlDatabase {
 		return fileVersionDao.getCurrentFileTree();
 	}
 
+	public Iterator<FileVersion> getCurrentFileTreeIterator() {
+		return fileVersionDao.getCurrentFileTreeIterator();
+	}
+
 	@Deprecated
 	public FileVersion getFileVersionByPath(String path) {
 		return fileVersionDao.getFileVersionByPath(path);
@@ -185,6 +233,10 @@ public class SqlDatabase {
 	public MultiChunkId getMultiChunkId(ChunkChecksum chunkChecksum) {
 		return multiChunkDao.getMultiChunkId(chunkChecksum);
 	}
+	
+	public Map<ChunkChecksum, MultiChunkId> getMultiChunkIdsForChunks(Collection<ChunkChecksum> chunkChecksums) {
+		return multiChunkDao.getMultiChunkIdsForChunks(chunkChecksums);
+	}
 
 	public List<MultiChunkId> getDirtyMultiChunkIds() {
 		return multiChunkDao.getDirtyMultiChunkIds();
@@ -20,6 +20,7 @@ package org.syncany.database.dao;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import org.syncany.database.DatabaseConnectionFactory;
 
@@ -27,13 +28,19 @@ import org.syncany.database.DatabaseConnectionFactory;
  * Small helper class to implement common tasks for the inheriting 
  * SQL data access objects.
  * 
+ * <p>Statements obtained via {@link #getStatement(String) getStatement()} are
+ * taken from a {@link PreparedStatementCache}, i.e. they are only prepared once 
+ * per DAO. Callers must close them after use, which returns them to the cache.
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public abstract class AbstractSqlDao {
 	protected Connection connection;
+	protected PreparedStatementCache statementCache;
 	
 	public AbstractSqlDao(Connection connection) {
 		this.connection = connection;
+		this.statementCache = new PreparedStatementCache(connection);
 	}
 	
 	public Connection getConnection() {
@@ -45,6 +52,32 @@ public abstract class AbstractSqlDao {
 	}
 	
 	protected PreparedStatement getStatement(Connection overrideConnection, String resourceId) throws SQLException {
-		return overrideConnection.prepareStatement(DatabaseConnectionFactory.getStatement(resourceId));
+		if (overrideConnection == connection) {
+			return statementCache.getStatement(resourceId);
+		}
+		else {
+			return overrideConnection.prepareStatement(DatabaseConnectionFactory.getStatement(resourceId));
+		}
+	}
+	
+	protected PreparedStatement getStatementWithGeneratedKeys(Connection overrideConnection, String resourceId) throws SQLException {
+		if (overrideConnection == connection) {
+			return statementCache.getStatementWithGeneratedKeys(resourceId);
+		}
+		else {
+			return overrideConnection.prepareStatement(DatabaseConnectionFactory.getStatement(resourceId), Statement.RETURN_GENERATED_KEYS);
+		}
+	}
+	
+	protected PreparedStatement getStatementForSql(String cacheKey, String sql) throws SQLException {
+		return statementCache.getStatementForSql(cacheKey, sql);
+	}
+	
+	/**
+	 * Closes all cached prepared statements of this DAO. The DAO can 
+	 * not be used afterwards. 
+	 */
+	public void closeStatements() {
+		statementCache.close();
 	}
 }
@@ -0,0 +1,691 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database.dao;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Prepared statement handed out by the {@link PreparedStatementCache}. All calls are 
+ * delegated to the underlying (cached) statement, except for {@link #close()}, which 
+ * closes all result sets obtained from this statement and returns the underlying 
+ * statement to the cache.
+ * 
+ * <p>Once closed, this wrapper cannot be used anymore; a new one must be obtained
+ * from the cache. <tt>closeOnCompletion()</tt> is not supported, because it would 
+ * close the underlying statement.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+/*package*/ class CachedPreparedStatement implements PreparedStatement {
+	private PreparedStatementCache statementCache;
+	private String cacheKey;
+	private PreparedStatement statement;
+	private List<ResultSet> resultSets;
+	private boolean closed;
+	
+	public CachedPreparedStatement(PreparedStatementCache statementCache, String cacheKey, PreparedStatement statement) {
+		this.statementCache = statementCache;
+		this.cacheKey = cacheKey;
+		this.statement = statement;
+		this.resultSets = null;
+		this.closed = false;
+	}
+	
+	@Override
+	public void close() throws SQLException {
+		if (closed) {
+			return;
+		}
+		
+		closed = true;
+		
+		if (resultSets != null) {
+			for (ResultSet resultSet : resultSets) {
+				resultSet.close();
+			}
+			
+			resultSets = null;
+		}
+		
+		statementCache.returnStatement(cacheKey, statement);
+	}
+	
+	@Override
+	public boolean isClosed() throws SQLException {
+		return closed;
+	}
+	
+	@Override
+	public void closeOnCompletion() throws SQLException {
+		throw new SQLFeatureNotSupportedException("closeOnCompletion() is not supported for cached statements.");
+	}
+	
+	@Override
+	public boolean isCloseOnCompletion() throws SQLException {
+		return false;
+	}
+	
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || statement.isWrapperFor(iface);
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return (iface.isInstance(this)) ? iface.cast(this) : statement.unwrap(iface);
+	}
+	
+	@Override
+	public void addBatch(String sql) throws SQLException {
+		checkOpen();
+		statement.addBatch(sql);
+	}
+
+	@Override
+	public void cancel() throws SQLException {
+		checkOpen();
+		statement.cancel();
+	}
+
+	@Override
+	public void clearBatch() throws SQLException {
+		checkOpen();
+		statement.clearBatch();
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		checkOpen();
+		statement.clearWarnings();
+	}
+
+	@Override
+	public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+		checkOpen();
+		return statement.execute(sql, columnIndexes);
+	}
+
+	@Override
+	public boolean execute(String sql, String[] columnNames) throws SQLException {
+		checkOpen();
+		return statement.execute(sql, columnNames);
+	}
+
+	@Override
+	public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+		checkOpen();
+		return statement.execute(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public boolean execute(String sql) throws SQLException {
+		checkOpen();
+		return statement.execute(sql);
+	}
+
+	@Override
+	public int[] executeBatch() throws SQLException {
+		checkOpen();
+		return statement.executeBatch();
+	}
+
+	@Override
+	public ResultSet executeQuery(String sql) throws SQLException {
+		checkOpen();
+		return trackResultSet(statement.executeQuery(sql));
+	}
+
+	@Override
+	public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		checkOpen();
+		return statement.executeUpdate(sql, columnIndexes);
+	}
+
+	@Override
+	public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+		checkOpen();
+		return statement.executeUpdate(sql, columnNames);
+	}
+
+	@Override
+	public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		checkOpen();
+		return statement.executeUpdate(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public int executeUpdate(String sql) throws SQLException {
+		checkOpen();
+		return statement.executeUpdate(sql);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		checkOpen();
+		return statement.getConnection();
+	}
+
+	@Override
+	public int getFetchDirection() throws SQLException {
+		checkOpen();
+		return statement.getFetchDirection();
+	}
+
+	@Override
+	public int getFetchSize() throws SQLException {
+		checkOpen();
+		return statement.getFetchSize();
+	}
+
+	@Override
+	public ResultSet getGeneratedKeys() throws SQLException {
+		checkOpen();
+		return trackResultSet(statement.getGeneratedKeys());
+	}
+
+	@Override
+	public int getMaxFieldSize() throws SQLException {
+		checkOpen();
+		return statement.getMaxFieldSize();
+	}
+
+	@Override
+	public int getMaxRows() throws SQLException {
+		checkOpen();
+		return statement.getMaxRows();
+	}
+
+	@Override
+	public boolean getMoreResults() throws SQLException {
+		checkOpen();
+		return statement.getMoreResults();
+	}
+
+	@Override
+	public boolean getMoreResults(int current) throws SQLException {
+		checkOpen();
+		return statement.getMoreResults(current);
+	}
+
+	@Override
+	public int getQueryTimeout() throws SQLException {
+		checkOpen();
+		return statement.getQueryTimeout();
+	}
+
+	@Override
+	public ResultSet getResultSet() throws SQLException {
+		checkOpen();
+		return trackResultSet(statement.getResultSet());
+	}
+
+	@Override
+	public int getResultSetConcurrency() throws SQLException {
+		checkOpen();
+		return statement.getResultSetConcurrency();
+	}
+
+	@Override
+	public int getResultSetHoldability() throws SQLException {
+		checkOpen();
+		return statement.getResultSetHoldability();
+	}
+
+	@Override
+	public int getResultSetType() throws SQLException {
+		checkOpen();
+		return statement.getResultSetType();
+	}
+
+	@Override
+	public int getUpdateCount() throws SQLException {
+		checkOpen();
+		return statement.getUpdateCount();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		checkOpen();
+		return statement.getWarnings();
+	}
+
+	@Override
+	public boolean isPoolable() throws SQLException {
+		checkOpen();
+		return statement.isPoolable();
+	}
+
+	@Override
+	public void setCursorName(String name) throws SQLException {
+		checkOpen();
+		statement.setCursorName(name);
+	}
+
+	@Override
+	public void setEscapeProcessing(boolean escapeProcessing) throws SQLException {
+		checkOpen();
+		statement.setEscapeProcessing(escapeProcessing);
+	}
+
+	@Override
+	public void setFetchDirection(int fetchDirection) throws SQLException {
+		checkOpen();
+		statement.setFetchDirection(fetchDirection);
+	}
+
+	@Override
+	public void setFetchSize(int fetchSize) throws SQLException {
+		checkOpen();
+		statement.setFetchSize(fetchSize);
+	}
+
+	@Override
+	public void setMaxFieldSize(int maxFieldSize) throws SQLException {
+		checkOpen();
+		statement.setMaxFieldSize(maxFieldSize);
+	}
+
+	@Override
+	public void setMaxRows(int maxRows) throws SQLException {
+		checkOpen();
+		statement.setMaxRows(maxRows);
+	}
+
+	@Override
+	public void setPoolable(boolean poolable) throws SQLException {
+		checkOpen();
+		statement.setPoolable(poolable);
+	}
+
+	@Override
+	public void setQueryTimeout(int queryTimeout) throws SQLException {
+		checkOpen();
+		statement.setQueryTimeout(queryTimeout);
+	}
+
+	@Override
+	public void addBatch() throws SQLException {
+		checkOpen();
+		statement.addBatch();
+	}
+
+	@Override
+	public void clearParameters() throws SQLException {
+		checkOpen();
+		statement.clearParameters();
+	}
+
+	@Override
+	public boolean execute() throws SQLException {
+		checkOpen();
+		return statement.execute();
+	}
+
+	@Override
+	public ResultSet executeQuery() throws SQLException {
+		checkOpen();
+		return trackResultSet(statement.executeQuery());
+	}
+
+	@Override
+	public int executeUpdate() throws SQLException {
+		checkOpen();
+		return statement.executeUpdate();
+	}
+
+	@Override
+	public ResultSetMetaData getMetaData() throws SQLException {
+		checkOpen();
+		return statement.getMetaData();
+	}
+
+	@Override
+	public ParameterMetaData getParameterMetaData() throws SQLException {
+		checkOpen();
+		return statement.getParameterMetaData();
+	}
+
+	@Override
+	public void setArray(int parameterIndex, Array x) throws SQLException {
+		checkOpen();
+		statement.setArray(parameterIndex, x);
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		checkOpen();
+		statement.setAsciiStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+		checkOpen();
+		statement.setAsciiStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+		checkOpen();
+		statement.setAsciiStream(parameterIndex, x);
+	}
+
+	@Override
+	public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+		checkOpen();
+		statement.setBigDecimal(parameterIndex, x);
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		checkOpen();
+		statement.setBinaryStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+		checkOpen();
+		statement.setBinaryStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+		checkOpen();
+		statement.setBinaryStream(parameterIndex, x);
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, InputStream x, long length) throws SQLException {
+		checkOpen();
+		statement.setBlob(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, InputStream x) throws SQLException {
+		checkOpen();
+		statement.setBlob(parameterIndex, x);
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, Blob x) throws SQLException {
+		checkOpen();
+		statement.setBlob(parameterIndex, x);
+	}
+
+	@Override
+	public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+		checkOpen();
+		statement.setBoolean(parameterIndex, x);
+	}
+
+	@Override
+	public void setByte(int parameterIndex, byte x) throws SQLException {
+		checkOpen();
+		statement.setByte(parameterIndex, x);
+	}
+
+	@Override
+	public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+		checkOpen();
+		statement.setBytes(parameterIndex, x);
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader x, int length) throws SQLException {
+		checkOpen();
+		statement.setCharacterStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader x, long length) throws SQLException {
+		checkOpen();
+		statement.setCharacterStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader x) throws SQLException {
+		checkOpen();
+		statement.setCharacterStream(parameterIndex, x);
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Reader x, long length) throws SQLException {
+		checkOpen();
+		statement.setClob(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Reader x) throws SQLException {
+		checkOpen();
+		statement.setClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Clob x) throws SQLException {
+		checkOpen();
+		statement.setClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+		checkOpen();
+		statement.setDate(parameterIndex, x, cal);
+	}
+
+	@Override
+	public void setDate(int parameterIndex, Date x) throws SQLException {
+		checkOpen();
+		statement.setDate(parameterIndex, x);
+	}
+
+	@Override
+	public void setDouble(int parameterIndex, double x) throws SQLException {
+		checkOpen();
+		statement.setDouble(parameterIndex, x);
+	}
+
+	@Override
+	public void setFloat(int parameterIndex, float x) throws SQLException {
+		checkOpen();
+		statement.setFloat(parameterIndex, x);
+	}
+
+	@Override
+	public void setInt(int parameterIndex, int x) throws SQLException {
+		checkOpen();
+		statement.setInt(parameterIndex, x);
+	}
+
+	@Override
+	public void setLong(int parameterIndex, long x) throws SQLException {
+		checkOpen();
+		statement.setLong(parameterIndex, x);
+	}
+
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader x, long length) throws SQLException {
+		checkOpen();
+		statement.setNCharacterStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader x) throws SQLException {
+		checkOpen();
+		statement.setNCharacterStream(parameterIndex, x);
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, Reader x, long length) throws SQLException {
+		checkOpen();
+		statement.setNClob(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, Reader x) throws SQLException {
+		checkOpen();
+		statement.setNClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, NClob x) throws SQLException {
+		checkOpen();
+		statement.setNClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setNString(int parameterIndex, String x) throws SQLException {
+		checkOpen();
+		statement.setNString(parameterIndex, x);
+	}
+
+	@Override
+	public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+		checkOpen();
+		statement.setNull(parameterIndex, sqlType, typeName);
+	}
+
+	@Override
+	public void setNull(int parameterIndex, int sqlType) throws SQLException {
+		checkOpen();
+		statement.setNull(parameterIndex, sqlType);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+		checkOpen();
+		statement.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+		checkOpen();
+		statement.setObject(parameterIndex, x, targetSqlType);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x) throws SQLException {
+		checkOpen();
+		statement.setObject(parameterIndex, x);
+	}
+
+	@Override
+	public void setRef(int parameterIndex, Ref x) throws SQLException {
+		checkOpen();
+		statement.setRef(parameterIndex, x);
+	}
+
+	@Override
+	public void setRowId(int parameterIndex, RowId x) throws SQLException {
+		checkOpen();
+		statement.setRowId(parameterIndex, x);
+	}
+
+	@Override
+	public void setSQLXML(int parameterIndex, SQLXML x) throws SQLException {
+		checkOpen();
+		statement.setSQLXML(parameterIndex, x);
+	}
+
+	@Override
+	public void setShort(int parameterIndex, short x) throws SQLException {
+		checkOpen();
+		statement.setShort(parameterIndex, x);
+	}
+
+	@Override
+	public void setString(int parameterIndex, String x) throws SQLException {
+		checkOpen();
+		statement.setString(parameterIndex, x);
+	}
+
+	@Override
+	public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+		checkOpen();
+		statement.setTime(parameterIndex, x, cal);
+	}
+
+	@Override
+	public void setTime(int parameterIndex, Time x) throws SQLException {
+		checkOpen();
+		statement.setTime(parameterIndex, x);
+	}
+
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+		checkOpen();
+		statement.setTimestamp(parameterIndex, x, cal);
+	}
+
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+		checkOpen();
+		statement.setTimestamp(parameterIndex, x);
+	}
+
+	@Override
+	public void setURL(int parameterIndex, URL x) throws SQLException {
+		checkOpen();
+		statement.setURL(parameterIndex, x);
+	}
+
+	@Override
+	public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		checkOpen();
+		statement.setUnicodeStream(parameterIndex, x, length);
+	}
+	private void checkOpen() throws SQLException {
+		if (closed) {
+			throw new SQLException("Statement is closed.");
+		}
+	}
+	
+	private ResultSet trackResultSet(ResultSet resultSet) {
+		if (resultSet != null) {
+			if (resultSets == null) {
+				resultSets = new ArrayList<ResultSet>(1);
+			}
+			
+			resultSets.add(resultSet);
+		}
+		
+		return resultSet;
+	}
+}
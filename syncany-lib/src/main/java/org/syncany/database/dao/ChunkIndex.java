@@ -0,0 +1,580 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compact open-addressing hash index mapping raw chunk checksums to chunk sizes. It is
+ * used by the {@link ChunkSqlDao} instead of a <tt>HashMap&lt;ChunkChecksum, ChunkEntry&gt;</tt>,
+ * which needs several objects per chunk on the Java heap.
+ * 
+ * <p>Entries are stored in fixed-size slots (checksum bytes, followed by the chunk size
+ * plus one as a 4-byte integer; a zero size marks an empty slot) outside of the Java heap,
+ * either in direct byte buffers ({@link #createInMemory(int, long) in memory}) or in a
+ * {@link #openFile(File, int, long) memory-mapped file}. A file-backed index is locked
+ * while it is open and survives restarts: Re-opening it maps the existing table instead
+ * of re-reading all chunks from the database. Since the index is only a cache, callers
+ * must validate it and {@link #clear(long) clear} it if it is out of date. For that purpose,
+ * the header stores a {@link #getFingerprint() fingerprint} of the database state the index 
+ * reflects, in addition to the number of entries.
+ * 
+ * <p>Collisions are resolved by linear probing. The table grows to twice its capacity
+ * once it is more than three quarters full; a file-backed index is rebuilt in a temporary
+ * file and atomically moved over the old file. A mapped file is never truncated (which 
+ * fails on Windows); clearing it zeroes the mapped table instead.
+ * 
+ * <p>This class is not thread-safe.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class ChunkIndex {
+	private static final Logger logger = Logger.getLogger(ChunkIndex.class.getSimpleName());
+
+	private static final long HEADER_MAGIC = 0x5359434849445832L; // "SYCHIDX2"
+	private static final int HEADER_SIZE = 40;
+	private static final int HEADER_OFFSET_KEY_LENGTH = 8;
+	private static final int HEADER_OFFSET_CAPACITY = 16;
+	private static final int HEADER_OFFSET_SIZE = 24;
+	private static final int HEADER_OFFSET_FINGERPRINT = 32;
+
+	private static final long MIN_CAPACITY = 1024;
+	private static final int MAX_SEGMENT_SLOTS_SHIFT = 20;
+	private static final double MAX_LOAD_FACTOR = 0.75;
+
+	private final int keyLength;
+	private final int slotSize;
+
+	private File file;
+	private RandomAccessFile randomAccessFile;
+	private FileLock fileLock;
+	private MappedByteBuffer header;
+
+	private ByteBuffer[] segments;
+	private int segmentShift;
+	private long capacity;
+	private long size;
+	private long fingerprint;
+
+	private ChunkIndex(int keyLength) {
+		if (keyLength <= 0) {
+			throw new IllegalArgumentException("Invalid key length: " + keyLength);
+		}
+
+		this.keyLength = keyLength;
+		this.slotSize = keyLength + 4;
+	}
+
+	/**
+	 * Creates a new empty index in direct (off-heap) byte buffers.
+	 * 
+	 * @param keyLength Length of the checksums in bytes (e.g. 20 for SHA1)
+	 * @param expectedSize Expected number of entries, used to pre-size the table
+	 */
+	public static ChunkIndex createInMemory(int keyLength, long expectedSize) {
+		ChunkIndex chunkIndex = new ChunkIndex(keyLength);
+		chunkIndex.initializeInMemory(capacityFor(expectedSize));
+
+		return chunkIndex;
+	}
+
+	/**
+	 * Opens (or creates) a file-backed index and locks the file. If the file contains
+	 * a valid index with the given key length, the existing table is mapped and reused.
+	 * Otherwise, a new empty table is created.
+	 * 
+	 * @param file Index file, typically in the cache directory
+	 * @param keyLength Length of the checksums in bytes (e.g. 20 for SHA1)
+	 * @param expectedSize Expected number of entries, used to pre-size a new table
+	 * @return Returns the index, or <tt>null</tt> if the file is locked by another instance
+	 * @throws IOException If the file cannot be opened or mapped
+	 */
+	public static ChunkIndex openFile(File file, int keyLength, long expectedSize) throws IOException {
+		ChunkIndex chunkIndex = new ChunkIndex(keyLength);
+
+		if (!chunkIndex.lockFile(file)) {
+			return null;
+		}
+
+		try {
+			if (!chunkIndex.mapExistingFile()) {
+				chunkIndex.initializeFile(capacityFor(expectedSize));
+			}
+		}
+		catch (IOException e) {
+			chunkIndex.closeFile();
+			throw e;
+		}
+
+		return chunkIndex;
+	}
+
+	/**
+	 * Returns the chunk size stored for the given checksum, or <tt>-1</tt> if the
+	 * checksum is not in the index.
+	 */
+	public int get(byte[] key) {
+		checkKey(key);
+
+		long mask = capacity - 1;
+		long slot = hash(key) & mask;
+
+		while (true) {
+			ByteBuffer segment = segments[(int) (slot >>> segmentShift)];
+			int offset = slotOffset(slot);
+			int storedSize = segment.getInt(offset + keyLength);
+
+			if (storedSize == 0) {
+				return -1;
+			}
+			else if (keyEquals(segment, offset, key)) {
+				return storedSize - 1;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Adds the given checksum and chunk size to the index, or updates the size
+	 * if the checksum is already present.
+	 * 
+	 * @return Returns <tt>true</tt> if the checksum was added, <tt>false</tt> if it was updated
+	 */
+	public boolean put(byte[] key, int chunkSize) {
+		checkKey(key);
+
+		if (chunkSize < 0 || chunkSize == Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+		}
+
+		if (!putInternal(key, chunkSize)) {
+			return false;
+		}
+
+		size++;
+
+		if (size > capacity * MAX_LOAD_FACTOR) {
+			grow();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Removes all entries and resets the fingerprint. The table is re-sized if it is too small
+	 * for the given number of entries; a large enough table of a file-backed index is zeroed
+	 * in place, so the mapped file is not truncated.
+	 */
+	public void clear(long expectedSize) {
+		long newCapacity = capacityFor(expectedSize);
+
+		size = 0;
+		fingerprint = 0;
+
+		if (file != null && newCapacity <= capacity) {
+			zeroSegments();
+		}
+		else if (file != null) {
+			resize(newCapacity, false);
+		}
+		else {
+			initializeInMemory(newCapacity);
+		}
+	}
+
+	/**
+	 * Returns the fingerprint of the database state this index reflects, as set by
+	 * {@link #setFingerprint(long)}, or <tt>0</tt> for a new or cleared index.
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Sets the fingerprint of the database state this index reflects. It is written
+	 * to the file header on the next {@link #flush()}.
+	 */
+	public void setFingerprint(long fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Writes the number of entries and the fingerprint to the file header and forces 
+	 * all changes to disk. Does nothing for in-memory indexes.
+	 */
+	public void flush() {
+		if (file != null) {
+			header.putLong(HEADER_OFFSET_SIZE, size);
+			header.putLong(HEADER_OFFSET_FINGERPRINT, fingerprint);
+
+			for (ByteBuffer segment : segments) {
+				((MappedByteBuffer) segment).force();
+			}
+
+			header.force();
+		}
+	}
+
+	/**
+	 * Flushes and unlocks a file-backed index. The index can not be used afterwards.
+	 */
+	public void close() {
+		flush();
+		closeFile();
+
+		segments = null;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public int getKeyLength() {
+		return keyLength;
+	}
+
+	/**
+	 * Returns the index file, or <tt>null</tt> if the index is held in memory.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	private boolean putInternal(byte[] key, int chunkSize) {
+		long mask = capacity - 1;
+		long slot = hash(key) & mask;
+
+		while (true) {
+			ByteBuffer segment = segments[(int) (slot >>> segmentShift)];
+			int offset = slotOffset(slot);
+			int storedSize = segment.getInt(offset + keyLength);
+
+			if (storedSize == 0) {
+				for (int i = 0; i < keyLength; i++) {
+					segment.put(offset + i, key[i]);
+				}
+
+				segment.putInt(offset + keyLength, chunkSize + 1);
+				return true;
+			}
+			else if (keyEquals(segment, offset, key)) {
+				segment.putInt(offset + keyLength, chunkSize + 1);
+				return false;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void grow() {
+		resize(capacity * 2, true);
+	}
+
+	/**
+	 * Replaces the table with a new table of the given capacity, optionally re-inserting
+	 * all entries. A file-backed table is built in a temporary file, which is then moved
+	 * over the old file.
+	 */
+	private void resize(long newCapacity, boolean copyEntries) {
+		ChunkIndex grownIndex = null;
+		File tempFile = null;
+
+		if (file != null) {
+			try {
+				tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+				grownIndex = new ChunkIndex(keyLength);
+
+				if (grownIndex.lockFile(tempFile)) {
+					grownIndex.initializeFile(newCapacity);
+				}
+				else {
+					grownIndex = null;
+				}
+			}
+			catch (IOException e) {
+				logger.log(Level.WARNING, "Cannot create grown chunk index file " + tempFile + "; falling back to in-memory index.", e);
+
+				grownIndex.closeFile();
+				grownIndex = null;
+			}
+		}
+
+		if (grownIndex == null) {
+			grownIndex = new ChunkIndex(keyLength);
+			grownIndex.initializeInMemory(newCapacity);
+		}
+
+		// Re-insert all entries
+		byte[] key = new byte[keyLength];
+
+		for (long slot = 0; copyEntries && slot < capacity; slot++) {
+			ByteBuffer segment = segments[(int) (slot >>> segmentShift)];
+			int offset = slotOffset(slot);
+			int storedSize = segment.getInt(offset + keyLength);
+
+			if (storedSize != 0) {
+				for (int i = 0; i < keyLength; i++) {
+					key[i] = segment.get(offset + i);
+				}
+
+				grownIndex.putInternal(key, storedSize - 1);
+			}
+		}
+
+		grownIndex.size = size;
+		grownIndex.fingerprint = fingerprint;
+
+		// Replace old file (if any) and take over the grown table
+		File oldFile = file;
+
+		if (grownIndex.file != null) {
+			grownIndex.flush();
+
+			try {
+				Files.move(tempFile.toPath(), oldFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				grownIndex.file = oldFile;
+			}
+			catch (IOException e) {
+				logger.log(Level.WARNING, "Cannot replace chunk index file " + oldFile + "; index will be rebuilt on next start.", e);
+			}
+		}
+
+		closeFile();
+
+		file = grownIndex.file;
+		randomAccessFile = grownIndex.randomAccessFile;
+		fileLock = grownIndex.fileLock;
+		header = grownIndex.header;
+		segments = grownIndex.segments;
+		segmentShift = grownIndex.segmentShift;
+		capacity = grownIndex.capacity;
+	}
+
+	private boolean lockFile(File lockedFile) throws IOException {
+		randomAccessFile = new RandomAccessFile(lockedFile, "rw");
+
+		try {
+			fileLock = randomAccessFile.getChannel().tryLock();
+		}
+		catch (OverlappingFileLockException e) {
+			fileLock = null;
+		}
+
+		if (fileLock == null) {
+			randomAccessFile.close();
+			randomAccessFile = null;
+
+			return false;
+		}
+
+		file = lockedFile;
+		return true;
+	}
+
+	private boolean mapExistingFile() throws IOException {
+		FileChannel fileChannel = randomAccessFile.getChannel();
+
+		if (fileChannel.size() < HEADER_SIZE) {
+			return false;
+		}
+
+		// Read (not map) the header, so that an invalid file can be truncated by initializeFile()
+		ByteBuffer existingHeader = ByteBuffer.allocate(HEADER_SIZE);
+
+		while (existingHeader.hasRemaining() && fileChannel.read(existingHeader, existingHeader.position()) >= 0) {
+			// Read until header is complete
+		}
+
+		long existingCapacity = existingHeader.getLong(HEADER_OFFSET_CAPACITY);
+		long existingSize = existingHeader.getLong(HEADER_OFFSET_SIZE);
+
+		boolean validHeader = existingHeader.getLong(0) == HEADER_MAGIC
+				&& existingHeader.getInt(HEADER_OFFSET_KEY_LENGTH) == keyLength
+				&& existingCapacity >= MIN_CAPACITY && Long.bitCount(existingCapacity) == 1
+				&& existingSize >= 0 && existingSize <= existingCapacity * MAX_LOAD_FACTOR
+				&& fileChannel.size() == HEADER_SIZE + existingCapacity * slotSize;
+
+		if (!validHeader) {
+			logger.log(Level.INFO, "Chunk index file " + file + " is invalid or has a different format; re-initializing.");
+			return false;
+		}
+
+		header = fileChannel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+		size = existingSize;
+		fingerprint = existingHeader.getLong(HEADER_OFFSET_FINGERPRINT);
+
+		mapSegments(existingCapacity);
+		return true;
+	}
+
+	/**
+	 * Initializes a new, empty table in the locked file. Must only be called if no part
+	 * of the file is mapped yet, because truncating a mapped file fails on Windows.
+	 */
+	private void initializeFile(long newCapacity) throws IOException {
+		// Truncating discards all previous entries; the file is zero-filled when extended
+		randomAccessFile.setLength(0);
+		randomAccessFile.setLength(HEADER_SIZE + newCapacity * slotSize);
+
+		header = randomAccessFile.getChannel().map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+		header.putLong(0, HEADER_MAGIC);
+		header.putInt(HEADER_OFFSET_KEY_LENGTH, keyLength);
+		header.putLong(HEADER_OFFSET_CAPACITY, newCapacity);
+		header.putLong(HEADER_OFFSET_SIZE, 0);
+		header.putLong(HEADER_OFFSET_FINGERPRINT, 0);
+
+		mapSegments(newCapacity);
+	}
+
+	private void zeroSegments() {
+		byte[] zeros = new byte[64 * 1024];
+
+		for (ByteBuffer segment : segments) {
+			ByteBuffer zeroedSegment = segment.duplicate();
+			zeroedSegment.clear();
+
+			while (zeroedSegment.hasRemaining()) {
+				zeroedSegment.put(zeros, 0, Math.min(zeros.length, zeroedSegment.remaining()));
+			}
+		}
+
+		if (header != null) {
+			header.putLong(HEADER_OFFSET_SIZE, 0);
+			header.putLong(HEADER_OFFSET_FINGERPRINT, 0);
+		}
+	}
+
+	private void mapSegments(long newCapacity) throws IOException {
+		FileChannel fileChannel = randomAccessFile.getChannel();
+
+		int segmentSlotsShift = Math.min(MAX_SEGMENT_SLOTS_SHIFT, Long.numberOfTrailingZeros(newCapacity));
+		long segmentSlots = 1L << segmentSlotsShift;
+		int segmentCount = (int) (newCapacity / segmentSlots);
+
+		ByteBuffer[] newSegments = new ByteBuffer[segmentCount];
+
+		for (int i = 0; i < segmentCount; i++) {
+			newSegments[i] = fileChannel.map(MapMode.READ_WRITE, HEADER_SIZE + i * segmentSlots * slotSize, segmentSlots * slotSize);
+		}
+
+		segments = newSegments;
+		segmentShift = segmentSlotsShift;
+		capacity = newCapacity;
+	}
+
+	private void initializeInMemory(long newCapacity) {
+		int segmentSlotsShift = Math.min(MAX_SEGMENT_SLOTS_SHIFT, Long.numberOfTrailingZeros(newCapacity));
+		long segmentSlots = 1L << segmentSlotsShift;
+		int segmentCount = (int) (newCapacity / segmentSlots);
+
+		ByteBuffer[] newSegments = new ByteBuffer[segmentCount];
+
+		for (int i = 0; i < segmentCount; i++) {
+			newSegments[i] = ByteBuffer.allocateDirect((int) (segmentSlots * slotSize));
+		}
+
+		segments = newSegments;
+		segmentShift = segmentSlotsShift;
+		capacity = newCapacity;
+	}
+
+	private void closeFile() {
+		try {
+			if (fileLock != null) {
+				fileLock.release();
+			}
+
+			if (randomAccessFile != null) {
+				randomAccessFile.close();
+			}
+		}
+		catch (IOException e) {
+			logger.log(Level.WARNING, "Cannot close chunk index file " + file, e);
+		}
+
+		file = null;
+		randomAccessFile = null;
+		fileLock = null;
+		header = null;
+	}
+
+	private int slotOffset(long slot) {
+		return (int) (slot & ((1L << segmentShift) - 1)) * slotSize;
+	}
+
+	private boolean keyEquals(ByteBuffer segment, int offset, byte[] key) {
+		for (int i = 0; i < keyLength; i++) {
+			if (segment.get(offset + i) != key[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private void checkKey(byte[] key) {
+		if (key.length != keyLength) {
+			throw new IllegalArgumentException("Invalid key length " + key.length + ", expected " + keyLength);
+		}
+	}
+
+	private static long hash(byte[] key) {
+		long hash = 1125899906842597L;
+
+		for (byte b : key) {
+			hash = 31 * hash + b;
+		}
+
+		// Finalizer of MurmurHash3, spreads the bits over the entire range
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		return hash;
+	}
+
+	private static long capacityFor(long expectedSize) {
+		long capacity = MIN_CAPACITY;
+
+		while (capacity * MAX_LOAD_FACTOR < expectedSize + 1) {
+			capacity *= 2;
+		}
+
+		return capacity;
+	}
+}
@@ -17,13 +17,18 @@
  */
 package org.syncany.database.dao;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.syncany.database.ChunkEntry;
@@ -35,17 +40,56 @@ import org.syncany.database.VectorClock;
  * on {@link ChunkEntry}s. It translates the relational data in the "chunk" table to
  * Java objects.
  * 
+ * <p>Chunk lookups via {@link #getChunk(ChunkChecksum) getChunk()} are answered from a
+ * {@link ChunkIndex}. If an index file is given, the index is memory-mapped from that file 
+ * and re-used across restarts, as long as it matches the number of chunks in the database 
+ * and a fingerprint of the last database version. Once loaded, the index is kept open (and
+ * the file locked) until {@link #closeChunkIndex()} is called; committed chunks are added 
+ * to it in {@link #clearCache()}. 
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class ChunkSqlDao extends AbstractSqlDao {
 	protected static final Logger logger = Logger.getLogger(ChunkSqlDao.class.getSimpleName());
-	private Map<ChunkChecksum, ChunkEntry> chunkCache;
+	
+	private File chunkIndexFile;
+	private ChunkIndex chunkIndex;
+	private boolean chunkIndexValidated;
+	private boolean chunkIndexDisabled;
+	private List<ChunkEntry> uncommittedChunks;
 
 	public ChunkSqlDao(Connection connection) {
+		this(connection, null);
+	}
+	
+	/**
+	 * Creates a chunk DAO whose chunk index is backed by the given file. If the 
+	 * file is <tt>null</tt> or cannot be used, the index is held in memory.
+	 */
+	public ChunkSqlDao(Connection connection, File chunkIndexFile) {
 		super(connection);
-		this.chunkCache = null;
+		
+		this.chunkIndexFile = chunkIndexFile;
+		this.chunkIndex = null;
+		this.chunkIndexValidated = false;
+		this.chunkIndexDisabled = false;
+		this.uncommittedChunks = new ArrayList<ChunkEntry>();
 	}
 
+	/**
+	 * Loads the chunk index (if it is not loaded yet), so that the given chunks are added
+	 * to it once they are committed. This method must be called before the chunks are 
+	 * written, because the index is validated against the committed state of the database.
+	 * 
+	 * @param chunks Chunks that are about to be written
+	 */
+	@SuppressWarnings("deprecation")
+	public synchronized void prepareChunkIndex(Collection<ChunkEntry> chunks) {
+		if (!chunkIndexDisabled && !chunkIndexValidated && chunks.size() > 0) {
+			loadChunkIndex(chunks.iterator().next().getChecksum().getRaw().length);
+		}
+	}
+	
 	/**
 	 * Writes a list of {@link ChunkEntry}s to the database using <tt>INSERT</tt>s and the given connection.
 	 * 
@@ -55,52 +99,121 @@ public class ChunkSqlDao extends AbstractSqlDao {
 	 * @param chunks List of {@link ChunkEntry}s to be inserted in the database
 	 * @throws SQLException If the SQL statement fails
 	 */
+	@SuppressWarnings("deprecation")
 	public void writeChunks(Connection connection, Collection<ChunkEntry> chunks) throws SQLException {
 		if (chunks.size() > 0) {
-			PreparedStatement preparedStatement = getStatement(connection, "/sql/chunk.insert.all.writeChunks.sql");
-
-			for (ChunkEntry chunk : chunks) {
-				preparedStatement.setString(1, chunk.getChecksum().toString());
-				preparedStatement.setInt(2, chunk.getSize());
-
-				preparedStatement.addBatch();
+			try (PreparedStatement preparedStatement = getStatement(connection, "/sql/chunk.insert.all.writeChunks.sql")) {
+				for (ChunkEntry chunk : chunks) {
+					preparedStatement.setBytes(1, chunk.getChecksum().getRaw());
+					preparedStatement.setInt(2, chunk.getSize());
+	
+					preparedStatement.addBatch();
+				}
+	
+				preparedStatement.executeBatch();
+			}
+			
+			// Added to the chunk index once committed, see clearCache()
+			synchronized (this) {
+				if (chunkIndex != null) {
+					uncommittedChunks.addAll(chunks);
+				}
 			}
-
-			preparedStatement.executeBatch();
-			preparedStatement.close();
 		}
 	}
 	
 	/**
 	 * Queries the database of a chunk with the given checksum. 
 	 * 
-	 * <p>Note: When first called, this method loads the <b>chunk cache</b> and keeps
-	 * this cache until it is cleared explicitly with {@link #clearCache()}. 
+	 * <p>Note: When first called, this method loads the <b>chunk index</b>, either by 
+	 * mapping a valid index file, or by reading all chunks from the database. Chunks written
+	 * afterwards are only added to the index when {@link #clearCache()} is called after
+	 * the transaction has been committed.
 	 * 
 	 * <p>Also note that this method will return <tt>null</tt> if the chunk has been
-	 * added after the cache has been filled. 
+	 * added after the index has been loaded, and {@link #clearCache()} has not been called. 
 	 * 
 	 * @param chunkChecksum Chunk checksum of the chunk to be selected
 	 * @return Returns the chunk entry, or <tt>null</tt> if the chunk does not exist.
 	 */	
+	@SuppressWarnings("deprecation")
 	public synchronized ChunkEntry getChunk(ChunkChecksum chunkChecksum) {
-		if (chunkCache == null) {
-			loadChunkCache();
+		byte[] chunkChecksumBytes = chunkChecksum.getRaw();
+		
+		if (!chunkIndexDisabled && !chunkIndexValidated) {
+			loadChunkIndex(chunkChecksumBytes.length);
 		}
 
-		return chunkCache.get(chunkChecksum);
+		if (chunkIndexDisabled || chunkChecksumBytes.length != chunkIndex.getKeyLength()) {
+			return getChunkFromDatabase(chunkChecksum);
+		}
+		
+		int chunkSize = chunkIndex.get(chunkChecksumBytes);
+		return (chunkSize >= 0) ? new ChunkEntry(chunkChecksum, chunkSize) : null;
 	}
 	
 	/**
-	 * Clears the chunk cache loaded by {@link #getChunk(ChunkChecksum) getChunk()}
-	 * and resets the cache. If {@link #getChunk(ChunkChecksum) getChunk()} is called
-	 * after the cache is cleared, it is re-populated.
+	 * Adds all chunks written since the last call to the loaded chunk index, and stamps
+	 * the index with the fingerprint of the current database state. This method must be 
+	 * called after the chunks have been committed. 
+	 * 
+	 * <p>If the index does not match the number of chunks in the database afterwards (e.g. 
+	 * because chunks were written by another DAO instance), it is re-validated (and 
+	 * re-populated) on the next lookup.
 	 */
+	@SuppressWarnings("deprecation")
 	public synchronized void clearCache() {
-		if (chunkCache != null) {
-			chunkCache.clear();
-			chunkCache = null;
+		if (chunkIndex != null) {
+			for (ChunkEntry chunk : uncommittedChunks) {
+				byte[] chunkChecksumBytes = chunk.getChecksum().getRaw();
+				
+				if (chunkChecksumBytes.length == chunkIndex.getKeyLength()) {
+					chunkIndex.put(chunkChecksumBytes, chunk.getSize());
+				}
+			}
+			
+			try {
+				long chunkCount = getChunkCount();
+				
+				if (chunkIndex.size() == chunkCount) {
+					chunkIndex.setFingerprint(getDatabaseFingerprint(chunkCount));
+					chunkIndex.flush();
+				}
+				else {
+					chunkIndexValidated = false;
+				}
+			}
+			catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		uncommittedChunks.clear();
+	}
+	
+	/**
+	 * Forgets the chunks written since the last call to {@link #clearCache()}. This method 
+	 * must be called if the transaction that wrote them has been rolled back. The index is 
+	 * re-validated against the database on the next lookup.
+	 */
+	public synchronized void discardUncommittedChunks() {
+		uncommittedChunks.clear();
+		chunkIndexValidated = false;
+	}
+	
+	/**
+	 * Flushes and closes the chunk index, and releases the lock on the index file (if any). 
+	 * If {@link #getChunk(ChunkChecksum) getChunk()} is called afterwards, the index is re-opened.
+	 */
+	public synchronized void closeChunkIndex() {
+		if (chunkIndex != null) {
+			chunkIndex.close();
+			
+			chunkIndex = null;
+			chunkIndexValidated = false;
 		}
+		
+		uncommittedChunks.clear();
 	}
 
 	/**
@@ -141,14 +254,126 @@ public class ChunkSqlDao extends AbstractSqlDao {
 	}
 
 	protected ChunkEntry createChunkEntryFromRow(ResultSet resultSet) throws SQLException {
-		ChunkChecksum chunkChecksum = ChunkChecksum.parseChunkChecksum(resultSet.getString("checksum"));
+		ChunkChecksum chunkChecksum = new ChunkChecksum(resultSet.getBytes("checksum"));
 		return new ChunkEntry(chunkChecksum, resultSet.getInt("size"));
 	}
 	
-	protected void loadChunkCache() {
-		try (PreparedStatement preparedStatement = getStatement("/sql/chunk.select.all.loadChunkCache.sql")) {
+	@SuppressWarnings("deprecation")
+	protected void loadChunkIndex(int keyLength) {
+		try {
+			long chunkCount = getChunkCount();
+			long databaseFingerprint = getDatabaseFingerprint(chunkCount);
+			
+			if (chunkIndex == null) {
+				chunkIndex = openChunkIndex(keyLength, chunkCount);
+			}
+			
+			if (chunkIndex.size() == chunkCount && chunkIndex.getFingerprint() == databaseFingerprint) {
+				chunkIndexValidated = true;
+				return;
+			}
+
+			logger.log(Level.INFO, "Chunk index has " + chunkIndex.size() + " entries (fingerprint " + Long.toHexString(chunkIndex.getFingerprint())
+					+ "), database has " + chunkCount + " chunks (fingerprint " + Long.toHexString(databaseFingerprint) + "). Loading chunk index from database ...");
+			
+			chunkIndex.clear(chunkCount);
+			
+			try (PreparedStatement preparedStatement = getStatement("/sql/chunk.select.all.loadChunkCache.sql")) {
+				try (ResultSet resultSet = preparedStatement.executeQuery()) {
+					while (resultSet.next()) {
+						byte[] chunkChecksumBytes = resultSet.getBytes("checksum");
+						
+						if (chunkChecksumBytes.length != chunkIndex.getKeyLength()) {
+							logger.log(Level.WARNING, "Chunk checksums of different lengths found in database; disabling chunk index.");
+							
+							closeChunkIndex();
+							chunkIndexDisabled = true;
+							
+							return;
+						}
+						
+						chunkIndex.put(chunkChecksumBytes, resultSet.getInt("size"));
+					}
+				}
+			}
+			
+			chunkIndex.setFingerprint(databaseFingerprint);
+			chunkIndex.flush();
+			
+			chunkIndexValidated = true;
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private ChunkIndex openChunkIndex(int keyLength, long expectedSize) {
+		if (chunkIndexFile != null) {
+			try {
+				ChunkIndex fileChunkIndex = ChunkIndex.openFile(chunkIndexFile, keyLength, expectedSize);
+				
+				if (fileChunkIndex != null) {
+					return fileChunkIndex;
+				}
+				
+				logger.log(Level.INFO, "Chunk index file " + chunkIndexFile + " is in use; using in-memory chunk index.");
+			}
+			catch (IOException e) {
+				logger.log(Level.WARNING, "Cannot open chunk index file " + chunkIndexFile + "; using in-memory chunk index.", e);
+			}
+		}
+		
+		return ChunkIndex.createInMemory(keyLength, expectedSize);
+	}
+	
+	private long getChunkCount() throws SQLException {
+		try (PreparedStatement preparedStatement = getStatement("/sql/chunk.select.all.getChunkCount.sql")) {
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				resultSet.next();
+				return resultSet.getLong(1);
+			}
+		}
+	}
+	
+	/**
+	 * Returns a fingerprint of the committed database state, derived from the number of
+	 * chunks and the last database version (ID, local time and vector clock). Since chunks are
+	 * only added with a new database version, a matching fingerprint indicates that the chunk 
+	 * index reflects the same chunks as the database, even if the database was replaced.  
+	 */
+	private long getDatabaseFingerprint(long chunkCount) throws SQLException {
+		StringBuilder fingerprintSource = new StringBuilder().append(chunkCount);
+		
+		try (PreparedStatement preparedStatement = getStatement("/sql/chunk.select.all.getChunkIndexFingerprint.sql")) {
+			preparedStatement.setMaxRows(1);
+			
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				if (resultSet.next()) {
+					fingerprintSource.append('|').append(resultSet.getLong("id"));
+					fingerprintSource.append('|').append(resultSet.getTimestamp("localtime").getTime());
+					fingerprintSource.append('|').append(resultSet.getString("vectorclock_serialized"));
+				}
+			}
+		}
+		
+		// 64-bit FNV-1a hash; never 0, which marks a new or cleared index
+		long fingerprint = 0xcbf29ce484222325L;
+		
+		for (int i = 0; i < fingerprintSource.length(); i++) {
+			fingerprint ^= fingerprintSource.charAt(i);
+			fingerprint *= 0x100000001b3L;
+		}
+		
+		return (fingerprint != 0) ? fingerprint : 1;
+	}
+	
+	@SuppressWarnings("deprecation")
+	private ChunkEntry getChunkFromDatabase(ChunkChecksum chunkChecksum) {
+		try (PreparedStatement preparedStatement = getStatement("/sql/chunk.select.all.getChunk.sql")) {
+			preparedStatement.setBytes(1, chunkChecksum.getRaw());
+			
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
-				chunkCache = createChunkEntries(resultSet);
+				return (resultSet.next()) ? createChunkEntryFromRow(resultSet) : null;
 			}
 		}
 		catch (SQLException e) {
@@ -21,8 +21,11 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -32,7 +35,6 @@ import java.util.logging.Logger;
 
 import org.syncany.database.ChunkEntry;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
-import org.syncany.database.DatabaseConnectionFactory;
 import org.syncany.database.DatabaseVersion;
 import org.syncany.database.FileVersion;
 import org.syncany.database.DatabaseVersion.DatabaseVersionStatus;
@@ -76,6 +78,10 @@ public class DatabaseVersionSqlDao extends AbstractSqlDao {
 			preparedStatement.setString(2, vectorClock.toString());
 
 			preparedStatement.executeUpdate();
+			
+			// Dirty versions are no longer part of the current file tree
+			fileVersionDao.updateDirtyCurrentFileVersions();
+			
 			connection.commit();
 		}
 		catch (SQLException e) {
@@ -83,26 +89,68 @@ public class DatabaseVersionSqlDao extends AbstractSqlDao {
 		}
 	}
 
+	/**
+	 * Persists the given database version and commits it. If it cannot be written, the
+	 * changes are rolled back to a savepoint, see {@link #persistDatabaseVersions(Collection)}.
+	 */
 	public void persistDatabaseVersion(DatabaseVersion databaseVersion) {
+		persistDatabaseVersions(Collections.singletonList(databaseVersion));
+	}
+	
+	/**
+	 * Persists the given database versions in a single transaction (bulk load). Compared to
+	 * calling {@link #persistDatabaseVersion(DatabaseVersion) persistDatabaseVersion()} for
+	 * each database version, this avoids one commit (and cache reset) per database version.
+	 * 
+	 * <p>If any of the database versions cannot be written, the changes made by this method
+	 * are rolled back, i.e. none of the given database versions are persisted. Since the
+	 * connection may be shared (see {@link org.syncany.config.Config#getDatabaseConnection()}),
+	 * the rollback only reaches back to a savepoint set when this method is entered: changes 
+	 * made on the connection before, but not yet committed, are neither committed nor discarded.
+	 */
+	public void persistDatabaseVersions(Collection<DatabaseVersion> databaseVersions) {
+		Savepoint savepoint = null;
+		
 		try {
-			// Insert & commit database version
-			writeDatabaseVersion(connection, databaseVersion);
+			for (DatabaseVersion databaseVersion : databaseVersions) {
+				chunkDao.prepareChunkIndex(databaseVersion.getChunks());
+			}
 			
-			// Commit & clear local caches
+			savepoint = connection.setSavepoint();
+			
+			for (DatabaseVersion databaseVersion : databaseVersions) {
+				writeDatabaseVersion(connection, databaseVersion);
+			}
+			
+			// Commit (releases savepoint) & clear local caches
 			connection.commit();			
 			clearCaches();	
 		}
 		catch (Exception e) {
 			logger.log(Level.SEVERE, "SQL Error: ", e);
+			rollback(savepoint);
+			
 			throw new RuntimeException("Cannot persist database.", e);
 		}
 	}
+	
+	private void rollback(Savepoint savepoint) {
+		if (savepoint != null) {
+			try {
+				connection.rollback(savepoint); // Also releases the savepoint
+			}
+			catch (SQLException e) {
+				logger.log(Level.SEVERE, "Cannot roll back to savepoint.", e);
+			}
+		}
+		
+		chunkDao.discardUncommittedChunks();
+	}
 
 	private void writeDatabaseVersion(Connection connection, DatabaseVersion databaseVersion) throws SQLException {
 		long databaseVersionId = -1;
 		
-		try(PreparedStatement preparedStatement = connection.prepareStatement(
-				DatabaseConnectionFactory.getStatement("/sql/databaseversion.insert.all.writeDatabaseVersion.sql"), Statement.RETURN_GENERATED_KEYS)) {
+		try (PreparedStatement preparedStatement = getStatementWithGeneratedKeys(connection, "/sql/databaseversion.insert.all.writeDatabaseVersion.sql")) {
 	
 			preparedStatement.setString(1, DatabaseVersionStatus.MASTER.toString());
 			preparedStatement.setTimestamp(2, new Timestamp(databaseVersion.getHeader().getDate().getTime()));
@@ -127,18 +175,20 @@ public class DatabaseVersionSqlDao extends AbstractSqlDao {
 		multiChunkDao.writeMultiChunks(connection, databaseVersion.getMultiChunks());
 		fileContentDao.writeFileContents(connection, databaseVersion.getFileContents());
 		fileHistoryDao.writeFileHistories(connection, databaseVersionId, databaseVersion.getFileHistories());
+		fileVersionDao.updateCurrentFileVersions(connection, databaseVersionId);
 	}
 
 	private void writeVectorClock(Connection connection, long databaseVersionId, VectorClock vectorClock) throws SQLException {
-		for (Map.Entry<String, Long> vectorClockEntry : vectorClock.entrySet()) {
-			PreparedStatement preparedStatement = getStatement(connection, "/sql/databaseversion.insert.all.writeVectorClock.sql");
-
-			preparedStatement.setLong(1, databaseVersionId);
-			preparedStatement.setString(2, vectorClockEntry.getKey());
-			preparedStatement.setLong(3, vectorClockEntry.getValue());
-
-			preparedStatement.executeUpdate();
-			preparedStatement.close();
+		try (PreparedStatement preparedStatement = getStatement(connection, "/sql/databaseversion.insert.all.writeVectorClock.sql")) {
+			for (Map.Entry<String, Long> vectorClockEntry : vectorClock.entrySet()) {
+				preparedStatement.setLong(1, databaseVersionId);
+				preparedStatement.setString(2, vectorClockEntry.getKey());
+				preparedStatement.setLong(3, vectorClockEntry.getValue());
+	
+				preparedStatement.addBatch();
+			}
+			
+			preparedStatement.executeBatch();
 		}
 	}
 
@@ -151,6 +201,9 @@ public class DatabaseVersionSqlDao extends AbstractSqlDao {
 			// IMPORTANT: The order is important, because of 
 			//            the database foreign key consistencies!
 			
+			// Make sure that the current file tree does not reference dirty versions
+			fileVersionDao.updateDirtyCurrentFileVersions();
+
 			// First, remove dirty file histories, then file versions
 			fileVersionDao.removeDirtyFileVersions();
 			fileHistoryDao.removeDirtyFileHistories();
@@ -194,10 +247,11 @@ public class DatabaseVersionSqlDao extends AbstractSqlDao {
 	}
 
 	public Iterator<DatabaseVersion> getDirtyDatabaseVersions() {
-		try (PreparedStatement preparedStatement = getStatement("/sql/databaseversion.select.dirty.getDirtyDatabaseVersions.sql")) {
+		try {
+			PreparedStatement preparedStatement = getStatement("/sql/databaseversion.select.dirty.getDirtyDatabaseVersions.sql");
 			preparedStatement.setString(1, DatabaseVersionStatus.DIRTY.toString());
 
-			return new DatabaseVersionIteration(preparedStatement.executeQuery());
+			return new DatabaseVersionIteration(preparedStatement);
 		}
 		catch (SQLException e) {
 			throw new RuntimeException(e);
@@ -205,55 +259,36 @@ public class DatabaseVersionSqlDao extends AbstractSqlDao {
 	}
 
 	public Iterator<DatabaseVersion> getDatabaseVersionsTo(String machineName, long maxLocalClientVersion) {
-		try (PreparedStatement preparedStatement = getStatement("/sql/databaseversion.select.master.getDatabaseVersionsTo.sql")) {
+		try {
+			PreparedStatement preparedStatement = getStatement("/sql/databaseversion.select.master.getDatabaseVersionsTo.sql");
 			preparedStatement.setString(1, machineName);
 			preparedStatement.setString(2, machineName);
 			preparedStatement.setLong(3, maxLocalClientVersion);
 
-			return new DatabaseVersionIteration(preparedStatement.executeQuery());
+			return new DatabaseVersionIteration(preparedStatement);
 		}
 		catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
-	private class DatabaseVersionIteration implements Iterator<DatabaseVersion> {
-		private ResultSet resultSet;
-		private boolean hasNext;
-
-		public DatabaseVersionIteration(ResultSet resultSet) throws SQLException {
-			this.resultSet = resultSet;
-			this.hasNext = resultSet.next();
-		}
-
-		@Override
-		public boolean hasNext() {
-			return hasNext;
-		}
-
-		@Override
-		public DatabaseVersion next() {
-			if (hasNext) {
-				try {
-					DatabaseVersion databaseVersion = createDatabaseVersionFromRow(resultSet);
-					hasNext = resultSet.next();
-
-					return databaseVersion;
-				}
-				catch (Exception e) {
-					throw new RuntimeException("Cannot load next SQL row.", e);
-				}
-			}
-			else {
-				return null;
-			}
+	/**
+	 * Lazily creates {@link DatabaseVersion}s from the result set of the given 
+	 * statement. The statement is closed (and returned to the statement cache) 
+	 * once the last row has been read.
+	 */
+	private class DatabaseVersionIteration extends ResultSetIterator<DatabaseVersion> {
+		public DatabaseVersionIteration(PreparedStatement preparedStatement) throws SQLException {
+			super(preparedStatement);
 		}
 
 		@Override
-		public void remove() {
-			throw new RuntimeException("Not implemented.");
+		protected DatabaseVersion readNext() throws SQLException {
+			DatabaseVersion databaseVersion = createDatabaseVersionFromRow(resultSet);
+			nextRow();
+			
+			return databaseVersion;
 		}
-
 	}
 
 	protected DatabaseVersion createDatabaseVersionFromRow(ResultSet resultSet) throws SQLException {
@@ -60,38 +60,45 @@ public class FileContentSqlDao extends AbstractSqlDao {
 	 * @param fileContents List of {@link FileContent}s to be inserted in the database
 	 * @throws SQLException If the SQL statement fails
 	 */
+	@SuppressWarnings("deprecation")
 	public void writeFileContents(Connection connection, Collection<FileContent> fileContents) throws SQLException {
-		for (FileContent fileContent : fileContents) {
-			PreparedStatement preparedStatement = getStatement(connection, "/sql/filecontent.insert.all.writeFileContents.sql");
-
-			preparedStatement.setString(1, fileContent.getChecksum().toString());
-			preparedStatement.setLong(2, fileContent.getSize());
-			
-			preparedStatement.executeUpdate();
-			preparedStatement.close();	
+		if (fileContents.size() > 0) {
+			try (PreparedStatement preparedStatement = getStatement(connection, "/sql/filecontent.insert.all.writeFileContents.sql")) {
+				for (FileContent fileContent : fileContents) {
+					preparedStatement.setBytes(1, fileContent.getChecksum().getRaw());
+					preparedStatement.setLong(2, fileContent.getSize());
+					
+					preparedStatement.addBatch();
+				}
+				
+				preparedStatement.executeBatch();
+			}
 			
-			// Write chunk references
-			writeFileContentChunkRefs(connection, fileContent);			
+			// Write chunk references (after the file contents, because of the foreign key)
+			writeFileContentChunkRefs(connection, fileContents);			
 		}
 	}
 	
-	private void writeFileContentChunkRefs(Connection connection, FileContent fileContent) throws SQLException {
-		PreparedStatement preparedStatement = getStatement(connection, "/sql/filecontent.insert.all.writeFileContentChunkRefs.sql");
-		int order = 0;
+	@SuppressWarnings("deprecation")
+	private void writeFileContentChunkRefs(Connection connection, Collection<FileContent> fileContents) throws SQLException {
+		try (PreparedStatement preparedStatement = getStatement(connection, "/sql/filecontent.insert.all.writeFileContentChunkRefs.sql")) {
+			for (FileContent fileContent : fileContents) {
+				byte[] fileContentChecksumBytes = fileContent.getChecksum().getRaw();
+				int order = 0;
+				
+				for (ChunkChecksum chunkChecksum : fileContent.getChunks()) {
+					preparedStatement.setBytes(1, fileContentChecksumBytes);
+					preparedStatement.setBytes(2, chunkChecksum.getRaw());
+					preparedStatement.setInt(3, order);
 		
-		for (ChunkChecksum chunkChecksum : fileContent.getChunks()) {
-			
-			preparedStatement.setString(1, fileContent.getChecksum().toString());
-			preparedStatement.setString(2, chunkChecksum.toString());
-			preparedStatement.setInt(3, order);
-
-			preparedStatement.addBatch();
+					preparedStatement.addBatch();
+					
+					order++;				
+				}
+			}
 			
-			order++;				
+			preparedStatement.executeBatch();
 		}
-		
-		preparedStatement.executeBatch();
-		preparedStatement.close();
 	}
 
 	/**
@@ -169,15 +176,16 @@ public class FileContentSqlDao extends AbstractSqlDao {
 		}
 	}
 
+	@SuppressWarnings("deprecation")
 	private FileContent getFileContentWithoutChunkChecksums(FileChecksum fileChecksum) {
 		try (PreparedStatement preparedStatement = getStatement("/sql/filecontent.select.all.getFileContentByChecksumWithoutChunkChecksums.sql")) {
-			preparedStatement.setString(1, fileChecksum.toString());
+			preparedStatement.setBytes(1, fileChecksum.getRaw());
 
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
 				if (resultSet.next()) {
 					FileContent fileContent = new FileContent();
 	
-					fileContent.setChecksum(FileChecksum.parseFileChecksum(resultSet.getString("checksum")));
+					fileContent.setChecksum(new FileChecksum(resultSet.getBytes("checksum")));
 					fileContent.setSize(resultSet.getLong("size"));
 	
 					return fileContent;
@@ -191,9 +199,10 @@ public class FileContentSqlDao extends AbstractSqlDao {
 		}
 	}
 
+	@SuppressWarnings("deprecation")
 	private FileContent getFileContentWithChunkChecksums(FileChecksum fileChecksum) {
 		try (PreparedStatement preparedStatement = getStatement("/sql/filecontent.select.all.getFileContentByChecksumWithChunkChecksums.sql")) {
-			preparedStatement.setString(1, fileChecksum.toString());
+			preparedStatement.setBytes(1, fileChecksum.getRaw());
 
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
 				FileContent fileContent = null;
@@ -202,12 +211,12 @@ public class FileContentSqlDao extends AbstractSqlDao {
 					if (fileContent == null) {
 						fileContent = new FileContent();
 						
-						fileContent.setChecksum(FileChecksum.parseFileChecksum(resultSet.getString("checksum")));
+						fileContent.setChecksum(new FileChecksum(resultSet.getBytes("checksum")));
 						fileContent.setSize(resultSet.getLong("size"));
 					}
 					
 					// Add chunk references
-					ChunkChecksum chunkChecksum = ChunkChecksum.parseChunkChecksum(resultSet.getString("chunk_checksum"));
+					ChunkChecksum chunkChecksum = new ChunkChecksum(resultSet.getBytes("chunk_checksum"));
 					fileContent.addChunk(chunkChecksum);
 				}
 	
@@ -224,7 +233,7 @@ public class FileContentSqlDao extends AbstractSqlDao {
 		FileChecksum currentFileChecksum = null;
 		
 		while (resultSet.next()) {		
-			FileChecksum fileChecksum = FileChecksum.parseFileChecksum(resultSet.getString("checksum"));
+			FileChecksum fileChecksum = new FileChecksum(resultSet.getBytes("checksum"));
 			FileContent fileContent = null;
 			
 			if (currentFileChecksum != null && currentFileChecksum.equals(fileChecksum)) {
@@ -237,7 +246,7 @@ public class FileContentSqlDao extends AbstractSqlDao {
 				fileContent.setSize(resultSet.getLong("size"));
 			}
 			
-			ChunkChecksum chunkChecksum = ChunkChecksum.parseChunkChecksum(resultSet.getString("chunk_checksum"));
+			ChunkChecksum chunkChecksum = new ChunkChecksum(resultSet.getBytes("chunk_checksum"));
 			fileContent.addChunk(chunkChecksum);
 
 			fileContents.put(fileChecksum, fileContent); 
@@ -23,6 +23,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -47,17 +48,33 @@ public class FileHistorySqlDao extends AbstractSqlDao {
 		this.fileVersionDao = fileVersionDao;		
 	}
 
+	/**
+	 * Writes a list of {@link PartialFileHistory}s and all of their {@link FileVersion}s to the 
+	 * database, using one batched <tt>INSERT</tt> for the histories and one for all file versions.
+	 * 
+	 * <p><b>Note:</b> This method executes, but does not commit the queries.
+	 * 
+	 * @param connection The connection used to execute the statements
+	 * @param databaseVersionId References the database version to which the file histories belong
+	 * @param fileHistories List of {@link PartialFileHistory}s to be inserted in the database
+	 * @throws SQLException If the SQL statement fails
+	 */
+	@SuppressWarnings("deprecation")
 	public void writeFileHistories(Connection connection, long databaseVersionId, Collection<PartialFileHistory> fileHistories) throws SQLException {
-		for (PartialFileHistory fileHistory : fileHistories) {
-			PreparedStatement preparedStatement = getStatement(connection, "/sql/filehistory.insert.all.writeFileHistories.sql");
-
-			preparedStatement.setString(1, fileHistory.getFileId().toString());
-			preparedStatement.setLong(2, databaseVersionId);
-
-			preparedStatement.executeUpdate();
-			preparedStatement.close();
+		if (fileHistories.size() > 0) {
+			try (PreparedStatement preparedStatement = getStatement(connection, "/sql/filehistory.insert.all.writeFileHistories.sql")) {
+				for (PartialFileHistory fileHistory : fileHistories) {
+					preparedStatement.setBytes(1, fileHistory.getFileId().getRaw());
+					preparedStatement.setLong(2, databaseVersionId);
+		
+					preparedStatement.addBatch();
+				}
+				
+				preparedStatement.executeBatch();
+			}
 
-			fileVersionDao.writeFileVersions(connection, fileHistory.getFileId(), databaseVersionId, fileHistory.getFileVersions().values());
+			// File versions must be written after the histories (foreign key)
+			fileVersionDao.writeFileVersions(connection, databaseVersionId, fileHistories);
 		}
 	}
 
@@ -94,13 +111,71 @@ public class FileHistorySqlDao extends AbstractSqlDao {
 		}
 	}
 
+	/**
+	 * Queries the database for all file histories and their {@link FileVersion}s, like
+	 * {@link #getFileHistoriesWithFileVersions()}, but returns them one by one instead of 
+	 * materializing all histories in memory.
+	 * 
+	 * <p>The iterator must be fully consumed, since the underlying statement is only 
+	 * closed after the last row has been read.
+	 */
+	public Iterator<PartialFileHistory> getFileHistoriesWithFileVersionsIterator() {
+		return getFileHistoryIterator("/sql/filehistory.select.master.getFileHistoriesWithFileVersions.sql");
+	}
+
+	/**
+	 * Queries the database for all file histories with their last {@link FileVersion}, like
+	 * {@link #getFileHistoriesWithLastVersion()}, but returns them one by one instead of 
+	 * materializing all histories in memory.
+	 * 
+	 * <p>The iterator must be fully consumed, since the underlying statement is only 
+	 * closed after the last row has been read.
+	 */
+	public Iterator<PartialFileHistory> getFileHistoriesWithLastVersionIterator() {
+		return getFileHistoryIterator("/sql/filehistory.select.master.getFileHistoriesWithLastVersion.sql");
+	}
+	
+	private Iterator<PartialFileHistory> getFileHistoryIterator(String resourceId) {
+		try {
+			PreparedStatement preparedStatement = getStatement(resourceId);
+			return new FileHistoryIteration(preparedStatement);
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Lazily creates {@link PartialFileHistory}s from a result set of file versions. The
+	 * rows must be ordered by file history, so that all versions of a history can be
+	 * collected before it is returned. 
+	 */
+	private class FileHistoryIteration extends ResultSetIterator<PartialFileHistory> {
+		public FileHistoryIteration(PreparedStatement preparedStatement) throws SQLException {
+			super(preparedStatement);
+		}
+
+		@Override
+		protected PartialFileHistory readNext() throws SQLException {
+			FileHistoryId fileHistoryId = new FileHistoryId(resultSet.getBytes("filehistory_id"));
+			PartialFileHistory fileHistory = new PartialFileHistory(fileHistoryId);
+
+			do {
+				fileHistory.addFileVersion(fileVersionDao.createFileVersionFromRow(resultSet));
+			}
+			while (nextRow() && fileHistoryId.equals(new FileHistoryId(resultSet.getBytes("filehistory_id"))));
+			
+			return fileHistory;
+		}
+	}
+
 	protected List<PartialFileHistory> createFileHistoriesFromResult(ResultSet resultSet) throws SQLException {
 		List<PartialFileHistory> fileHistories = new ArrayList<PartialFileHistory>();;
 		PartialFileHistory fileHistory = null;
 
 		while (resultSet.next()) {
 			FileVersion lastFileVersion = fileVersionDao.createFileVersionFromRow(resultSet);
-			FileHistoryId fileHistoryId = FileHistoryId.parseFileId(resultSet.getString("filehistory_id"));
+			FileHistoryId fileHistoryId = new FileHistoryId(resultSet.getBytes("filehistory_id"));
 
 			if (fileHistory != null && fileHistory.getFileId().equals(fileHistoryId)) { // Same history!
 				fileHistory.addFileVersion(lastFileVersion);
@@ -135,7 +210,7 @@ public class FileHistorySqlDao extends AbstractSqlDao {
 
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
 				if (resultSet.next()) {
-					FileHistoryId fileHistoryId = FileHistoryId.parseFileId(resultSet.getString("filehistory_id"));
+					FileHistoryId fileHistoryId = new FileHistoryId(resultSet.getBytes("filehistory_id"));
 					FileVersion lastFileVersion = fileVersionDao.createFileVersionFromRow(resultSet);
 	
 					PartialFileHistory fileHistory = new PartialFileHistory(fileHistoryId);
@@ -158,7 +233,7 @@ public class FileHistorySqlDao extends AbstractSqlDao {
 		try (PreparedStatement preparedStatement = getStatement("/sql/filehistory.select.master.getFileHistoriesWithLastVersion.sql")) {
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
 				while (resultSet.next()) {
-					FileHistoryId fileHistoryId = FileHistoryId.parseFileId(resultSet.getString("filehistory_id"));
+					FileHistoryId fileHistoryId = new FileHistoryId(resultSet.getBytes("filehistory_id"));
 					FileVersion lastFileVersion = fileVersionDao.createFileVersionFromRow(resultSet);
 	
 					PartialFileHistory fileHistory = new PartialFileHistory(fileHistoryId);
@@ -175,15 +250,16 @@ public class FileHistorySqlDao extends AbstractSqlDao {
 		}
 	}
 
+	@SuppressWarnings("deprecation")
 	public List<PartialFileHistory> getFileHistoriesWithLastVersionByChecksum(FileChecksum fileContentChecksum) {
 		List<PartialFileHistory> currentFileTree = new ArrayList<PartialFileHistory>();
 
 		try (PreparedStatement preparedStatement = getStatement("/sql/filehistory.select.master.getFileHistoriesWithLastVersionByChecksum.sql")) {
-			preparedStatement.setString(1, fileContentChecksum.toString());
+			preparedStatement.setBytes(1, fileContentChecksum.getRaw());
 
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
 				while (resultSet.next()) {
-					FileHistoryId fileHistoryId = FileHistoryId.parseFileId(resultSet.getString("filehistory_id"));
+					FileHistoryId fileHistoryId = new FileHistoryId(resultSet.getBytes("filehistory_id"));
 					FileVersion lastFileVersion = fileVersionDao.createFileVersionFromRow(resultSet);
 	
 					PartialFileHistory fileHistory = new PartialFileHistory(fileHistoryId);
@@ -25,9 +25,11 @@ import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.logging.Logger;
 
+import org.syncany.database.DatabaseVersion.DatabaseVersionStatus;
 import org.syncany.database.FileContent.FileChecksum;
 import org.syncany.database.FileVersion;
 import org.syncany.database.FileVersion.FileStatus;
@@ -61,12 +63,41 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 	 * @throws SQLException If the SQL statement fails
 	 */
 	public void writeFileVersions(Connection connection, FileHistoryId fileHistoryId, long databaseVersionId, Collection<FileVersion> fileVersions) throws SQLException {
-		PreparedStatement preparedStatement = getStatement(connection, "/sql/fileversion.insert.writeFileVersions.sql");
-
+		try (PreparedStatement preparedStatement = getStatement(connection, "/sql/fileversion.insert.writeFileVersions.sql")) {
+			addFileVersionsToBatch(preparedStatement, fileHistoryId, databaseVersionId, fileVersions);
+			preparedStatement.executeBatch();
+		}
+	}
+	
+	/**
+	 * Writes the {@link FileVersion}s of all of the given {@link PartialFileHistory}s in a single
+	 * batch. The file histories themselves must already exist in the database.
+	 * 
+	 * <p><b>Note:</b> This method executes, but does not commit the queries.
+	 * 
+	 * @param connection The connection used to execute the statements
+	 * @param databaseVersionId References the database version to which the file versions belong
+	 * @param fileHistories List of {@link PartialFileHistory}s whose file versions are to be written to the database
+	 * @throws SQLException If the SQL statement fails
+	 */
+	public void writeFileVersions(Connection connection, long databaseVersionId, Collection<PartialFileHistory> fileHistories) throws SQLException {
+		try (PreparedStatement preparedStatement = getStatement(connection, "/sql/fileversion.insert.writeFileVersions.sql")) {
+			for (PartialFileHistory fileHistory : fileHistories) {
+				addFileVersionsToBatch(preparedStatement, fileHistory.getFileId(), databaseVersionId, fileHistory.getFileVersions().values());
+			}
+			
+			preparedStatement.executeBatch();
+		}
+	}
+	
+	@SuppressWarnings("deprecation")
+	private void addFileVersionsToBatch(PreparedStatement preparedStatement, FileHistoryId fileHistoryId, long databaseVersionId, Collection<FileVersion> fileVersions) throws SQLException {
+		byte[] fileHistoryIdBytes = fileHistoryId.getRaw();
+		
 		for (FileVersion fileVersion : fileVersions) {
-			String fileContentChecksumStr = (fileVersion.getChecksum() != null) ? fileVersion.getChecksum().toString() : null;					  		
+			byte[] fileContentChecksumBytes = (fileVersion.getChecksum() != null) ? fileVersion.getChecksum().getRaw() : null;					  		
 
-			preparedStatement.setString(1, fileHistoryId.toString());
+			preparedStatement.setBytes(1, fileHistoryIdBytes);
 			preparedStatement.setInt(2, Integer.parseInt(""+fileVersion.getVersion()));
 			preparedStatement.setLong(3, databaseVersionId);
 			preparedStatement.setString(4, fileVersion.getPath());
@@ -75,16 +106,13 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 			preparedStatement.setLong(7, fileVersion.getSize());
 			preparedStatement.setTimestamp(8, new Timestamp(fileVersion.getLastModified().getTime()));
 			preparedStatement.setString(9, fileVersion.getLinkTarget());
-			preparedStatement.setString(10, fileContentChecksumStr);
+			preparedStatement.setBytes(10, fileContentChecksumBytes);
 			preparedStatement.setTimestamp(11, new Timestamp(fileVersion.getUpdated().getTime()));
 			preparedStatement.setString(12, fileVersion.getPosixPermissions());
 			preparedStatement.setString(13, fileVersion.getDosAttributes());
 			
 			preparedStatement.addBatch();
 		}				
-		
-		preparedStatement.executeBatch();
-		preparedStatement.close();
 	}
 
 	/**
@@ -100,6 +128,53 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 		preparedStatement.executeUpdate();	
 		preparedStatement.close();
 	}
+
+	/**
+	 * Updates the materialized table <i>fileversion_current</i> for all file histories
+	 * touched by the given database version, i.e. replaces their current file version
+	 * with the last version in a {@link DatabaseVersionStatus#MASTER MASTER} database version.
+	 *
+	 * <p>This method must be called after the file versions of a database version have been
+	 * written, so that the current file tree can be read with a simple indexed scan instead
+	 * of aggregating over the entire history.
+	 *
+	 * <p><b>Note:</b> This method executes, but does not commit the queries.
+	 *
+	 * @param connection The connection used to execute the statements
+	 * @param databaseVersionId The database version whose file histories are to be updated
+	 * @throws SQLException If the SQL statement fails
+	 */
+	public void updateCurrentFileVersions(Connection connection, long databaseVersionId) throws SQLException {
+		try (PreparedStatement preparedStatement = getStatement(connection, "/sql/fileversion.delete.current.updateCurrentFileVersions.sql")) {
+			preparedStatement.setLong(1, databaseVersionId);
+			preparedStatement.executeUpdate();
+		}
+
+		try (PreparedStatement preparedStatement = getStatement(connection, "/sql/fileversion.insert.current.updateCurrentFileVersions.sql")) {
+			preparedStatement.setLong(1, databaseVersionId);
+			preparedStatement.executeUpdate();
+		}
+	}
+
+	/**
+	 * Updates the materialized table <i>fileversion_current</i> for all file histories
+	 * touched by {@link DatabaseVersionStatus#DIRTY DIRTY} database versions. Must be called
+	 * whenever database versions are marked dirty, or before dirty database versions are removed.
+	 *
+	 * <p><b>Note:</b> This method executes, but does not commit the queries.
+	 *
+	 * @throws SQLException If the SQL statement fails
+	 * @see #updateCurrentFileVersions(Connection, long)
+	 */
+	public void updateDirtyCurrentFileVersions() throws SQLException {
+		try (PreparedStatement preparedStatement = getStatement("/sql/fileversion.delete.current.updateDirtyCurrentFileVersions.sql")) {
+			preparedStatement.executeUpdate();
+		}
+
+		try (PreparedStatement preparedStatement = getStatement("/sql/fileversion.insert.current.updateDirtyCurrentFileVersions.sql")) {
+			preparedStatement.executeUpdate();
+		}
+	}
 	
 	/**
 	 * Queries the database for the currently active {@link FileVersion}s and returns it
@@ -120,6 +195,40 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 		}
 	}
 	
+	/**
+	 * Queries the database for the currently active {@link FileVersion}s, like 
+	 * {@link #getCurrentFileTree()}, but returns them one by one instead of materializing
+	 * the entire file tree in memory. 
+	 * 
+	 * <p>The iterator must be fully consumed, since the underlying statement is only 
+	 * closed after the last row has been read.
+	 * 
+	 * @return Returns an iterator over the file versions of the current file tree
+	 */
+	public Iterator<FileVersion> getCurrentFileTreeIterator() {
+		try {
+			PreparedStatement preparedStatement = getStatement("/sql/fileversion.select.master.getCurrentFileTree.sql");
+			return new FileVersionIteration(preparedStatement);
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private class FileVersionIteration extends ResultSetIterator<FileVersion> {
+		public FileVersionIteration(PreparedStatement preparedStatement) throws SQLException {
+			super(preparedStatement);
+		}
+
+		@Override
+		protected FileVersion readNext() throws SQLException {
+			FileVersion fileVersion = createFileVersionFromRow(resultSet);
+			nextRow();
+			
+			return fileVersion;
+		}
+	}
+	
 	/**
 	 * Queries the database for the {@link FileVersion}s active at the given date and
 	 * returns it as a map.
@@ -178,7 +287,7 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 	@Deprecated
 	public FileVersion getFileVersionByFileHistoryId(FileHistoryId fileHistoryId) {
 		try (PreparedStatement preparedStatement = getStatement("/sql/fileversion.select.master.getFileVersionByFileHistoryId.sql")) {
-			preparedStatement.setString(1, fileHistoryId.toString());
+			preparedStatement.setBytes(1, fileHistoryId.getRaw());
 
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
 				if (resultSet.next()) {
@@ -208,9 +317,10 @@ public class FileVersionSqlDao extends AbstractSqlDao {
 			fileVersion.setLinkTarget(resultSet.getString("linktarget"));
 		}
 
-		if (resultSet.getString("filecontent_checksum") != null) {
-			FileChecksum fileChecksum = FileChecksum.parseFileChecksum(resultSet.getString("filecontent_checksum"));
-			fileVersion.setChecksum(fileChecksum);
+		byte[] fileContentChecksumBytes = resultSet.getBytes("filecontent_checksum");
+		
+		if (fileContentChecksumBytes != null) {
+			fileVersion.setChecksum(new FileChecksum(fileContentChecksumBytes));
 		}
 
 		if (resultSet.getString("updated") != null) {
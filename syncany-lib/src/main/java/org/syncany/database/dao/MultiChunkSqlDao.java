@@ -24,12 +24,15 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
 import org.syncany.chunk.MultiChunk;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.DatabaseConnectionFactory;
 import org.syncany.database.DatabaseVersion.DatabaseVersionStatus;
 import org.syncany.database.FileContent.FileChecksum;
 import org.syncany.database.MultiChunkEntry;
@@ -45,39 +48,68 @@ import org.syncany.database.VectorClock;
  */
 public class MultiChunkSqlDao extends AbstractSqlDao {
 	protected static final Logger logger = Logger.getLogger(MultiChunkSqlDao.class.getSimpleName());	
+	
+	/**
+	 * Number of chunk checksums resolved per query by {@link #getMultiChunkIdsForChunks(Collection)}. 
+	 * The last batch is padded by repeating a checksum, so that all batches use the same statement.
+	 */
+	private static final int MULTICHUNK_IDS_FOR_CHUNKS_BATCH_SIZE = 100;
+	
+	private String multiChunkIdsForChunksSql;
 
 	public MultiChunkSqlDao(Connection connection) {
 		super(connection);
 	}
 
+	/**
+	 * Writes a list of {@link MultiChunkEntry}s and their chunk references to the database, 
+	 * using one batched <tt>INSERT</tt> for the multichunks and one for all chunk references. 
+	 * 
+	 * <p><b>Note:</b> This method executes, but does not commit the queries.
+	 * 
+	 * @param connection The connection used to execute the statements
+	 * @param multiChunks List of {@link MultiChunkEntry}s to be inserted in the database
+	 * @throws SQLException If the SQL statement fails
+	 */
+	@SuppressWarnings("deprecation")
 	public void writeMultiChunks(Connection connection, Collection<MultiChunkEntry> multiChunks) throws SQLException {
-		for (MultiChunkEntry multiChunk : multiChunks) {
-			PreparedStatement preparedStatement = getStatement(connection, "/sql/multichunk.insert.all.writeMultiChunks.sql");
-
-			preparedStatement.setString(1, multiChunk.getId().toString());
-			preparedStatement.executeUpdate();
-			preparedStatement.close();
-			writeMultiChunkRefs(connection, multiChunk);			
+		if (multiChunks.size() > 0) {
+			try (PreparedStatement preparedStatement = getStatement(connection, "/sql/multichunk.insert.all.writeMultiChunks.sql")) {
+				for (MultiChunkEntry multiChunk : multiChunks) {
+					preparedStatement.setBytes(1, multiChunk.getId().getRaw());
+					preparedStatement.addBatch();
+				}
+				
+				preparedStatement.executeBatch();
+			}
+			
+			// Chunk references must be written after the multichunks (foreign key)
+			writeMultiChunkRefs(connection, multiChunks);
 		}
 	}
 
-	private void writeMultiChunkRefs(Connection connection, MultiChunkEntry multiChunk) throws SQLException {
-		PreparedStatement preparedStatement = getStatement("/sql/multichunk.insert.all.writeMultiChunkRefs.sql");
-		
-		for (ChunkChecksum chunkChecksum : multiChunk.getChunks()) {
-			preparedStatement.setString(1, multiChunk.getId().toString());
-			preparedStatement.setString(2, chunkChecksum.toString());
+	@SuppressWarnings("deprecation")
+	private void writeMultiChunkRefs(Connection connection, Collection<MultiChunkEntry> multiChunks) throws SQLException {
+		try (PreparedStatement preparedStatement = getStatement(connection, "/sql/multichunk.insert.all.writeMultiChunkRefs.sql")) {
+			for (MultiChunkEntry multiChunk : multiChunks) {
+				byte[] multiChunkIdBytes = multiChunk.getId().getRaw();
+				
+				for (ChunkChecksum chunkChecksum : multiChunk.getChunks()) {
+					preparedStatement.setBytes(1, multiChunkIdBytes);
+					preparedStatement.setBytes(2, chunkChecksum.getRaw());
+					
+					preparedStatement.addBatch();			
+				}
+			}
 			
-			preparedStatement.addBatch();			
+			preparedStatement.executeBatch();
 		}
-		
-		preparedStatement.executeBatch();
-		preparedStatement.close();
 	}
 	
 	/**
 	 * Note: This method selects also {@link DatabaseVersionStatus#DIRTY DIRTY}.
 	 */
+	@SuppressWarnings("deprecation")
 	public List<MultiChunkId> getMultiChunkIds(FileChecksum fileChecksum) {
 		List<MultiChunkId> multiChunkIds = new ArrayList<MultiChunkId>();
 
@@ -86,11 +118,11 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 		}
 		else {
 			try (PreparedStatement preparedStatement = getStatement("/sql/multichunk.select.all.getMultiChunksForFileChecksum.sql")) {
-				preparedStatement.setString(1, fileChecksum.toString());
+				preparedStatement.setBytes(1, fileChecksum.getRaw());
 	
 				try (ResultSet resultSet = preparedStatement.executeQuery()) {
 					while (resultSet.next()) {
-						multiChunkIds.add(MultiChunkId.parseMultiChunkId(resultSet.getString("multichunk_id")));
+						multiChunkIds.add(new MultiChunkId(resultSet.getBytes("multichunk_id")));
 					}
 		
 					return multiChunkIds;
@@ -122,13 +154,14 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 	/**
 	 * Note: This method selects also {@link DatabaseVersionStatus#DIRTY DIRTY}.
 	 */
+	@SuppressWarnings("deprecation")
 	public MultiChunkId getMultiChunkId(ChunkChecksum chunkChecksum) {
 		try (PreparedStatement preparedStatement = getStatement("/sql/multichunk.select.all.getMultiChunkForChunk.sql")) {
-			preparedStatement.setString(1, chunkChecksum.toString());
+			preparedStatement.setBytes(1, chunkChecksum.getRaw());
 					
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
 				if (resultSet.next()) {
-					return MultiChunkId.parseMultiChunkId(resultSet.getString("multichunk_id"));
+					return new MultiChunkId(resultSet.getBytes("multichunk_id"));
 				}
 			}
 
@@ -139,13 +172,82 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 		}
 	}
 	
+	/**
+	 * Resolves the multichunk IDs for a collection of chunks. Instead of querying the 
+	 * database once per chunk (as {@link #getMultiChunkId(ChunkChecksum) getMultiChunkId()} does), 
+	 * the chunks are looked up in batches of {@value #MULTICHUNK_IDS_FOR_CHUNKS_BATCH_SIZE}, 
+	 * using one <tt>IN</tt>-query per batch. 
+	 * 
+	 * <p>Chunks that are not contained in any multichunk are not contained in the result map.
+	 * 
+	 * <p>Note: This method selects also {@link DatabaseVersionStatus#DIRTY DIRTY}.
+	 * 
+	 * @param chunkChecksums Checksums of the chunks to be resolved
+	 * @return Returns a map of chunk checksums to the multichunk IDs containing them
+	 */
+	@SuppressWarnings("deprecation")
+	public Map<ChunkChecksum, MultiChunkId> getMultiChunkIdsForChunks(Collection<ChunkChecksum> chunkChecksums) {
+		Map<ChunkChecksum, MultiChunkId> multiChunkIds = new HashMap<ChunkChecksum, MultiChunkId>();
+
+		if (chunkChecksums.size() == 0) {
+			return multiChunkIds;
+		}
+		
+		String resourceId = "/sql/multichunk.select.all.getMultiChunkIdsForChunks.sql";
+		
+		try (PreparedStatement preparedStatement = getStatementForSql(resourceId, getMultiChunkIdsForChunksSql(resourceId))) {
+			Iterator<ChunkChecksum> chunkChecksumIterator = new LinkedHashSet<ChunkChecksum>(chunkChecksums).iterator();
+			
+			while (chunkChecksumIterator.hasNext()) {
+				byte[] chunkChecksumBytes = null;
+				
+				for (int i = 1; i <= MULTICHUNK_IDS_FOR_CHUNKS_BATCH_SIZE; i++) {
+					if (chunkChecksumIterator.hasNext()) {
+						chunkChecksumBytes = chunkChecksumIterator.next().getRaw();
+					}
+					
+					preparedStatement.setBytes(i, chunkChecksumBytes);
+				}
+				
+				try (ResultSet resultSet = preparedStatement.executeQuery()) {
+					while (resultSet.next()) {
+						ChunkChecksum chunkChecksum = new ChunkChecksum(resultSet.getBytes("chunk_checksum"));
+						MultiChunkId multiChunkId = new MultiChunkId(resultSet.getBytes("multichunk_id"));
+						
+						multiChunkIds.put(chunkChecksum, multiChunkId);
+					}
+				}
+			}
+
+			return multiChunkIds;
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private String getMultiChunkIdsForChunksSql(String resourceId) {
+		if (multiChunkIdsForChunksSql == null) {
+			StringBuilder parameters = new StringBuilder("?");
+			
+			for (int i = 1; i < MULTICHUNK_IDS_FOR_CHUNKS_BATCH_SIZE; i++) {
+				parameters.append(",?");
+			}
+			
+			String sqlTemplate = DatabaseConnectionFactory.getStatement(resourceId);
+			multiChunkIdsForChunksSql = sqlTemplate.replace("%CHUNKCHECKSUMS%", parameters.toString());
+		}
+		
+		return multiChunkIdsForChunksSql;
+	}
+	
 	public List<MultiChunkId> getDirtyMultiChunkIds() {
 		List<MultiChunkId> dirtyMultiChunkIds = new ArrayList<MultiChunkId>();		
 		
 		try (PreparedStatement preparedStatement = getStatement("/sql/multichunk.select.dirty.getDirtyMultiChunkIds.sql")) {
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
 				while (resultSet.next()) {
-					dirtyMultiChunkIds.add(MultiChunkId.parseMultiChunkId(resultSet.getString("multichunk_id")));
+					dirtyMultiChunkIds.add(new MultiChunkId(resultSet.getBytes("multichunk_id")));
 				}
 				
 				return dirtyMultiChunkIds;
@@ -162,7 +264,7 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 		MultiChunkId currentMultiChunkId = null;
 		
 		while (resultSet.next()) {			
-			MultiChunkId multiChunkId = MultiChunkId.parseMultiChunkId(resultSet.getString("multichunk_id"));
+			MultiChunkId multiChunkId = new MultiChunkId(resultSet.getBytes("multichunk_id"));
 			MultiChunkEntry multiChunkEntry = null;
 			
 			if (currentMultiChunkId != null && currentMultiChunkId.equals(multiChunkId)) {
@@ -172,7 +274,7 @@ public class MultiChunkSqlDao extends AbstractSqlDao {
 				multiChunkEntry = new MultiChunkEntry(multiChunkId);
 			}
 			
-			multiChunkEntry.addChunk(ChunkChecksum.parseChunkChecksum(resultSet.getString("chunk_checksum")));
+			multiChunkEntry.addChunk(new ChunkChecksum(resultSet.getBytes("chunk_checksum")));
 			multiChunkEntries.put(multiChunkId, multiChunkEntry); 
 			
 			currentMultiChunkId = multiChunkId;
@@ -0,0 +1,198 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.database.DatabaseConnectionFactory;
+
+/**
+ * Caches prepared statements of a single {@link Connection}, keyed by their SQL 
+ * resource identifier (e.g. <tt>/sql/chunk.select.all.loadChunkCache.sql</tt>).
+ * 
+ * <p>Statements are handed out via {@link #getStatement(String)} and returned to
+ * the cache when the caller closes them. Callers can therefore keep using the 
+ * usual JDBC idiom (<tt>try (PreparedStatement ps = ...) { .. }</tt>), but the 
+ * underlying statement is only prepared once. If a statement is requested again 
+ * while it is still in use (e.g. by a nested query), a second statement is prepared, 
+ * so that the two uses do not interfere.
+ * 
+ * <p>Statements returned by this cache must not be used after they have been
+ * closed. Open result sets of a statement are closed when it is returned, and the 
+ * statement's parameters, batch, maximum rows and fetch size are reset (see 
+ * {@link CachedPreparedStatement}).
+ * 
+ * <p>The cache is not thread-safe, just like the connection it belongs to. All
+ * cached statements are closed by {@link #close()}.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class PreparedStatementCache {
+	private static final Logger logger = Logger.getLogger(PreparedStatementCache.class.getSimpleName());
+	
+	/**
+	 * Maximum number of idle statements kept per SQL resource. More than one
+	 * statement is only needed if the same query is used in a nested way.
+	 */
+	private static final int MAX_IDLE_STATEMENTS_PER_RESOURCE = 4;
+	
+	private Connection connection;
+	private Map<String, Deque<PreparedStatement>> idleStatements;
+	private boolean closed;
+	
+	private int statementsPrepared;
+	private int statementsReused;
+	
+	public PreparedStatementCache(Connection connection) {
+		this.connection = connection;
+		this.idleStatements = new HashMap<String, Deque<PreparedStatement>>();
+		this.closed = false;
+		
+		this.statementsPrepared = 0;
+		this.statementsReused = 0;
+	}
+	
+	/**
+	 * Returns a prepared statement for the given SQL resource identifier, either 
+	 * from the cache or by preparing a new one. The statement must be closed
+	 * by the caller; closing it returns it to the cache. 
+	 */
+	public PreparedStatement getStatement(String resourceId) throws SQLException {
+		return getStatement(resourceId, false);
+	}
+	
+	/**
+	 * Like {@link #getStatement(String)}, but prepares a statement that returns
+	 * auto-generated keys.
+	 */
+	public PreparedStatement getStatementWithGeneratedKeys(String resourceId) throws SQLException {
+		return getStatement(resourceId, true);
+	}
+	
+	/**
+	 * Like {@link #getStatement(String)}, but for SQL that is not read from a 
+	 * resource as is, e.g. a query with an expanded parameter list. The given
+	 * cache key must uniquely identify the SQL statement.
+	 */
+	public PreparedStatement getStatementForSql(String cacheKey, String sql) throws SQLException {
+		return getStatement(cacheKey, null, sql, false);
+	}
+	
+	private PreparedStatement getStatement(String resourceId, boolean returnGeneratedKeys) throws SQLException {
+		String cacheKey = (returnGeneratedKeys) ? resourceId + "#keys" : resourceId;
+		return getStatement(cacheKey, resourceId, null, returnGeneratedKeys);
+	}
+	
+	private PreparedStatement getStatement(String cacheKey, String resourceId, String sql, boolean returnGeneratedKeys) throws SQLException {
+		if (closed) {
+			throw new SQLException("Statement cache is closed.");
+		}
+		
+		Deque<PreparedStatement> idleResourceStatements = idleStatements.get(cacheKey);
+		PreparedStatement statement = (idleResourceStatements != null) ? idleResourceStatements.pollFirst() : null;
+		
+		if (statement != null) {
+			statementsReused++;
+		}
+		else {
+			if (sql == null) {
+				sql = DatabaseConnectionFactory.getStatement(resourceId);
+			}
+			
+			if (returnGeneratedKeys) {
+				statement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS);
+			}
+			else {
+				statement = connection.prepareStatement(sql);
+			}
+			
+			statementsPrepared++;
+		}
+		
+		return new CachedPreparedStatement(this, cacheKey, statement);
+	}
+	
+	/*package*/ void returnStatement(String cacheKey, PreparedStatement statement) throws SQLException {
+		if (closed) {
+			statement.close();
+			return;
+		}
+		
+		Deque<PreparedStatement> idleResourceStatements = idleStatements.get(cacheKey);
+		
+		if (idleResourceStatements == null) {
+			idleResourceStatements = new ArrayDeque<PreparedStatement>();
+			idleStatements.put(cacheKey, idleResourceStatements);
+		}
+		
+		if (idleResourceStatements.size() < MAX_IDLE_STATEMENTS_PER_RESOURCE) {
+			statement.clearParameters();
+			statement.clearBatch();
+			statement.clearWarnings();
+			statement.setMaxRows(0);
+			statement.setFetchSize(0);
+			
+			idleResourceStatements.offerFirst(statement);
+		}
+		else {
+			statement.close();
+		}
+	}
+	
+	/**
+	 * Closes all idle statements. Statements that are still in use are closed
+	 * when they are returned. 
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		
+		logger.log(Level.FINE, "Closing statement cache: {0} statement(s) prepared, {1} reused.", new Object[] { statementsPrepared, statementsReused });
+		
+		for (Deque<PreparedStatement> idleResourceStatements : idleStatements.values()) {
+			for (PreparedStatement statement : idleResourceStatements) {
+				try {
+					statement.close();
+				}
+				catch (SQLException e) {
+					// Don't care
+				}
+			}
+		}
+		
+		idleStatements.clear();
+		closed = true;
+	}
+	
+	public int getStatementsPrepared() {
+		return statementsPrepared;
+	}
+	
+	public int getStatementsReused() {
+		return statementsReused;
+	}
+}
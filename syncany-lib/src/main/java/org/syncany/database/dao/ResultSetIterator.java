@@ -0,0 +1,104 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+
+/**
+ * Lazily creates objects from the forward-only result set of a statement, instead of
+ * materializing the entire result in a list or map. This allows walking through large
+ * result sets (e.g. the current file tree) without holding all objects in memory.
+ * 
+ * <p>The statement is executed when the iterator is created, and closed (i.e. returned to
+ * the statement cache) once the last row has been read. Callers should therefore always
+ * iterate until {@link #hasNext()} returns <tt>false</tt>.
+ * 
+ * <p>Implementations read the object at the current row in {@link #readNext()}, and move
+ * the cursor forward using {@link #nextRow()}. An object may span multiple rows.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+abstract class ResultSetIterator<T> implements Iterator<T> {
+	protected static final int RESULT_SET_FETCH_SIZE = 1000;
+	
+	private PreparedStatement preparedStatement;
+	protected ResultSet resultSet;
+	private boolean hasNext;
+
+	public ResultSetIterator(PreparedStatement preparedStatement) throws SQLException {
+		this.preparedStatement = preparedStatement;
+		this.preparedStatement.setFetchSize(RESULT_SET_FETCH_SIZE);
+		
+		this.resultSet = preparedStatement.executeQuery();
+		this.hasNext = resultSet.next();
+		
+		closeIfDone();
+	}
+	
+	/**
+	 * Creates the next object, starting at the current row of the result set. 
+	 * Implementations must call {@link #nextRow()} at least once, and leave the cursor 
+	 * on the first row that does not belong to the returned object.
+	 */
+	protected abstract T readNext() throws SQLException;
+	
+	/**
+	 * Moves the cursor to the next row, and returns <tt>true</tt> if there is such a row.
+	 */
+	protected boolean nextRow() throws SQLException {
+		hasNext = resultSet.next();
+		return hasNext;
+	}
+	
+	private void closeIfDone() throws SQLException {
+		if (!hasNext) {
+			preparedStatement.close();
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return hasNext;
+	}
+
+	@Override
+	public T next() {
+		if (hasNext) {
+			try {
+				T nextObject = readNext();					
+				closeIfDone();
+
+				return nextObject;
+			}
+			catch (Exception e) {
+				throw new RuntimeException("Cannot load next SQL row.", e);
+			}
+		}
+		else {
+			return null;
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new RuntimeException("Not implemented.");
+	}
+}
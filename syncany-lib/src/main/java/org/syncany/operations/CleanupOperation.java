@@ -55,7 +55,7 @@ public class CleanupOperation extends Operation {
 		
 		this.options = options;
 		this.transferManager = config.getConnection().createTransferManager();
-		this.localDatabase = new SqlDatabase(config);
+		this.localDatabase = config.getSqlDatabase();
 	}
 
 	@Override
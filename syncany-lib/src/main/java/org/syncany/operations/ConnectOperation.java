@@ -81,21 +81,30 @@ public class ConnectOperation extends AbstractInitOperation {
 		
 		if (CipherUtil.isEncrypted(tmpRepoFile)) {
 			SaltedSecretKey masterKey = null;
+			String repoFileStr = null;
 			
 			if (options.getConfigTO().getMasterKey() != null) {
 				masterKey = options.getConfigTO().getMasterKey(); // TODO [medium] Also create master file! 
+				repoFileStr = decryptRepoFile(tmpRepoFile, masterKey);
 			}
 			else {
 				tmpMasterFile = downloadFile(transferManager, new MasterRemoteFile());
 				MasterTO masterTO = readMasterFile(tmpMasterFile);
 				
-				String masterKeyPassword = getOrAskPasswordRepoFile();
 				byte[] masterKeySalt = masterTO.getSalt();
+				masterKey = getCachedMasterKey(masterKeySalt);
 				
-				masterKey = createMasterKeyFromPassword(masterKeyPassword, masterKeySalt); // This takes looong!			
+				if (masterKey != null) {
+					repoFileStr = tryDecryptRepoFile(tmpRepoFile, masterKey);
+				}
+				
+				if (repoFileStr == null) {
+					String masterKeyPassword = getOrAskPasswordRepoFile();
+					masterKey = createMasterKeyFromPassword(masterKeyPassword, masterKeySalt); // This takes looong!
+					repoFileStr = decryptRepoFile(tmpRepoFile, masterKey);
+				}
 			}						
 			
-			String repoFileStr = decryptRepoFile(tmpRepoFile, masterKey);			
 			verifyRepoFile(repoFileStr);
 			
 			options.getConfigTO().setMasterKey(masterKey);
@@ -136,6 +145,15 @@ public class ConnectOperation extends AbstractInitOperation {
 		}		
 	}
 
+	private SaltedSecretKey getCachedMasterKey(byte[] masterKeySalt) {
+		if (listener instanceof ConnectOperationKeyCacheListener) {
+			return ((ConnectOperationKeyCacheListener) listener).getCachedMasterKeyCallback(masterKeySalt);
+		}
+		else {
+			return null;
+		}
+	}
+
 	protected File downloadFile(TransferManager transferManager, RemoteFile remoteFile) throws Exception {
 		File tmpRepoFile = File.createTempFile("syncanyfile", "tmp");
 		
@@ -167,6 +185,16 @@ public class ConnectOperation extends AbstractInitOperation {
 		}		
 	}		
 	
+	private String tryDecryptRepoFile(File file, SaltedSecretKey cachedMasterKey) {
+		try {
+			return decryptRepoFile(file, cachedMasterKey);
+		}
+		catch (Exception e) {
+			logger.log(Level.INFO, "Cached master key cannot decrypt repo file, deriving master key from password instead.");
+			return null;
+		}
+	}
+	
 	private void verifyRepoFile(String repoFileStr) throws Exception {
 		try {
 			Serializer serializer = new Persister();
@@ -187,6 +215,19 @@ public class ConnectOperation extends AbstractInitOperation {
 		public void notifyCreateMasterKey();
 	}	
 	
+	/**
+	 * Optional extension of the {@link ConnectOperationListener}: Listeners implementing
+	 * this interface are asked for a cached master key before the password is queried.
+	 * If the cached key cannot decrypt the repo file, the operation falls back to the password.
+	 */
+	public static interface ConnectOperationKeyCacheListener extends ConnectOperationListener {
+		/**
+		 * Returns a previously derived master key for the given salt (e.g. from a key 
+		 * cache), or <tt>null</tt> if the key must be derived from the password.
+		 */
+		public SaltedSecretKey getCachedMasterKeyCallback(byte[] masterKeySalt);
+	}
+	
 	public static class ConnectOperationOptions implements OperationOptions {
 		private File localDir;
 		private ConfigTO configTO;
@@ -28,6 +28,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -41,6 +42,7 @@ import org.syncany.connection.plugins.DatabaseRemoteFile;
 import org.syncany.connection.plugins.MultiChunkRemoteFile;
 import org.syncany.connection.plugins.StorageException;
 import org.syncany.connection.plugins.TransferManager;
+import org.syncany.crypto.MultiCipherInputStream;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
 import org.syncany.database.DatabaseVersion;
 import org.syncany.database.DatabaseVersionHeader;
@@ -54,6 +56,7 @@ import org.syncany.database.dao.XmlDatabaseSerializer;
 import org.syncany.operations.actions.FileCreatingFileSystemAction;
 import org.syncany.operations.actions.FileSystemAction;
 import org.syncany.operations.actions.FileSystemAction.InconsistentFileSystemException;
+import org.syncany.operations.actions.MultiChunkCache;
 import org.syncany.util.FileUtil;
 
 /**
@@ -76,7 +79,7 @@ import org.syncany.util.FileUtil;
  *  <li>Determine whether the local branch needs to be updated (new database versions); if so, determine
  *      local {@link FileSystemAction}s</li>
  *  <li>Determine, download and decrypt required multi chunks from remote storage from file actions
- *      (implemented in {@link #determineMultiChunksToDownload(FileVersion, MemoryDatabase, MemoryDatabase) determineMultiChunksToDownload()},
+ *      (implemented in {@link #determineMultiChunksToDownload(List, MemoryDatabase) determineMultiChunksToDownload()},
  *      and {@link #downloadAndDecryptMultiChunks(Set) downloadAndDecryptMultiChunks()})</li>
  *  <li>Apply file system actions locally, creating conflict files where necessary if local file does
  *      not match the expected file (implemented in {@link #applyFileSystemActions(List) applyFileSystemActions()} </li>
@@ -107,7 +110,7 @@ public class DownOperation extends Operation {
 
 		this.options = options;
 		this.result = new DownOperationResult();
-		this.localDatabase = new SqlDatabase(config);
+		this.localDatabase = config.getSqlDatabase();
 		this.transferManager = config.getConnection().createTransferManager();
 		this.databaseReconciliator = new DatabaseReconciliator();
 
@@ -190,13 +193,17 @@ public class DownOperation extends Operation {
 			// Add winners database to local database
 			// Note: This must happen AFTER the file system stuff, because we compare the winners database with the local database!			
 			logger.log(Level.INFO, "   Adding database versions to SQL database ...");
+			List<DatabaseVersion> applyDatabaseVersions = new ArrayList<DatabaseVersion>();
 			
 			for (DatabaseVersionHeader applyDatabaseVersionHeader : winnersApplyBranch.getAll()) {
 				logger.log(Level.INFO, "   + Applying database version " + applyDatabaseVersionHeader.getVectorClock());
 
 				DatabaseVersion applyDatabaseVersion = winnersDatabase.getDatabaseVersion(applyDatabaseVersionHeader.getVectorClock());				
-				localDatabase.persistDatabaseVersion(applyDatabaseVersion);
+				applyDatabaseVersions.add(applyDatabaseVersion);
 			}
+			
+			// Bulk load: All database versions are written in one transaction
+			localDatabase.persistDatabaseVersions(applyDatabaseVersions);
 
 			result.setResultCode(DownResultCode.OK_WITH_REMOTE_CHANGES);
 		}
@@ -280,55 +287,60 @@ public class DownOperation extends Operation {
 	}
 
 	private Set<MultiChunkId> determineRequiredMultiChunks(List<FileSystemAction> actions, MemoryDatabase winnersDatabase) {
-		Set<MultiChunkId> multiChunksToDownload = new HashSet<MultiChunkId>();
+		List<FileVersion> fileVersionsToCreate = new ArrayList<FileVersion>();
 
 		for (FileSystemAction action : actions) {
 			if (action instanceof FileCreatingFileSystemAction) { // TODO [low] This adds ALL multichunks even though some might be available locally
-				multiChunksToDownload.addAll(determineMultiChunksToDownload(action.getFile2(), winnersDatabase));
+				fileVersionsToCreate.add(action.getFile2());
 			}
 		}
 
-		return multiChunksToDownload;
+		return determineMultiChunksToDownload(fileVersionsToCreate, winnersDatabase);
 	}
 
-	private Collection<MultiChunkId> determineMultiChunksToDownload(FileVersion fileVersion, MemoryDatabase winnersDatabase) {
+	private Set<MultiChunkId> determineMultiChunksToDownload(List<FileVersion> fileVersions, MemoryDatabase winnersDatabase) {
 		Set<MultiChunkId> multiChunksToDownload = new HashSet<MultiChunkId>();
+		Set<ChunkChecksum> unknownFileChunks = new LinkedHashSet<ChunkChecksum>();
 
-		// First: Check if we know this file locally!
-		List<MultiChunkId> multiChunkIds = localDatabase.getMultiChunkIds(fileVersion.getChecksum());
-		
-		if (multiChunkIds.size() > 0) {
-			multiChunksToDownload.addAll(multiChunkIds);
+		for (FileVersion fileVersion : fileVersions) {
+			// First: Check if we know this file locally!
+			List<MultiChunkId> multiChunkIds = localDatabase.getMultiChunkIds(fileVersion.getChecksum());
+			
+			if (multiChunkIds.size() > 0) {
+				multiChunksToDownload.addAll(multiChunkIds);
+			}
+			else {
+				// Second: We don't know it locally; must be from the winners database
+				FileContent winningFileContent = winnersDatabase.getContent(fileVersion.getChecksum());			
+				boolean winningFileHasContent = winningFileContent != null;
+	
+				if (winningFileHasContent) { // File can be empty!
+					// TODO [medium] Instead of just looking for multichunks to download here, we should look for chunks in local files as well
+					// and return the chunk positions in the local files ChunkPosition (chunk123 at file12, offset 200, size 250)
+					
+					unknownFileChunks.addAll(winningFileContent.getChunks());
+				}
+			}
 		}
-		else {
-			// Second: We don't know it locally; must be from the winners database
-			FileContent winningFileContent = winnersDatabase.getContent(fileVersion.getChecksum());			
-			boolean winningFileHasContent = winningFileContent != null;
-
-			if (winningFileHasContent) { // File can be empty!
-				Collection<ChunkChecksum> fileChunks = winningFileContent.getChunks(); 
+		
+		// Third: Look up the chunks of all unknown files at once (batched queries, not one query per chunk)
+		Map<ChunkChecksum, MultiChunkId> localMultiChunkIds = localDatabase.getMultiChunkIdsForChunks(unknownFileChunks);
+		
+		for (ChunkChecksum chunkChecksum : unknownFileChunks) {
+			MultiChunkId multiChunkIdForChunk = localMultiChunkIds.get(chunkChecksum);
+			
+			if (multiChunkIdForChunk == null) {
+				multiChunkIdForChunk = winnersDatabase.getMultiChunkIdForChunk(chunkChecksum);
 				
-				// TODO [medium] Instead of just looking for multichunks to download here, we should look for chunks in local files as well
-				// and return the chunk positions in the local files ChunkPosition (chunk123 at file12, offset 200, size 250)
-
-				for (ChunkChecksum chunkChecksum : fileChunks) {
-					MultiChunkId multiChunkIdForChunk = localDatabase.getMultiChunkId(chunkChecksum);
-					// TODO [high] Performance: This queries the database for every chunk, SLOWWW!
-					
-					if (multiChunkIdForChunk == null) {
-						multiChunkIdForChunk = winnersDatabase.getMultiChunkIdForChunk(chunkChecksum);
-						
-						if (multiChunkIdForChunk == null) {
-							throw new RuntimeException("Cannot find multichunk for chunk "+chunkChecksum);	
-						}
-					}
-					
-					if (!multiChunksToDownload.contains(multiChunkIdForChunk)) {
-						logger.log(Level.INFO, "  + Adding multichunk " + multiChunkIdForChunk + " to download list ...");
-						multiChunksToDownload.add(multiChunkIdForChunk);
-					}
+				if (multiChunkIdForChunk == null) {
+					throw new RuntimeException("Cannot find multichunk for chunk "+chunkChecksum);	
 				}
 			}
+			
+			if (!multiChunksToDownload.contains(multiChunkIdForChunk)) {
+				logger.log(Level.INFO, "  + Adding multichunk " + multiChunkIdForChunk + " to download list ...");
+				multiChunksToDownload.add(multiChunkIdForChunk);
+			}
 		}
 		
 		return multiChunksToDownload;
@@ -347,19 +359,31 @@ public class DownOperation extends Operation {
 
 		logger.log(Level.FINER, "- Applying file system actions (sorted!) ...");
 
-		// Apply
-		for (FileSystemAction action : actions) {
-			if (logger.isLoggable(Level.FINER)) {
-				logger.log(Level.FINER, "   +  {0}", action);
-			}
-
-			try {
-				action.execute();
-			}
-			catch (InconsistentFileSystemException e) {
-				logger.log(Level.FINER, "     --> Inconsistent file system exception thrown. Ignoring for this file.", e);
+		// Apply (sharing open multichunks and the local database across actions)
+		MultiChunkCache multiChunkCache = new MultiChunkCache(config);
+		
+		try {
+			for (FileSystemAction action : actions) {
+				if (logger.isLoggable(Level.FINER)) {
+					logger.log(Level.FINER, "   +  {0}", action);
+				}
+				
+				if (action instanceof FileCreatingFileSystemAction) {
+					((FileCreatingFileSystemAction) action).setMultiChunkCache(multiChunkCache);
+					((FileCreatingFileSystemAction) action).setLocalDatabase(localDatabase);
+				}
+	
+				try {
+					action.execute();
+				}
+				catch (InconsistentFileSystemException e) {
+					logger.log(Level.FINER, "     --> Inconsistent file system exception thrown. Ignoring for this file.", e);
+				}
 			}
 		}
+		finally {
+			multiChunkCache.close();
+		}
 	}
 
 	private void downloadAndDecryptMultiChunks(Set<MultiChunkId> unknownMultiChunkIds) throws StorageException, IOException {
@@ -381,7 +405,7 @@ public class DownOperation extends Operation {
 			OutputStream decryptedMultiChunkOutputStream = new FileOutputStream(localDecryptedMultiChunkFile);
 
 			// TODO [medium] Calculate checksum while writing file, to verify correct content
-			FileUtil.appendToOutputStream(multiChunkInputStream, decryptedMultiChunkOutputStream);
+			FileUtil.appendToOutputStream(multiChunkInputStream, decryptedMultiChunkOutputStream, MultiCipherInputStream.DECRYPTION_BUFFER_SIZE);
 
 			decryptedMultiChunkOutputStream.close();
 			multiChunkInputStream.close();
@@ -19,9 +19,13 @@ package org.syncany.operations;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -133,18 +137,17 @@ public class FileSystemActionReconciliator {
 	public FileSystemActionReconciliator(Config config, DownOperationResult result) {
 		this.config = config; 
 		this.changeSet = result.getChangeSet();
-		this.localDatabase = new SqlDatabase(config);
+		this.localDatabase = config.getSqlDatabase();
 	}
 	
 	public List<FileSystemAction> determineFileSystemActions(MemoryDatabase winnersDatabase) throws Exception {
-		FileVersionComparator fileVersionHelper = new FileVersionComparator(config.getLocalDir(), config.getChunker().getChecksumAlgorithm());
+		FileVersionComparator fileVersionHelper = new FileVersionComparator(config.getLocalDir(), config.getChunker());
 		List<FileSystemAction> fileSystemActions = new ArrayList<FileSystemAction>();
 		
 		// Load file history cache
 		logger.log(Level.INFO, "- Loading current file tree...");
 		
-		List<PartialFileHistory> fileHistoriesWithLastVersion = localDatabase.getFileHistoriesWithLastVersion();		
-		Map<FileHistoryId, FileVersion> fileHistoryIdCache = fillFileHistoryIdCache(fileHistoriesWithLastVersion);
+		Map<FileHistoryId, FileVersion> fileHistoryIdCache = fillFileHistoryIdCache(winnersDatabase.getFileHistories());
 				
 		logger.log(Level.INFO, "- Determine filesystem actions ...");
 		
@@ -298,11 +301,27 @@ public class FileSystemActionReconciliator {
 		return fileSystemActions;
 	}
 
-	private Map<FileHistoryId, FileVersion> fillFileHistoryIdCache(List<PartialFileHistory> fileHistoriesWithLastVersion) {
+	/**
+	 * Creates a map of file history IDs to the last local file version, but only for the 
+	 * given winning file histories. The local file histories are read one by one from 
+	 * the database, so that only the relevant file versions are kept in memory.
+	 */
+	private Map<FileHistoryId, FileVersion> fillFileHistoryIdCache(Collection<PartialFileHistory> winningFileHistories) {
 		Map<FileHistoryId, FileVersion> fileHistoryIdCache = new HashMap<FileHistoryId, FileVersion>();
+		Set<FileHistoryId> winningFileHistoryIds = new HashSet<FileHistoryId>();
 		
-		for (PartialFileHistory fileHistory : fileHistoriesWithLastVersion) {
-			fileHistoryIdCache.put(fileHistory.getFileId(), fileHistory.getLastVersion());
+		for (PartialFileHistory winningFileHistory : winningFileHistories) {
+			winningFileHistoryIds.add(winningFileHistory.getFileId());
+		}
+		
+		Iterator<PartialFileHistory> localFileHistories = localDatabase.getFileHistoriesWithLastVersionIterator();
+		
+		while (localFileHistories.hasNext()) {
+			PartialFileHistory fileHistory = localFileHistories.next();
+			
+			if (winningFileHistoryIds.contains(fileHistory.getFileId())) {
+				fileHistoryIdCache.put(fileHistory.getFileId(), fileHistory.getLastVersion());
+			}
 		}
 		
 		return fileHistoryIdCache;
@@ -81,7 +81,7 @@ public class Indexer {
 	public Indexer(Config config, Deduper deduper) {
 		this.config = config;
 		this.deduper = deduper;
-		this.localDatabase = new SqlDatabase(config);
+		this.localDatabase = config.getSqlDatabase();
 	}
 	
 	/**
@@ -220,7 +220,7 @@ public class Indexer {
 		private FileProperties endFileProperties;		
 
 		public IndexerDeduperListener(DatabaseVersion newDatabaseVersion, Map<FileChecksum, List<PartialFileHistory>> fileChecksumCache, Map<String, PartialFileHistory> filePathCache) {
-			this.fileVersionComparator = new FileVersionComparator(config.getLocalDir(), config.getChunker().getChecksumAlgorithm());
+			this.fileVersionComparator = new FileVersionComparator(config.getLocalDir(), config.getChunker());
 			this.secureRandom = new SecureRandom();
 			this.newDatabaseVersion = newDatabaseVersion;
 			
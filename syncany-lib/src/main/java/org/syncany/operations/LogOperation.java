@@ -18,6 +18,7 @@
 package org.syncany.operations;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,7 +36,7 @@ public class LogOperation extends Operation {
 		super(config);		
 		
 		this.options = options;
-		this.localDatabase = new SqlDatabase(config);
+		this.localDatabase = config.getSqlDatabase();
 	}	
 		
 	@Override
@@ -47,7 +48,12 @@ public class LogOperation extends Operation {
 		List<PartialFileHistory> fileHistories = null;
 		
 		if (options.getPaths().isEmpty()) {
-			fileHistories = new ArrayList<PartialFileHistory>(localDatabase.getFileHistoriesWithFileVersions());			
+			fileHistories = new ArrayList<PartialFileHistory>();
+			Iterator<PartialFileHistory> fileHistoryIterator = localDatabase.getFileHistoriesWithFileVersionsIterator();
+			
+			while (fileHistoryIterator.hasNext()) {
+				fileHistories.add(fileHistoryIterator.next());
+			}
 		}
 		else {
 			throw new Exception("Not supported yet.");
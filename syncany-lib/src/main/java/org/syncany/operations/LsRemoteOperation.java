@@ -54,7 +54,7 @@ public class LsRemoteOperation extends Operation {
 		super(config);		
 		
 		this.loadedTransferManager = transferManager;
-		this.localDatabase = new SqlDatabase(config);
+		this.localDatabase = config.getSqlDatabase();
 	}	
 	
 	@Override
@@ -36,12 +36,13 @@ import org.syncany.config.Config;
 import org.syncany.connection.plugins.MultiChunkRemoteFile;
 import org.syncany.connection.plugins.StorageException;
 import org.syncany.connection.plugins.TransferManager;
+import org.syncany.crypto.MultiCipherInputStream;
 import org.syncany.database.FileContent.FileChecksum;
 import org.syncany.database.FileVersion;
 import org.syncany.database.MemoryDatabase;
 import org.syncany.database.MultiChunkEntry.MultiChunkId;
 import org.syncany.database.SqlDatabase;
-import org.syncany.operations.actions.FileSystemAction;
+import org.syncany.operations.actions.MultiChunkCache;
 import org.syncany.operations.actions.NewFileSystemAction;
 import org.syncany.util.FileUtil;
 
@@ -63,7 +64,7 @@ public class RestoreOperation extends Operation {
 		super(config);
 		
 		this.options = options;
-		this.localDatabase = new SqlDatabase(config);
+		this.localDatabase = config.getSqlDatabase();
 	}
 
 	@Override
@@ -93,13 +94,23 @@ public class RestoreOperation extends Operation {
 
 		downloadAndDecryptMultiChunks(multiChunksToDownload);
 
-		for (FileVersion restoreFileVersion : restoreFileVersions) {
-			logger.log(Level.INFO, "- Restore to: " + restoreFileVersion);
-
-			FileSystemAction newFileSystemAction = new NewFileSystemAction(config, restoreFileVersion, new MemoryDatabase());
-			logger.log(Level.INFO, "  --> " + newFileSystemAction);
-
-			newFileSystemAction.execute();
+		MultiChunkCache multiChunkCache = new MultiChunkCache(config);
+		
+		try {
+			for (FileVersion restoreFileVersion : restoreFileVersions) {
+				logger.log(Level.INFO, "- Restore to: " + restoreFileVersion);
+	
+				NewFileSystemAction newFileSystemAction = new NewFileSystemAction(config, restoreFileVersion, new MemoryDatabase());
+				newFileSystemAction.setMultiChunkCache(multiChunkCache);
+				newFileSystemAction.setLocalDatabase(localDatabase);
+				
+				logger.log(Level.INFO, "  --> " + newFileSystemAction);
+	
+				newFileSystemAction.execute();
+			}
+		}
+		finally {
+			multiChunkCache.close();
 		}
 
 		return new RestoreOperationResult();
@@ -142,7 +153,7 @@ public class RestoreOperation extends Operation {
 			OutputStream decryptedMultiChunkOutputStream = new FileOutputStream(localDecryptedMultiChunkFile);
 
 			// TODO [medium] Calculate checksum while writing file, to verify correct content
-			FileUtil.appendToOutputStream(multiChunkInputStream, decryptedMultiChunkOutputStream);
+			FileUtil.appendToOutputStream(multiChunkInputStream, decryptedMultiChunkOutputStream, MultiCipherInputStream.DECRYPTION_BUFFER_SIZE);
 
 			decryptedMultiChunkOutputStream.close();
 			multiChunkInputStream.close();
@@ -26,7 +26,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -59,8 +61,8 @@ public class StatusOperation extends Operation {
 	public StatusOperation(Config config, StatusOperationOptions options) {
 		super(config);		
 		
-		this.fileVersionComparator = new FileVersionComparator(config.getLocalDir(), config.getChunker().getChecksumAlgorithm());
-		this.localDatabase = new SqlDatabase(config);
+		this.fileVersionComparator = new FileVersionComparator(config.getLocalDir(), config.getChunker());
+		this.localDatabase = config.getSqlDatabase();
 		this.options = options;		
 	}	
 	
@@ -74,15 +76,15 @@ public class StatusOperation extends Operation {
 			logger.log(Level.INFO, "Force checksum ENABLED.");
 		}
 		
-		// Get local database
-		logger.log(Level.INFO, "Querying current file tree from database ...");				
-
-		// Path to actual file version
-		final Map<String, FileVersion> filesInDatabase = localDatabase.getCurrentFileTree();
+		// Compare database with local folder (streamed, the file tree is not loaded into memory)
+		logger.log(Level.INFO, "Comparing current file tree from database with local folder "+config.getLocalDir()+" ...");				
+		ChangeSet localChanges = new ChangeSet();
+		
+		Set<String> filesInDatabase = findLocalChangedAndDeletedFiles(localChanges);
 
-		// Find local changes
+		// Find new files
 		logger.log(Level.INFO, "Analyzing local folder "+config.getLocalDir()+" ...");								
-		ChangeSet localChanges = findLocalChanges(filesInDatabase);
+		findAndAppendNewFiles(localChanges, config.getLocalDir(), filesInDatabase);
 		
 		if (!localChanges.hasChanges()) {
 			logger.log(Level.INFO, "- No changes to local database");
@@ -95,52 +97,74 @@ public class StatusOperation extends Operation {
 		return statusResult;
 	}
 
-	private ChangeSet findLocalChanges(final Map<String, FileVersion> filesInDatabase) throws FileNotFoundException, IOException {
-		ChangeSet localChanges = findLocalChangedAndNewFiles(config.getLocalDir(), filesInDatabase);
-		findAndAppendDeletedFiles(localChanges, filesInDatabase);
-		
-		return localChanges;
-	}		
-	
-	private ChangeSet findLocalChangedAndNewFiles(final File root, Map<String, FileVersion> filesInDatabase) throws FileNotFoundException, IOException {
-		Path rootPath = Paths.get(root.getAbsolutePath());
+	/**
+	 * Compares each file version of the current file tree with the corresponding local file,
+	 * and adds changed, unchanged and deleted files to the given change set. 
+	 * 
+	 * <p>The file versions are read one by one from the database, and only their paths are
+	 * kept to later identify new files (see {@link #findAndAppendNewFiles(ChangeSet, File, Set) findAndAppendNewFiles()}). 
+	 */
+	private Set<String> findLocalChangedAndDeletedFiles(ChangeSet localChanges) {
+		Set<String> filesInDatabase = new HashSet<String>();
+		Iterator<FileVersion> currentFileTree = localDatabase.getCurrentFileTreeIterator();
 		
-		StatusFileVisitor fileVisitor = new StatusFileVisitor(rootPath, filesInDatabase);		
-		Files.walkFileTree(rootPath, fileVisitor);
-		
-		return fileVisitor.getChangeSet();		
-	}
-	
-	private void findAndAppendDeletedFiles(ChangeSet localChanges, Map<String,FileVersion> filesInDatabase) {
-		for (FileVersion lastLocalVersion : filesInDatabase.values()) {
-			// Check if file exists, remove if it doesn't
-			File lastLocalVersionOnDisk = new File(config.getLocalDir()+File.separator+lastLocalVersion.getPath());
+		while (currentFileTree.hasNext()) {
+			FileVersion lastLocalVersion = currentFileTree.next();
 			
 			// Ignore this file history if the last version is marked "DELETED"
 			if (lastLocalVersion.getStatus() == FileStatus.DELETED) {
 				continue;
 			}
+
+			filesInDatabase.add(lastLocalVersion.getPath());
 			
 			// If file has VANISHED, mark as DELETED 
+			File lastLocalVersionOnDisk = new File(config.getLocalDir()+File.separator+lastLocalVersion.getPath());
+			
 			if (!FileUtil.exists(lastLocalVersionOnDisk)) {
 				localChanges.getDeletedFiles().add(lastLocalVersion.getPath());
+				continue;
+			}
+			
+			// Check if file is locked
+			boolean fileLocked = FileUtil.isFileLocked(lastLocalVersionOnDisk);
+			
+			if (fileLocked) {
+				logger.log(Level.FINEST, "- Ignoring file (locked): {0}", lastLocalVersion.getPath());						
+				continue;
 			}
-		}		
+
+			// Compare
+			boolean forceChecksum = options != null && options.isForceChecksum();
+			FileVersionComparison fileVersionComparison = fileVersionComparator.compare(lastLocalVersion, lastLocalVersionOnDisk, forceChecksum); 
+			
+			if (fileVersionComparison.equals()) {
+				localChanges.getUnchangedFiles().add(lastLocalVersion.getPath());
+			}
+			else {
+				localChanges.getChangedFiles().add(lastLocalVersion.getPath());
+			}					
+		}
+		
+		return filesInDatabase;
+	}
+	
+	private void findAndAppendNewFiles(ChangeSet localChanges, File root, Set<String> filesInDatabase) throws FileNotFoundException, IOException {
+		Path rootPath = Paths.get(root.getAbsolutePath());
+		
+		StatusFileVisitor fileVisitor = new StatusFileVisitor(rootPath, localChanges, filesInDatabase);		
+		Files.walkFileTree(rootPath, fileVisitor);
 	}
 	
 	private class StatusFileVisitor implements FileVisitor<Path> {
 		private Path root;
 		private ChangeSet changeSet;		
-		private Map<String, FileVersion> currentFileTree;
+		private Set<String> filesInDatabase;
 		
-		public StatusFileVisitor(Path root, Map<String, FileVersion> currentFileTree) {
+		public StatusFileVisitor(Path root, ChangeSet changeSet, Set<String> filesInDatabase) {
 			this.root = root;
-			this.changeSet = new ChangeSet();
-			this.currentFileTree = currentFileTree;
-		}
-
-		public ChangeSet getChangeSet() {
-			return changeSet;
+			this.changeSet = changeSet;
+			this.filesInDatabase = filesInDatabase;
 		}
 		 
 		@Override
@@ -172,22 +196,8 @@ public class StatusOperation extends Operation {
 				return FileVisitResult.CONTINUE;
 			}				
 			
-			// Check database by file path
-			FileVersion expectedLastFileVersion = currentFileTree.get(relativeFilePath);
-			
-			if (expectedLastFileVersion != null) {				
-				// Compare
-				boolean forceChecksum = options != null && options.isForceChecksum();
-				FileVersionComparison fileVersionComparison = fileVersionComparator.compare(expectedLastFileVersion, actualLocalFile.toFile(), forceChecksum); 
-				
-				if (fileVersionComparison.equals()) {
-					changeSet.getUnchangedFiles().add(relativeFilePath);
-				}
-				else {
-					changeSet.getChangedFiles().add(relativeFilePath);
-				}					
-			}
-			else {
+			// New file, if not in database (known files are compared in findLocalChangedAndDeletedFiles)
+			if (!filesInDatabase.contains(relativeFilePath)) {
 				changeSet.getNewFiles().add(relativeFilePath);
 				logger.log(Level.FINEST, "- New file: "+relativeFilePath);
 			}			
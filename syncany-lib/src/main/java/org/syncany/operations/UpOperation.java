@@ -89,7 +89,7 @@ public class UpOperation extends Operation {
 
 		this.options = options;
 		this.transferManager = config.getConnection().createTransferManager();
-		this.localDatabase = new SqlDatabase(config);
+		this.localDatabase = config.getSqlDatabase();
 	}
 
 	@Override
@@ -318,7 +318,7 @@ public class UpOperation extends Operation {
 		VectorClock newVectorClock = findNewVectorClock(lastVectorClock);
 
 		// Index
-		Deduper deduper = new Deduper(config.getChunker(), config.getMultiChunker(), config.getTransformer());
+		Deduper deduper = new Deduper(config.getChunker(), config.getMultiChunker(), config.getTransformer(), config.getIndexerThreads());
 		Indexer indexer = new Indexer(config, deduper);
 
 		DatabaseVersion newDatabaseVersion = indexer.index(localFiles);
@@ -22,12 +22,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.Map;
 import java.util.logging.Level;
 
 import org.apache.commons.io.FileExistsException;
 import org.apache.commons.io.FileUtils;
 import org.syncany.chunk.MultiChunk;
-import org.syncany.chunk.MultiChunker;
 import org.syncany.config.Config;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
 import org.syncany.database.FileContent;
@@ -39,8 +39,31 @@ import org.syncany.database.SqlDatabase;
 import org.syncany.util.FileUtil;
 
 public abstract class FileCreatingFileSystemAction extends FileSystemAction {
+	private MultiChunkCache multiChunkCache;
+	private SqlDatabase localDatabase;
+	
 	public FileCreatingFileSystemAction(Config config, MemoryDatabase winningDatabase, FileVersion file1, FileVersion file2) {
 		super(config, winningDatabase, file1, file2);		
+		this.multiChunkCache = null;
+		this.localDatabase = null;
+	}
+	
+	/**
+	 * Sets the local database used to look up file contents and multichunks. The database 
+	 * should be shared by all actions of an operation. If no database is set, the action 
+	 * creates its own instance when reconstructing a file.
+	 */
+	public void setLocalDatabase(SqlDatabase localDatabase) {
+		this.localDatabase = localDatabase;
+	}
+	
+	/**
+	 * Sets the cache of open multichunks used to reconstruct files. The cache should be 
+	 * shared by all actions of an operation, and is not closed by the action. If no cache
+	 * is set, the action uses its own cache, and closes it after reconstructing a file.
+	 */
+	public void setMultiChunkCache(MultiChunkCache multiChunkCache) {
+		this.multiChunkCache = multiChunkCache;
 	}
 
 	protected void createFileFolderOrSymlink(FileVersion reconstructedFileVersion) throws Exception {
@@ -86,7 +109,7 @@ public abstract class FileCreatingFileSystemAction extends FileSystemAction {
 	}
 	
 	private File assembleFileToCache(FileVersion reconstructedFileVersion) throws Exception {
-		SqlDatabase localDatabase = new SqlDatabase(config);
+		SqlDatabase localDatabase = (this.localDatabase != null) ? this.localDatabase : config.getSqlDatabase();
 
 		File reconstructedFileInCache = config.getCache().createTempFile("reconstructedFileVersion");
 		logger.log(Level.INFO, "     - Creating file " + reconstructedFileVersion.getPath() + " to " + reconstructedFileInCache + " ...");
@@ -104,29 +127,35 @@ public abstract class FileCreatingFileSystemAction extends FileSystemAction {
 
 		// Create file
 		// TODO [low] Create an assembler/reconstructor class to package re-assembly in the chunk-package
-		MultiChunker multiChunker = config.getMultiChunker();
+		MultiChunkCache fileMultiChunkCache = (multiChunkCache != null) ? multiChunkCache : new MultiChunkCache(config);
 		FileOutputStream reconstructedFileOutputStream = new FileOutputStream(reconstructedFileInCache);
 
-		if (fileContent != null) { // File can be empty!
-			Collection<ChunkChecksum> fileChunks = fileContent.getChunks();
-
-			for (ChunkChecksum chunkChecksum : fileChunks) {
-				MultiChunkId multiChunkIdForChunk = localDatabase.getMultiChunkId(chunkChecksum);
-
-				if (multiChunkIdForChunk == null) {
-					multiChunkIdForChunk = winningDatabase.getMultiChunkIdForChunk(chunkChecksum);
+		try {
+			if (fileContent != null) { // File can be empty!
+				Collection<ChunkChecksum> fileChunks = fileContent.getChunks();
+				Map<ChunkChecksum, MultiChunkId> multiChunkIdsForChunks = localDatabase.getMultiChunkIdsForChunks(fileChunks);
+	
+				for (ChunkChecksum chunkChecksum : fileChunks) {
+					MultiChunkId multiChunkIdForChunk = multiChunkIdsForChunks.get(chunkChecksum);
+	
+					if (multiChunkIdForChunk == null) {
+						multiChunkIdForChunk = winningDatabase.getMultiChunkIdForChunk(chunkChecksum);
+					}
+	
+					MultiChunk multiChunk = fileMultiChunkCache.getMultiChunk(multiChunkIdForChunk);
+					InputStream chunkInputStream = multiChunk.getChunkInputStream(chunkChecksum.getRaw());
+	
+					FileUtil.appendToOutputStream(chunkInputStream, reconstructedFileOutputStream);
 				}
-
-				File decryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkIdForChunk.getRaw());
-
-				MultiChunk multiChunk = multiChunker.createMultiChunk(decryptedMultiChunkFile);
-				InputStream chunkInputStream = multiChunk.getChunkInputStream(chunkChecksum.getRaw());
-
-				FileUtil.appendToOutputStream(chunkInputStream, reconstructedFileOutputStream);
 			}
 		}
-
-		reconstructedFileOutputStream.close();
+		finally {
+			reconstructedFileOutputStream.close();
+			
+			if (fileMultiChunkCache != multiChunkCache) {
+				fileMultiChunkCache.close();
+			}
+		}
 		
 		// Set attributes & timestamp
 		setFileAttributes(reconstructedFileVersion, reconstructedFileInCache);
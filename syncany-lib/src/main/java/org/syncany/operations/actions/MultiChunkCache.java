@@ -0,0 +1,116 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.operations.actions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.chunk.MultiChunk;
+import org.syncany.config.Config;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+
+/**
+ * The multichunk cache keeps a bounded number of decrypted multichunks open for
+ * reading while files are reconstructed by {@link FileCreatingFileSystemAction}s. Opening a
+ * multichunk (e.g. a zip file) for every single chunk is expensive, in particular for
+ * large files, which typically consist of many chunks from the same few multichunks.
+ * 
+ * <p>The cache evicts the least recently used multichunk if more than the maximum
+ * number of multichunks are open, and closes it. A cache is typically shared by all 
+ * actions of an operation, and must be closed with {@link #close()} when the operation 
+ * ends. The cache is not thread-safe.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class MultiChunkCache {
+	private static final Logger logger = Logger.getLogger(MultiChunkCache.class.getSimpleName()); 
+	
+	public static final int DEFAULT_MAX_OPEN_MULTICHUNKS = 16;
+	
+	private Config config;
+	private int maxOpenMultiChunks;
+	private Map<MultiChunkId, MultiChunk> openMultiChunks;
+	
+	public MultiChunkCache(Config config) {
+		this(config, DEFAULT_MAX_OPEN_MULTICHUNKS);
+	}
+	
+	public MultiChunkCache(Config config, int maxOpenMultiChunks) {
+		this.config = config;
+		this.maxOpenMultiChunks = maxOpenMultiChunks;
+		this.openMultiChunks = new LinkedHashMap<MultiChunkId, MultiChunk>(maxOpenMultiChunks*2, 0.75f, true);
+	}
+	
+	/**
+	 * Returns the decrypted multichunk with the given identifier in read mode, and
+	 * opens it if it is not open yet. The returned multichunk must not be closed by
+	 * the caller.
+	 */
+	@SuppressWarnings("deprecation")
+	public MultiChunk getMultiChunk(MultiChunkId multiChunkId) throws IOException {
+		MultiChunk multiChunk = openMultiChunks.get(multiChunkId);
+		
+		if (multiChunk == null) {
+			File decryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkId.getRaw());
+			multiChunk = config.getMultiChunker().createMultiChunk(decryptedMultiChunkFile);
+			
+			openMultiChunks.put(multiChunkId, multiChunk);			
+			closeEldestMultiChunks();
+		}
+		
+		return multiChunk;
+	}
+	
+	public int getOpenMultiChunkCount() {
+		return openMultiChunks.size();
+	}
+	
+	/**
+	 * Closes all open multichunks. The cache can still be used afterwards.
+	 */
+	public void close() {
+		List<MultiChunk> multiChunksToClose = new ArrayList<MultiChunk>(openMultiChunks.values());
+		openMultiChunks.clear();
+		
+		for (MultiChunk multiChunk : multiChunksToClose) {
+			closeMultiChunk(multiChunk);
+		}
+	}
+	
+	private void closeEldestMultiChunks() {
+		while (openMultiChunks.size() > maxOpenMultiChunks) {
+			MultiChunkId eldestMultiChunkId = openMultiChunks.keySet().iterator().next();			
+			closeMultiChunk(openMultiChunks.remove(eldestMultiChunkId));
+		}
+	}
+	
+	private void closeMultiChunk(MultiChunk multiChunk) {
+		try {
+			multiChunk.close();
+		}
+		catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to close multichunk.", e);
+		}
+	}
+}
@@ -0,0 +1 @@
+select * from chunk where checksum=?
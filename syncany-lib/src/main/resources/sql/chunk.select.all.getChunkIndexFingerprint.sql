@@ -0,0 +1,5 @@
+-- To be called with setMaxRows(1) !
+
+select dbv.id, dbv.localtime, dbv.vectorclock_serialized
+from databaseversion dbv
+order by dbv.id desc
@@ -1,7 +1,11 @@
 -- Tables
+--
+-- Checksums and IDs are stored as raw bytes (varbinary), and the DAOs bind and
+-- read them as byte arrays. Databases created with the older varchar(128)/varchar(40)
+-- columns are converted by upgrade.binary_checksums.sql (see DatabaseConnectionFactory).
 
 CREATE CACHED TABLE chunk (
-  checksum varchar(40) NOT NULL,
+  checksum varbinary(64) NOT NULL,
   size bigint NOT NULL,
   PRIMARY KEY (checksum)
 );
@@ -24,14 +28,14 @@ CREATE CACHED TABLE databaseversion_vectorclock (
 );
 
 CREATE CACHED TABLE filecontent (
-  checksum varchar(40) NOT NULL,
+  checksum varbinary(64) NOT NULL,
   size bigint NOT NULL,
   PRIMARY KEY (checksum)
 );
 
 CREATE CACHED TABLE filecontent_chunk (
-  filecontent_checksum varchar(40) NOT NULL,
-  chunk_checksum varchar(40) NOT NULL,
+  filecontent_checksum varbinary(64) NOT NULL,
+  chunk_checksum varbinary(64) NOT NULL,
   num int NOT NULL,
   PRIMARY KEY (filecontent_checksum, chunk_checksum, num),
   FOREIGN KEY (filecontent_checksum) REFERENCES filecontent (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION,
@@ -39,14 +43,14 @@ CREATE CACHED TABLE filecontent_chunk (
 );
 
 CREATE CACHED TABLE filehistory (
-  id varchar(40) NOT NULL,
+  id varbinary(20) NOT NULL,
   databaseversion_id int NOT NULL,
   PRIMARY KEY (id, databaseversion_id),
   FOREIGN KEY (databaseversion_id) REFERENCES databaseversion (id) ON DELETE NO ACTION ON UPDATE NO ACTION
 );
 
 CREATE CACHED TABLE fileversion (
-  filehistory_id varchar(40) NOT NULL,
+  filehistory_id varbinary(20) NOT NULL,
   version int NOT NULL,
   databaseversion_id int NOT NULL,
   path varchar(1024) NOT NULL,
@@ -55,7 +59,7 @@ CREATE CACHED TABLE fileversion (
   size bigint NOT NULL,
   lastmodified datetime NOT NULL,
   linktarget varchar(1024),
-  filecontent_checksum varchar(40) DEFAULT NULL,
+  filecontent_checksum varbinary(64) DEFAULT NULL,
   updated datetime NOT NULL,
   posixperms varchar(45) DEFAULT NULL,
   dosattrs varchar(45) DEFAULT NULL,
@@ -64,14 +68,34 @@ CREATE CACHED TABLE fileversion (
   FOREIGN KEY (filecontent_checksum) REFERENCES filecontent (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION
 );
 
+-- Materialized last MASTER version of each file history; maintained by
+-- FileVersionSqlDao (see fileversion.*.current.*.sql), never written directly
+
+CREATE CACHED TABLE fileversion_current (
+  filehistory_id varbinary(20) NOT NULL,
+  version int NOT NULL,
+  databaseversion_id int NOT NULL,
+  path varchar(1024) NOT NULL,
+  type varchar(45) NOT NULL,
+  status varchar(45) NOT NULL,
+  size bigint NOT NULL,
+  lastmodified datetime NOT NULL,
+  linktarget varchar(1024),
+  filecontent_checksum varbinary(64) DEFAULT NULL,
+  updated datetime NOT NULL,
+  posixperms varchar(45) DEFAULT NULL,
+  dosattrs varchar(45) DEFAULT NULL,
+  PRIMARY KEY (filehistory_id, version, databaseversion_id)
+);
+
 CREATE CACHED TABLE multichunk (
-  id varchar(40) NOT NULL,
+  id varbinary(64) NOT NULL,
   PRIMARY KEY (id)
 );
 
 CREATE CACHED TABLE multichunk_chunk (
-  multichunk_id varchar(40) NOT NULL,
-  chunk_checksum varchar(40) NOT NULL,
+  multichunk_id varbinary(64) NOT NULL,
+  chunk_checksum varbinary(64) NOT NULL,
   PRIMARY KEY (multichunk_id, chunk_checksum),
   FOREIGN KEY (multichunk_id) REFERENCES multichunk (id) ON DELETE NO ACTION ON UPDATE NO ACTION,
   FOREIGN KEY (chunk_checksum) REFERENCES chunk (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION
@@ -91,6 +115,9 @@ CREATE INDEX idx_databaseversion_vectorclock_serialized ON databaseversion (vect
 CREATE INDEX idx_fileversion_path ON fileversion (path);
 CREATE INDEX idx_fileversion_status ON fileversion (status);
 CREATE INDEX idx_fileversion_filecontent_checksum ON fileversion (filecontent_checksum);
+CREATE INDEX idx_fileversion_databaseversion_id ON fileversion (databaseversion_id);
+CREATE INDEX idx_fileversion_current_path ON fileversion_current (path);
+CREATE INDEX idx_fileversion_current_filecontent_checksum ON fileversion_current (filecontent_checksum);
 
 
 -- Views
@@ -114,12 +141,9 @@ CREATE VIEW fileversion_master_maxversion AS
   GROUP BY filehistory_id;     
   
 CREATE VIEW fileversion_master_last AS
-  SELECT fv.* 
-  FROM fileversion_master_maxversion fvmax
-  JOIN fileversion_master fv 
-    ON fvmax.filehistory_id=fv.filehistory_id 
-       AND fvmax.version=fv.version 
-  WHERE fv.status<>'DELETED';    
+  SELECT fvc.* 
+  FROM fileversion_current fvc
+  WHERE fvc.status<>'DELETED';    
   
   
 -- Full Views   
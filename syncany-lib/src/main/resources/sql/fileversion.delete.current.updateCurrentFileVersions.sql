@@ -0,0 +1,9 @@
+-- Remove the current file versions of all file histories touched
+-- by the given database version (re-inserted afterwards)
+
+delete from fileversion_current
+where filehistory_id in (
+	select filehistory_id
+	from fileversion
+	where databaseversion_id=?
+)
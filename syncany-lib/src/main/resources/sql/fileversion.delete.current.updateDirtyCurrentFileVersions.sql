@@ -0,0 +1,10 @@
+-- Remove the current file versions of all file histories touched
+-- by DIRTY database versions (re-inserted afterwards)
+
+delete from fileversion_current
+where filehistory_id in (
+	select distinct fv.filehistory_id
+	from databaseversion dbv
+	join fileversion fv on dbv.id=fv.databaseversion_id
+	where dbv.status='DIRTY'
+)
@@ -0,0 +1,19 @@
+-- Insert the last MASTER file version of all file histories touched
+-- by the given database version
+
+insert into fileversion_current
+select fv.*
+from fileversion fv
+join databaseversion dbv on fv.databaseversion_id=dbv.id
+where dbv.status='MASTER'
+	and fv.filehistory_id in (
+		select filehistory_id
+		from fileversion
+		where databaseversion_id=?
+	)
+	and fv.version=(
+		select max(fv2.version)
+		from fileversion fv2
+		join databaseversion dbv2 on fv2.databaseversion_id=dbv2.id
+		where dbv2.status='MASTER' and fv2.filehistory_id=fv.filehistory_id
+	)
@@ -0,0 +1,10 @@
+-- Rebuild the "fileversion_current" table from scratch, i.e. select the
+-- last MASTER version of every file history. This is only necessary after 
+-- upgrading a database, or after inserting data without using the DAOs.
+
+delete from fileversion_current;
+
+insert into fileversion_current
+select fv.*
+from fileversion_master fv
+join fileversion_master_maxversion fvmax on fv.filehistory_id=fvmax.filehistory_id and fv.version=fvmax.version;
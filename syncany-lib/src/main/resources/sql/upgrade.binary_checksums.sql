@@ -0,0 +1,219 @@
+-- Upgrade databases created with varchar checksums and IDs to the varbinary columns
+-- of create.all.sql. HSQLDB cannot change the type of a column that is referenced by
+-- a foreign key, so the affected tables are renamed, re-created and copied. The hex 
+-- strings are converted to binary when they are copied. Views and indices are dropped
+-- and re-created on the new tables.
+
+-- Drop views and indices
+
+DROP VIEW chunk_full;
+DROP VIEW multichunk_full;
+DROP VIEW filecontent_full;
+DROP VIEW fileversion_full;
+DROP VIEW filehistory_full;
+DROP VIEW fileversion_master_last;
+DROP VIEW fileversion_master_maxversion;
+DROP VIEW fileversion_master;
+
+DROP INDEX idx_fileversion_path IF EXISTS;
+DROP INDEX idx_fileversion_status IF EXISTS;
+DROP INDEX idx_fileversion_filecontent_checksum IF EXISTS;
+DROP INDEX idx_fileversion_databaseversion_id IF EXISTS;
+DROP INDEX idx_fileversion_current_path IF EXISTS;
+DROP INDEX idx_fileversion_current_filecontent_checksum IF EXISTS;
+
+
+-- Rename old tables
+
+ALTER TABLE chunk RENAME TO chunk_varchar;
+ALTER TABLE filecontent RENAME TO filecontent_varchar;
+ALTER TABLE filecontent_chunk RENAME TO filecontent_chunk_varchar;
+ALTER TABLE filehistory RENAME TO filehistory_varchar;
+ALTER TABLE fileversion RENAME TO fileversion_varchar;
+ALTER TABLE fileversion_current RENAME TO fileversion_current_varchar;
+ALTER TABLE multichunk RENAME TO multichunk_varchar;
+ALTER TABLE multichunk_chunk RENAME TO multichunk_chunk_varchar;
+
+
+-- Create and fill new tables
+
+CREATE CACHED TABLE chunk (
+  checksum varbinary(64) NOT NULL,
+  size bigint NOT NULL,
+  PRIMARY KEY (checksum)
+);
+
+CREATE CACHED TABLE filecontent (
+  checksum varbinary(64) NOT NULL,
+  size bigint NOT NULL,
+  PRIMARY KEY (checksum)
+);
+
+CREATE CACHED TABLE filecontent_chunk (
+  filecontent_checksum varbinary(64) NOT NULL,
+  chunk_checksum varbinary(64) NOT NULL,
+  num int NOT NULL,
+  PRIMARY KEY (filecontent_checksum, chunk_checksum, num),
+  FOREIGN KEY (filecontent_checksum) REFERENCES filecontent (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION,
+  FOREIGN KEY (chunk_checksum) REFERENCES chunk (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION
+);
+
+CREATE CACHED TABLE filehistory (
+  id varbinary(20) NOT NULL,
+  databaseversion_id int NOT NULL,
+  PRIMARY KEY (id, databaseversion_id),
+  FOREIGN KEY (databaseversion_id) REFERENCES databaseversion (id) ON DELETE NO ACTION ON UPDATE NO ACTION
+);
+
+CREATE CACHED TABLE fileversion (
+  filehistory_id varbinary(20) NOT NULL,
+  version int NOT NULL,
+  databaseversion_id int NOT NULL,
+  path varchar(1024) NOT NULL,
+  type varchar(45) NOT NULL,
+  status varchar(45) NOT NULL,
+  size bigint NOT NULL,
+  lastmodified datetime NOT NULL,
+  linktarget varchar(1024),
+  filecontent_checksum varbinary(64) DEFAULT NULL,
+  updated datetime NOT NULL,
+  posixperms varchar(45) DEFAULT NULL,
+  dosattrs varchar(45) DEFAULT NULL,
+  PRIMARY KEY (filehistory_id, version, databaseversion_id),
+  FOREIGN KEY (filehistory_id, databaseversion_id) REFERENCES filehistory (id, databaseversion_id) ON DELETE NO ACTION ON UPDATE NO ACTION,
+  FOREIGN KEY (filecontent_checksum) REFERENCES filecontent (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION
+);
+
+CREATE CACHED TABLE fileversion_current (
+  filehistory_id varbinary(20) NOT NULL,
+  version int NOT NULL,
+  databaseversion_id int NOT NULL,
+  path varchar(1024) NOT NULL,
+  type varchar(45) NOT NULL,
+  status varchar(45) NOT NULL,
+  size bigint NOT NULL,
+  lastmodified datetime NOT NULL,
+  linktarget varchar(1024),
+  filecontent_checksum varbinary(64) DEFAULT NULL,
+  updated datetime NOT NULL,
+  posixperms varchar(45) DEFAULT NULL,
+  dosattrs varchar(45) DEFAULT NULL,
+  PRIMARY KEY (filehistory_id, version, databaseversion_id)
+);
+
+CREATE CACHED TABLE multichunk (
+  id varbinary(64) NOT NULL,
+  PRIMARY KEY (id)
+);
+
+CREATE CACHED TABLE multichunk_chunk (
+  multichunk_id varbinary(64) NOT NULL,
+  chunk_checksum varbinary(64) NOT NULL,
+  PRIMARY KEY (multichunk_id, chunk_checksum),
+  FOREIGN KEY (multichunk_id) REFERENCES multichunk (id) ON DELETE NO ACTION ON UPDATE NO ACTION,
+  FOREIGN KEY (chunk_checksum) REFERENCES chunk (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION
+);
+
+INSERT INTO chunk SELECT * FROM chunk_varchar;
+INSERT INTO filecontent SELECT * FROM filecontent_varchar;
+INSERT INTO filecontent_chunk SELECT * FROM filecontent_chunk_varchar;
+INSERT INTO filehistory SELECT * FROM filehistory_varchar;
+INSERT INTO fileversion SELECT * FROM fileversion_varchar;
+INSERT INTO fileversion_current SELECT * FROM fileversion_current_varchar;
+INSERT INTO multichunk SELECT * FROM multichunk_varchar;
+INSERT INTO multichunk_chunk SELECT * FROM multichunk_chunk_varchar;
+
+DROP TABLE multichunk_chunk_varchar;
+DROP TABLE multichunk_varchar;
+DROP TABLE fileversion_current_varchar;
+DROP TABLE fileversion_varchar;
+DROP TABLE filehistory_varchar;
+DROP TABLE filecontent_chunk_varchar;
+DROP TABLE filecontent_varchar;
+DROP TABLE chunk_varchar;
+
+
+-- Re-create indices and views
+
+CREATE INDEX idx_fileversion_path ON fileversion (path);
+CREATE INDEX idx_fileversion_status ON fileversion (status);
+CREATE INDEX idx_fileversion_filecontent_checksum ON fileversion (filecontent_checksum);
+CREATE INDEX idx_fileversion_databaseversion_id ON fileversion (databaseversion_id);
+CREATE INDEX idx_fileversion_current_path ON fileversion_current (path);
+CREATE INDEX idx_fileversion_current_filecontent_checksum ON fileversion_current (filecontent_checksum);
+
+CREATE VIEW fileversion_master AS
+  SELECT fv0.* 
+  FROM fileversion fv0
+  JOIN databaseversion dbv 
+    ON fv0.databaseversion_id=dbv.id 
+       AND dbv.status='MASTER';   
+       
+CREATE VIEW fileversion_master_maxversion AS
+  SELECT DISTINCT filehistory_id, MAX(version) version
+  FROM fileversion_master
+  GROUP BY filehistory_id;     
+  
+CREATE VIEW fileversion_master_last AS
+  SELECT fvc.* 
+  FROM fileversion_current fvc
+  WHERE fvc.status<>'DELETED';    
+  
+  
+-- Full views
+
+create view filehistory_full as
+	select 
+		dbv.status as databaseversion_status, 
+		dbv.localtime as databaseversion_localtime, 
+		dbv.client as databaseversion_client, 	
+		dbv.vectorclock_serialized as databaseversion_vectorclock_serialized, 	
+		fh.*
+	from databaseversion dbv
+	join filehistory fh on dbv.id=fh.databaseversion_id;
+	
+create view fileversion_full as
+	select 		
+		fhf.databaseversion_status, 
+		fhf.databaseversion_localtime, 
+		fhf.databaseversion_client, 	
+		fhf.databaseversion_vectorclock_serialized, 	
+		fv.*
+	from filehistory_full fhf
+	join fileversion fv on fhf.id=fv.filehistory_id and fhf.databaseversion_id=fv.databaseversion_id;	
+	
+create view filecontent_full as
+	select 		
+		fvf.databaseversion_id,
+		fvf.databaseversion_status, 
+		fvf.databaseversion_localtime, 
+		fvf.databaseversion_client, 	
+		fvf.databaseversion_vectorclock_serialized, 	
+		fc.*,
+		fcc.chunk_checksum,
+		fcc.num		
+	from fileversion_full fvf
+	join filecontent fc on fc.checksum=fvf.filecontent_checksum
+	join filecontent_chunk fcc on fc.checksum=fcc.chunk_checksum;
+	
+create view multichunk_full as
+	select 		
+		fcf.databaseversion_id,
+		fcf.databaseversion_status, 
+		fcf.databaseversion_localtime, 
+		fcf.databaseversion_client, 	
+		fcf.databaseversion_vectorclock_serialized, 	
+		mcc.*
+	from filecontent_full fcf 
+	join multichunk_chunk mcc on fcf.chunk_checksum=mcc.chunk_checksum;		
+		
+create view chunk_full as				
+	select 		
+		fcf.databaseversion_id,
+		fcf.databaseversion_status, 
+		fcf.databaseversion_localtime, 
+		fcf.databaseversion_client, 	
+		fcf.databaseversion_vectorclock_serialized, 	
+		c.*
+	from filecontent_full fcf 
+	join chunk c on fcf.chunk_checksum=c.checksum;
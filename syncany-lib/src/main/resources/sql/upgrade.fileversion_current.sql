@@ -0,0 +1,31 @@
+-- Upgrade databases created before the "fileversion_current" table existed:
+-- Create table and indices, and base the "fileversion_master_last" view on it.
+-- The table is filled by fileversion.update.current.rebuildCurrentFileVersions.sql
+
+CREATE CACHED TABLE fileversion_current (
+  filehistory_id varchar(40) NOT NULL,
+  version int NOT NULL,
+  databaseversion_id int NOT NULL,
+  path varchar(1024) NOT NULL,
+  type varchar(45) NOT NULL,
+  status varchar(45) NOT NULL,
+  size bigint NOT NULL,
+  lastmodified datetime NOT NULL,
+  linktarget varchar(1024),
+  filecontent_checksum varchar(128) DEFAULT NULL,
+  updated datetime NOT NULL,
+  posixperms varchar(45) DEFAULT NULL,
+  dosattrs varchar(45) DEFAULT NULL,
+  PRIMARY KEY (filehistory_id, version, databaseversion_id)
+);
+
+CREATE INDEX idx_fileversion_databaseversion_id ON fileversion (databaseversion_id);
+CREATE INDEX idx_fileversion_current_path ON fileversion_current (path);
+CREATE INDEX idx_fileversion_current_filecontent_checksum ON fileversion_current (filecontent_checksum);
+
+DROP VIEW fileversion_master_last;
+
+CREATE VIEW fileversion_master_last AS
+  SELECT fvc.* 
+  FROM fileversion_current fvc
+  WHERE fvc.status<>'DELETED';    
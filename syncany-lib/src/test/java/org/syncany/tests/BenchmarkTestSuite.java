@@ -0,0 +1,43 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+import org.syncany.tests.benchmark.ChunkerComparisonBenchmarkTest;
+import org.syncany.tests.benchmark.CipherBenchmarkTest;
+import org.syncany.tests.benchmark.CipherPoolBenchmarkTest;
+import org.syncany.tests.benchmark.CompressionBenchmarkTest;
+import org.syncany.tests.benchmark.DigestBenchmarkTest;
+import org.syncany.tests.benchmark.FingerprinterBenchmarkTest;
+import org.syncany.tests.benchmark.TttdChunkerBenchmarkTest;
+
+@RunWith(Suite.class)
+@SuiteClasses({
+	TttdChunkerBenchmarkTest.class,
+	ChunkerComparisonBenchmarkTest.class,
+	FingerprinterBenchmarkTest.class,
+	DigestBenchmarkTest.class,
+	CompressionBenchmarkTest.class,
+	CipherBenchmarkTest.class,
+	CipherPoolBenchmarkTest.class
+})
+public class BenchmarkTestSuite {
+	// This class executes all tests
+}
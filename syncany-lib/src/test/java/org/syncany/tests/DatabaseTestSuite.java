@@ -23,14 +23,17 @@ import org.junit.runners.Suite.SuiteClasses;
 import org.syncany.tests.database.DatabaseReconciliatorTest;
 import org.syncany.tests.database.FileVersionComparatorTest;
 import org.syncany.tests.database.MemoryDatabaseCacheTest;
+import org.syncany.tests.database.SqlDatabaseTest;
 import org.syncany.tests.database.VectorClockTest;
 import org.syncany.tests.database.dao.ApplicationDaoTest;
 import org.syncany.tests.database.dao.ChunkDaoTest;
+import org.syncany.tests.database.dao.ChunkIndexTest;
 import org.syncany.tests.database.dao.DatabaseVersionDaoTest;
 import org.syncany.tests.database.dao.FileContentDaoTest;
 import org.syncany.tests.database.dao.FileHistoryDaoTest;
 import org.syncany.tests.database.dao.FileVersionDaoTest;
 import org.syncany.tests.database.dao.MultiChunkDaoTest;
+import org.syncany.tests.database.dao.PreparedStatementCacheTest;
 import org.syncany.tests.database.dao.XmlDatabaseDaoTest;
 
 @RunWith(Suite.class)
@@ -46,7 +49,10 @@ import org.syncany.tests.database.dao.XmlDatabaseDaoTest;
 	MultiChunkDaoTest.class,
 	ApplicationDaoTest.class,
 	ChunkDaoTest.class,
-	DatabaseVersionDaoTest.class
+	ChunkIndexTest.class,
+	DatabaseVersionDaoTest.class,
+	PreparedStatementCacheTest.class,
+	SqlDatabaseTest.class
 })
 public class DatabaseTestSuite {
 	// This class executes all tests	
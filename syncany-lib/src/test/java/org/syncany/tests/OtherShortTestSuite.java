@@ -20,19 +20,31 @@ package org.syncany.tests;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
+import org.syncany.tests.chunk.CompressionTransformerTest;
+import org.syncany.tests.chunk.DeduperTest;
+import org.syncany.tests.chunk.FastCdcChunkerTest;
+import org.syncany.tests.chunk.FileChecksumTest;
+import org.syncany.tests.chunk.FingerprinterTest;
 import org.syncany.tests.chunk.FixedOffsetChunkerTest;
 import org.syncany.tests.chunk.FrameworkCombinationTest;
 import org.syncany.tests.chunk.MultiChunkerTest;
 import org.syncany.tests.chunk.TTTDChunkerTest;
+import org.syncany.tests.config.ConfigTest;
 import org.syncany.tests.connection.plugins.PluginsTest;
 import org.syncany.tests.connection.plugins.local.LocalConnectionPluginTest;
 import org.syncany.tests.connection.plugins.local.LocalTransferManagerPluginTest;
 import org.syncany.tests.connection.plugins.unreliable_local.UploadInterruptedTest;
+import org.syncany.tests.crypto.Blake2bDigestTest;
+import org.syncany.tests.crypto.CipherPoolTest;
+import org.syncany.tests.crypto.CipherProvidersTest;
+import org.syncany.tests.crypto.CipherSessionTest;
 import org.syncany.tests.crypto.CipherSpecsTest;
 import org.syncany.tests.crypto.CipherUtilTest;
 import org.syncany.tests.crypto.MultiCipherStreamsTest;
+import org.syncany.tests.crypto.SegmentedCipherStreamsTest;
 import org.syncany.tests.operations.FileSystemActionComparatorTest;
 import org.syncany.tests.operations.IndexerTest;
+import org.syncany.tests.operations.MultiChunkCacheTest;
 import org.syncany.tests.operations.NotificationListenerTest;
 import org.syncany.tests.operations.OperationPerformanceTest;
 import org.syncany.tests.operations.RecursiveWatcherTest;
@@ -45,15 +57,28 @@ import org.syncany.tests.util.FileUtilTest;
 	// Util
 	FileUtilTest.class,
 	
+	// Config
+	ConfigTest.class,
+	
 	// Crypto	
 	CipherSpecsTest.class,
 	CipherUtilTest.class,
 	MultiCipherStreamsTest.class,
+	Blake2bDigestTest.class,
+	CipherProvidersTest.class,
+	CipherSessionTest.class,
+	CipherPoolTest.class,
+	SegmentedCipherStreamsTest.class,
 	
 	// Chunking Framework
 	MultiChunkerTest.class,
+	CompressionTransformerTest.class,
 	FixedOffsetChunkerTest.class,
 	TTTDChunkerTest.class,
+	FastCdcChunkerTest.class,
+	FingerprinterTest.class,
+	FileChecksumTest.class,
+	DeduperTest.class,
 	FrameworkCombinationTest.class,
 	
 	// Connection
@@ -65,6 +90,7 @@ import org.syncany.tests.util.FileUtilTest;
 	// Operations
 	FileSystemActionComparatorTest.class,
 	IndexerTest.class,
+	MultiChunkCacheTest.class,
 	OperationPerformanceTest.class,
 	RecursiveWatcherTest.class,
 	SyncUpOperationTest.class,
@@ -0,0 +1,224 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.benchmark;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.Deduper;
+import org.syncany.chunk.DeduperListener;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.MultiChunk;
+import org.syncany.chunk.NoTransformer;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.chunk.ZipMultiChunker;
+import org.syncany.config.Logging;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.FileUtil;
+
+/**
+ * Compares the deduplication ratio and the throughput of the different {@link Chunker}s.
+ * Like the {@link org.syncany.tests.chunk.FrameworkCombinationTest}, it runs the {@link Deduper} on a set of input 
+ * files. The input files consist of random base files and modified copies of these files 
+ * (bytes inserted/removed at random offsets), i.e. a well-working content-based chunker 
+ * should find most of the chunks of the modified files in the chunk index.
+ * 
+ * <p>The results are logged; the test only asserts that the content-based chunkers
+ * deduplicate better than the fixed-offset chunker on the shifted content.
+ */
+public class ChunkerComparisonBenchmarkTest {
+	private static final Logger logger = Logger.getLogger(ChunkerComparisonBenchmarkTest.class.getSimpleName());
+	
+	private static final int BASE_FILE_SIZE = 2*1024*1024;
+	private static final int BASE_FILE_COUNT = 4;
+	private static final int MODIFICATIONS_PER_FILE = 5;
+	private static final int AVG_CHUNK_SIZE = 16*1024;
+	
+	private File tempDir;
+	
+	static {
+		Logging.init();
+	}
+	
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+	
+	@Test
+	public void testCompareDedupRatioAndThroughput() throws Exception {
+		List<File> inputFiles = createInputFiles();
+		long totalBytes = 0;
+		
+		for (File inputFile : inputFiles) {
+			totalBytes += inputFile.length();
+		}
+		
+		// Chunkers
+		List<Chunker> chunkers = new ArrayList<Chunker>();
+		
+		chunkers.add(new FixedChunker(AVG_CHUNK_SIZE));
+		chunkers.add(new TttdChunker(AVG_CHUNK_SIZE));
+		chunkers.add(new FastCdcChunker(AVG_CHUNK_SIZE));		
+		
+		// Run deduper for each chunker
+		Map<Chunker, ComparisonResult> results = new LinkedHashMap<Chunker, ComparisonResult>();
+		
+		for (Chunker chunker : chunkers) {
+			results.put(chunker, deduplicate(inputFiles, chunker));
+		}
+		
+		// Print results
+		logger.log(Level.INFO, String.format("%-30s %10s %10s %10s %10s", "Chunker", "Chunks", "New bytes", "Dedup", "MB/s"));
+		
+		for (Map.Entry<Chunker, ComparisonResult> resultEntry : results.entrySet()) {
+			ComparisonResult result = resultEntry.getValue();
+			
+			double dedupRatio = (double) totalBytes / result.newBytes;
+			double throughput = (double) totalBytes / 1024 / 1024 / Math.max(1, result.duration) * 1000;
+			
+			logger.log(Level.INFO, String.format("%-30s %10d %10d %10.2f %10.1f", resultEntry.getKey(), result.chunkCount, result.newBytes, dedupRatio, throughput));
+		}
+		
+		// Content-based chunkers should find shifted content
+		long fixedNewBytes = results.get(chunkers.get(0)).newBytes;
+		
+		assertTrue("TTTD should deduplicate better than fixed-offset chunking.", results.get(chunkers.get(1)).newBytes < fixedNewBytes);
+		assertTrue("FastCDC should deduplicate better than fixed-offset chunking.", results.get(chunkers.get(2)).newBytes < fixedNewBytes);
+	}
+	
+	private List<File> createInputFiles() throws IOException {
+		List<File> inputFiles = new ArrayList<File>();
+		Random random = new Random(1337);
+		
+		for (int i = 0; i < BASE_FILE_COUNT; i++) {
+			byte[] baseContent = TestFileUtil.createArray(BASE_FILE_SIZE, random);
+			byte[] modifiedContent = baseContent;
+			
+			for (int j = 0; j < MODIFICATIONS_PER_FILE; j++) {
+				modifiedContent = modifyRandomOffset(modifiedContent, random);
+			}
+			
+			File baseFile = new File(tempDir, "base-"+i);
+			File modifiedFile = new File(tempDir, "modified-"+i);
+			
+			TestFileUtil.writeByteArrayToFile(baseContent, baseFile);
+			TestFileUtil.writeByteArrayToFile(modifiedContent, modifiedFile);
+			
+			inputFiles.add(baseFile);
+			inputFiles.add(modifiedFile);
+		}
+		
+		return inputFiles;
+	}
+	
+	private byte[] modifyRandomOffset(byte[] content, Random random) {
+		int offset = random.nextInt(content.length);
+		int length = 1 + random.nextInt(100);
+		boolean insert = random.nextBoolean();
+		
+		byte[] modifiedContent = new byte[(insert) ? content.length + length : content.length - length];
+		System.arraycopy(content, 0, modifiedContent, 0, Math.min(offset, modifiedContent.length));
+		
+		if (insert) {
+			byte[] insertedBytes = TestFileUtil.createArray(length, random);
+			
+			System.arraycopy(insertedBytes, 0, modifiedContent, offset, length);
+			System.arraycopy(content, offset, modifiedContent, offset + length, content.length - offset);
+		}
+		else if (offset + length < content.length) {
+			System.arraycopy(content, offset + length, modifiedContent, offset, content.length - offset - length);
+		}
+		
+		return modifiedContent;
+	}
+	
+	private ComparisonResult deduplicate(List<File> inputFiles, Chunker chunker) throws IOException {
+		final ComparisonResult result = new ComparisonResult();
+		final Set<ChunkChecksum> chunkIndex = new HashSet<ChunkChecksum>();
+		
+		long startTime = System.currentTimeMillis();
+		
+		Deduper deduper = new Deduper(chunker, new ZipMultiChunker(4*1024*1024), new NoTransformer());
+		deduper.deduplicate(inputFiles, new DeduperListener() {
+			@Override
+			public boolean onChunk(Chunk chunk) {
+				result.chunkCount++;
+				
+				if (chunkIndex.add(new ChunkChecksum(chunk.getChecksum()))) {
+					result.newBytes += chunk.getSize();
+					return true;
+				}
+				else {
+					return false;
+				}
+			}
+
+			@Override
+			public File getMultiChunkFile(byte[] multiChunkId) {
+				return new File(tempDir, "multichunk-"+result.multiChunkCount++);
+			}
+
+			@Override
+			public byte[] createNewMultiChunkId(Chunk firstChunk) {
+				return firstChunk.getChecksum();
+			}
+			
+			@Override public boolean onFileFilter(File file) { return true; } 
+			@Override public boolean onFileStart(File file) { return file.isFile() && !FileUtil.isSymlink(file); }
+			@Override public void onFileAddChunk(File file, Chunk chunk) { }
+			@Override public void onFileEnd(File file, byte[] checksum) { }
+			@Override public void onMultiChunkOpen(MultiChunk multiChunk) { }
+			@Override public void onMultiChunkWrite(MultiChunk multiChunk, Chunk chunk) { }
+			@Override public void onMultiChunkClose(MultiChunk multiChunk) { }
+		});
+		
+		result.duration = System.currentTimeMillis() - startTime;
+		return result;
+	}
+	
+	private class ComparisonResult {
+		private int chunkCount;
+		private int multiChunkCount;
+		private long newBytes;
+		private long duration;
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.CipherOutputStream;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+import org.syncany.chunk.CipherTransformer;
+import org.syncany.chunk.Transformer;
+import org.syncany.config.Logging;
+import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.GcmCompatibleCipherInputStream;
+import org.syncany.crypto.MultiCipherInputStream;
+import org.syncany.crypto.MultiCipherOutputStream;
+import org.syncany.crypto.SaltedSecretKey;
+import org.syncany.util.StringUtil;
+
+/**
+ * Measures the throughput of the {@link MultiCipherOutputStream} and the 
+ * {@link MultiCipherInputStream} compared to plain cipher streams, for all 
+ * available {@link CipherSpec}s. The results are only logged.
+ */
+public class CipherBenchmarkTest {
+	private static final Logger logger = Logger.getLogger(CipherBenchmarkTest.class.getSimpleName());			
+	private static final SaltedSecretKey masterKey = createDummyMasterKey();
+	
+	static {
+		Logging.init();
+	}		
+	
+	@Test
+	public void testEncryptionThroughput() throws Exception {
+		byte[] srcData = new byte[4*1024*1024];
+		new Random(1).nextBytes(srcData);
+		
+		byte[] writeBuffer = new byte[64*1024];
+		
+		for (CipherSpec cipherSpec : CipherSpecs.getAvailableCipherSpecs().values()) {
+			List<CipherSpec> cipherSpecs = Arrays.asList(new CipherSpec[] { cipherSpec });
+			Transformer cipherTransformer = new CipherTransformer(cipherSpecs, masterKey);
+			
+			// Warm up three times, only measure the last round
+			for (int round = 0; round < 3; round++) {
+				// Single byte writes into a plain CipherOutputStream (old behavior)
+				SaltedSecretKey secretKey = CipherUtil.createDerivedKey(masterKey, CipherUtil.createRandomArray(MultiCipherOutputStream.SALT_SIZE), cipherSpec);
+				byte[] iv = CipherUtil.createRandomArray(cipherSpec.getIvSize()/8);
+				
+				long plainStartTime = System.nanoTime();
+				OutputStream plainOutputStream = new CipherOutputStream(new NullOutputStream(), CipherUtil.createEncCipher(cipherSpec, secretKey, iv));
+				
+				for (int i = 0; i < srcData.length; i++) {
+					plainOutputStream.write(srcData[i]);
+				}
+				
+				plainOutputStream.close();
+				long plainDuration = System.nanoTime() - plainStartTime;
+				
+				// Single byte writes into the multi cipher stream (staged)
+				long singleStartTime = System.nanoTime();
+				OutputStream singleOutputStream = cipherTransformer.createOutputStream(new NullOutputStream());
+				
+				for (int i = 0; i < srcData.length; i++) {
+					singleOutputStream.write(srcData[i]);
+				}
+				
+				singleOutputStream.close();
+				long singleDuration = System.nanoTime() - singleStartTime;
+				
+				// Bulk writes into the multi cipher stream
+				long bulkStartTime = System.nanoTime();
+				OutputStream bulkOutputStream = cipherTransformer.createOutputStream(new NullOutputStream());
+				
+				for (int offset = 0; offset < srcData.length; offset += writeBuffer.length) {
+					bulkOutputStream.write(srcData, offset, writeBuffer.length);
+				}
+				
+				bulkOutputStream.close();
+				long bulkDuration = System.nanoTime() - bulkStartTime;
+				
+				if (round == 2) {
+					logger.log(Level.INFO, String.format("%-25s: CipherOutputStream (byte-wise) %6.1f MB/s, MultiCipherOutputStream (byte-wise) %6.1f MB/s, MultiCipherOutputStream (bulk) %6.1f MB/s", 
+							cipherSpec.getAlgorithm() + "/" + cipherSpec.getKeySize(), toMBps(srcData.length, plainDuration), toMBps(srcData.length, singleDuration),
+							toMBps(srcData.length, bulkDuration)));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testDecryptionThroughput() throws Exception {
+		byte[] srcData = new byte[4*1024*1024];
+		new Random(2).nextBytes(srcData);
+		
+		for (CipherSpec cipherSpec : CipherSpecs.getAvailableCipherSpecs().values()) {
+			SaltedSecretKey secretKey = CipherUtil.createDerivedKey(masterKey, CipherUtil.createRandomArray(MultiCipherOutputStream.SALT_SIZE), cipherSpec);
+			byte[] iv = CipherUtil.createRandomArray(cipherSpec.getIvSize()/8);
+			
+			ByteArrayOutputStream ciphertextOutputStream = new ByteArrayOutputStream();
+			OutputStream encryptingOutputStream = new CipherOutputStream(ciphertextOutputStream, CipherUtil.createEncCipher(cipherSpec, secretKey, iv));
+			
+			encryptingOutputStream.write(srcData);
+			encryptingOutputStream.close();
+			
+			byte[] ciphertext = ciphertextOutputStream.toByteArray();
+			
+			// Warm up three times, only measure the last round
+			for (int round = 0; round < 3; round++) {
+				// 512 byte cipher blocks, read with 4 KB buffer (old behavior)
+				long smallStartTime = System.nanoTime();
+				InputStream smallBlockInputStream = new GcmCompatibleCipherInputStream(new ByteArrayInputStream(ciphertext), CipherUtil.createDecCipher(cipherSpec, secretKey, iv));
+				long smallBlockLength = doReadFully(smallBlockInputStream, 4096);
+				long smallDuration = System.nanoTime() - smallStartTime;
+				
+				// Large cipher blocks, read with a buffer of the same size
+				long largeStartTime = System.nanoTime();
+				InputStream largeBlockInputStream = new GcmCompatibleCipherInputStream(new ByteArrayInputStream(ciphertext), CipherUtil.createDecCipher(cipherSpec, secretKey, iv), MultiCipherInputStream.DECRYPTION_BUFFER_SIZE);
+				long largeBlockLength = doReadFully(largeBlockInputStream, MultiCipherInputStream.DECRYPTION_BUFFER_SIZE);
+				long largeDuration = System.nanoTime() - largeStartTime;
+				
+				assertEquals(srcData.length, smallBlockLength);
+				assertEquals(srcData.length, largeBlockLength);
+				
+				if (round == 2) {
+					logger.log(Level.INFO, String.format("%-25s: 512 B blocks %6.1f MB/s, %d KB blocks %6.1f MB/s", 
+							cipherSpec.getAlgorithm() + "/" + cipherSpec.getKeySize(), toMBps(srcData.length, smallDuration),
+							MultiCipherInputStream.DECRYPTION_BUFFER_SIZE/1024, toMBps(srcData.length, largeDuration)));
+				}
+			}
+		}
+		
+		// Full chain (AES-GCM and Twofish-GCM) through the multi cipher stream
+		Transformer cipherTransformer = new CipherTransformer(CipherSpecs.getDefaultCipherSpecs(), masterKey);
+		byte[] encryptedData = doEncrypt(srcData, cipherTransformer);
+		
+		for (int round = 0; round < 3; round++) {
+			// Byte-wise reads (old behavior, MultiCipherInputStream only implemented read())
+			long byteStartTime = System.nanoTime();
+			long byteLength = doReadFully(new SingleByteInputStream(cipherTransformer.createInputStream(new ByteArrayInputStream(encryptedData))), 4096);
+			long byteDuration = System.nanoTime() - byteStartTime;
+			
+			// Block reads
+			long blockStartTime = System.nanoTime();
+			long blockLength = doReadFully(cipherTransformer.createInputStream(new ByteArrayInputStream(encryptedData)), MultiCipherInputStream.DECRYPTION_BUFFER_SIZE);
+			long blockDuration = System.nanoTime() - blockStartTime;
+			
+			assertEquals(srcData.length, byteLength);
+			assertEquals(srcData.length, blockLength);
+			
+			if (round == 2) {
+				logger.log(Level.INFO, String.format("%-25s: byte-wise %6.1f MB/s, %d KB blocks %6.1f MB/s", "Default chain", toMBps(srcData.length, byteDuration),
+						MultiCipherInputStream.DECRYPTION_BUFFER_SIZE/1024, toMBps(srcData.length, blockDuration)));
+			}
+		}
+	}
+	
+	private long doReadFully(InputStream inputStream, int bufferSize) throws IOException {
+		byte[] buffer = new byte[bufferSize];
+		long length = 0;
+		int read = -1;
+		
+		while (-1 != (read = inputStream.read(buffer))) {
+			length += read;
+		}
+		
+		inputStream.close();
+		return length;
+	}
+	
+	private byte[] doEncrypt(byte[] srcData, Transformer cipherTransformer) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		OutputStream os = cipherTransformer.createOutputStream(bos);		
+		
+		os.write(srcData, 0, srcData.length);
+		os.close();
+		
+		return bos.toByteArray();
+	}	
+	
+	private double toMBps(long bytes, long durationNanos) {
+		return (bytes / 1024.0 / 1024.0) / (durationNanos / 1000000000.0);
+	}
+	
+	private static class SingleByteInputStream extends InputStream {
+		private InputStream inputStream;
+		
+		public SingleByteInputStream(InputStream inputStream) {
+			this.inputStream = inputStream;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			return inputStream.read();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			inputStream.close();
+		}
+	}
+	
+	private static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+			// Discard
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			// Discard
+		}
+	}
+	
+	private static SaltedSecretKey createDummyMasterKey() {
+		return new SaltedSecretKey(
+			new SecretKeySpec(
+				StringUtil.fromHex("44fda24d53b29828b62c362529bd9df5c8a92c2736bcae3a28b3d7b44488e36e246106aa5334813028abb2048eeb5e177df1c702d93cf82aeb7b6d59a8534ff0"),
+				"AnyAlgorithm"
+			),
+			StringUtil.fromHex("157599349e0f1bc713afff442db9d4c3201324073d51cb33407600f305500aa3fdb31136cb1f37bd51a48f183844257d42010a36133b32b424dd02bc63b349bc")			
+		);
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.benchmark;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+import org.syncany.chunk.CipherTransformer;
+import org.syncany.chunk.Transformer;
+import org.syncany.config.Logging;
+import org.syncany.crypto.CipherPool;
+import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.SaltedSecretKey;
+
+/**
+ * Measures the cost of creating {@link Cipher} instances compared to borrowing
+ * them from the {@link CipherPool}. The results are only logged.
+ */
+public class CipherPoolBenchmarkTest {
+	private static final Logger logger = Logger.getLogger(CipherPoolBenchmarkTest.class.getSimpleName());
+	
+	static {
+		Logging.init();
+	}
+	
+	@Test
+	public void testManySmallStreams() throws Exception {
+		SaltedSecretKey masterKey = new SaltedSecretKey(new SecretKeySpec(new byte[64], "AnyAlgorithm"), new byte[64]);		
+		Transformer cipherTransformer = new CipherTransformer(CipherSpecs.getDefaultCipherSpecs(), masterKey);
+		
+		byte[] plaintext = new byte[4*1024];
+		new Random(4).nextBytes(plaintext);
+		
+		int streamCount = 2000;
+		
+		// Warm up three times, only measure the last round
+		for (int round = 0; round < 3; round++) {
+			long startTime = System.nanoTime();
+			
+			for (int i = 0; i < streamCount; i++) {
+				ByteArrayOutputStream ciphertextOutputStream = new ByteArrayOutputStream();
+				OutputStream encryptingOutputStream = cipherTransformer.createOutputStream(ciphertextOutputStream);
+				
+				encryptingOutputStream.write(plaintext);
+				encryptingOutputStream.close();
+				
+				InputStream decryptingInputStream = cipherTransformer.createInputStream(new ByteArrayInputStream(ciphertextOutputStream.toByteArray()));
+				byte[] decryptedPlaintext = new byte[plaintext.length];
+				
+				for (int offset = 0, read = 0; read != -1 && offset < decryptedPlaintext.length; offset += read) {
+					read = decryptingInputStream.read(decryptedPlaintext, offset, decryptedPlaintext.length - offset);
+				}
+				
+				decryptingInputStream.close();
+				
+				if (i == 0) {
+					assertArrayEquals(plaintext, decryptedPlaintext);
+				}
+			}
+			
+			long duration = System.nanoTime() - startTime;
+			
+			if (round == 2) {
+				logger.log(Level.INFO, String.format("Encrypted and decrypted %d streams of %d bytes: %.0f streams/s", streamCount, plaintext.length,
+						streamCount / (duration / 1000000000.0)));
+			}
+		}
+	}
+	
+	@Test
+	public void testCipherCreationPerformance() throws Exception {
+		CipherSpec cipherSpec = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+		SaltedSecretKey secretKey = createSecretKey(cipherSpec);		
+		byte[] iv = createIv(cipherSpec);
+		
+		int cipherCount = 5000;
+		
+		// Warm up three times, only measure the last round
+		for (int round = 0; round < 3; round++) {
+			long createStartTime = System.nanoTime();
+			
+			for (int i = 0; i < cipherCount; i++) {
+				CipherUtil.createCipher(cipherSpec, Cipher.DECRYPT_MODE, secretKey, iv);
+			}
+			
+			long createDuration = System.nanoTime() - createStartTime;			
+			long borrowStartTime = System.nanoTime();
+			
+			for (int i = 0; i < cipherCount; i++) {
+				Cipher cipher = CipherPool.borrowCipher(cipherSpec, Cipher.DECRYPT_MODE, secretKey, iv);
+				CipherPool.returnCipher(cipherSpec, cipher);
+			}
+			
+			long borrowDuration = System.nanoTime() - borrowStartTime;
+			
+			if (round == 2) {
+				logger.log(Level.INFO, String.format("Cipher creation: %.1f us per new cipher, %.1f us per pooled cipher", 
+						createDuration / 1000.0 / cipherCount, borrowDuration / 1000.0 / cipherCount));
+			}
+		}
+	}
+	
+	private SaltedSecretKey createSecretKey(CipherSpec cipherSpec) throws Exception {
+		return CipherUtil.createDerivedKey(new SecretKeySpec(new byte[64], "AnyAlgorithm"), new byte[12], cipherSpec);
+	}
+	
+	private byte[] createIv(CipherSpec cipherSpec) {
+		return CipherUtil.createRandomArray(cipherSpec.getIvSize() / 8);
+	}
+}
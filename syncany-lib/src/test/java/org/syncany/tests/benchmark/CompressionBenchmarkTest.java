@@ -0,0 +1,108 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.Lz4Transformer;
+import org.syncany.chunk.Transformer;
+import org.syncany.config.Logging;
+import org.syncany.tests.util.TestFileUtil;
+
+/**
+ * Compares the compression ratio and the (de-)compression throughput of the 
+ * compressing {@link Transformer}s on a mixed corpus. The results are only logged.
+ */
+public class CompressionBenchmarkTest {
+	private static final Logger logger = Logger.getLogger(CompressionBenchmarkTest.class.getSimpleName());
+	
+	static {
+		Logging.init();
+	}
+	
+	@Test
+	public void testCompressionThroughput() throws Exception {
+		byte[] corpus = TestFileUtil.createMixedArray(16*1024*1024, new Random(6));
+		
+		Transformer[] transformers = new Transformer[] { 
+			new GzipTransformer(Deflater.DEFAULT_COMPRESSION, false, null),
+			new GzipTransformer(Deflater.DEFAULT_COMPRESSION, true, null),
+			new Lz4Transformer(false, null),
+			new Lz4Transformer(true, null)
+		};
+		
+		String[] names = new String[] { "Gzip", "Gzip (skip)", "Lz4", "Lz4 (skip)" };
+		
+		// Warm up all transformers first, then measure the last round; see FingerprinterBenchmarkTest
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < transformers.length; i++) {
+				long compressStartTime = System.nanoTime();
+				byte[] compressedData = transform(transformers[i], corpus);
+				long compressDuration = System.nanoTime() - compressStartTime;
+				
+				long decompressStartTime = System.nanoTime();
+				byte[] restoredData = readFully(transformers[i].createInputStream(new ByteArrayInputStream(compressedData)));
+				long decompressDuration = System.nanoTime() - decompressStartTime;
+				
+				assertEquals(corpus.length, restoredData.length);
+				
+				if (round == 2) {
+					double corpusMB = corpus.length / 1024.0 / 1024.0;
+					
+					logger.log(Level.INFO, String.format("%-12s: size %5.1f%%, compress %6.1f MB/s, decompress %6.1f MB/s", names[i], 
+						100.0 * compressedData.length / corpus.length, corpusMB / (compressDuration / 1e9), corpusMB / (decompressDuration / 1e9)));
+				}
+			}
+		}
+	}
+	
+	private byte[] transform(Transformer transformer, byte[] input) throws IOException {
+		ByteArrayOutputStream transformedOutputStream = new ByteArrayOutputStream();
+		OutputStream outputStream = transformer.createOutputStream(transformedOutputStream);
+		
+		outputStream.write(input);
+		outputStream.close();
+		
+		return transformedOutputStream.toByteArray();
+	}
+	
+	private byte[] readFully(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		
+		while (-1 != (read = inputStream.read(buffer))) {
+			outputStream.write(buffer, 0, read);
+		}
+		
+		inputStream.close();
+		return outputStream.toByteArray();
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.benchmark;
+
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+import org.syncany.config.Logging;
+import org.syncany.crypto.CipherUtil;
+import org.syncany.tests.util.TestFileUtil;
+
+/**
+ * Measures the throughput of the chunk/file checksum digests, including the
+ * BLAKE2b digest registered by {@link CipherUtil#init()}. The results are only logged.
+ */
+public class DigestBenchmarkTest {
+	private static final Logger logger = Logger.getLogger(DigestBenchmarkTest.class.getSimpleName());
+
+	static {
+		Logging.init();
+		CipherUtil.init();
+	}
+
+	@Test
+	public void testDigestThroughput() throws Exception {
+		String[] digestAlgorithms = new String[] { "SHA1", "SHA-256", "SHA-512/256", "BLAKE2b-256" };
+		byte[] data = TestFileUtil.createArray(64*1024, new Random(2));
+
+		// Warm up all digests first, then measure; see FingerprinterBenchmarkTest
+		for (int round = 0; round < 3; round++) {
+			for (String digestAlgorithm : digestAlgorithms) {
+				MessageDigest digest = MessageDigest.getInstance(digestAlgorithm);
+				long startTime = System.nanoTime();
+
+				for (int i = 0; i < 256; i++) {
+					digest.update(data);
+				}
+
+				digest.digest();
+				
+				double megabytesPerSecond = (256.0 * data.length / 1024 / 1024) / ((System.nanoTime() - startTime) / 1000000000.0);
+
+				if (round == 2) {
+					logger.log(Level.INFO, String.format("%-12s: %.1f MB/s", digestAlgorithm, megabytesPerSecond));
+				}
+			}
+		}
+	}
+}
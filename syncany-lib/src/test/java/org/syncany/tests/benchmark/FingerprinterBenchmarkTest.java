@@ -0,0 +1,68 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+import org.syncany.chunk.Fingerprinter;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.tests.util.TestFileUtil;
+
+/**
+ * Measures how fast the different {@link Fingerprinter}s roll over a byte array. 
+ * The results are only logged.
+ */
+public class FingerprinterBenchmarkTest {
+	private static final Logger logger = Logger.getLogger(FingerprinterBenchmarkTest.class.getSimpleName());
+	private static final List<String> FINGERPRINTERS = Arrays.asList(new String[] { "Adler32", "Buzhash", "RabinKarp", "Gear" });
+	
+	@Test
+	public void testRollThroughput() throws Exception {
+		final int DATA_SIZE = 16*1024*1024;
+		final int WINDOW_SIZE = TttdChunker.DEFAULT_WINDOW_SIZE;
+		
+		byte[] data = TestFileUtil.createArray(DATA_SIZE, new Random(2));
+		
+		// All fingerprinters share the call site, so measure only the last round to compare fairly
+		for (int round = 0; round < 3; round++) {
+			for (String name : FINGERPRINTERS) {
+				Fingerprinter fingerprinter = Fingerprinter.getInstance(name);
+				int valueSum = 0;
+				
+				long startTime = System.nanoTime();
+				fingerprinter.check(data, 0, WINDOW_SIZE);
+				
+				for (int i = WINDOW_SIZE; i < DATA_SIZE; i++) {
+					fingerprinter.roll(data[i]);
+					valueSum += fingerprinter.getValue();
+				}
+				
+				long duration = Math.max(1, System.nanoTime() - startTime);
+				
+				if (round == 2) {
+					logger.log(Level.INFO, name + ": " + (DATA_SIZE*1000L/duration) + " MB/s rolled (" + valueSum + ")");
+				}
+			}
+		}
+	}
+}
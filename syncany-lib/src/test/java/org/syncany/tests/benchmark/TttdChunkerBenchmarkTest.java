@@ -0,0 +1,92 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.tests.util.TestFileUtil;
+
+/**
+ * Compares the throughput of the stream-based and the block-reading chunk enumeration
+ * of the {@link TttdChunker}. The timings are only logged, not asserted. This test is part of
+ * the {@link org.syncany.tests.BenchmarkTestSuite}, and not run with the short test suites.
+ */
+public class TttdChunkerBenchmarkTest {
+	private static final Logger logger = Logger.getLogger(TttdChunkerBenchmarkTest.class.getSimpleName());
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+	
+	@Test
+	public void testBlockEnumerationThroughput() throws Exception {
+		// Test Constants
+		final int TOTAL_FILE_SIZE = 5*1024*1024;
+		final int AVG_CHUNK_SIZE = 512*1024;
+		
+		// Setup
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, TOTAL_FILE_SIZE);
+		TttdChunker chunker = new TttdChunker(AVG_CHUNK_SIZE);
+		
+		// Stream enumeration
+		long streamStartTime = System.currentTimeMillis();
+		long streamSize = readChunks(chunker.new TTTDEnumeration(new FileInputStream(inputFile)));
+		long streamDuration = Math.max(1, System.currentTimeMillis() - streamStartTime);
+		
+		// Block enumeration
+		long blockStartTime = System.currentTimeMillis();
+		long blockSize = readChunks(chunker.createChunks(inputFile));
+		long blockDuration = Math.max(1, System.currentTimeMillis() - blockStartTime);
+		
+		logger.log(Level.INFO, "Stream enumeration: "+streamDuration+" ms ("+(TOTAL_FILE_SIZE/1024*1000/streamDuration/1024)+" MB/s)");
+		logger.log(Level.INFO, "Block enumeration:  "+blockDuration+" ms ("+(TOTAL_FILE_SIZE/1024*1000/blockDuration/1024)+" MB/s)");
+		
+		assertEquals(TOTAL_FILE_SIZE, streamSize);
+		assertEquals(TOTAL_FILE_SIZE, blockSize);
+	}
+	
+	private long readChunks(ChunkEnumeration chunkEnumeration) {
+		long totalSize = 0;
+		
+		while (chunkEnumeration.hasMoreElements()) {
+			Chunk chunk = chunkEnumeration.nextElement();
+			totalSize += chunk.getSize();
+		}
+		
+		chunkEnumeration.close();		
+		return totalSize;
+	}
+}
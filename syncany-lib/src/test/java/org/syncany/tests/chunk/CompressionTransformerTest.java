@@ -0,0 +1,171 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+import org.syncany.chunk.CompressibilityEstimator;
+import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.Lz4Transformer;
+import org.syncany.chunk.Transformer;
+import org.syncany.config.Logging;
+import org.syncany.tests.util.TestFileUtil;
+
+public class CompressionTransformerTest {
+	static {
+		Logging.init();
+	}
+	
+	@Test
+	public void testGetInstance() throws Exception {
+		assertTrue(Transformer.getInstance(Lz4Transformer.TYPE) instanceof Lz4Transformer);
+		assertTrue(Transformer.getInstance(GzipTransformer.TYPE) instanceof GzipTransformer);
+	}
+	
+	@Test
+	public void testCompressibilityEstimator() {
+		byte[] randomData = TestFileUtil.createArray(64*1024, new Random(1));
+		byte[] textData = TestFileUtil.createTextArray(64*1024, new Random(1));
+		
+		assertTrue(CompressibilityEstimator.estimateEntropy(randomData, 0, randomData.length) > 7.9);
+		assertTrue(CompressibilityEstimator.estimateEntropy(textData, 0, textData.length) < 6);
+		
+		assertTrue(CompressibilityEstimator.isIncompressible(randomData, 0, randomData.length));
+		assertTrue(!CompressibilityEstimator.isIncompressible(textData, 0, textData.length));
+		assertTrue(!CompressibilityEstimator.isIncompressible(randomData, 0, 100));
+	}
+	
+	@Test
+	public void testLz4RoundTrip() throws Exception {
+		Random random = new Random(2);
+		
+		byte[][] inputs = new byte[][] {
+			new byte[0],
+			new byte[] { 1 },
+			new byte[13],
+			new byte[300*1024],
+			TestFileUtil.createArray(300*1024, random),
+			TestFileUtil.createTextArray(300*1024, random),
+			TestFileUtil.createMixedArray(1024*1024, random)
+		};
+		
+		for (Transformer transformer : new Transformer[] { new Lz4Transformer(false, null), new Lz4Transformer(true, null) }) {
+			for (byte[] input : inputs) {
+				assertArrayEquals("Round trip failed for " + transformer + " and input of size " + input.length, input, roundTrip(transformer, input));
+			}
+		}
+	}
+	
+	@Test
+	public void testLz4CompressesRedundantData() throws Exception {
+		byte[] textData = TestFileUtil.createTextArray(1024*1024, new Random(3));
+		byte[] compressedData = transform(new Lz4Transformer(), textData);
+		
+		assertTrue("Text data should be compressed", compressedData.length < textData.length / 2);
+		
+		byte[] zeroData = new byte[1024*1024];
+		byte[] compressedZeroData = transform(new Lz4Transformer(), zeroData);
+		
+		assertTrue("Zero data should be compressed", compressedZeroData.length < zeroData.length / 100);
+	}
+	
+	@Test
+	public void testLz4DetectsCorruptStream() throws Exception {
+		byte[] compressedData = transform(new Lz4Transformer(), TestFileUtil.createTextArray(64*1024, new Random(4)));
+		
+		// Break the first match offset/literals somewhere in the middle of the block
+		for (int i = 20; i < compressedData.length; i += 97) {
+			compressedData[i] ^= 0x5a;
+		}
+		
+		try {
+			byte[] restoredData = readFully(new Lz4Transformer().createInputStream(new ByteArrayInputStream(compressedData)));
+			assertTrue("Corrupt data must not restore the original length", restoredData.length != 64*1024 || restoredData[0] != 0);
+		}
+		catch (IOException e) {
+			// Expected
+		}
+		
+		try {
+			new Lz4Transformer().createInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4 }));
+			fail("Stream without magic header should be rejected");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+	
+	@Test
+	public void testGzipSkipIncompressibleIsValidGzip() throws Exception {
+		byte[] mixedData = TestFileUtil.createMixedArray(1024*1024, new Random(5));
+		
+		byte[] skippingCompressedData = transform(new GzipTransformer(Deflater.DEFAULT_COMPRESSION, true, null), mixedData);
+		byte[] regularCompressedData = transform(new GzipTransformer(Deflater.DEFAULT_COMPRESSION, false, null), mixedData);
+		
+		// Must be readable by a regular Gzip stream
+		assertArrayEquals(mixedData, readFully(new GZIPInputStream(new ByteArrayInputStream(skippingCompressedData))));
+		assertArrayEquals(mixedData, readFully(new GZIPInputStream(new ByteArrayInputStream(regularCompressedData))));
+		
+		// Stored blocks add a few bytes, but not more than 1%
+		assertTrue(skippingCompressedData.length < regularCompressedData.length * 1.01);
+	}
+	
+	private byte[] roundTrip(Transformer transformer, byte[] input) throws IOException {
+		byte[] transformedData = transform(transformer, input);
+		return readFully(transformer.createInputStream(new ByteArrayInputStream(transformedData)));
+	}
+	
+	private byte[] transform(Transformer transformer, byte[] input) throws IOException {
+		ByteArrayOutputStream transformedOutputStream = new ByteArrayOutputStream();
+		OutputStream outputStream = transformer.createOutputStream(transformedOutputStream);
+		
+		// Mix single-byte and bulk writes 
+		if (input.length > 0) {
+			outputStream.write(input[0]);
+			outputStream.write(input, 1, input.length - 1);
+		}
+		
+		outputStream.close();
+		return transformedOutputStream.toByteArray();
+	}
+	
+	private byte[] readFully(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		
+		while (-1 != (read = inputStream.read(buffer))) {
+			outputStream.write(buffer, 0, read);
+		}
+		
+		inputStream.close();
+		return outputStream.toByteArray();
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.Deduper;
+import org.syncany.chunk.DeduperListener;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.MultiChunk;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.chunk.ZipMultiChunker;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.FileUtil;
+import org.syncany.util.StringUtil;
+
+public class DeduperTest {
+	private File tempDir;
+	private List<File> inputFiles;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		inputFiles = createInputFiles();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testParallelEventsEqualSequentialEventsWithTttdChunker() throws Exception {
+		assertParallelEventsEqualSequentialEvents(new TttdChunker(8*1024));
+	}
+
+	@Test
+	public void testParallelEventsEqualSequentialEventsWithFixedChunker() throws Exception {
+		assertParallelEventsEqualSequentialEvents(new FixedChunker(16*1024));
+	}
+	
+	@Test
+	public void testParallelEventsEqualSequentialEventsWithMappedChunks() throws Exception {
+		TttdChunker chunker = new TttdChunker(8*1024);
+		chunker.setMappedThreshold(0);
+		
+		assertParallelEventsEqualSequentialEvents(chunker);
+	}
+
+	@Test
+	public void testParallelEventsEqualSequentialEventsWithTinyPrefetchBudget() throws Exception {
+		TttdChunker chunker = new TttdChunker(8*1024);
+		
+		// Budget smaller than any chunk; workers may only queue one chunk at a time
+		List<String> sequentialEvents = deduplicate(new Deduper(chunker, new ZipMultiChunker(64*1024), new GzipTransformer()));
+		List<String> parallelEvents = deduplicate(new Deduper(chunker, new ZipMultiChunker(64*1024), new GzipTransformer(), 4, 1));
+
+		assertEquals("Parallel deduplication events differ from sequential events.", sequentialEvents, parallelEvents);
+	}
+
+	@Test
+	public void testParallelEventsEqualSequentialEventsWithParallelChunks() throws Exception {
+		TttdChunker chunker = new TttdChunker(8*1024);
+		chunker.setMappedThreshold(0);
+		chunker.setParallelThreshold(0);
+		chunker.setParallelThreads(4);
+
+		// Segments are chunked by the deduper's (busy) chunker threads, or inline
+		assertParallelEventsEqualSequentialEvents(chunker);
+		assertNull("Chunker must not keep the deduper's executor.", chunker.getParallelExecutor());
+	}
+
+	@Test(expected = IOException.class, timeout = 60000)
+	public void testParallelChunkerExceptionFailsInsteadOfHanging() throws Exception {
+		// Chunk enumeration of large files throws after a few chunks
+		FixedChunker failingChunker = new FixedChunker(16*1024) {
+			@Override
+			public ChunkEnumeration createChunks(File file) throws IOException {
+				final ChunkEnumeration chunksEnum = super.createChunks(file);
+				final boolean fail = file.length() > 1024*1024;
+				
+				return new ChunkEnumeration() {
+					private int chunkCount = 0;
+					
+					@Override
+					public boolean hasMoreElements() {
+						return chunksEnum.hasMoreElements();
+					}
+					
+					@Override
+					public Chunk nextElement() {
+						if (fail && ++chunkCount > 10) {
+							throw new RuntimeException("Test exception in chunk enumeration");
+						}
+						
+						return chunksEnum.nextElement();
+					}
+					
+					@Override
+					public void close() {
+						chunksEnum.close();
+					}
+				};
+			}
+		};
+		
+		deduplicate(new Deduper(failingChunker, new ZipMultiChunker(64*1024), new GzipTransformer(), 4));
+	}
+
+	private void assertParallelEventsEqualSequentialEvents(Chunker chunker) throws IOException {
+		List<String> sequentialEvents = deduplicate(new Deduper(chunker, new ZipMultiChunker(64*1024), new GzipTransformer()));
+		List<String> parallelEvents = deduplicate(new Deduper(chunker, new ZipMultiChunker(64*1024), new GzipTransformer(), 4));
+
+		assertTrue("Expected events.", sequentialEvents.size() > inputFiles.size());
+		assertEquals("Parallel deduplication events differ from sequential events.", sequentialEvents, parallelEvents);
+	}
+
+	private List<File> createInputFiles() throws IOException {
+		List<File> inputFiles = new ArrayList<File>();
+
+		File folder = new File(tempDir, "folder");
+		folder.mkdir();
+		
+		inputFiles.add(folder);
+		inputFiles.add(TestFileUtil.createRandomFileInDirectory(tempDir, 0));
+		inputFiles.addAll(TestFileUtil.createRandomFilesInDirectory(tempDir, 3*1024, 20));
+		inputFiles.addAll(TestFileUtil.createRandomFilesInDirectory(tempDir, 150*1024, 10));
+		inputFiles.add(TestFileUtil.createRandomFileInDirectory(tempDir, 2*1024*1024));
+		inputFiles.add(TestFileUtil.copyIntoDirectory(inputFiles.get(inputFiles.size()-1), folder));
+		inputFiles.add(new File(tempDir, "does-not-exist"));
+
+		return inputFiles;
+	}
+
+	private List<String> deduplicate(Deduper deduper) throws IOException {
+		final List<String> events = new ArrayList<String>();
+		final Set<String> chunkIndex = new HashSet<String>();
+		
+		deduper.deduplicate(inputFiles, new DeduperListener() {
+			@Override
+			public boolean onFileFilter(File file) {
+				events.add("filter " + file.getName());
+				return file.exists() && !file.getName().endsWith("3");
+			}
+
+			@Override
+			public boolean onFileStart(File file) {
+				events.add("start " + file.getName());
+				return file.isFile() && !FileUtil.isSymlink(file);
+			}
+
+			@Override
+			public boolean onChunk(Chunk chunk) {
+				events.add("chunk " + StringUtil.toHex(chunk.getChecksum()) + " " + chunk.getSize());
+				return chunkIndex.add(StringUtil.toHex(chunk.getChecksum()));
+			}
+
+			@Override
+			public void onFileAddChunk(File file, Chunk chunk) {
+				events.add("add " + file.getName() + " " + StringUtil.toHex(chunk.getChecksum()));
+			}
+
+			@Override
+			public void onFileEnd(File file, byte[] checksum) {
+				events.add("end " + file.getName() + " " + ((checksum != null) ? StringUtil.toHex(checksum) : "none"));
+			}
+
+			@Override
+			public byte[] createNewMultiChunkId(Chunk firstChunk) {
+				return firstChunk.getChecksum();
+			}
+
+			@Override
+			public File getMultiChunkFile(byte[] multiChunkId) {
+				return new File(tempDir, "multichunk-" + StringUtil.toHex(multiChunkId));
+			}
+
+			@Override
+			public void onMultiChunkOpen(MultiChunk multiChunk) {
+				events.add("open " + StringUtil.toHex(multiChunk.getId()));
+			}
+
+			@Override
+			public void onMultiChunkWrite(MultiChunk multiChunk, Chunk chunk) {
+				events.add("write " + StringUtil.toHex(multiChunk.getId()) + " " + StringUtil.toHex(chunk.getChecksum()));
+			}
+
+			@Override
+			public void onMultiChunkClose(MultiChunk multiChunk) {
+				events.add("close " + StringUtil.toHex(multiChunk.getId()));
+			}
+		});
+
+		return events;
+	}
+}
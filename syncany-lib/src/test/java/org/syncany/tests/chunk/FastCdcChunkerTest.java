@@ -0,0 +1,341 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.MappedChunkEnumeration;
+import org.syncany.chunk.ParallelChunkEnumeration;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.FileUtil;
+
+public class FastCdcChunkerTest {
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testStringSerialization() {
+		final int CHUNK_SIZE = 512*1024;
+		
+		Chunker chunker = new FastCdcChunker(CHUNK_SIZE);
+		assertEquals("Other toString() result expected.", "FastCDC-"+CHUNK_SIZE+"-"+FastCdcChunker.DEFAULT_DIGEST_ALG, chunker.toString());
+	}
+	
+	@Test
+	public void testGetInstanceAndInit() throws Exception {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(FastCdcChunker.PROPERTY_SIZE, "64");
+		
+		Chunker chunker = Chunker.getInstance(FastCdcChunker.TYPE);
+		chunker.init(settings);
+		
+		assertTrue("Chunker should be a FastCDC chunker.", chunker instanceof FastCdcChunker);
+		assertEquals("Other toString() result expected.", "FastCDC-"+(64*1024)+"-"+FastCdcChunker.DEFAULT_DIGEST_ALG, chunker.toString());
+	}
+	
+	@Test
+	public void testCreateChunksFrom5MBFileAndTestChunkSize() throws Exception {
+		// Test Constants
+		final int TOTAL_FILE_SIZE = 5*1024*1024;
+		final int AVG_CHUNK_SIZE = 64*1024;
+		
+		// Setup				
+		File inputRandom5MBFile = TestFileUtil.createRandomFileInDirectory(tempDir, TOTAL_FILE_SIZE);
+		
+		File outputCopyOfRandom5MBFile = TestFileUtil.getRandomFilenameInDirectory(tempDir);
+		FileOutputStream outputCopyOfRandom5MBFileOutputStream = new FileOutputStream(outputCopyOfRandom5MBFile);
+		
+		Chunker chunker = new FastCdcChunker(AVG_CHUNK_SIZE);
+		
+		// Create chunks
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(inputRandom5MBFile);
+		Chunk lastChunk = null;
+		int chunkCount = 0;
+		
+		while (chunkEnumeration.hasMoreElements()) {
+			lastChunk = chunkEnumeration.nextElement();
+			chunkCount++;
+			
+			// Checksum and size
+			assertNotNull("Chunk checksum should not be null.", lastChunk.getChecksum());
+			assertTrue("Chunk must not be larger than max. chunk size.", lastChunk.getSize() <= AVG_CHUNK_SIZE*8);
+			
+			if (lastChunk.getFileChecksum() == null) {
+				assertTrue("Chunk must not be smaller than min. chunk size.", lastChunk.getSize() > AVG_CHUNK_SIZE/4);
+			}
+			
+			outputCopyOfRandom5MBFileOutputStream.write(lastChunk.getContent(), 0, lastChunk.getSize());
+		}
+		
+		outputCopyOfRandom5MBFileOutputStream.close();
+		
+		// Number of chunks (normalized chunking keeps the chunk sizes close to the average)
+		assertTrue("Unexpected number of chunks: "+chunkCount, chunkCount > TOTAL_FILE_SIZE/AVG_CHUNK_SIZE/2 && chunkCount < TOTAL_FILE_SIZE/AVG_CHUNK_SIZE*2);
+
+		// Checksums
+		byte[] inputFileChecksum = FileUtil.createChecksum(inputRandom5MBFile, FastCdcChunker.DEFAULT_DIGEST_ALG);
+		byte[] outputFileChecksum = FileUtil.createChecksum(outputCopyOfRandom5MBFile, FastCdcChunker.DEFAULT_DIGEST_ALG);
+		
+		assertArrayEquals("Checksums of input and output file do not match.", inputFileChecksum, outputFileChecksum);
+		assertArrayEquals("Last chunk's getFileChecksum() should be the file checksum.", inputFileChecksum, lastChunk.getFileChecksum());
+	}
+	
+	@Test
+	public void testChunkBoundariesAfterInsertion() throws Exception {
+		// Test Constants
+		final int TOTAL_FILE_SIZE = 2*1024*1024;
+		final int AVG_CHUNK_SIZE = 16*1024;
+		
+		// Setup: Insert a few bytes at the beginning of the file 
+		byte[] originalContent = TestFileUtil.createRandomArray(TOTAL_FILE_SIZE);
+		byte[] shiftedContent = new byte[TOTAL_FILE_SIZE+7];
+		
+		System.arraycopy(originalContent, 0, shiftedContent, 7, TOTAL_FILE_SIZE);
+		
+		File originalFile = TestFileUtil.getRandomFilenameInDirectory(tempDir);
+		File shiftedFile = TestFileUtil.getRandomFilenameInDirectory(tempDir);
+		
+		TestFileUtil.writeByteArrayToFile(originalContent, originalFile);
+		TestFileUtil.writeByteArrayToFile(shiftedContent, shiftedFile);
+		
+		// Create chunks
+		Chunker chunker = new FastCdcChunker(AVG_CHUNK_SIZE);
+		
+		Set<ChunkChecksum> originalChunks = createChunkChecksums(chunker, originalFile);
+		Set<ChunkChecksum> shiftedChunks = createChunkChecksums(chunker, shiftedFile);
+		
+		originalChunks.retainAll(shiftedChunks);
+		
+		// Only the first chunk(s) should differ
+		assertTrue("Expected almost all chunks to be equal, but only "+originalChunks.size()+" of "+shiftedChunks.size()+" are.", 
+				originalChunks.size() >= shiftedChunks.size()-2);
+	}
+	
+	@Test
+	public void testMappedEnumerationEqualsBlockEnumeration() throws Exception {
+		final int TOTAL_FILE_SIZE = 3*1024*1024+17;
+		final int AVG_CHUNK_SIZE = 16*1024;
+		
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, TOTAL_FILE_SIZE);
+		FastCdcChunker chunker = new FastCdcChunker(AVG_CHUNK_SIZE);
+		
+		// Block enumeration
+		chunker.setMappedThreshold(-1);
+		
+		List<byte[]> blockChunkChecksums = new ArrayList<byte[]>();
+		List<byte[]> blockChunkContents = new ArrayList<byte[]>();
+		byte[] blockFileChecksum = null;
+		
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(inputFile);
+		
+		while (chunkEnumeration.hasMoreElements()) {
+			Chunk chunk = chunkEnumeration.nextElement();
+			
+			blockChunkChecksums.add(chunk.getChecksum());
+			blockChunkContents.add(Arrays.copyOf(chunk.getContent(), chunk.getSize()));
+			blockFileChecksum = chunk.getFileChecksum();
+		}
+		
+		// Mapped enumeration (small window to force remapping)
+		chunker.setMappedThreshold(0);
+		
+		ChunkEnumeration mappedChunkEnumeration = chunker.createChunks(inputFile);
+		assertTrue("Expected mapped enumeration.", mappedChunkEnumeration instanceof MappedChunkEnumeration);
+		
+		((MappedChunkEnumeration) mappedChunkEnumeration).setWindowSize(AVG_CHUNK_SIZE*8*2);
+		
+		List<Chunk> mappedChunks = new ArrayList<Chunk>();
+		
+		while (mappedChunkEnumeration.hasMoreElements()) {
+			mappedChunks.add(mappedChunkEnumeration.nextElement());
+		}
+		
+		assertEquals("Number of chunks differs.", blockChunkChecksums.size(), mappedChunks.size());
+		
+		for (int i=0; i<mappedChunks.size(); i++) {
+			assertArrayEquals("Chunk checksum differs.", blockChunkChecksums.get(i), mappedChunks.get(i).getChecksum());
+			assertArrayEquals("Chunk content differs.", blockChunkContents.get(i), Arrays.copyOf(mappedChunks.get(i).getContent(), mappedChunks.get(i).getSize()));
+		}
+		
+		assertArrayEquals("File checksum differs.", blockFileChecksum, mappedChunks.get(mappedChunks.size()-1).getFileChecksum());
+	}
+	
+	@Test
+	public void testMappedEnumerationFileTruncatedWhileMapped() throws Exception {
+		final int TOTAL_FILE_SIZE = 3*1024*1024+17;
+		final int AVG_CHUNK_SIZE = 16*1024;
+		
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, TOTAL_FILE_SIZE);
+		FastCdcChunker chunker = new FastCdcChunker(AVG_CHUNK_SIZE);
+		chunker.setMappedThreshold(0);
+		
+		ChunkEnumeration mappedChunkEnumeration = chunker.createChunks(inputFile);
+		assertTrue("Expected mapped enumeration.", mappedChunkEnumeration instanceof MappedChunkEnumeration);
+
+		((MappedChunkEnumeration) mappedChunkEnumeration).setWindowSize(AVG_CHUNK_SIZE*8*2);
+		assertNotNull(mappedChunkEnumeration.nextElement());
+		
+		// Truncate file while the current window is mapped 
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(inputFile, "rw")) {
+			randomAccessFile.setLength(AVG_CHUNK_SIZE);
+		}
+		
+		// Reading must fail like any other read error (returns null), instead of raising an InternalError
+		Chunk chunk = null;
+		
+		do {
+			chunk = mappedChunkEnumeration.nextElement();
+		}
+		while (chunk != null && mappedChunkEnumeration.hasMoreElements());
+		
+		assertNull("Expected read error after truncation.", chunk);
+		mappedChunkEnumeration.close();
+	}
+	
+	@Test
+	public void testParallelEnumerationEqualsBlockEnumeration() throws Exception {
+		final int TOTAL_FILE_SIZE = 3*1024*1024+17;
+		final int AVG_CHUNK_SIZE = 8*1024;
+		
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, TOTAL_FILE_SIZE);
+		FastCdcChunker chunker = new FastCdcChunker(AVG_CHUNK_SIZE);
+		
+		// Block enumeration
+		chunker.setMappedThreshold(-1);
+		
+		List<byte[]> blockChunkChecksums = new ArrayList<byte[]>();
+		List<byte[]> blockChunkContents = new ArrayList<byte[]>();
+		byte[] blockFileChecksum = null;
+		
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(inputFile);
+		
+		while (chunkEnumeration.hasMoreElements()) {
+			Chunk chunk = chunkEnumeration.nextElement();
+			
+			blockChunkChecksums.add(chunk.getChecksum());
+			blockChunkContents.add(Arrays.copyOf(chunk.getContent(), chunk.getSize()));
+			blockFileChecksum = chunk.getFileChecksum();
+		}
+		
+		// Parallel enumeration (small segments to force many segment edges)
+		chunker.setMappedThreshold(0);
+		chunker.setParallelThreshold(0);
+		chunker.setParallelThreads(4);
+		
+		ChunkEnumeration parallelChunkEnumeration = chunker.createChunks(inputFile);
+		assertTrue("Expected parallel enumeration.", parallelChunkEnumeration instanceof ParallelChunkEnumeration);
+		
+		((ParallelChunkEnumeration) parallelChunkEnumeration).setSegmentSize(AVG_CHUNK_SIZE*8*2);
+		
+		List<Chunk> parallelChunks = new ArrayList<Chunk>();
+		
+		while (parallelChunkEnumeration.hasMoreElements()) {
+			parallelChunks.add(parallelChunkEnumeration.nextElement());
+		}
+		
+		assertEquals("Number of chunks differs.", blockChunkChecksums.size(), parallelChunks.size());
+		
+		for (int i=0; i<parallelChunks.size(); i++) {
+			assertArrayEquals("Chunk checksum differs.", blockChunkChecksums.get(i), parallelChunks.get(i).getChecksum());
+			assertArrayEquals("Chunk content differs.", blockChunkContents.get(i), Arrays.copyOf(parallelChunks.get(i).getContent(), parallelChunks.get(i).getSize()));
+		}
+		
+		assertArrayEquals("File checksum differs.", blockFileChecksum, parallelChunks.get(parallelChunks.size()-1).getFileChecksum());
+	}
+	
+	@Test
+	public void testEmptyFile() throws IOException {
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 0);		
+		Chunker chunker = new FastCdcChunker(8*1024);
+		
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(inputFile);
+		assertFalse("hasElements() should return 'false' for an empty file.", chunkEnumeration.hasMoreElements());
+	}
+	
+	@Test
+	public void testNextChunkEvenIfThereAreNone() throws IOException {
+		// Test Constants
+		final int TOTAL_FILE_SIZE = 5*1024;
+		final int CHUNK_SIZE = 512*1024;
+		
+		// Setup				
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, TOTAL_FILE_SIZE);		
+		Chunker chunker = new FastCdcChunker(CHUNK_SIZE);
+		
+		// Create chunks
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(inputFile);
+		
+		while (chunkEnumeration.hasMoreElements()) {
+			chunkEnumeration.nextElement();
+		}
+		
+		assertNull("No chunk expected, but data received.", chunkEnumeration.nextElement());
+		assertFalse("hasElements() should return 'false' if no chunk available.", chunkEnumeration.hasMoreElements());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testExceptionAverageSizeNotPowerOfTwo() {
+		new FastCdcChunker(1000);
+	}
+	
+	private Set<ChunkChecksum> createChunkChecksums(Chunker chunker, File file) throws IOException {
+		Set<ChunkChecksum> chunkChecksums = new HashSet<ChunkChecksum>();
+		Enumeration<Chunk> chunkEnumeration = chunker.createChunks(file);
+		
+		while (chunkEnumeration.hasMoreElements()) {
+			chunkChecksums.add(new ChunkChecksum(chunkEnumeration.nextElement().getChecksum()));
+		}
+		
+		return chunkChecksums;
+	}
+}
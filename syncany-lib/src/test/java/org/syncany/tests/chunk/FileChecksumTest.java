@@ -0,0 +1,137 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.Chunker.FileChecksumMode;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.FileUtil;
+
+public class FileChecksumTest {
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testContentFileChecksum() throws Exception {
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 3*1024*1024 + 123);
+
+		for (String digestAlgorithm : new String[] { "SHA1", "SHA-256", "BLAKE2b-256" }) {
+			byte[] expectedFileChecksum = FileUtil.createChecksum(inputFile, digestAlgorithm);
+
+			for (Chunker chunker : createChunkers(digestAlgorithm, FileChecksumMode.CONTENT)) {
+				assertArrayEquals("File checksum differs for " + chunker, expectedFileChecksum, chunkFile(chunker, inputFile));
+				assertArrayEquals("Recalculated file checksum differs for " + chunker, expectedFileChecksum, chunker.createFileChecksum(inputFile));
+			}
+		}
+	}
+
+	@Test
+	public void testChunksFileChecksum() throws Exception {
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 3*1024*1024 + 123);
+
+		for (String digestAlgorithm : new String[] { "SHA1", "BLAKE2b-256" }) {
+			for (Chunker chunker : createChunkers(digestAlgorithm, FileChecksumMode.CHUNKS)) {
+				MessageDigest expectedFileDigest = MessageDigest.getInstance(digestAlgorithm);
+				ChunkEnumeration chunks = chunker.createChunks(inputFile);
+				byte[] actualFileChecksum = null;
+
+				while (chunks.hasMoreElements()) {
+					Chunk chunk = chunks.nextElement();
+
+					if (chunk != null) {
+						expectedFileDigest.update(chunk.getChecksum());
+						actualFileChecksum = chunk.getFileChecksum();
+					}
+				}
+
+				chunks.close();
+
+				assertArrayEquals("File checksum differs for " + chunker, expectedFileDigest.digest(), actualFileChecksum);
+				assertArrayEquals("Recalculated file checksum differs for " + chunker, actualFileChecksum, chunker.createFileChecksum(inputFile));
+			}
+		}
+	}
+
+	private List<Chunker> createChunkers(String digestAlgorithm, FileChecksumMode fileChecksumMode) {
+		TttdChunker streamTttdChunker = new TttdChunker(16*1024, TttdChunker.DEFAULT_WINDOW_SIZE, digestAlgorithm, "Adler32");
+		streamTttdChunker.setMappedThreshold(-1);
+
+		TttdChunker mappedTttdChunker = new TttdChunker(16*1024, TttdChunker.DEFAULT_WINDOW_SIZE, digestAlgorithm, "Adler32");
+		mappedTttdChunker.setMappedThreshold(0);
+		mappedTttdChunker.setParallelThreshold(-1);
+
+		TttdChunker parallelTttdChunker = new TttdChunker(16*1024, TttdChunker.DEFAULT_WINDOW_SIZE, digestAlgorithm, "Adler32");
+		parallelTttdChunker.setMappedThreshold(0);
+		parallelTttdChunker.setParallelThreshold(0);
+		parallelTttdChunker.setParallelThreads(2);
+
+		FastCdcChunker fastCdcChunker = new FastCdcChunker(16*1024, digestAlgorithm);
+		FixedChunker fixedChunker = new FixedChunker(16*1024, digestAlgorithm);
+
+		List<Chunker> chunkers = Arrays.asList(new Chunker[] { streamTttdChunker, mappedTttdChunker, parallelTttdChunker, fastCdcChunker, fixedChunker });
+
+		for (Chunker chunker : chunkers) {
+			chunker.setFileChecksumMode(fileChecksumMode);
+		}
+
+		return chunkers;
+	}
+
+	private byte[] chunkFile(Chunker chunker, File inputFile) throws Exception {
+		ChunkEnumeration chunks = chunker.createChunks(inputFile);
+		byte[] fileChecksum = null;
+
+		while (chunks.hasMoreElements()) {
+			Chunk chunk = chunks.nextElement();
+
+			if (chunk != null) {
+				fileChecksum = chunk.getFileChecksum();
+			}
+		}
+
+		chunks.close();
+
+		assertNotNull("No file checksum emitted by " + chunker, fileChecksum);
+		return fileChecksum;
+	}
+}
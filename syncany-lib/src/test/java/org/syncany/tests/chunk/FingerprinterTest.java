@@ -0,0 +1,107 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Fingerprinter;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.tests.util.TestFileUtil;
+
+public class FingerprinterTest {
+	private static final Logger logger = Logger.getLogger(FingerprinterTest.class.getSimpleName());
+	private static final List<String> FINGERPRINTERS = Arrays.asList(new String[] { "Adler32", "Buzhash", "RabinKarp", "Gear" });
+	
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testGetInstance() throws Exception {
+		for (String name : FINGERPRINTERS) {
+			assertEquals("Other toString() result expected.", name, Fingerprinter.getInstance(name).toString());
+		}
+	}
+	
+	@Test
+	public void testRollEqualsCheck() throws Exception {
+		byte[] data = TestFileUtil.createArray(4096, new Random(1));
+		
+		for (String name : FINGERPRINTERS) {
+			for (int windowSize : new int[] { 16, 48 }) {
+				Fingerprinter rollingFingerprinter = Fingerprinter.getInstance(name);
+				Fingerprinter checkingFingerprinter = Fingerprinter.getInstance(name);
+				
+				rollingFingerprinter.check(data, 0, windowSize);
+				
+				for (int offset = 1; offset + windowSize <= data.length; offset++) {
+					rollingFingerprinter.roll(data[offset + windowSize - 1]);
+					checkingFingerprinter.check(data, offset, windowSize);
+					
+					assertEquals("Rolled value differs from checked value for " + name + " at offset " + offset, 
+							checkingFingerprinter.getValue(), rollingFingerprinter.getValue());
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testChunkSizeDistribution() throws Exception {
+		final int TOTAL_FILE_SIZE = 4*1024*1024;
+		final int AVG_CHUNK_SIZE = 16*1024;
+		
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, TOTAL_FILE_SIZE);
+		
+		for (String name : FINGERPRINTERS) {
+			TttdChunker chunker = new TttdChunker(AVG_CHUNK_SIZE, TttdChunker.DEFAULT_WINDOW_SIZE, TttdChunker.DEFAULT_DIGEST_ALG, name);
+			Enumeration<Chunk> chunkEnumeration = chunker.createChunks(inputFile);
+			int chunkCount = 0;
+			
+			while (chunkEnumeration.hasMoreElements()) {
+				chunkEnumeration.nextElement();
+				chunkCount++;
+			}
+			
+			int avgChunkSize = TOTAL_FILE_SIZE / chunkCount;
+			logger.log(Level.INFO, name + ": " + chunkCount + " chunks, avg. chunk size " + avgChunkSize + " bytes");
+			
+			assertTrue("Avg. chunk size too far off for " + name + ": " + avgChunkSize, avgChunkSize > AVG_CHUNK_SIZE/2 && avgChunkSize < AVG_CHUNK_SIZE*3);
+		}
+	}
+}
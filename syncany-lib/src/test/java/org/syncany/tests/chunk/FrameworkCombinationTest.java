@@ -44,10 +44,14 @@ import org.syncany.chunk.Chunker;
 import org.syncany.chunk.CipherTransformer;
 import org.syncany.chunk.Deduper;
 import org.syncany.chunk.DeduperListener;
+import org.syncany.chunk.FastCdcChunker;
 import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.IndexedMultiChunker;
+import org.syncany.chunk.Lz4Transformer;
 import org.syncany.chunk.MultiChunk;
 import org.syncany.chunk.MultiChunker;
 import org.syncany.chunk.NoTransformer;
+import org.syncany.chunk.SegmentedCipherTransformer;
 import org.syncany.chunk.TttdChunker;
 import org.syncany.chunk.Transformer;
 import org.syncany.chunk.ZipMultiChunker;
@@ -115,6 +119,7 @@ public class FrameworkCombinationTest {
 		for (int i = 0; i < multiChunkSizes.length; i++) {
 			//multiChunkers.add(new CustomMultiChunker(multiChunkSizes[i]));
 			multiChunkers.add(new ZipMultiChunker(multiChunkSizes[i]));
+			multiChunkers.add(new IndexedMultiChunker(multiChunkSizes[i]));
 		}
 
 		// Chunks
@@ -133,6 +138,12 @@ public class FrameworkCombinationTest {
 				}
 			}
 		}
+		
+		int[] fastCdcChunkSizes = new int[] { 8*1024, 16*1024 };
+		
+		for (int i = 0; i < fastCdcChunkSizes.length; i++) {
+			chunkers.add(new FastCdcChunker(fastCdcChunkSizes[i]));
+		}
 
 		// Compression/Encryption
 		List<CipherSpec> cipherSpecs = new ArrayList<CipherSpec>();
@@ -145,6 +156,9 @@ public class FrameworkCombinationTest {
 		transformerChains.add(new GzipTransformer());
 		transformerChains.add(new CipherTransformer(cipherSpecs, masterKey));
 		transformerChains.add(new GzipTransformer(new CipherTransformer(cipherSpecs, masterKey)));
+		transformerChains.add(new Lz4Transformer());
+		transformerChains.add(new Lz4Transformer(new CipherTransformer(cipherSpecs, masterKey)));
+		transformerChains.add(new Lz4Transformer(new SegmentedCipherTransformer(cipherSpecs.get(0), masterKey)));
 
 		for (MultiChunker multiChunker : multiChunkers) {
 			for (Transformer transformer : transformerChains) {
@@ -19,12 +19,18 @@ package org.syncany.tests.chunk;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
@@ -38,6 +44,7 @@ import org.junit.Test;
 import org.syncany.chunk.Chunk;
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.IndexedMultiChunker;
 import org.syncany.chunk.MultiChunk;
 import org.syncany.chunk.MultiChunker;
 import org.syncany.chunk.NoTransformer;
@@ -60,7 +67,8 @@ public class MultiChunkerTest {
 		
 		MultiChunker[] multiChunkers = new MultiChunker[] { 
 			//new CustomMultiChunker(minMultiChunkSize),
-			new ZipMultiChunker(minMultiChunkSize) 
+			new ZipMultiChunker(minMultiChunkSize),
+			new IndexedMultiChunker(minMultiChunkSize)
 		};
 		
 		for (Chunker chunker : chunkers) {
@@ -122,6 +130,79 @@ public class MultiChunkerTest {
 		TestFileUtil.deleteDirectory(tempDir);
 	}	
 	
+	@Test
+	public void testIndexedRandomAccess() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 100*4096 + 123);
+		File indexedMultiChunkFile = new File(tempDir, "multichunk-indexed");
+		File zipMultiChunkFile = new File(tempDir, "multichunk-zip");
+		
+		// Write all chunks to an indexed and a zip multichunk
+		List<byte[]> checksums = new ArrayList<byte[]>();
+		List<byte[]> contents = new ArrayList<byte[]>();
+		
+		MultiChunk indexedMultiChunk = new IndexedMultiChunker(0).createMultiChunk(new byte[] { 1 }, new FileOutputStream(indexedMultiChunkFile));
+		MultiChunk zipMultiChunk = new ZipMultiChunker(0).createMultiChunk(new byte[] { 1 }, new FileOutputStream(zipMultiChunkFile));		
+		Enumeration<Chunk> chunks = new FixedChunker(4096).createChunks(inputFile);
+		
+		while (chunks.hasMoreElements()) {
+			Chunk chunk = chunks.nextElement();
+			
+			checksums.add(chunk.getChecksum());
+			contents.add(Arrays.copyOf(chunk.getContent(), chunk.getSize()));
+			
+			indexedMultiChunk.write(chunk);
+			zipMultiChunk.write(chunk);
+		}
+		
+		indexedMultiChunk.close();
+		zipMultiChunk.close();
+		
+		assertTrue("Indexed multichunk should be smaller than zip multichunk", indexedMultiChunkFile.length() < zipMultiChunkFile.length());
+
+		// Read it randomly
+		MultiChunk readMultiChunk = new IndexedMultiChunker(0).createMultiChunk(indexedMultiChunkFile);
+		Random random = new Random();
+		
+		for (int i = 0; i < 100; i++) {
+			int chunkIndex = random.nextInt(checksums.size());
+			InputStream chunkInputStream = readMultiChunk.getChunkInputStream(checksums.get(chunkIndex));
+			
+			assertArrayEquals(contents.get(chunkIndex), readFully(chunkInputStream));
+		}
+		
+		assertNull(readMultiChunk.getChunkInputStream(new byte[] { 1, 2, 3 }));
+		readMultiChunk.close();
+		
+		// Read it sequentially from a stream
+		MultiChunk streamMultiChunk = new IndexedMultiChunker(0).createMultiChunk(new FileInputStream(indexedMultiChunkFile));
+		
+		for (int i = 0; i < checksums.size(); i++) {
+			Chunk chunk = streamMultiChunk.read();
+			
+			assertArrayEquals(checksums.get(i), chunk.getChecksum());
+			assertArrayEquals(contents.get(i), Arrays.copyOf(chunk.getContent(), chunk.getSize()));
+		}
+		
+		assertNull(streamMultiChunk.read());
+		streamMultiChunk.close();
+		
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+	
+	private byte[] readFully(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		
+		while (-1 != (read = inputStream.read(buffer))) {
+			outputStream.write(buffer, 0, read);
+		}
+		
+		inputStream.close();
+		return outputStream.toByteArray();
+	}
+	
 	public void chunkFileIntoMultiChunks(Chunker chunker, MultiChunker multiChunker, int minMultiChunkSize) throws Exception {
 		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
 		
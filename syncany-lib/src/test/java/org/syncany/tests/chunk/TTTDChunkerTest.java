@@ -22,12 +22,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -35,6 +40,9 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.syncany.chunk.Chunk;
 import org.syncany.chunk.Chunker;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.MappedChunkEnumeration;
+import org.syncany.chunk.ParallelChunkEnumeration;
 import org.syncany.chunk.TttdChunker;
 import org.syncany.tests.util.TestFileUtil;
 import org.syncany.util.FileUtil;
@@ -127,4 +135,144 @@ public class TTTDChunkerTest {
 		assertNull("No chunk expected, but data received.", chunkEnumeration.nextElement());
 		assertFalse("hasElements() should return 'false' if no chunk available.", chunkEnumeration.hasMoreElements());
 	}
+
+	@Test
+	public void testBlockEnumerationEqualsStreamEnumeration() throws Exception {
+		TttdChunker chunker = new TttdChunker(8*1024);
+		chunker.setMappedThreshold(-1);
+		
+		for (File file : createEdgeCaseFiles(chunker)) {
+			List<Chunk> streamChunks = createChunks(chunker.new TTTDEnumeration(new FileInputStream(file)));
+			List<Chunk> blockChunks = createChunks(chunker.createChunks(file));
+			
+			assertChunksEqual(file, streamChunks, blockChunks);
+		}
+	}
+	
+	@Test
+	public void testMappedEnumerationEqualsStreamEnumeration() throws Exception {
+		TttdChunker chunker = new TttdChunker(8*1024);
+		chunker.setMappedThreshold(0);
+		
+		for (File file : createEdgeCaseFiles(chunker)) {
+			List<Chunk> streamChunks = createChunks(chunker.new TTTDEnumeration(new FileInputStream(file)));
+			ChunkEnumeration mappedChunkEnumeration = chunker.createChunks(file);
+			
+			if (file.length() > 0) {
+				assertTrue("Expected mapped enumeration.", mappedChunkEnumeration instanceof MappedChunkEnumeration);
+				((MappedChunkEnumeration) mappedChunkEnumeration).setWindowSize(100*1024); // Force remapping
+			}
+			
+			List<Chunk> mappedChunks = createChunks(mappedChunkEnumeration);			
+			assertChunksEqual(file, streamChunks, mappedChunks);
+			
+			// Content must be available after the next chunk was requested
+			for (int i=0; i<streamChunks.size(); i++) {
+				assertArrayEquals("Chunk content differs.", Arrays.copyOf(streamChunks.get(i).getContent(), streamChunks.get(i).getSize()), 
+						Arrays.copyOf(mappedChunks.get(i).getContent(), mappedChunks.get(i).getSize()));
+			}
+		}
+	}
+	
+	@Test
+	public void testParallelEnumerationEqualsStreamEnumeration() throws Exception {
+		TttdChunker chunker = new TttdChunker(8*1024);
+		chunker.setMappedThreshold(0);
+		chunker.setParallelThreshold(0);
+		chunker.setParallelThreads(4);
+		
+		List<File> inputFiles = createEdgeCaseFiles(chunker);
+		inputFiles.add(TestFileUtil.createRandomFileInDirectory(tempDir, 3*1024*1024+5));
+		
+		for (File file : inputFiles) {
+			List<Chunk> streamChunks = createChunks(chunker.new TTTDEnumeration(new FileInputStream(file)));
+			ChunkEnumeration parallelChunkEnumeration = chunker.createChunks(file);
+			
+			if (file.length() > 0) {
+				assertTrue("Expected parallel enumeration.", parallelChunkEnumeration instanceof ParallelChunkEnumeration);
+				((ParallelChunkEnumeration) parallelChunkEnumeration).setSegmentSize(64*1024); // Force many segment edges
+			}
+			
+			List<Chunk> parallelChunks = createChunks(parallelChunkEnumeration);			
+			assertChunksEqual(file, streamChunks, parallelChunks);
+		}
+	}
+	
+	@Test
+	public void testParallelEnumerationWithoutContentBreakpoints() throws Exception {
+		final int SEGMENT_SIZE = 64*1024;
+		final int TOTAL_FILE_SIZE = 50*SEGMENT_SIZE + 123;
+		
+		TttdChunker chunker = new TttdChunker(8*1024);
+		chunker.setMappedThreshold(0);
+		chunker.setParallelThreshold(0);
+		chunker.setParallelThreads(4);
+		
+		// Zeros never produce a breakpoint, i.e. all chunks are cut at Tmax
+		File inputFile = TestFileUtil.getRandomFilenameInDirectory(tempDir);
+		TestFileUtil.writeByteArrayToFile(new byte[TOTAL_FILE_SIZE], inputFile);
+		
+		List<Chunk> streamChunks = createChunks(chunker.new TTTDEnumeration(new FileInputStream(inputFile)));
+		
+		ParallelChunkEnumeration parallelChunkEnumeration = (ParallelChunkEnumeration) chunker.createChunks(inputFile);
+		parallelChunkEnumeration.setSegmentSize(SEGMENT_SIZE);
+		
+		List<Chunk> parallelChunks = createChunks(parallelChunkEnumeration);			
+
+		// Boundaries may differ near segment edges, but content and file checksum must match
+		long totalSize = 0;
+		
+		for (Chunk chunk : parallelChunks) {
+			totalSize += chunk.getSize();
+		}
+		
+		assertEquals("Total size of chunks differs from file size.", TOTAL_FILE_SIZE, totalSize);
+		assertArrayEquals("File checksum differs.", streamChunks.get(streamChunks.size()-1).getFileChecksum(), 
+				parallelChunks.get(parallelChunks.size()-1).getFileChecksum());		
+		assertTrue("Difference to sequential chunks should be bounded.", 
+				parallelChunks.size() <= streamChunks.size() + 50*(ParallelChunkEnumeration.MAX_RESYNC_CHUNKS+1));
+	}
+	
+	private List<File> createEdgeCaseFiles(TttdChunker chunker) throws IOException {
+		List<File> inputFiles = new ArrayList<File>();
+		
+		inputFiles.add(TestFileUtil.createRandomFileInDirectory(tempDir, 0));
+		inputFiles.add(TestFileUtil.createRandomFileInDirectory(tempDir, 1));
+		inputFiles.add(TestFileUtil.createRandomFileInDirectory(tempDir, 5*1024));
+		inputFiles.add(TestFileUtil.createRandomFileInDirectory(tempDir, 8192));
+		inputFiles.add(TestFileUtil.createRandomFileInDirectory(tempDir, 1024*1024+17));
+		
+		// File that ends exactly at a content-based breakpoint
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 1024*1024);
+		ChunkEnumeration chunkEnumeration = chunker.new TTTDEnumeration(new FileInputStream(inputFile));
+		Chunk firstChunk = chunkEnumeration.nextElement();		
+		chunkEnumeration.close();
+		
+		File breakpointAtEndFile = TestFileUtil.getRandomFilenameInDirectory(tempDir);
+		TestFileUtil.writeByteArrayToFile(Arrays.copyOf(firstChunk.getContent(), firstChunk.getSize()), breakpointAtEndFile);		
+		inputFiles.add(breakpointAtEndFile);
+		
+		return inputFiles;
+	}
+	
+	private void assertChunksEqual(File file, List<Chunk> expectedChunks, List<Chunk> actualChunks) {
+		assertEquals("Number of chunks differs for file "+file, expectedChunks.size(), actualChunks.size());
+		
+		for (int i=0; i<expectedChunks.size(); i++) {
+			assertEquals("Chunk size differs.", expectedChunks.get(i).getSize(), actualChunks.get(i).getSize());
+			assertArrayEquals("Chunk checksum differs.", expectedChunks.get(i).getChecksum(), actualChunks.get(i).getChecksum());
+			assertArrayEquals("File checksum differs.", expectedChunks.get(i).getFileChecksum(), actualChunks.get(i).getFileChecksum());
+		}
+	}
+	
+	private List<Chunk> createChunks(ChunkEnumeration chunkEnumeration) {
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		
+		while (chunkEnumeration.hasMoreElements()) {
+			chunks.add(chunkEnumeration.nextElement()); // Content is not valid after next call!
+		}
+		
+		chunkEnumeration.close();		
+		return chunks;
+	}
 }
@@ -0,0 +1,122 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.simpleframework.xml.core.Persister;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.config.Config;
+import org.syncany.config.to.ConfigTO;
+import org.syncany.config.to.RepoTO;
+import org.syncany.config.to.RepoTO.ChunkerTO;
+import org.syncany.tests.util.TestFileUtil;
+
+public class ConfigTest {
+	private File tempDir;
+	
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+	
+	@Test
+	public void testLegacyChunkerSettingsAreIgnored() throws Exception {
+		// Repo file as written by 'sy init' before chunkers were configurable
+		String legacyRepoXml = 
+			  "<repo xmlns=\"http://syncany.org/repo/1\">\n"
+			+ "  <repoid>0f0e0d0c0b0a09080706050403020100</repoid>\n"
+			+ "  <chunker type=\"fixed\">\n"
+			+ "    <property name=\"size\">16</property>\n"
+			+ "  </chunker>\n"
+			+ "  <multichunker type=\"zip\">\n"
+			+ "    <property name=\"size\">4096</property>\n"
+			+ "  </multichunker>\n"
+			+ "</repo>";
+		
+		RepoTO repoTO = new Persister().read(RepoTO.class, legacyRepoXml);
+		Config config = new Config(tempDir, createConfigTO(), repoTO);
+
+		assertTrue("Chunker TO without version must be legacy.", repoTO.getChunker().isLegacy());
+		assertNull(repoTO.getChunker().getVersion());
+		assertEquals(new FixedChunker(FixedChunker.DEFAULT_CHUNK_SIZE, FixedChunker.DEFAULT_DIGEST_ALG).toString(), config.getChunker().toString());
+	}
+	
+	@Test
+	public void testVersionedChunkerSettingsAreApplied() throws Exception {
+		RepoTO repoTO = createRepoTO(FixedChunker.TYPE, "16");
+
+		Config config = new Config(tempDir, createConfigTO(), writeAndReadRepoTO(repoTO));
+		assertEquals(new FixedChunker(16*1024, FixedChunker.DEFAULT_DIGEST_ALG).toString(), config.getChunker().toString());
+	}
+	
+	@Test
+	public void testVersionedTttdChunkerSettingsAreApplied() throws Exception {
+		RepoTO repoTO = createRepoTO(TttdChunker.TYPE, "8");
+
+		Config config = new Config(tempDir, createConfigTO(), writeAndReadRepoTO(repoTO));
+		assertTrue("Expected TTTD chunker, got " + config.getChunker(), config.getChunker() instanceof TttdChunker);
+	}
+	
+	private RepoTO createRepoTO(String chunkerType, String chunkerSize) throws Exception {
+		RepoTO repoTO = new Persister().read(RepoTO.class, 
+			  "<repo xmlns=\"http://syncany.org/repo/1\">"
+			+ "<repoid>0f0e0d0c0b0a09080706050403020100</repoid>"
+			+ "<multichunker type=\"zip\"><property name=\"size\">4096</property></multichunker>"
+			+ "</repo>");
+		
+		ChunkerTO chunkerTO = new ChunkerTO();
+		chunkerTO.setType(chunkerType);
+		chunkerTO.setVersion(ChunkerTO.CURRENT_VERSION);
+		chunkerTO.setSettings(new HashMap<String, String>());
+		chunkerTO.getSettings().put(FixedChunker.PROPERTY_SIZE, chunkerSize);
+		
+		repoTO.setChunker(chunkerTO);		
+		return repoTO;
+	}
+	
+	private RepoTO writeAndReadRepoTO(RepoTO repoTO) throws Exception {
+		StringWriter repoXml = new StringWriter();
+		new Persister().write(repoTO, repoXml);
+		
+		assertTrue("Version must be written to repo file.", repoXml.toString().contains("version=\"" + ChunkerTO.CURRENT_VERSION + "\""));		
+		return new Persister().read(RepoTO.class, repoXml.toString());
+	}
+	
+	private ConfigTO createConfigTO() {
+		ConfigTO configTO = new ConfigTO();
+		configTO.setMachineName("configtest");
+		
+		return configTO;
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.junit.Test;
+import org.syncany.config.Logging;
+import org.syncany.crypto.CipherUtil;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.StringUtil;
+
+public class Blake2bDigestTest {
+	static {
+		Logging.init();
+		CipherUtil.init();
+	}
+
+	@Test
+	public void testBlake2bTestVectors() throws Exception {
+		// Test vectors from RFC 7693, Appendix A, and the BLAKE2 reference implementation
+		assertDigestEquals("BLAKE2b-512", "", "786a02f742015903c6c6fd852552d272912f4740e15847618a86e217f71f5419d25e1031afee585313896444934eb04b903a685b1448b755d56f701afe9be2ce");
+		assertDigestEquals("BLAKE2b-512", "abc", "ba80a53f981c4d0d6a2797b69f12f6e94c212f14685ac4b74b12bb6fdbffa2d17d87c5392aab792dc252d5de4533cc9518d38aa8dbf1925ab92386edd4009923");
+		assertDigestEquals("BLAKE2b-256", "", "0e5751c026e543b2e8ab2eb06099daa1d1e5df47778f7787faab45cdf12fe3a8");
+		assertDigestEquals("BLAKE2b-256", "abc", "bddd813c634239723171ef3fee98579b94964e3bb1cb3e427262c8c068d52319");
+	}
+
+	@Test
+	public void testBlake2bIncrementalUpdate() throws Exception {
+		byte[] data = TestFileUtil.createArray(1000, new Random(1));
+		MessageDigest digest = MessageDigest.getInstance("BLAKE2b-256");
+
+		byte[] expectedChecksum = digest.digest(data);
+
+		// Split at and around the block boundaries (128 bytes)
+		for (int split : new int[] { 0, 1, 127, 128, 129, 256, 999, 1000 }) {
+			digest.update(data, 0, split);
+			digest.update(data, split, data.length - split);
+
+			assertArrayEquals("Digest differs for split at " + split, expectedChecksum, digest.digest());
+		}
+
+		// Single bytes
+		for (byte b : data) {
+			digest.update(b);
+		}
+
+		assertArrayEquals("Digest differs for single-byte updates", expectedChecksum, digest.digest());
+	}
+
+	private void assertDigestEquals(String digestAlgorithm, String input, String expectedChecksumHex) throws Exception {
+		byte[] actualChecksum = MessageDigest.getInstance(digestAlgorithm).digest(input.getBytes("ASCII"));
+		assertEquals("Digest mismatch for " + digestAlgorithm + "(\"" + input + "\")", expectedChecksumHex, StringUtil.toHex(actualChecksum));
+	}
+}
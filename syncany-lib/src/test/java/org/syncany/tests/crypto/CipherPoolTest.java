@@ -0,0 +1,105 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+import org.syncany.config.Logging;
+import org.syncany.crypto.CipherPool;
+import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.MultiCipherOutputStream;
+import org.syncany.crypto.SaltedSecretKey;
+
+public class CipherPoolTest {
+	static {
+		Logging.init();
+	}
+	
+	@Test
+	public void testBorrowAndReturnCipher() throws Exception {
+		CipherSpec cipherSpec = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+		SaltedSecretKey secretKey = createSecretKey(cipherSpec);
+		
+		Cipher cipher1 = CipherPool.borrowCipher(cipherSpec, Cipher.ENCRYPT_MODE, secretKey, createIv(cipherSpec));
+		Cipher cipher2 = CipherPool.borrowCipher(cipherSpec, Cipher.ENCRYPT_MODE, secretKey, createIv(cipherSpec));
+		
+		assertNotSame(cipher1, cipher2);
+		
+		CipherPool.returnCipher(cipherSpec, cipher1);
+		assertSame(cipher1, CipherPool.borrowCipher(cipherSpec, Cipher.ENCRYPT_MODE, secretKey, createIv(cipherSpec)));
+	}
+	
+	@Test
+	public void testReusedCipherIsReinitialized() throws Exception {
+		CipherSpec cipherSpec = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+		SaltedSecretKey secretKey = createSecretKey(cipherSpec);		
+		byte[] plaintext = new byte[1000];
+		new Random(3).nextBytes(plaintext);
+		
+		// Return cipher in the middle of an encryption
+		Cipher dirtyCipher = CipherPool.borrowCipher(cipherSpec, Cipher.ENCRYPT_MODE, secretKey, createIv(cipherSpec));
+		dirtyCipher.update(new byte[123]);
+		
+		CipherPool.returnCipher(cipherSpec, dirtyCipher);
+		
+		// Reuse it with a new IV, and compare with a fresh cipher
+		byte[] iv = createIv(cipherSpec);
+		
+		Cipher reusedCipher = CipherPool.borrowCipher(cipherSpec, Cipher.ENCRYPT_MODE, secretKey, iv);
+		Cipher freshCipher = CipherUtil.createEncCipher(cipherSpec, secretKey, iv);
+		
+		assertSame(dirtyCipher, reusedCipher);
+		assertArrayEquals(freshCipher.doFinal(plaintext), reusedCipher.doFinal(plaintext));
+	}
+	
+	@Test
+	public void testBorrowAndReturnMac() throws Exception {
+		SaltedSecretKey secretKey = createSecretKey(MultiCipherOutputStream.HMAC_SPEC);
+		
+		Mac mac1 = CipherPool.borrowMac(MultiCipherOutputStream.HMAC_SPEC, secretKey);
+		mac1.update(new byte[] { 1, 2, 3 });
+		
+		CipherPool.returnMac(MultiCipherOutputStream.HMAC_SPEC, mac1);
+		
+		Mac mac2 = CipherPool.borrowMac(MultiCipherOutputStream.HMAC_SPEC, secretKey);
+		Mac freshMac = Mac.getInstance(MultiCipherOutputStream.HMAC_SPEC.getAlgorithm());
+		freshMac.init(secretKey);
+		
+		assertSame(mac1, mac2);
+		assertArrayEquals(freshMac.doFinal(new byte[] { 4, 5 }), mac2.doFinal(new byte[] { 4, 5 }));
+	}
+	
+	private SaltedSecretKey createSecretKey(CipherSpec cipherSpec) throws Exception {
+		return CipherUtil.createDerivedKey(new SecretKeySpec(new byte[64], "AnyAlgorithm"), new byte[12], cipherSpec);
+	}
+	
+	private byte[] createIv(CipherSpec cipherSpec) {
+		return CipherUtil.createRandomArray(cipherSpec.getIvSize() / 8);
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.security.Provider;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+import org.syncany.config.Logging;
+import org.syncany.crypto.CipherParams;
+import org.syncany.crypto.CipherProviders;
+import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.SaltedSecretKey;
+
+public class CipherProvidersTest {
+	static {
+		Logging.init();
+	}
+	
+	@Test
+	public void testProviderSelection() {
+		for (CipherSpec cipherSpec : CipherSpecs.getAvailableCipherSpecs().values()) {
+			assertNotNull(CipherProviders.getProvider(cipherSpec));
+		}
+		
+		// No JDK provider offers Twofish
+		assertEquals(CipherParams.CRYPTO_PROVIDER_ID, CipherProviders.getProvider(CipherSpecs.getCipherSpec(CipherSpecs.TWOFISH_128_GCM)).getName());
+	}
+	
+	@Test
+	public void testDecryptionProviderSelection() throws Exception {
+		for (CipherSpec cipherSpec : CipherSpecs.getAvailableCipherSpecs().values()) {
+			Provider encryptionProvider = CipherProviders.getProvider(cipherSpec, Cipher.ENCRYPT_MODE);
+			Provider decryptionProvider = CipherProviders.getProvider(cipherSpec, Cipher.DECRYPT_MODE);
+			
+			assertSame(CipherProviders.getProvider(cipherSpec), encryptionProvider);
+			assertTrue("Decryption provider must be the selected provider or Bouncy Castle, but was " + decryptionProvider.getName(), 
+					decryptionProvider == encryptionProvider || CipherParams.CRYPTO_PROVIDER_ID.equals(decryptionProvider.getName()));
+			
+			assertTrue("Decryption provider " + decryptionProvider.getName() + " must stream for " + cipherSpec, 
+					isStreamingDecryption(cipherSpec, decryptionProvider));
+			
+			// SunJCE buffers the entire ciphertext when decrypting AES/GCM
+			if (cipherSpec.getAlgorithm().contains("/GCM/")) {
+				assertFalse("SunJCE must not be used to decrypt " + cipherSpec, "SunJCE".equals(decryptionProvider.getName()));
+			}
+		}
+	}
+	
+	@Test
+	public void testSelectedProviderCompatibleWithBouncyCastle() throws Exception {
+		SaltedSecretKey masterKey = new SaltedSecretKey(new SecretKeySpec(new byte[64], "AnyAlgorithm"), new byte[64]);
+		
+		byte[] plaintext = new byte[300*1024 + 17];
+		new Random(7).nextBytes(plaintext);
+		
+		for (CipherSpec cipherSpec : CipherSpecs.getAvailableCipherSpecs().values()) {
+			List<CipherSpec> cipherSpecs = Arrays.asList(new CipherSpec[] { cipherSpec });
+			Provider selectedProvider = CipherProviders.getProvider(cipherSpec);
+			
+			try {
+				// Encrypt with selected provider, decrypt with Bouncy Castle
+				byte[] selectedCiphertext = CipherUtil.encrypt(plaintext, cipherSpecs, masterKey);
+				
+				CipherProviders.setProvider(cipherSpec, CipherParams.CRYPTO_PROVIDER);
+				assertArrayEquals(plaintext, CipherUtil.decrypt(new ByteArrayInputStream(selectedCiphertext), masterKey));
+				
+				// Encrypt with Bouncy Castle, decrypt with selected provider
+				byte[] bouncyCastleCiphertext = CipherUtil.encrypt(plaintext, cipherSpecs, masterKey);
+				
+				CipherProviders.setProvider(cipherSpec, selectedProvider);
+				assertArrayEquals(plaintext, CipherUtil.decrypt(new ByteArrayInputStream(bouncyCastleCiphertext), masterKey));
+			}
+			finally {
+				CipherProviders.setProvider(cipherSpec, null);
+			}
+		}
+	}
+	
+	private boolean isStreamingDecryption(CipherSpec cipherSpec, Provider provider) throws Exception {
+		SecretKey secretKey = CipherUtil.toSecretKey(new byte[cipherSpec.getKeySize() / 8], cipherSpec.getAlgorithm());
+		byte[] iv = new byte[cipherSpec.getIvSize() / 8];
+		
+		Cipher encryptCipher = Cipher.getInstance(cipherSpec.getAlgorithm(), CipherParams.CRYPTO_PROVIDER);
+		encryptCipher.init(Cipher.ENCRYPT_MODE, secretKey, CipherProviders.createParameterSpec(cipherSpec, CipherParams.CRYPTO_PROVIDER, iv));
+		byte[] ciphertext = encryptCipher.doFinal(new byte[64*1024]);
+		
+		Cipher decryptCipher = Cipher.getInstance(cipherSpec.getAlgorithm(), provider);
+		decryptCipher.init(Cipher.DECRYPT_MODE, secretKey, CipherProviders.createParameterSpec(cipherSpec, provider, iv));
+		byte[] plaintext = decryptCipher.update(ciphertext, 0, ciphertext.length / 2);
+		
+		return plaintext != null && plaintext.length > 0;
+	}
+}
@@ -17,8 +17,13 @@
  */
 package org.syncany.tests.crypto;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.crypto.spec.SecretKeySpec;
 
@@ -28,6 +33,7 @@ import org.syncany.crypto.CipherSession;
 import org.syncany.crypto.CipherSpec;
 import org.syncany.crypto.CipherSpecs;
 import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.MultiCipherOutputStream;
 import org.syncany.crypto.SaltedSecretKey;
 import org.syncany.util.StringUtil;
 
@@ -80,9 +86,104 @@ public class CipherSessionTest {
 		assertNotSame(readSecretKey1Aes128, readSecretKey3Aes128);
 		assertNotSame(readSecretKey2Aes128, readSecretKey3Aes128);
 		
-		// TODO [medium] This does NOT TEST the actual read cache. How to test this. The cache is completely hidden/private?!
+		assertEquals(0, cipherSession.getReadCacheHits());
+		assertEquals(3, cipherSession.getReadCacheMisses());
+		
+		// Most recently used key is always cached
+		assertSame(readSecretKey3Aes128, cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt3));
+		assertEquals(1, cipherSession.getReadCacheHits());
+		assertEquals(3, cipherSession.getKeyDerivationCount());
 	}	
 	
+	@Test
+	public void testCipherSessionReadKeyCacheEviction() throws Exception {
+		CipherSession cipherSession = new CipherSession(createDummyMasterKey(), 1, 999);
+		CipherSpec cipherSpecAes128 = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+		
+		byte[] readKeySalt1 = CipherUtil.createRandomArray(MultiCipherOutputStream.SALT_SIZE);
+		byte[] readKeySalt2 = CipherUtil.createRandomArray(MultiCipherOutputStream.SALT_SIZE);
+		
+		SaltedSecretKey readSecretKey1Aes128 = cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt1);
+		assertSame(readSecretKey1Aes128, cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt1));
+		
+		cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt2); // Evicts key 1
+		SaltedSecretKey readSecretKey1Aes128Again = cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt1);
+		
+		assertNotSame(readSecretKey1Aes128, readSecretKey1Aes128Again);
+		assertArrayEquals(readSecretKey1Aes128.getEncoded(), readSecretKey1Aes128Again.getEncoded());
+		
+		assertEquals(1, cipherSession.getReadCacheHits());
+		assertEquals(3, cipherSession.getReadCacheMisses());
+	}	
+	
+	@Test
+	public void testCipherSessionWriteKeyCounters() throws Exception {
+		CipherSession cipherSession = new CipherSession(createDummyMasterKey(), 999, 10);
+		CipherSpec cipherSpecAes128 = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+		
+		for (int i = 0; i < 25; i++) {
+			cipherSession.getWriteSecretKey(cipherSpecAes128);
+		}
+		
+		assertEquals(3, cipherSession.getWriteCacheMisses());
+		assertEquals(22, cipherSession.getWriteCacheHits());
+		assertEquals(3, cipherSession.getKeyDerivationCount());
+	}
+	
+	@Test
+	public void testCipherSessionConcurrentAccess() throws Exception {
+		final CipherSession cipherSession = new CipherSession(createDummyMasterKey(), 16, 50);
+		final CipherSpec cipherSpecAes128 = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+		
+		final byte[][] readKeySalts = new byte[8][];
+		
+		for (int i = 0; i < readKeySalts.length; i++) {
+			readKeySalts[i] = CipherUtil.createRandomArray(MultiCipherOutputStream.SALT_SIZE);
+		}
+		
+		final int threadCount = 4;
+		final int iterations = 500;
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		
+		Thread[] threads = new Thread[threadCount];
+		
+		for (int t = 0; t < threadCount; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < iterations; i++) {
+							byte[] salt = readKeySalts[i % readKeySalts.length];
+							SaltedSecretKey readKey = cipherSession.getReadSecretKey(cipherSpecAes128, salt);
+							
+							assertArrayEquals(salt, readKey.getSalt());
+							assertArrayEquals(CipherUtil.createDerivedKey(cipherSession.getMasterKey(), salt, cipherSpecAes128).getEncoded(), readKey.getEncoded());
+							
+							cipherSession.getWriteSecretKey(cipherSpecAes128);
+						}
+					}
+					catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			});
+			
+			threads[t].start();
+		}
+		
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		if (failure.get() != null) {
+			throw new Exception(failure.get());
+		}
+		
+		assertEquals(threadCount * iterations, cipherSession.getReadCacheHits() + cipherSession.getReadCacheMisses());
+		assertEquals(threadCount * iterations, cipherSession.getWriteCacheHits() + cipherSession.getWriteCacheMisses());
+		assertTrue(cipherSession.getWriteCacheMisses() >= threadCount * iterations / 50);
+	}
+	
 	private SaltedSecretKey createDummyMasterKey() {
 		return new SaltedSecretKey(
 			new SecretKeySpec(
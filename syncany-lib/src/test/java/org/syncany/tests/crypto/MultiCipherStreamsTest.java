@@ -17,6 +17,7 @@
  */
 package org.syncany.tests.crypto;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
 
@@ -25,16 +26,25 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.AlgorithmParameters;
 import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.CipherSpi;
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -47,6 +57,9 @@ import org.syncany.config.Logging;
 import org.syncany.crypto.CipherException;
 import org.syncany.crypto.CipherSpec;
 import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.GcmCompatibleCipherInputStream;
+import org.syncany.crypto.MultiCipherInputStream;
 import org.syncany.crypto.MultiCipherOutputStream;
 import org.syncany.crypto.SaltedSecretKey;
 import org.syncany.util.StringUtil;
@@ -87,6 +100,102 @@ public class MultiCipherStreamsTest {
 		);
 	}	
 	
+	@Test
+	public void testEmptyStream() throws Exception {
+		List<CipherSpec> cipherSpecs = CipherSpecs.getDefaultCipherSpecs();
+		
+		byte[] encryptedData = doEncrypt(new byte[0], new CipherTransformer(cipherSpecs, masterKey));
+		byte[] decryptedData = doDecrypt(encryptedData, new CipherTransformer(cipherSpecs, masterKey));
+		
+		assertEquals(0, decryptedData.length);
+	}
+	
+	@Test
+	public void testMixedSingleByteAndBulkWrites() throws Exception {
+		List<CipherSpec> cipherSpecs = CipherSpecs.getDefaultCipherSpecs();
+		Transformer cipherTransformer = new CipherTransformer(cipherSpecs, masterKey);
+		
+		byte[] srcData = new byte[3*MultiCipherOutputStream.STAGING_BUFFER_SIZE + 123];
+		new Random(42).nextBytes(srcData);
+		
+		// Write single bytes, small and large arrays (larger than the staging buffer)
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		OutputStream os = cipherTransformer.createOutputStream(bos);
+		
+		int[] writeSizes = new int[] { 1, 100, MultiCipherOutputStream.STAGING_BUFFER_SIZE + 7, 1, MultiCipherOutputStream.STAGING_BUFFER_SIZE - 1, 5000 };
+		int offset = 0;
+		
+		for (int i = 0; offset < srcData.length; i++) {
+			int writeSize = Math.min(writeSizes[i % writeSizes.length], srcData.length - offset);
+			
+			if (writeSize == 1) {
+				os.write(srcData[offset]);
+			}
+			else {
+				os.write(srcData, offset, writeSize);
+			}
+			
+			offset += writeSize;
+		}
+		
+		os.close();
+		
+		byte[] decryptedData = doDecrypt(bos.toByteArray(), new CipherTransformer(cipherSpecs, masterKey));		
+		assertArrayEquals(srcData, decryptedData);
+	}
+	
+	@Test
+	public void testDecryptionBlockSizes() throws Exception {
+		byte[] srcData = new byte[1024*1024 + 13];
+		new Random(2).nextBytes(srcData);
+		
+		for (CipherSpec cipherSpec : CipherSpecs.getAvailableCipherSpecs().values()) {
+			SaltedSecretKey secretKey = CipherUtil.createDerivedKey(masterKey, CipherUtil.createRandomArray(MultiCipherOutputStream.SALT_SIZE), cipherSpec);
+			byte[] iv = CipherUtil.createRandomArray(cipherSpec.getIvSize()/8);
+			
+			ByteArrayOutputStream ciphertextOutputStream = new ByteArrayOutputStream();
+			OutputStream encryptingOutputStream = new CipherOutputStream(ciphertextOutputStream, CipherUtil.createEncCipher(cipherSpec, secretKey, iv));
+			
+			encryptingOutputStream.write(srcData);
+			encryptingOutputStream.close();
+			
+			byte[] ciphertext = ciphertextOutputStream.toByteArray();
+			
+			// 512 byte cipher blocks, read with 4 KB buffer
+			InputStream smallBlockInputStream = new GcmCompatibleCipherInputStream(new ByteArrayInputStream(ciphertext), CipherUtil.createDecCipher(cipherSpec, secretKey, iv));
+			assertArrayEquals(srcData, doReadFully(smallBlockInputStream, 4096));
+			
+			// Large cipher blocks, read with a buffer of the same size
+			InputStream largeBlockInputStream = new GcmCompatibleCipherInputStream(new ByteArrayInputStream(ciphertext), CipherUtil.createDecCipher(cipherSpec, secretKey, iv), MultiCipherInputStream.DECRYPTION_BUFFER_SIZE);
+			assertArrayEquals(srcData, doReadFully(largeBlockInputStream, MultiCipherInputStream.DECRYPTION_BUFFER_SIZE));
+		}
+		
+		// Full chain (AES-GCM and Twofish-GCM) through the multi cipher stream
+		Transformer cipherTransformer = new CipherTransformer(CipherSpecs.getDefaultCipherSpecs(), masterKey);
+		byte[] encryptedData = doEncrypt(srcData, cipherTransformer);
+		
+		assertArrayEquals(srcData, doReadFully(new SingleByteInputStream(cipherTransformer.createInputStream(new ByteArrayInputStream(encryptedData))), 4096));
+		assertArrayEquals(srcData, doReadFully(cipherTransformer.createInputStream(new ByteArrayInputStream(encryptedData)), MultiCipherInputStream.DECRYPTION_BUFFER_SIZE));
+	}
+	
+	@Test
+	public void testGcmCompatibleStreamRetriesShortOutputBuffer() throws Exception {
+		byte[] srcData = new byte[100*1024 + 7];
+		new Random(3).nextBytes(srcData);
+		
+		// Cipher outputs immediately in update(), but reports output size 0
+		Cipher updatingCipher = new UnderestimatingCipher(false);
+		updatingCipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(new byte[16], "AnyAlgorithm"));
+		
+		assertArrayEquals(srcData, doReadFully(new GcmCompatibleCipherInputStream(new ByteArrayInputStream(srcData), updatingCipher, 4096), 1000));
+		
+		// Cipher holds back all output until doFinal() (like SunJCE GCM), but reports output size 0
+		Cipher holdingBackCipher = new UnderestimatingCipher(true);
+		holdingBackCipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(new byte[16], "AnyAlgorithm"));
+		
+		assertArrayEquals(srcData, doReadFully(new GcmCompatibleCipherInputStream(new ByteArrayInputStream(srcData), holdingBackCipher, 4096), 1000));
+	}
+	
 	@Test
 	public void testHmacAvailability() throws Exception {
 		Mac.getInstance(MultiCipherOutputStream.HMAC_SPEC.getAlgorithm());
@@ -201,6 +310,146 @@ public class MultiCipherStreamsTest {
 		return decryptedData;
 	}	
 	
+	private byte[] doReadFully(InputStream inputStream, int bufferSize) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[bufferSize];
+		int read = -1;
+		
+		while (-1 != (read = inputStream.read(buffer))) {
+			outputStream.write(buffer, 0, read);
+		}
+		
+		inputStream.close();
+		return outputStream.toByteArray();
+	}
+	
+	/**
+	 * Identity cipher that always reports an output size of zero, i.e. every
+	 * non-empty output requires the caller to retry with a larger buffer.
+	 */
+	private static class UnderestimatingCipher extends Cipher {
+		public UnderestimatingCipher(boolean holdBackOutput) {
+			super(new UnderestimatingCipherSpi(holdBackOutput), null, "Identity");
+		}
+	}
+	
+	private static class UnderestimatingCipherSpi extends CipherSpi {
+		private boolean holdBackOutput;
+		private ByteArrayOutputStream heldBackOutput;
+		
+		public UnderestimatingCipherSpi(boolean holdBackOutput) {
+			this.holdBackOutput = holdBackOutput;
+			this.heldBackOutput = new ByteArrayOutputStream();
+		}
+		
+		@Override
+		protected int engineUpdate(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) throws ShortBufferException {
+			if (holdBackOutput) {
+				heldBackOutput.write(input, inputOffset, inputLen);
+				return 0;
+			}
+			else {
+				return copy(input, inputOffset, inputLen, output, outputOffset);
+			}
+		}
+		
+		@Override
+		protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) throws ShortBufferException {
+			byte[] heldBackBytes = heldBackOutput.toByteArray();
+			
+			if (inputLen > 0) {
+				throw new UnsupportedOperationException("Not used by the cipher stream.");
+			}
+			
+			int outputLen = copy(heldBackBytes, 0, heldBackBytes.length, output, outputOffset);
+			heldBackOutput.reset();
+			
+			return outputLen;
+		}
+		
+		private int copy(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) throws ShortBufferException {
+			if (output.length - outputOffset < inputLen) {
+				throw new ShortBufferException();
+			}
+			
+			System.arraycopy(input, inputOffset, output, outputOffset, inputLen);
+			return inputLen;
+		}
+		
+		@Override
+		protected int engineGetOutputSize(int inputLen) {
+			return 0;
+		}
+		
+		@Override
+		protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
+			throw new UnsupportedOperationException("Not used by the cipher stream.");
+		}
+
+		@Override
+		protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen) {
+			throw new UnsupportedOperationException("Not used by the cipher stream.");
+		}
+
+		@Override
+		protected void engineSetMode(String mode) {
+			// Nothing
+		}
+
+		@Override
+		protected void engineSetPadding(String padding) {
+			// Nothing
+		}
+
+		@Override
+		protected int engineGetBlockSize() {
+			return 0;
+		}
+
+		@Override
+		protected byte[] engineGetIV() {
+			return null;
+		}
+
+		@Override
+		protected AlgorithmParameters engineGetParameters() {
+			return null;
+		}
+
+		@Override
+		protected void engineInit(int opmode, Key key, SecureRandom random) {
+			// Nothing
+		}
+
+		@Override
+		protected void engineInit(int opmode, Key key, AlgorithmParameterSpec params, SecureRandom random) {
+			// Nothing
+		}
+
+		@Override
+		protected void engineInit(int opmode, Key key, AlgorithmParameters params, SecureRandom random) {
+			// Nothing
+		}
+	}
+	
+	private static class SingleByteInputStream extends InputStream {
+		private InputStream inputStream;
+		
+		public SingleByteInputStream(InputStream inputStream) {
+			this.inputStream = inputStream;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			return inputStream.read();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			inputStream.close();
+		}
+	}
+	
 	private SaltedSecretKey createDummyMasterKey() {
 		return new SaltedSecretKey(
 			new SecretKeySpec(
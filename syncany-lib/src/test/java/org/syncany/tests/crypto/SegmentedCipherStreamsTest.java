@@ -0,0 +1,334 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.CipherTransformer;
+import org.syncany.chunk.SegmentedCipherTransformer;
+import org.syncany.chunk.Transformer;
+import org.syncany.config.Logging;
+import org.syncany.crypto.CipherParams;
+import org.syncany.crypto.CipherProviders;
+import org.syncany.crypto.CipherSession;
+import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.SaltedSecretKey;
+import org.syncany.crypto.SegmentedCipherInputStream;
+import org.syncany.crypto.SegmentedCipherOutputStream;
+import org.syncany.crypto.SegmentedCipherReader;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.StringUtil;
+
+public class SegmentedCipherStreamsTest {
+	private static final int SEGMENT_SIZE = 1000;
+	private static final int HEADER_SIZE = 29;
+	
+	private SaltedSecretKey masterKey;
+	private CipherSpec cipherSpec;
+	private File tempDir;
+	
+	static {
+		Logging.init();
+	}
+	
+	@Before
+	public void setup() throws Exception {
+		masterKey = new SaltedSecretKey(new SecretKeySpec(new byte[64], "AnyAlgorithm"), new byte[64]);
+		cipherSpec = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		
+		// Pin provider, so the result does not depend on the provider benchmark
+		CipherProviders.setProvider(cipherSpec, CipherParams.CRYPTO_PROVIDER);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		CipherProviders.setProvider(cipherSpec, null);
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+	
+	@Test
+	public void testRoundtripSizes() throws Exception {
+		int[] plaintextSizes = new int[] { 0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 2 * SEGMENT_SIZE, 7 * SEGMENT_SIZE + 123 };
+		
+		for (int plaintextSize : plaintextSizes) {
+			byte[] plaintext = createPlaintext(plaintextSize);
+			byte[] ciphertext = encrypt(plaintext);
+			
+			int segmentCount = Math.max(1, (plaintextSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE); // Empty plaintext still has one (empty) segment
+			assertEquals("Unexpected ciphertext size for plaintext of size " + plaintextSize, HEADER_SIZE + plaintextSize + segmentCount * 16, ciphertext.length);
+			assertArrayEquals("Roundtrip failed for plaintext of size " + plaintextSize, plaintext, decrypt(ciphertext));
+		}
+	}
+	
+	@Test
+	public void testRoundtripWithProviders() throws Exception {
+		byte[] plaintext = createPlaintext(3 * SEGMENT_SIZE + 10);
+		CipherSpec aesCipherSpec = cipherSpec;
+		
+		try {
+			// Bouncy Castle is always used for Twofish
+			cipherSpec = CipherSpecs.getCipherSpec(CipherSpecs.TWOFISH_128_GCM);
+			assertArrayEquals(plaintext, decrypt(encrypt(plaintext)));
+			
+			// Encrypt with SunJCE, decrypt with Bouncy Castle
+			cipherSpec = aesCipherSpec;
+			CipherProviders.setProvider(cipherSpec, Security.getProvider("SunJCE"));
+			
+			byte[] ciphertext = encrypt(plaintext);
+			
+			CipherProviders.setProvider(cipherSpec, CipherParams.CRYPTO_PROVIDER);
+			assertArrayEquals(plaintext, decrypt(ciphertext));
+		}
+		finally {
+			cipherSpec = aesCipherSpec;
+		}
+	}
+	
+	@Test
+	public void testSingleByteWritesAndReads() throws Exception {
+		byte[] plaintext = createPlaintext(3 * SEGMENT_SIZE + 10);
+		
+		ByteArrayOutputStream ciphertextOutputStream = new ByteArrayOutputStream();
+		OutputStream encryptingOutputStream = new SegmentedCipherOutputStream(ciphertextOutputStream, cipherSpec, new CipherSession(masterKey), SEGMENT_SIZE);
+		
+		for (byte b : plaintext) {
+			encryptingOutputStream.write(b);
+		}
+		
+		encryptingOutputStream.close();
+		
+		InputStream decryptingInputStream = new SegmentedCipherInputStream(new ByteArrayInputStream(ciphertextOutputStream.toByteArray()), new CipherSession(masterKey));
+		ByteArrayOutputStream plaintextOutputStream = new ByteArrayOutputStream();
+		int read = -1;
+		
+		while (-1 != (read = decryptingInputStream.read())) {
+			plaintextOutputStream.write(read);
+		}
+		
+		decryptingInputStream.close();
+		assertArrayEquals(plaintext, plaintextOutputStream.toByteArray());
+	}
+	
+	@Test
+	public void testRandomAccess() throws Exception {
+		byte[] plaintext = createPlaintext(10 * SEGMENT_SIZE + 77);
+		SegmentedCipherReader reader = createReader(encrypt(plaintext));
+		
+		assertEquals(plaintext.length, reader.getPlaintextLength());
+		
+		// Ranges within a segment, across segments, at the end
+		long[][] ranges = new long[][] { { 0, 10 }, { 500, 1000 }, { 999, 2 }, { 2500, 3000 }, { 10 * SEGMENT_SIZE, 77 }, { plaintext.length - 1, 1 } };
+		
+		for (long[] range : ranges) {
+			byte[] buffer = new byte[(int) range[1]];
+			
+			assertEquals(range[1], reader.read(range[0], buffer, 0, buffer.length));
+			assertArrayEquals(Arrays.copyOfRange(plaintext, (int) range[0], (int) (range[0] + range[1])), buffer);
+		}
+		
+		// Read beyond the end
+		byte[] buffer = new byte[100];
+		
+		assertEquals(50, reader.read(plaintext.length - 50, buffer, 0, 100));
+		assertEquals(-1, reader.read(plaintext.length, buffer, 0, 100));
+		
+		reader.close();
+	}
+	
+	@Test
+	public void testRandomAccessOnlyVerifiesRequestedSegments() throws Exception {
+		byte[] plaintext = createPlaintext(5 * SEGMENT_SIZE);
+		byte[] ciphertext = encrypt(plaintext);
+		
+		// Corrupt segment 3
+		ciphertext[HEADER_SIZE + 3 * (SEGMENT_SIZE + 16) + 5] ^= 0x01;
+		
+		SegmentedCipherReader reader = createReader(ciphertext);
+		byte[] buffer = new byte[SEGMENT_SIZE];
+		
+		assertEquals(SEGMENT_SIZE, reader.read(SEGMENT_SIZE, buffer, 0, SEGMENT_SIZE));
+		assertArrayEquals(Arrays.copyOfRange(plaintext, SEGMENT_SIZE, 2 * SEGMENT_SIZE), buffer);
+		
+		try {
+			reader.read(3 * SEGMENT_SIZE + 10, buffer, 0, 10);
+			fail("Corrupt segment must not be decrypted.");
+		}
+		catch (IOException e) {
+			assertTrue(e.getMessage().contains("segment 3"));
+		}
+		
+		reader.close();
+	}
+	
+	@Test
+	public void testTamperedCiphertextIsDetected() throws Exception {
+		byte[] plaintext = createPlaintext(4 * SEGMENT_SIZE + 100);
+		byte[] ciphertext = encrypt(plaintext);
+		int ciphertextSegmentSize = SEGMENT_SIZE + 16;
+		
+		// Flipped bit in the header (header is authenticated in every segment)
+		byte[] tamperedHeader = Arrays.copyOf(ciphertext, ciphertext.length);
+		tamperedHeader[HEADER_SIZE - 10] ^= 0x01;
+		assertDecryptionFails(tamperedHeader);
+		
+		// Truncated after a full segment (the last segment flag does not match)
+		byte[] truncated = Arrays.copyOf(ciphertext, HEADER_SIZE + 2 * ciphertextSegmentSize);
+		assertDecryptionFails(truncated);
+		
+		// Swapped segments
+		byte[] swapped = Arrays.copyOf(ciphertext, ciphertext.length);
+		System.arraycopy(ciphertext, HEADER_SIZE, swapped, HEADER_SIZE + ciphertextSegmentSize, ciphertextSegmentSize);
+		System.arraycopy(ciphertext, HEADER_SIZE + ciphertextSegmentSize, swapped, HEADER_SIZE, ciphertextSegmentSize);
+		assertDecryptionFails(swapped);
+	}
+	
+	@Test
+	public void testOversizedSegmentSizeInHeaderRejected() throws Exception {
+		byte[] ciphertext = encrypt(createPlaintext(2 * SEGMENT_SIZE));
+		
+		// Segment size is the last header field; a reader must not allocate a buffer for it 
+		byte[] oversizedSegmentSize = Arrays.copyOf(ciphertext, ciphertext.length);
+		ByteBuffer.wrap(oversizedSegmentSize, HEADER_SIZE - 4, 4).putInt(Integer.MAX_VALUE - 16);
+		
+		assertDecryptionFails(oversizedSegmentSize);
+		
+		try {
+			createReader(oversizedSegmentSize).close();
+			fail("Reader must reject oversized segment size.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+	
+	@Test(expected = IOException.class)
+	public void testOversizedSegmentSizeRejectedByWriter() throws Exception {
+		new SegmentedCipherOutputStream(new ByteArrayOutputStream(), cipherSpec, new CipherSession(masterKey), SegmentedCipherOutputStream.MAX_SEGMENT_SIZE + 1);
+	}
+	
+	@Test
+	public void testTransformer() throws Exception {
+		Map<String, String> settings = new HashMap<String, String>();
+		
+		settings.put(CipherTransformer.PROPERTY_CIPHER_SPECS, Integer.toString(CipherSpecs.AES_128_GCM));
+		settings.put(CipherTransformer.PROPERTY_MASTER_KEY, StringUtil.toHex(masterKey.getEncoded()));
+		settings.put(CipherTransformer.PROPERTY_MASTER_KEY_SALT, StringUtil.toHex(masterKey.getSalt()));
+		settings.put(SegmentedCipherTransformer.PROPERTY_SEGMENT_SIZE, Integer.toString(SEGMENT_SIZE));
+		
+		Transformer transformer = Transformer.getInstance(SegmentedCipherTransformer.TYPE);
+		transformer.init(settings);
+		
+		assertTrue(transformer instanceof SegmentedCipherTransformer);
+		
+		byte[] plaintext = createPlaintext(3 * SEGMENT_SIZE + 1);
+		ByteArrayOutputStream ciphertextOutputStream = new ByteArrayOutputStream();
+		
+		OutputStream encryptingOutputStream = transformer.createOutputStream(ciphertextOutputStream);
+		encryptingOutputStream.write(plaintext);
+		encryptingOutputStream.close();
+		
+		assertEquals(HEADER_SIZE + plaintext.length + 4 * 16, ciphertextOutputStream.size());
+		
+		InputStream decryptingInputStream = transformer.createInputStream(new ByteArrayInputStream(ciphertextOutputStream.toByteArray()));
+		assertArrayEquals(plaintext, readFully(decryptingInputStream));
+	}
+	
+	@Test(expected = IOException.class)
+	public void testNonGcmCipherSpecRejected() throws Exception {
+		CipherSpec eaxCipherSpec = new CipherSpec(0x7f, "AES/EAX/NoPadding", 128, 128, false);
+		new SegmentedCipherOutputStream(new ByteArrayOutputStream(), eaxCipherSpec, new CipherSession(masterKey));
+	}
+	
+	private void assertDecryptionFails(byte[] ciphertext) throws Exception {
+		try {
+			decrypt(ciphertext);
+			fail("Decryption of tampered ciphertext must fail.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+	
+	private byte[] createPlaintext(int size) {
+		byte[] plaintext = new byte[size];
+		new Random(size).nextBytes(plaintext);
+		
+		return plaintext;
+	}
+	
+	private byte[] encrypt(byte[] plaintext) throws IOException {
+		ByteArrayOutputStream ciphertextOutputStream = new ByteArrayOutputStream();
+		OutputStream encryptingOutputStream = new SegmentedCipherOutputStream(ciphertextOutputStream, cipherSpec, new CipherSession(masterKey), SEGMENT_SIZE);
+		
+		encryptingOutputStream.write(plaintext);
+		encryptingOutputStream.close();
+		
+		return ciphertextOutputStream.toByteArray();
+	}
+	
+	private byte[] decrypt(byte[] ciphertext) throws IOException {
+		return readFully(new SegmentedCipherInputStream(new ByteArrayInputStream(ciphertext), new CipherSession(masterKey)));
+	}
+	
+	private byte[] readFully(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream plaintextOutputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[700];
+		int read = -1;
+		
+		while (-1 != (read = inputStream.read(buffer))) {
+			plaintextOutputStream.write(buffer, 0, read);
+		}
+		
+		inputStream.close();
+		return plaintextOutputStream.toByteArray();
+	}
+	
+	private SegmentedCipherReader createReader(byte[] ciphertext) throws IOException {
+		File ciphertextFile = new File(tempDir, "ciphertext");
+		
+		RandomAccessFile randomAccessFile = new RandomAccessFile(ciphertextFile, "rw");
+		randomAccessFile.setLength(0);
+		randomAccessFile.write(ciphertext);
+		
+		return new SegmentedCipherReader(randomAccessFile, new CipherSession(masterKey));
+	}
+}
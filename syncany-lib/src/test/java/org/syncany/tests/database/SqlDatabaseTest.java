@@ -0,0 +1,166 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+
+import org.junit.Test;
+import org.syncany.config.Config;
+import org.syncany.database.ChunkEntry;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.DatabaseConnectionFactory;
+import org.syncany.database.SqlDatabase;
+import org.syncany.tests.util.TestConfigUtil;
+import org.syncany.tests.util.TestSqlDatabaseUtil;
+import org.syncany.util.SqlRunner;
+
+public class SqlDatabaseTest {
+	@Test
+	public void testSharedDatabaseConnection() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+
+		// Run
+		Connection sharedConnection1 = testConfig.getDatabaseConnection();
+		Connection sharedConnection2 = testConfig.getDatabaseConnection();
+		
+		SqlDatabase sqlDatabase1 = new SqlDatabase(testConfig);
+		SqlDatabase sqlDatabase2 = new SqlDatabase(testConfig);
+		
+		// Test
+		assertNotNull(sharedConnection1);
+		assertSame(sharedConnection1, sharedConnection2);
+		
+		assertNotNull(sqlDatabase1.getLocalDatabaseBranch());
+		assertEquals(0, sqlDatabase2.getKnownDatabases().size());
+
+		// Run (close and re-open)
+		testConfig.closeDatabaseConnection();
+		Connection sharedConnection3 = testConfig.getDatabaseConnection();
+		
+		// Test
+		assertTrue(sharedConnection1.isClosed());
+		assertFalse(sharedConnection3.isClosed());
+		assertNotSame(sharedConnection1, sharedConnection3);
+		
+		assertEquals(0, new SqlDatabase(testConfig).getKnownDatabases().size());
+		
+		// Tear down
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+		
+		assertTrue(sharedConnection3.isClosed());
+	}
+	
+	@Test
+	public void testSharedSqlDatabase() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+
+		// Run
+		SqlDatabase sqlDatabase1 = testConfig.getSqlDatabase();
+		SqlDatabase sqlDatabase2 = testConfig.getSqlDatabase();
+		
+		// Test
+		assertSame(sqlDatabase1, sqlDatabase2);
+		assertEquals(0, sqlDatabase1.getKnownDatabases().size());
+		
+		// Run (close and re-open)
+		testConfig.closeDatabaseConnection();
+		SqlDatabase sqlDatabase3 = testConfig.getSqlDatabase();
+		
+		// Test
+		assertNotSame(sqlDatabase1, sqlDatabase3);
+		assertEquals(0, sqlDatabase3.getKnownDatabases().size());
+		
+		// Tear down
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+	
+	@Test
+	public void testUpgradeBinaryChecksums() throws Exception {
+		// Setup: Database with the old varchar schema
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		
+		String connectionString = DatabaseConnectionFactory.DATABASE_CONNECTION_FILE_STRING.replaceAll("%DATABASEFILE%", testConfig.getDatabaseFile().toString());
+		Connection varcharConnection = DriverManager.getConnection(connectionString);
+		
+		varcharConnection.setAutoCommit(false);
+		new SqlRunner(varcharConnection).runScript(new StringReader(getVarcharSchema()));
+		
+		TestSqlDatabaseUtil.runSqlFromResource(varcharConnection, "/sql/test.insert.set1.sql");
+		
+		assertEquals("CHARACTER VARYING", getChecksumDataType(varcharConnection));
+		long fileVersionCount = getFileVersionFullCount(varcharConnection);
+
+		varcharConnection.close();
+		
+		// Run
+		SqlDatabase sqlDatabase = testConfig.getSqlDatabase();
+		Connection upgradedConnection = testConfig.getDatabaseConnection();
+		
+		// Test
+		assertEquals("VARBINARY", getChecksumDataType(upgradedConnection));
+		assertEquals(fileVersionCount, getFileVersionFullCount(upgradedConnection));
+
+		ChunkChecksum chunkChecksum = ChunkChecksum.parseChunkChecksum("8ce24fc0ea8e685eb23bf6346713ad9fef920425");
+		assertEquals(new ChunkEntry(chunkChecksum, 1), sqlDatabase.getChunk(chunkChecksum));
+		
+		// Tear down
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+	
+	private String getVarcharSchema() throws Exception {
+		StringBuilder schema = new StringBuilder();
+		
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(DatabaseConnectionFactory.class.getResourceAsStream(DatabaseConnectionFactory.DATABASE_SCRIPT_RESOURCE)))) {
+			String line = null;
+			
+			while (null != (line = reader.readLine())) {
+				schema.append(line.replace("varbinary(64)", "varchar(128)").replace("varbinary(20)", "varchar(40)")).append('\n');
+			}
+		}
+		
+		return schema.toString();
+	}
+	
+	private String getChecksumDataType(Connection connection) throws Exception {
+		try (ResultSet resultSet = connection.prepareStatement("select data_type from information_schema.columns where table_name='CHUNK' and column_name='CHECKSUM'").executeQuery()) {
+			resultSet.next();
+			return resultSet.getString(1);
+		}
+	}
+
+	private long getFileVersionFullCount(Connection connection) throws Exception {
+		try (ResultSet resultSet = connection.prepareStatement("select count(*) from fileversion_full").executeQuery()) {
+			resultSet.next();
+			return resultSet.getLong(1);
+		}
+	}
+}
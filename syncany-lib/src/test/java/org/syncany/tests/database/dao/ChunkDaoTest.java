@@ -20,8 +20,12 @@ package org.syncany.tests.database.dao;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
 import java.util.Map;
 
 import org.junit.Test;
@@ -65,6 +69,39 @@ public class ChunkDaoTest {
 		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
 	}
 	
+	@Test
+	public void testWriteChunkStoresBinaryChecksum() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		ChunkSqlDao chunkDao = new ChunkSqlDao(databaseConnection);
+		ChunkEntry chunk = new ChunkEntry(ChunkChecksum.parseChunkChecksum("615fba8c2281d5bee891eb092a252d235c237457"), 8387);
+
+		// Run
+		chunkDao.writeChunks(databaseConnection, Arrays.asList(new ChunkEntry[] { chunk }));
+		databaseConnection.commit();
+		chunkDao.clearCache();
+
+		// Test
+		ChunkEntry actualChunk = chunkDao.getChunk(chunk.getChecksum());
+
+		assertNotNull(actualChunk);
+		assertEquals(chunk.getChecksum(), actualChunk.getChecksum());
+		assertEquals(8387, actualChunk.getSize());
+
+		try (PreparedStatement preparedStatement = databaseConnection.prepareStatement("select checksum from chunk")) {
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				assertTrue(resultSet.next());
+				assertEquals(20, resultSet.getBytes("checksum").length); // Raw SHA1, not 40 hex chars
+			}
+		}
+
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+
 	@Test
 	public void testGetChunksForDatabaseVersion() throws Exception {
 		// Setup
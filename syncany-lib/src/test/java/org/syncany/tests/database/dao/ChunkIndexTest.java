@@ -0,0 +1,273 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.database.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.config.Config;
+import org.syncany.database.ChunkEntry;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.dao.ChunkIndex;
+import org.syncany.database.dao.ChunkSqlDao;
+import org.syncany.tests.util.TestConfigUtil;
+import org.syncany.tests.util.TestFileUtil;
+
+public class ChunkIndexTest {
+	private File tempDir;
+	
+	@Before
+	public void setup() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+	
+	@Test
+	public void testPutAndGetInMemory() {
+		ChunkIndex chunkIndex = ChunkIndex.createInMemory(20, 0);
+		
+		assertEquals(-1, chunkIndex.get(createKey(1)));
+		
+		assertTrue(chunkIndex.put(createKey(1), 100));
+		assertTrue(chunkIndex.put(createKey(2), 0));
+		assertFalse(chunkIndex.put(createKey(1), 200)); // Update
+		
+		assertEquals(2, chunkIndex.size());
+		assertEquals(200, chunkIndex.get(createKey(1)));
+		assertEquals(0, chunkIndex.get(createKey(2)));
+		assertEquals(-1, chunkIndex.get(createKey(3)));
+	}
+	
+	@Test
+	public void testGrowInMemory() {
+		ChunkIndex chunkIndex = ChunkIndex.createInMemory(20, 0);
+		long initialCapacity = chunkIndex.getCapacity();
+		
+		for (int i = 0; i < 50000; i++) {
+			chunkIndex.put(createKey(i), i);
+		}
+		
+		assertEquals(50000, chunkIndex.size());
+		assertTrue(chunkIndex.getCapacity() > initialCapacity);
+		
+		for (int i = 0; i < 50000; i++) {
+			assertEquals(i, chunkIndex.get(createKey(i)));
+		}
+		
+		assertEquals(-1, chunkIndex.get(createKey(50000)));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidKeyLength() {
+		ChunkIndex chunkIndex = ChunkIndex.createInMemory(20, 0);
+		chunkIndex.get(new byte[32]);
+	}
+	
+	@Test
+	public void testFileIndexSurvivesReopen() throws Exception {
+		File chunkIndexFile = new File(tempDir, "chunk-index");
+		
+		ChunkIndex chunkIndex = ChunkIndex.openFile(chunkIndexFile, 20, 0);
+		
+		for (int i = 0; i < 5000; i++) { // Causes the file to grow
+			chunkIndex.put(createKey(i), i);
+		}
+		
+		chunkIndex.close();
+		
+		assertFalse(new File(tempDir, "chunk-index.tmp").exists());
+		
+		// Re-open: Entries are mapped from the file, not re-inserted
+		ChunkIndex reopenedChunkIndex = ChunkIndex.openFile(chunkIndexFile, 20, 0);
+		
+		assertEquals(chunkIndexFile, reopenedChunkIndex.getFile());
+		assertEquals(5000, reopenedChunkIndex.size());
+		
+		for (int i = 0; i < 5000; i++) {
+			assertEquals(i, reopenedChunkIndex.get(createKey(i)));
+		}
+		
+		// Clear resets mapped file in place
+		long capacity = reopenedChunkIndex.getCapacity();
+		
+		reopenedChunkIndex.setFingerprint(42);
+		reopenedChunkIndex.clear(10);
+		
+		assertEquals(capacity, reopenedChunkIndex.getCapacity());
+		assertEquals(0, reopenedChunkIndex.getFingerprint());
+		assertEquals(-1, reopenedChunkIndex.get(createKey(1)));
+		
+		reopenedChunkIndex.close();
+		
+		ChunkIndex clearedChunkIndex = ChunkIndex.openFile(chunkIndexFile, 20, 0);
+		
+		assertEquals(0, clearedChunkIndex.size());
+		assertEquals(-1, clearedChunkIndex.get(createKey(1)));
+		
+		clearedChunkIndex.close();
+	}
+	
+	@Test
+	public void testFileIndexFingerprintAndClearWithGrow() throws Exception {
+		File chunkIndexFile = new File(tempDir, "chunk-index");
+		
+		ChunkIndex chunkIndex = ChunkIndex.openFile(chunkIndexFile, 20, 0);
+		long initialCapacity = chunkIndex.getCapacity();
+		
+		chunkIndex.put(createKey(1), 1);
+		chunkIndex.setFingerprint(0x1234567890abcdefL);
+		chunkIndex.close();
+		
+		ChunkIndex reopenedChunkIndex = ChunkIndex.openFile(chunkIndexFile, 20, 0);
+		assertEquals(0x1234567890abcdefL, reopenedChunkIndex.getFingerprint());
+		
+		// Clear with a larger table replaces the mapped file
+		reopenedChunkIndex.clear(10000);
+		
+		assertTrue(reopenedChunkIndex.getCapacity() > initialCapacity);
+		assertEquals(chunkIndexFile, reopenedChunkIndex.getFile());
+		assertEquals(-1, reopenedChunkIndex.get(createKey(1)));
+		
+		reopenedChunkIndex.put(createKey(2), 2);
+		reopenedChunkIndex.close();
+		
+		assertFalse(new File(tempDir, "chunk-index.tmp").exists());
+		
+		ChunkIndex clearedChunkIndex = ChunkIndex.openFile(chunkIndexFile, 20, 0);
+		
+		assertEquals(1, clearedChunkIndex.size());
+		assertEquals(0, clearedChunkIndex.getFingerprint());
+		assertEquals(2, clearedChunkIndex.get(createKey(2)));
+		
+		clearedChunkIndex.close();
+	}
+	
+	@Test
+	public void testFileIndexLockedAndKeyLengthMismatch() throws Exception {
+		File chunkIndexFile = new File(tempDir, "chunk-index");
+		
+		ChunkIndex chunkIndex = ChunkIndex.openFile(chunkIndexFile, 20, 0);		
+		chunkIndex.put(createKey(1), 1);
+		
+		assertNull(ChunkIndex.openFile(chunkIndexFile, 20, 0)); // Locked
+		
+		chunkIndex.close();
+		
+		// Different key length discards the existing entries
+		ChunkIndex otherChunkIndex = ChunkIndex.openFile(chunkIndexFile, 32, 0);
+		
+		assertNotNull(otherChunkIndex);
+		assertEquals(0, otherChunkIndex.size());
+		
+		otherChunkIndex.close();
+	}
+	
+	@Test
+	public void testChunkDaoReusesIndexFile() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+		File chunkIndexFile = new File(tempDir, "chunk-index");
+		
+		List<ChunkEntry> chunks = new ArrayList<ChunkEntry>();
+		
+		for (int i = 0; i < 100; i++) {
+			chunks.add(new ChunkEntry(new ChunkChecksum(createKey(i)), 1000 + i));
+		}
+		
+		// Run
+		ChunkSqlDao chunkDao = new ChunkSqlDao(databaseConnection, chunkIndexFile);
+		
+		assertNull(chunkDao.getChunk(chunks.get(0).getChecksum())); // Creates empty index
+		
+		chunkDao.writeChunks(databaseConnection, chunks);
+		databaseConnection.commit();
+		chunkDao.clearCache(); // Adds chunks, keeps index open
+		
+		assertEquals(chunks.get(42), chunkDao.getChunk(chunks.get(42).getChecksum()));
+		assertNull(ChunkIndex.openFile(chunkIndexFile, 20, 0)); // Still locked
+		
+		chunkDao.closeChunkIndex();
+		
+		// Test
+		ChunkIndex chunkIndex = ChunkIndex.openFile(chunkIndexFile, 20, 0);
+		long fingerprint = chunkIndex.getFingerprint();
+		
+		assertEquals(100, chunkIndex.size());
+		assertEquals(1042, chunkIndex.get(createKey(42)));
+		assertTrue(fingerprint != 0);
+		
+		chunkIndex.close();
+		
+		ChunkSqlDao otherChunkDao = new ChunkSqlDao(databaseConnection, chunkIndexFile);
+		
+		assertEquals(chunks.get(42), otherChunkDao.getChunk(chunks.get(42).getChecksum()));
+		assertNull(otherChunkDao.getChunk(new ChunkChecksum(createKey(100))));
+		
+		otherChunkDao.closeChunkIndex();
+		
+		// Index with same number of entries, but different chunks and fingerprint is rebuilt
+		ChunkIndex otherChunkIndex = ChunkIndex.openFile(chunkIndexFile, 20, 0);
+		otherChunkIndex.clear(100);
+		
+		for (int i = 1000; i < 1100; i++) {
+			otherChunkIndex.put(createKey(i), i);
+		}
+		
+		otherChunkIndex.close();
+		
+		ChunkSqlDao rebuildingChunkDao = new ChunkSqlDao(databaseConnection, chunkIndexFile);
+		
+		assertEquals(chunks.get(42), rebuildingChunkDao.getChunk(chunks.get(42).getChecksum()));
+		assertNull(rebuildingChunkDao.getChunk(new ChunkChecksum(createKey(1042))));
+		
+		rebuildingChunkDao.closeChunkIndex();
+		
+		ChunkIndex rebuiltChunkIndex = ChunkIndex.openFile(chunkIndexFile, 20, 0);
+		
+		assertEquals(100, rebuiltChunkIndex.size());
+		assertEquals(fingerprint, rebuiltChunkIndex.getFingerprint());
+		
+		rebuiltChunkIndex.close();
+		
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+	
+	private byte[] createKey(int i) {
+		// Low-entropy keys (mostly zeros) to make sure the hash spreads them
+		return ByteBuffer.allocate(20).putInt(16, i).array();
+	}
+}
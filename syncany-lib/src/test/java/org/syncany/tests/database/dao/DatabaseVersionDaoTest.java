@@ -20,9 +20,13 @@ package org.syncany.tests.database.dao;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -42,6 +46,8 @@ import org.syncany.database.MultiChunkEntry;
 import org.syncany.database.MultiChunkEntry.MultiChunkId;
 import org.syncany.database.PartialFileHistory;
 import org.syncany.database.PartialFileHistory.FileHistoryId;
+import org.syncany.database.VectorClock;
+import org.syncany.database.dao.ApplicationSqlDao;
 import org.syncany.database.dao.ChunkSqlDao;
 import org.syncany.database.dao.DatabaseVersionSqlDao;
 import org.syncany.database.dao.FileContentSqlDao;
@@ -255,6 +261,298 @@ public class DatabaseVersionDaoTest {
 		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
 	}
 	
+	@Test
+	public void testPersistDatabaseVersionsBulk() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		// Run
+		TestSqlDatabaseUtil.runSqlFromResource(databaseConnection, "/sql/test.insert.set3.sql");
+		
+		ChunkSqlDao chunkDao = new ChunkSqlDao(databaseConnection);
+		MultiChunkSqlDao multiChunkDao = new MultiChunkSqlDao(databaseConnection);
+		FileVersionSqlDao fileVersionDao = new FileVersionSqlDao(databaseConnection);
+		FileHistorySqlDao fileHistoryDao = new FileHistorySqlDao(databaseConnection, fileVersionDao);
+		FileContentSqlDao fileContentDao = new FileContentSqlDao(databaseConnection);
+		DatabaseVersionSqlDao databaseVersionDao = new DatabaseVersionSqlDao(databaseConnection, chunkDao, fileContentDao, fileVersionDao, fileHistoryDao, multiChunkDao);
+		
+		int databaseVersionCountBefore = databaseVersionDao.getLocalDatabaseBranch().size();
+		
+		// a. Persist three database versions at once, each with multiple histories, contents and multichunks
+		List<DatabaseVersion> newDatabaseVersions = new ArrayList<DatabaseVersion>();
+		
+		newDatabaseVersions.add(createBulkTestDatabaseVersion("A8,B3,C1", 1));
+		newDatabaseVersions.add(createBulkTestDatabaseVersion("A8,B3,C2", 2));
+		newDatabaseVersions.add(createBulkTestDatabaseVersion("A8,B3,C3", 3));
+		
+		databaseVersionDao.persistDatabaseVersions(newDatabaseVersions);
+		
+		// Test
+		assertEquals(databaseVersionCountBefore + 3, databaseVersionDao.getLocalDatabaseBranch().size());
+		assertEquals(TestDatabaseUtil.createVectorClock("A8,B3,C3"), databaseVersionDao.getLastDatabaseVersionHeader().getVectorClock());
+		
+		for (DatabaseVersion expectedDatabaseVersion : newDatabaseVersions) {
+			VectorClock vectorClock = expectedDatabaseVersion.getVectorClock();
+			
+			for (MultiChunkEntry expectedMultiChunk : expectedDatabaseVersion.getMultiChunks()) {
+				for (ChunkChecksum chunkChecksum : expectedMultiChunk.getChunks()) {
+					assertEquals(expectedMultiChunk.getId(), multiChunkDao.getMultiChunkId(chunkChecksum));
+				}
+			}
+			
+			for (FileContent expectedFileContent : expectedDatabaseVersion.getFileContents()) {
+				assertEquals(expectedFileContent, fileContentDao.getFileContent(expectedFileContent.getChecksum(), true));
+			}
+			
+			Map<FileHistoryId, PartialFileHistory> actualFileHistories = new HashMap<FileHistoryId, PartialFileHistory>();
+			
+			for (PartialFileHistory actualFileHistory : fileHistoryDao.getFileHistoriesWithFileVersions(vectorClock)) {
+				actualFileHistories.put(actualFileHistory.getFileId(), actualFileHistory);
+			}
+			
+			assertEquals(4, actualFileHistories.size());
+			
+			for (PartialFileHistory actualFileHistory : actualFileHistories.values()) {
+				assertEquals(2, actualFileHistory.getFileVersions().size());
+			}
+		}
+		
+		// b. Failing bulk load must not persist anything (duplicate database version)
+		List<DatabaseVersion> failingDatabaseVersions = new ArrayList<DatabaseVersion>();
+		
+		failingDatabaseVersions.add(createBulkTestDatabaseVersion("A8,B3,C4", 4));
+		failingDatabaseVersions.add(createBulkTestDatabaseVersion("A8,B3,C5", 1)); // Same chunks/contents as C1
+		
+		try {
+			databaseVersionDao.persistDatabaseVersions(failingDatabaseVersions);
+			fail("Bulk load with duplicate entries should fail.");
+		}
+		catch (RuntimeException e) {
+			// Expected
+		}
+		
+		assertEquals(databaseVersionCountBefore + 3, databaseVersionDao.getLocalDatabaseBranch().size());
+		assertNull(chunkDao.getChunk(createBulkTestChecksum(4, 0, 0)));
+		
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+	
+	@Test
+	public void testPersistDatabaseVersionsRollbackKeepsPendingChanges() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		ChunkSqlDao chunkDao = new ChunkSqlDao(databaseConnection);
+		MultiChunkSqlDao multiChunkDao = new MultiChunkSqlDao(databaseConnection);
+		FileVersionSqlDao fileVersionDao = new FileVersionSqlDao(databaseConnection);
+		FileHistorySqlDao fileHistoryDao = new FileHistorySqlDao(databaseConnection, fileVersionDao);
+		FileContentSqlDao fileContentDao = new FileContentSqlDao(databaseConnection);
+		DatabaseVersionSqlDao databaseVersionDao = new DatabaseVersionSqlDao(databaseConnection, chunkDao, fileContentDao, fileVersionDao, fileHistoryDao, multiChunkDao);
+		ApplicationSqlDao applicationDao = new ApplicationSqlDao(databaseConnection);
+
+		// Run: Another user of the (shared) connection has uncommitted changes ...
+		try (PreparedStatement preparedStatement = databaseConnection.prepareStatement("insert into known_databases (database_name) values (?)")) {
+			preparedStatement.setString(1, "db-B-0000000001");
+			preparedStatement.executeUpdate();
+		}
+		
+		// ... when a bulk load fails (duplicate chunks/contents)
+		List<DatabaseVersion> failingDatabaseVersions = new ArrayList<DatabaseVersion>();
+		
+		failingDatabaseVersions.add(createBulkTestDatabaseVersion("C1", 1));
+		failingDatabaseVersions.add(createBulkTestDatabaseVersion("C2", 1));
+		
+		try {
+			databaseVersionDao.persistDatabaseVersions(failingDatabaseVersions);
+			fail("Bulk load with duplicate entries should fail.");
+		}
+		catch (RuntimeException e) {
+			// Expected
+		}
+		
+		databaseConnection.commit();
+		
+		// Test: Only the bulk load is rolled back
+		assertEquals(0, databaseVersionDao.getLocalDatabaseBranch().size());
+		assertEquals(1, applicationDao.getKnownDatabases().size());
+		assertEquals("db-B-0000000001", applicationDao.getKnownDatabases().get(0).getName());
+		
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+	
+	@Test
+	public void testPersistDatabaseVersionRollbackOnFailure() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		ChunkSqlDao chunkDao = new ChunkSqlDao(databaseConnection);
+		MultiChunkSqlDao multiChunkDao = new MultiChunkSqlDao(databaseConnection);
+		FileVersionSqlDao fileVersionDao = new FileVersionSqlDao(databaseConnection);
+		FileHistorySqlDao fileHistoryDao = new FileHistorySqlDao(databaseConnection, fileVersionDao);
+		FileContentSqlDao fileContentDao = new FileContentSqlDao(databaseConnection);
+		DatabaseVersionSqlDao databaseVersionDao = new DatabaseVersionSqlDao(databaseConnection, chunkDao, fileContentDao, fileVersionDao, fileHistoryDao, multiChunkDao);
+
+		// Run: Second database version fails (duplicate chunks/contents) after its header was written
+		DatabaseVersion databaseVersion = createBulkTestDatabaseVersion("C1", 1);
+		databaseVersionDao.persistDatabaseVersion(databaseVersion);
+		
+		try {
+			databaseVersionDao.persistDatabaseVersion(createBulkTestDatabaseVersion("C2", 1));
+			fail("Persisting duplicate entries should fail.");
+		}
+		catch (RuntimeException e) {
+			// Expected
+		}
+		
+		databaseConnection.commit(); // Unrelated commit must not commit partial inserts
+		
+		// Test
+		assertEquals(1, databaseVersionDao.getLocalDatabaseBranch().size());
+		
+		for (ChunkEntry chunkEntry : databaseVersion.getChunks()) {
+			assertEquals(chunkEntry, chunkDao.getChunk(chunkEntry.getChecksum()));
+		}
+		
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+	
+	private DatabaseVersion createBulkTestDatabaseVersion(String vectorClockStr, int seed) throws Exception {
+		DatabaseVersion databaseVersion = new DatabaseVersion();
+		DatabaseVersionHeader databaseVersionHeader = new DatabaseVersionHeader();
+		
+		databaseVersionHeader.setClient("C");
+		databaseVersionHeader.setDate(new Date(1489977288627L + seed));
+		databaseVersionHeader.setVectorClock(TestDatabaseUtil.createVectorClock(vectorClockStr));		
+		databaseVersion.setHeader(databaseVersionHeader);
+		
+		for (int multiChunkIndex = 0; multiChunkIndex < 3; multiChunkIndex++) {
+			MultiChunkEntry multiChunkEntry = new MultiChunkEntry(MultiChunkId.parseMultiChunkId(createBulkTestChecksum(seed, multiChunkIndex, 99).toString()));
+			
+			for (int chunkIndex = 0; chunkIndex < 5; chunkIndex++) {
+				ChunkEntry chunkEntry = new ChunkEntry(createBulkTestChecksum(seed, multiChunkIndex, chunkIndex), 100);
+				
+				databaseVersion.addChunk(chunkEntry);
+				multiChunkEntry.addChunk(chunkEntry.getChecksum());
+			}
+			
+			databaseVersion.addMultiChunk(multiChunkEntry);
+			
+			FileContent fileContent = new FileContent();
+			fileContent.setChecksum(FileChecksum.parseFileChecksum(createBulkTestChecksum(seed, multiChunkIndex, 98).toString()));
+			fileContent.setSize(500L);
+			
+			for (ChunkChecksum chunkChecksum : multiChunkEntry.getChunks()) {
+				fileContent.addChunk(chunkChecksum);
+			}
+			
+			databaseVersion.addFileContent(fileContent);
+		}
+		
+		for (int fileHistoryIndex = 0; fileHistoryIndex < 4; fileHistoryIndex++) {
+			PartialFileHistory fileHistory = new PartialFileHistory(FileHistoryId.secureRandomFileId());
+			
+			for (long version = 1; version <= 2; version++) {
+				FileVersion fileVersion = new FileVersion();
+				
+				fileVersion.setVersion(version);
+				fileVersion.setPath("file-" + seed + "-" + fileHistoryIndex + "-" + version);
+				fileVersion.setChecksum(FileChecksum.parseFileChecksum(createBulkTestChecksum(seed, fileHistoryIndex % 3, 98).toString()));
+				fileVersion.setStatus((version == 1) ? FileStatus.NEW : FileStatus.CHANGED);
+				fileVersion.setLastModified(new Date());
+				fileVersion.setUpdated(new Date());
+				fileVersion.setSize(500L);
+				fileVersion.setType(FileType.FILE);
+				
+				fileHistory.addFileVersion(fileVersion);
+			}
+			
+			databaseVersion.addFileHistory(fileHistory);
+		}
+		
+		return databaseVersion;
+	}
+	
+	private ChunkChecksum createBulkTestChecksum(int seed, int a, int b) {
+		return ChunkChecksum.parseChunkChecksum(String.format("%08x%08x%08x0000000000000000", seed, a, b));
+	}
+
+	@Test
+	public void testPersistAndRemoveDirtyUpdatesCurrentFileTree() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		ChunkSqlDao chunkDao = new ChunkSqlDao(databaseConnection);
+		MultiChunkSqlDao multiChunkDao = new MultiChunkSqlDao(databaseConnection);
+		FileVersionSqlDao fileVersionDao = new FileVersionSqlDao(databaseConnection);
+		FileHistorySqlDao fileHistoryDao = new FileHistorySqlDao(databaseConnection, fileVersionDao);
+		FileContentSqlDao fileContentDao = new FileContentSqlDao(databaseConnection);
+		DatabaseVersionSqlDao databaseVersionDao = new DatabaseVersionSqlDao(databaseConnection, chunkDao, fileContentDao, fileVersionDao, fileHistoryDao, multiChunkDao);
+
+		// a. Persist database version with four files (two versions each)
+		DatabaseVersion firstDatabaseVersion = createBulkTestDatabaseVersion("C1", 1);
+		databaseVersionDao.persistDatabaseVersion(firstDatabaseVersion);
+
+		Map<String, FileVersion> currentFileTree = fileVersionDao.getCurrentFileTree();
+
+		assertEquals(4, currentFileTree.size());
+		assertNotNull(currentFileTree.get("file-1-0-2"));
+		assertEquals(2, (long) currentFileTree.get("file-1-0-2").getVersion());
+
+		// b. Persist database version deleting one of the files
+		PartialFileHistory deletedFileHistory = firstDatabaseVersion.getFileHistories().iterator().next();
+		String deletedPath = deletedFileHistory.getLastVersion().getPath();
+
+		FileVersion deletedFileVersion = deletedFileHistory.getLastVersion().clone();
+		deletedFileVersion.setVersion(3L);
+		deletedFileVersion.setStatus(FileStatus.DELETED);
+		deletedFileVersion.setChecksum(null);
+
+		PartialFileHistory deletedFileHistoryUpdate = new PartialFileHistory(deletedFileHistory.getFileId());
+		deletedFileHistoryUpdate.addFileVersion(deletedFileVersion);
+
+		DatabaseVersion secondDatabaseVersion = new DatabaseVersion();
+		secondDatabaseVersion.setClient("C");
+		secondDatabaseVersion.setTimestamp(new Date(1489977288727L));
+		secondDatabaseVersion.setVectorClock(TestDatabaseUtil.createVectorClock("C2"));
+		secondDatabaseVersion.addFileHistory(deletedFileHistoryUpdate);
+
+		databaseVersionDao.persistDatabaseVersion(secondDatabaseVersion);
+		currentFileTree = fileVersionDao.getCurrentFileTree();
+
+		assertEquals(3, currentFileTree.size());
+		assertNull(currentFileTree.get(deletedPath));
+
+		// c. Mark second database version dirty, file must reappear
+		databaseVersionDao.markDatabaseVersionDirty(secondDatabaseVersion.getVectorClock());
+		currentFileTree = fileVersionDao.getCurrentFileTree();
+
+		assertEquals(4, currentFileTree.size());
+		assertNotNull(currentFileTree.get(deletedPath));
+		assertEquals(2, (long) currentFileTree.get(deletedPath).getVersion());
+
+		// d. Remove dirty database version, current file tree must not change
+		databaseVersionDao.removeDirtyDatabaseVersions();
+		currentFileTree = fileVersionDao.getCurrentFileTree();
+
+		assertEquals(4, currentFileTree.size());
+		assertNotNull(currentFileTree.get(deletedPath));
+		assertEquals(deletedPath, fileHistoryDao.getFileHistoryWithLastVersion(deletedFileHistory.getFileId()).getLastVersion().getPath());
+
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+	
 	@Test
 	public void testGetLocalDatabaseBranch1() throws Exception {
 		// Setup
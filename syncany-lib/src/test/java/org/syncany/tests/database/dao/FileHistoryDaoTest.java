@@ -20,7 +20,10 @@ package org.syncany.tests.database.dao;
 import static org.junit.Assert.*;
 
 import java.sql.Connection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Test;
 import org.syncany.config.Config;
@@ -90,6 +93,56 @@ public class FileHistoryDaoTest {
 		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
 	}	
 	
+	@Test
+	public void testGetFileHistoriesWithLastVersionIterator() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+				
+		// Run
+		TestSqlDatabaseUtil.runSqlFromResource(databaseConnection, "/sql/test.insert.set2.sql"); 
+
+		FileVersionSqlDao fileVersionDao = new FileVersionSqlDao(databaseConnection);
+		FileHistorySqlDao fileHistoryDao = new FileHistorySqlDao(databaseConnection, fileVersionDao);
+		
+		List<PartialFileHistory> fileHistories = fileHistoryDao.getFileHistoriesWithLastVersion();
+		
+		Iterator<PartialFileHistory> fileHistoriesIterator = fileHistoryDao.getFileHistoriesWithLastVersionIterator();
+		Map<FileHistoryId, PartialFileHistory> iteratedFileHistories = new HashMap<FileHistoryId, PartialFileHistory>();
+		
+		while (fileHistoriesIterator.hasNext()) {
+			PartialFileHistory fileHistory = fileHistoriesIterator.next();
+			assertNull(iteratedFileHistories.put(fileHistory.getFileId(), fileHistory));
+		}
+		
+		// Iterating a second time re-uses the (closed) statement
+		Iterator<PartialFileHistory> fileHistoriesWithFileVersionsIterator = fileHistoryDao.getFileHistoriesWithFileVersionsIterator();
+		int fileHistoriesWithFileVersionsCount = 0;
+		
+		while (fileHistoriesWithFileVersionsIterator.hasNext()) {
+			PartialFileHistory fileHistory = fileHistoriesWithFileVersionsIterator.next();
+			
+			assertTrue(iteratedFileHistories.containsKey(fileHistory.getFileId()));
+			fileHistoriesWithFileVersionsCount++;
+		}
+		
+		// Test
+		assertEquals(50, iteratedFileHistories.size());
+		assertEquals(50, fileHistoriesWithFileVersionsCount);
+		
+		for (PartialFileHistory fileHistory : fileHistories) {
+			PartialFileHistory iteratedFileHistory = iteratedFileHistories.get(fileHistory.getFileId());
+			
+			assertNotNull(iteratedFileHistory);
+			assertEquals(1, iteratedFileHistory.getFileVersions().size());
+			assertEquals(fileHistory.getLastVersion(), iteratedFileHistory.getLastVersion());
+		}
+		
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}	
+	
 	@Test
 	public void testGetFileHistoriesWithFileVersionByVectorClock() throws Exception {
 		// Setup
@@ -26,6 +26,8 @@ import java.sql.Connection;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 import org.junit.Test;
@@ -67,6 +69,39 @@ public class FileVersionDaoTest {
 		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
 	}
 	
+	@Test
+	public void testFileVersionGetCurrentFileTreeIterator() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+				
+		// Run
+		TestSqlDatabaseUtil.runSqlFromResource(databaseConnection, "/sql/test.insert.set2.sql");
+
+		FileVersionSqlDao fileVersionDao = new FileVersionSqlDao(databaseConnection);				
+		Map<String, FileVersion> currentFileTree = fileVersionDao.getCurrentFileTree();
+		Iterator<FileVersion> currentFileTreeIterator = fileVersionDao.getCurrentFileTreeIterator();
+		
+		Map<String, FileVersion> iteratedFileTree = new HashMap<String, FileVersion>();
+		
+		while (currentFileTreeIterator.hasNext()) {
+			FileVersion fileVersion = currentFileTreeIterator.next();
+			assertNull(iteratedFileTree.put(fileVersion.getPath(), fileVersion));
+		}
+		
+		// Test
+		assertEquals(50, iteratedFileTree.size());
+		assertEquals(currentFileTree, iteratedFileTree);
+		assertNull(currentFileTreeIterator.next());
+		
+		assertNotNull(iteratedFileTree.get("file1"));
+		assertEquals("fe83f217d464f6fdfa5b2b1f87fe3a1a47371196", iteratedFileTree.get("file1").getChecksum().toString());
+		
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+	
 	@Test
 	public void testFileVersionGetFileTreeAtDate() throws Exception {
 		// Setup
@@ -23,6 +23,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.sql.Connection;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -73,6 +74,49 @@ public class MultiChunkDaoTest {
 		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
 	}
 	
+	@Test
+	public void testGetMultiChunkIdsForChunks() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		// Run
+		TestSqlDatabaseUtil.runSqlFromResource(databaseConnection, "/sql/test.insert.set3.sql");
+
+		MultiChunkSqlDao multiChunkDao = new MultiChunkSqlDao(databaseConnection);
+		
+		List<ChunkChecksum> chunkChecksums = new ArrayList<ChunkChecksum>();
+		
+		chunkChecksums.add(ChunkChecksum.parseChunkChecksum("eba69a8e359ce3258520138a50ed9860127ab6e0"));
+		chunkChecksums.add(ChunkChecksum.parseChunkChecksum("0fecbac8ac8a5f8b7aa12b2741a4ef5db88c5dea"));
+		chunkChecksums.add(ChunkChecksum.parseChunkChecksum("0fecbac8ac8a5f8b7aa12b2741a4ef5db88c5dea")); // Duplicate
+
+		for (int i = 0; i < 250; i++) { // More than one batch
+			chunkChecksums.add(ChunkChecksum.parseChunkChecksum(String.format("beefbeefbeefbeefbeefbeefbeefbeefbeef%04x", i)));
+		}
+		
+		chunkChecksums.add(ChunkChecksum.parseChunkChecksum("38a18897e94a901b833e750e8604d9616a02ca84"));		
+		
+		Map<ChunkChecksum, MultiChunkId> multiChunkIds = multiChunkDao.getMultiChunkIdsForChunks(chunkChecksums);
+		Map<ChunkChecksum, MultiChunkId> multiChunkIdsEmpty = multiChunkDao.getMultiChunkIdsForChunks(new ArrayList<ChunkChecksum>());
+
+		// Test
+		assertNotNull(multiChunkIds);
+		assertEquals(3, multiChunkIds.size());
+		
+		assertEquals("0d79eed3fd8ac866b5872ea3f3f079c46dd15ac9", multiChunkIds.get(ChunkChecksum.parseChunkChecksum("eba69a8e359ce3258520138a50ed9860127ab6e0")).toString());
+		assertEquals("51aaca5c1280b1cf95cff8a3266a6bb44b482ad4", multiChunkIds.get(ChunkChecksum.parseChunkChecksum("0fecbac8ac8a5f8b7aa12b2741a4ef5db88c5dea")).toString());
+		assertEquals("51aaca5c1280b1cf95cff8a3266a6bb44b482ad4", multiChunkIds.get(ChunkChecksum.parseChunkChecksum("38a18897e94a901b833e750e8604d9616a02ca84")).toString());
+		assertNull(multiChunkIds.get(ChunkChecksum.parseChunkChecksum("beefbeefbeefbeefbeefbeefbeefbeefbeef0000")));
+		
+		assertNotNull(multiChunkIdsEmpty);
+		assertEquals(0, multiChunkIdsEmpty.size());
+		
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+	
 	@Test
 	public void testGetMultiChunksByDatabaseVersion1() throws Exception {
 		// Setup
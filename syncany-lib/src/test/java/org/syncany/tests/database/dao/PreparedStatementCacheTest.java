@@ -0,0 +1,194 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.database.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.config.Config;
+import org.syncany.database.dao.PreparedStatementCache;
+import org.syncany.tests.util.TestConfigUtil;
+import org.syncany.tests.util.TestSqlDatabaseUtil;
+
+public class PreparedStatementCacheTest {
+	private static final String TEST_RESOURCE_ID = "/sql/application.select.all.getKnownDatabases.sql";
+	
+	private Config testConfig;
+	private Connection databaseConnection;
+	
+	@Before
+	public void setup() throws Exception {
+		testConfig = TestConfigUtil.createTestLocalConfig();
+		databaseConnection = testConfig.createDatabaseConnection();
+		
+		TestSqlDatabaseUtil.runSqlFromResource(databaseConnection, "/sql/test.insert.set3.sql");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+	
+	@Test
+	public void testStatementReusedAfterClose() throws Exception {
+		PreparedStatementCache statementCache = new PreparedStatementCache(databaseConnection);
+		
+		for (int i = 0; i < 10; i++) {
+			try (PreparedStatement preparedStatement = statementCache.getStatement(TEST_RESOURCE_ID)) {
+				assertEquals(3, countRows(preparedStatement.executeQuery()));
+			}
+		}
+		
+		assertEquals(1, statementCache.getStatementsPrepared());
+		assertEquals(9, statementCache.getStatementsReused());
+		
+		statementCache.close();
+	}
+	
+	@Test
+	public void testStatementForSqlReusedAfterClose() throws Exception {
+		PreparedStatementCache statementCache = new PreparedStatementCache(databaseConnection);
+		String sql = "select * from known_databases where database_name in (?,?)";
+		
+		for (int i = 0; i < 10; i++) {
+			try (PreparedStatement preparedStatement = statementCache.getStatementForSql("knownDatabasesIn#2", sql)) {
+				preparedStatement.setString(1, "db-A-0000000001");
+				preparedStatement.setString(2, "db-B-0000000001");
+				
+				countRows(preparedStatement.executeQuery());
+			}
+		}
+		
+		assertEquals(1, statementCache.getStatementsPrepared());
+		assertEquals(9, statementCache.getStatementsReused());
+		
+		statementCache.close();
+	}
+	
+	@Test
+	public void testNestedUseOfSameStatement() throws Exception {
+		PreparedStatementCache statementCache = new PreparedStatementCache(databaseConnection);
+		
+		try (PreparedStatement outerStatement = statementCache.getStatement(TEST_RESOURCE_ID)) {
+			ResultSet outerResultSet = outerStatement.executeQuery();
+			int outerRows = 0;
+			
+			while (outerResultSet.next()) {
+				try (PreparedStatement innerStatement = statementCache.getStatement(TEST_RESOURCE_ID)) {
+					assertEquals(3, countRows(innerStatement.executeQuery()));
+				}
+				
+				outerRows++;
+			}
+			
+			assertEquals(3, outerRows);
+		}
+		
+		assertEquals(2, statementCache.getStatementsPrepared());
+		statementCache.close();
+	}
+	
+	@Test
+	public void testClosedStatementUnusable() throws Exception {
+		PreparedStatementCache statementCache = new PreparedStatementCache(databaseConnection);
+		
+		PreparedStatement preparedStatement = statementCache.getStatement(TEST_RESOURCE_ID);
+		ResultSet resultSet = preparedStatement.executeQuery();
+		
+		assertFalse(preparedStatement.isClosed());		
+		preparedStatement.close();
+		
+		assertTrue(preparedStatement.isClosed());
+		assertTrue(resultSet.isClosed());
+		
+		try {
+			preparedStatement.executeQuery();
+			fail("Closed statement must not be usable.");
+		}
+		catch (SQLException e) {
+			// Expected
+		}
+		
+		preparedStatement.close(); // Must be idempotent
+		statementCache.close();
+	}
+	
+	@Test
+	public void testStatementStateResetOnReturn() throws Exception {
+		PreparedStatementCache statementCache = new PreparedStatementCache(databaseConnection);
+		
+		try (PreparedStatement preparedStatement = statementCache.getStatement(TEST_RESOURCE_ID)) {
+			preparedStatement.setMaxRows(1);
+			preparedStatement.setFetchSize(100);
+			
+			assertEquals(1, countRows(preparedStatement.executeQuery()));
+		}
+		
+		try (PreparedStatement preparedStatement = statementCache.getStatement(TEST_RESOURCE_ID)) {
+			assertEquals(0, preparedStatement.getMaxRows());
+			assertEquals(0, preparedStatement.getFetchSize());
+			
+			assertEquals(3, countRows(preparedStatement.executeQuery()));
+		}
+		
+		assertEquals(1, statementCache.getStatementsPrepared());
+		statementCache.close();
+	}
+	
+	@Test
+	public void testCloseCache() throws Exception {
+		PreparedStatementCache statementCache = new PreparedStatementCache(databaseConnection);
+		
+		PreparedStatement inUseStatement = statementCache.getStatement(TEST_RESOURCE_ID);
+		statementCache.getStatement(TEST_RESOURCE_ID).close();
+		
+		statementCache.close();
+		
+		// Statements in use can still be closed after the cache was closed
+		inUseStatement.close();
+		
+		try {
+			statementCache.getStatement(TEST_RESOURCE_ID);
+			fail("Closed cache must not hand out statements.");
+		}
+		catch (SQLException e) {
+			// Expected
+		}
+	}
+	
+	private int countRows(ResultSet resultSet) throws SQLException {
+		int rows = 0;
+		
+		while (resultSet.next()) {
+			rows++;
+		}
+		
+		return rows;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.operations;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.MultiChunk;
+import org.syncany.config.Config;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.operations.actions.MultiChunkCache;
+import org.syncany.tests.util.TestConfigUtil;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.FileUtil;
+
+public class MultiChunkCacheTest {
+	private Config config;
+	private List<MultiChunkId> multiChunkIds;
+	private List<byte[]> chunkChecksums;
+
+	@SuppressWarnings("deprecation")
+	@Before
+	public void setUp() throws Exception {
+		config = TestConfigUtil.createTestLocalConfig();
+		multiChunkIds = new ArrayList<MultiChunkId>();
+		chunkChecksums = new ArrayList<byte[]>();
+
+		// Create 5 decrypted multichunks with one chunk each
+		for (int i = 0; i < 5; i++) {
+			File inputFile = TestFileUtil.createRandomFileInDirectory(config.getLocalDir(), 1024);
+			Enumeration<Chunk> chunks = new FixedChunker(4096).createChunks(inputFile);
+			Chunk chunk = chunks.nextElement();
+
+			MultiChunkId multiChunkId = MultiChunkId.secureRandomMultiChunkId();
+			File decryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkId.getRaw());
+
+			MultiChunk multiChunk = config.getMultiChunker().createMultiChunk(multiChunkId.getRaw(), new FileOutputStream(decryptedMultiChunkFile));
+			multiChunk.write(chunk);
+			multiChunk.close();
+
+			multiChunkIds.add(multiChunkId);
+			chunkChecksums.add(chunk.getChecksum());
+		}
+	}
+
+	@After
+	public void tearDown() {
+		TestConfigUtil.deleteTestLocalConfigAndData(config);
+	}
+
+	@Test
+	public void testMultiChunkCacheReusesOpenMultiChunks() throws Exception {
+		MultiChunkCache multiChunkCache = new MultiChunkCache(config, 2);
+
+		MultiChunk firstMultiChunk = multiChunkCache.getMultiChunk(multiChunkIds.get(0));
+		assertSame(firstMultiChunk, multiChunkCache.getMultiChunk(multiChunkIds.get(0)));
+
+		// Read the same chunk multiple times from the cached multichunk
+		for (int i = 0; i < 3; i++) {
+			assertEquals(1024, readChunk(multiChunkCache, 0).length);
+		}
+
+		assertEquals(1, multiChunkCache.getOpenMultiChunkCount());
+		multiChunkCache.close();
+	}
+
+	@Test
+	public void testMultiChunkCacheEvictsLeastRecentlyUsed() throws Exception {
+		MultiChunkCache multiChunkCache = new MultiChunkCache(config, 2);
+
+		MultiChunk firstMultiChunk = multiChunkCache.getMultiChunk(multiChunkIds.get(0));
+		MultiChunk secondMultiChunk = multiChunkCache.getMultiChunk(multiChunkIds.get(1));
+
+		multiChunkCache.getMultiChunk(multiChunkIds.get(0)); // Most recently used
+		multiChunkCache.getMultiChunk(multiChunkIds.get(2)); // Evicts the second
+
+		assertEquals(2, multiChunkCache.getOpenMultiChunkCount());
+		assertSame(firstMultiChunk, multiChunkCache.getMultiChunk(multiChunkIds.get(0)));
+		assertNotSame(secondMultiChunk, multiChunkCache.getMultiChunk(multiChunkIds.get(1)));
+
+		// All multichunks can still be read after evictions
+		for (int i = 0; i < multiChunkIds.size(); i++) {
+			assertEquals(1024, readChunk(multiChunkCache, i).length);
+		}
+
+		assertEquals(2, multiChunkCache.getOpenMultiChunkCount());
+
+		multiChunkCache.close();
+		assertEquals(0, multiChunkCache.getOpenMultiChunkCount());
+	}
+
+	private byte[] readChunk(MultiChunkCache multiChunkCache, int index) throws Exception {
+		MultiChunk multiChunk = multiChunkCache.getMultiChunk(multiChunkIds.get(index));
+		InputStream chunkInputStream = multiChunk.getChunkInputStream(chunkChecksums.get(index));
+
+		ByteArrayOutputStream chunkOutputStream = new ByteArrayOutputStream();
+		FileUtil.appendToOutputStream(chunkInputStream, chunkOutputStream);
+
+		byte[] chunkContent = chunkOutputStream.toByteArray();
+		assertArrayEquals(chunkChecksums.get(index), MessageDigest.getInstance("SHA1").digest(chunkContent));
+
+		return chunkContent;
+	}
+}
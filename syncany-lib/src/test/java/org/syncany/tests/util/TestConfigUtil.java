@@ -204,6 +204,8 @@ public class TestConfigUtil {
 	}
 
 	public static void deleteTestLocalConfigAndData(Config config) {
+		config.closeDatabaseConnection();
+
 		TestFileUtil.deleteDirectory(config.getLocalDir());
 		TestFileUtil.deleteDirectory(config.getCacheDir());
 		TestFileUtil.deleteDirectory(config.getDatabaseDir());
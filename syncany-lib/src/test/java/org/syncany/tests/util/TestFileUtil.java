@@ -291,6 +291,43 @@ public class TestFileUtil {
 	public static byte[] createRandomArray(int size) {
 		return createArray(size, randomGen);
 	}	
+	
+	/**
+	 * Creates text-like data from a small vocabulary of words.
+	 */
+	public static byte[] createTextArray(int size, Random random) {
+		String[] words = new String[] { "the", "multichunk", "chunk", "file", "syncany", "database", "version", 
+			"of", "and", "a", "to", "in", "is", "folder", "remote", "local", "\n" };
+		
+		StringBuilder text = new StringBuilder(size + 16);
+		
+		while (text.length() < size) {
+			text.append(words[random.nextInt(words.length)]).append(' ');
+		}
+		
+		byte[] textData = new byte[size];
+		System.arraycopy(text.toString().getBytes(), 0, textData, 0, size);
+		
+		return textData;
+	}
+	
+	/**
+	 * Creates a mixed corpus: two thirds incompressible (random, like JPEG/MP4/ZIP content)
+	 * and one third text, in runs of 256 KB.
+	 */
+	public static byte[] createMixedArray(int size, Random random) {
+		byte[] mixedData = new byte[size];
+		int runSize = 256*1024;
+		
+		for (int offset = 0, run = 0; offset < size; offset += runSize, run++) {
+			int length = Math.min(runSize, size - offset);
+			byte[] runData = (run % 3 == 2) ? createTextArray(length, random) : createArray(length, random);
+			
+			System.arraycopy(runData, 0, mixedData, offset, length);
+		}
+		
+		return mixedData;
+	}
 
 	public static byte[] createChecksum(File file) throws Exception {
 		return FileUtil.createChecksum(file, "SHA1");
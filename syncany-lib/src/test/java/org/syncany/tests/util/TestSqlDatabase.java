@@ -64,7 +64,7 @@ public class TestSqlDatabase extends SqlDatabase {
 	
 				while (resultSet.next()) {
 					if (fileHistory == null) {
-						FileHistoryId fileHistoryId = FileHistoryId.parseFileId(resultSet.getString("filehistory_id"));
+						FileHistoryId fileHistoryId = new FileHistoryId(resultSet.getBytes("filehistory_id"));
 						fileHistory = new PartialFileHistory(fileHistoryId);
 					}
 	
@@ -56,6 +56,13 @@ public class TestSqlDatabaseUtil {
 	}
 
 	public static void runSqlFromResource(Connection connection, String resourceSqlScript) throws SQLException {
+		runSqlScript(connection, resourceSqlScript);
+		
+		// Test scripts insert file versions directly; the current file versions must be rebuilt
+		runSqlScript(connection, DatabaseConnectionFactory.DATABASE_REBUILD_CURRENT_SCRIPT_RESOURCE);
+	}
+
+	private static void runSqlScript(Connection connection, String resourceSqlScript) throws SQLException {
 		InputStream inputStream = DatabaseConnectionFactory.class.getResourceAsStream(resourceSqlScript);
 
 		if (inputStream == null) {
@@ -237,7 +237,11 @@ public class FileUtil {
 	}
 
 	public static void appendToOutputStream(InputStream inputStream, OutputStream outputStream) throws IOException {
-		byte[] buf = new byte[4096];
+		appendToOutputStream(inputStream, outputStream, 4096);
+	}
+
+	public static void appendToOutputStream(InputStream inputStream, OutputStream outputStream, int bufferSize) throws IOException {
+		byte[] buf = new byte[bufferSize];
 
 		int len;
 		while ((len = inputStream.read(buf)) > 0) {
@@ -250,7 +254,7 @@ public class FileUtil {
 	public static byte[] createChecksum(File filename, String digestAlgorithm) throws Exception {
 		FileInputStream fis = new FileInputStream(filename);
 
-		byte[] buffer = new byte[1024];
+		byte[] buffer = new byte[64*1024];
 		MessageDigest complete = MessageDigest.getInstance(digestAlgorithm);
 		int numRead;
 